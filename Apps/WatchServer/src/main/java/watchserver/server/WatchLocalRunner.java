@@ -23,55 +23,93 @@
  */
 package watchserver.server;
 
-import org.apache.commons.vfs2.FileObject;
-import org.apache.commons.vfs2.FileSystem;
-import org.apache.commons.vfs2.FileSystemException;
-import org.apache.commons.vfs2.FileSystemManager;
-import org.apache.commons.vfs2.FileSystemOptions;
-import org.apache.commons.vfs2.VFS;
-import org.apache.commons.vfs2.impl.DefaultFileMonitor;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.log4j.Logger;
 
-import watchserver.util.FTPConfig;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import watchserver.util.EventType;
 import watchserver.util.LocalConfig;
 import watchserver.util.WatchEventListener;
 
+/**
+ * Watches a local folder using the operating system's file notifications (java.nio WatchService) rather than by polling every file in it.
+ * 
+ * Events for a file are held until it has been left alone for debounceMillis, so a file being written produces one CREATE (or MODIFY) once the
+ * writer is done rather than one event per write. If the notifications overflow the folder is rescanned and compared with what was last seen.
+ * Actions are run on a bounded pool of workers; when they fall behind, the watcher runs actions itself rather than queueing without limit.
+ */
 public class WatchLocalRunner implements Runnable {
     private volatile Thread thread;
     private static Logger log = Logger.getLogger(WatchLocalRunner.class);
-    private FileSystemManager fsManager;
-    private FileSystem fs;
-    private DefaultFileMonitor fm;
-    private FileObject resolvedAbsPath;
-    private FileSystemOptions opts = new FileSystemOptions();
+    private static final long IDLE_POLL_MILLIS = 1000;
+    private static final int QUEUED_ACTIONS_PER_WORKER = 100;
+
+    private final LocalConfig config;
+    private final Path root;
     private WatchEventListener listener;
-    private LocalConfig config;
-    
+    private WatchService watchService;
+    private ThreadPoolExecutor workers;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    // last modified time of every file being watched, to work out what changed after an overflow
+    private final Map<Path, Long> known = new HashMap<>();
+    private final LinkedHashMap<Path, Pending> pending = new LinkedHashMap<>();
+
     public WatchLocalRunner(LocalConfig config) {
+        this(config, null);
+    }
+
+    WatchLocalRunner(LocalConfig config, WatchEventListener listener) {
         this.config = config;
-        try { 
-            fsManager = VFS.getManager();
-            resolvedAbsPath = fsManager.resolveFile(config.getFolder(), opts);
-            fs = resolvedAbsPath.getFileSystem();
-            log.info("Connection successfully established to " + resolvedAbsPath.getName().getPath());
-            
-        } catch (FileSystemException e) {
-            log.error("File system exception for " + config.getFolder(), e);
-            //throw here?
-        }
+        this.root = Paths.get(config.getFolder()).toAbsolutePath();
+        this.listener = listener;
     }
 
     /**
      * Start a worker thread to listen for directory changes.
      */
     public void startThread() {
-        thread = new Thread(this);
-        listener = new WatchEventListener(config.getEvents(), config.getFolder());
-        fm = new DefaultFileMonitor(listener);
-        fm.setRecursive(false); 
-        fm.addFile(resolvedAbsPath);
-        fm.start();
-        log.debug("Monitoring directory: " + resolvedAbsPath.toString());
+        if (listener == null) {
+            listener = new WatchEventListener(config.getEvents(), config.getFolder());
+        }
+        int workerCount = Math.max(1, config.getWorkers());
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(workerCount * QUEUED_ACTIONS_PER_WORKER),
+                new ThreadFactoryBuilder().setNameFormat("WatchLocalRunner-" + root.getFileName() + "-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            register(root, false);
+        } catch (IOException e) {
+            log.error("Unable to watch " + root, e);
+            return;
+        }
+        thread = new Thread(this, "WatchLocalRunner-" + root.getFileName());
+        thread.setDaemon(true);
+        log.debug("Monitoring directory: " + root);
         thread.start();
     }
 
@@ -84,16 +122,207 @@ public class WatchLocalRunner implements Runnable {
             thread = null;
             runningThread.interrupt();
         }
+        if (workers != null) {
+            workers.shutdown();
+        }
     }
 
     @Override
     public void run() {
-        while(true){
+        try {
+            while (thread == Thread.currentThread()) {
+                WatchKey key = watchService.poll(waitMillis(), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    processEvents(key);
+                    key = watchService.poll();
+                }
+                fireDue(System.currentTimeMillis());
+            }
+        } catch (InterruptedException e) {
+            log.debug("Stopped watching " + root);
+        } catch (RuntimeException e) {
+            log.error("Watching " + root + " failed", e);
+        } finally {
             try {
-                Thread.sleep(2000);
-            } catch (InterruptedException e) {
-               log.error("Interrupted Exception for Thread",e);
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Unable to close watch service for " + root, e);
+            }
+        }
+    }
+
+    private long waitMillis() {
+        if (pending.isEmpty()) {
+            return IDLE_POLL_MILLIS;
+        }
+        long nextDue = Long.MAX_VALUE;
+        for (Pending p : pending.values()) {
+            nextDue = Math.min(nextDue, p.due);
+        }
+        return Math.max(1, Math.min(IDLE_POLL_MILLIS, nextDue - System.currentTimeMillis()));
+    }
+
+    private void processEvents(WatchKey key) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                log.warn("Missed events for " + root + ", rescanning");
+                rescan();
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_DELETE) {
+                if (known.remove(child) != null) {
+                    queue(child, EventType.DELETE);
+                }
+            } else if (Files.isDirectory(child)) {
+                if (event.kind() == ENTRY_CREATE && config.isRecursive()) {
+                    // anything written before the folder was registered has no events of its own
+                    try {
+                        register(child, true);
+                    } catch (IOException e) {
+                        log.error("Unable to watch " + child, e);
+                    }
+                }
+            } else {
+                Long before = known.put(child, lastModified(child));
+                queue(child, (event.kind() == ENTRY_CREATE || before == null) ? EventType.CREATE : EventType.MODIFY);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Watch the folder (and, if recursive, those below it), noting the files already there
+     * 
+     * @param announce
+     *            whether the files found are new, and so need CREATE events
+     */
+    private void register(Path dir, boolean announce) throws IOException {
+        keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                if (Files.isDirectory(child)) {
+                    if (config.isRecursive()) register(child, announce);
+                } else if (known.put(child, lastModified(child)) == null && announce) {
+                    queue(child, EventType.CREATE);
+                }
             }
         }
     }
+
+    /**
+     * Work out what happened while events were being lost, by comparing the folder with what was last seen
+     */
+    private void rescan() {
+        Set<Path> seen = new HashSet<>();
+        try {
+            rescan(root, seen);
+        } catch (IOException e) {
+            log.error("Unable to rescan " + root, e);
+            return;
+        }
+        Iterator<Path> it = known.keySet().iterator();
+        while (it.hasNext()) {
+            Path path = it.next();
+            if (!seen.contains(path)) {
+                it.remove();
+                queue(path, EventType.DELETE);
+            }
+        }
+    }
+
+    private void rescan(Path dir, Set<Path> seen) throws IOException {
+        if (!keys.containsValue(dir)) {
+            keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+        }
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                if (Files.isDirectory(child)) {
+                    if (config.isRecursive()) rescan(child, seen);
+                    continue;
+                }
+                seen.add(child);
+                long modified = lastModified(child);
+                Long before = known.put(child, modified);
+                if (before == null) {
+                    queue(child, EventType.CREATE);
+                } else if (before != modified) {
+                    queue(child, EventType.MODIFY);
+                }
+            }
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            // gone already, its delete event will follow
+            return 0L;
+        }
+    }
+
+    /**
+     * Hold the event until the file has been left alone for a while, merging it with any event already waiting for the file
+     */
+    private void queue(Path path, EventType type) {
+        Pending p = pending.remove(path);
+        if (p == null) {
+            p = new Pending(type);
+        } else if (p.type == EventType.CREATE && type == EventType.DELETE) {
+            // came and went before anything was done about it
+            return;
+        } else if (p.type == EventType.CREATE && type == EventType.MODIFY) {
+            // still a new file
+        } else if (p.type == EventType.DELETE && type == EventType.CREATE) {
+            p.type = EventType.MODIFY;
+        } else {
+            p.type = type;
+        }
+        p.due = System.currentTimeMillis() + config.getDebounceMillis();
+        // re-inserted, so pending stays in the order files were last touched
+        pending.put(path, p);
+    }
+
+    private void fireDue(long now) {
+        Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Pending> entry = it.next();
+            if (entry.getValue().due > now) {
+                // entries are in the order they were last touched, so none after this are due either
+                break;
+            }
+            it.remove();
+            fire(entry.getKey(), entry.getValue().type);
+        }
+    }
+
+    private void fire(final Path path, final EventType type) {
+        log.info("file " + type.toString().toLowerCase() + " : " + path);
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.callRaptureAction(type, path.toUri().toString());
+                } catch (RuntimeException e) {
+                    log.error("Failed to run " + type + " action for " + path, e);
+                }
+            }
+        });
+    }
+
+    private static class Pending {
+        private EventType type;
+        private long due;
+
+        Pending(EventType type) {
+            this.type = type;
+        }
+    }
 }
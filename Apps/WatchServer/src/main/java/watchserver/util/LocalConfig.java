@@ -41,7 +41,10 @@ import java.nio.file.Paths;
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @JsonPropertyOrder({
     "folder",
-    "events"
+    "events",
+    "recursive",
+    "debounceMillis",
+    "workers"
 })
 public class LocalConfig {
     private SourceType sourceType;
@@ -49,6 +52,12 @@ public class LocalConfig {
     private String folder;
     @JsonProperty("events")
     private List<Event> events = null;
+    @JsonProperty("recursive")
+    private boolean recursive = false;
+    @JsonProperty("debounceMillis")
+    private long debounceMillis = 500;
+    @JsonProperty("workers")
+    private int workers = 4;
 
     /**
      * No args constructor for use in serialization
@@ -124,6 +133,51 @@ public class LocalConfig {
         return this;
     }
 
+    /**
+     * 
+     * @return
+     *     Whether folders below the folder are watched too
+     */
+    @JsonProperty("recursive")
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    @JsonProperty("recursive")
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    /**
+     * 
+     * @return
+     *     How long a file must be left alone before its event is acted on
+     */
+    @JsonProperty("debounceMillis")
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    @JsonProperty("debounceMillis")
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * 
+     * @return
+     *     The most actions run at once for this folder
+     */
+    @JsonProperty("workers")
+    public int getWorkers() {
+        return workers;
+    }
+
+    @JsonProperty("workers")
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this);
@@ -71,12 +71,22 @@ public class WatchEventListener implements FileListener {
     }
     
     private void callRaptureAction(EventType et, FileChangeEvent fe){
+        callRaptureAction(et, fe.getFile().getName().toString());
+    }
+
+    /**
+     * Run the action configured for this event, passing it the file
+     * 
+     * @param fileUri
+     *            the file, as a URI (e.g. file:///test/prices.xlsx)
+     */
+    public void callRaptureAction(EventType et, String fileUri){
         String actionForEvent = getActionForEvent(et);
         
         if (!actionForEvent.isEmpty()) {
             //get the action type
             Scheme scheme = new RaptureURI(actionForEvent).getScheme();
-            ImmutableMap<String, String> params = ImmutableMap.of("filetoprocess", fe.getFile().getName().toString());
+            ImmutableMap<String, String> params = ImmutableMap.of("filetoprocess", fileUri);
             
             switch (scheme){
                 case SCRIPT:
@@ -88,7 +98,7 @@ public class WatchEventListener implements FileListener {
                     log.info("Started workorder: " + createWorkOrder + " with params: " + params.toString());
                     break;
                 default:
-                    log.error(scheme + " is not supported for " + folder + FilenameUtils.getName(fe.getFile().getName().getBaseName()));
+                    log.error(scheme + " is not supported for " + fileUri);
                     break;
             }
         } else {
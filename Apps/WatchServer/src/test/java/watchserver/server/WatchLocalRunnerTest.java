@@ -0,0 +1,141 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package watchserver.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import watchserver.util.Event;
+import watchserver.util.EventType;
+import watchserver.util.LocalConfig;
+import watchserver.util.WatchEventListener;
+
+public class WatchLocalRunnerTest {
+    private Path folder;
+    private WatchLocalRunner runner;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("WatchLocalRunnerTest");
+        Files.write(folder.resolve("existing.csv"), "old".getBytes(StandardCharsets.UTF_8));
+        LocalConfig config = new LocalConfig();
+        config.setFolder(folder.toString());
+        config.setEvents(Collections.<Event> emptyList());
+        config.setRecursive(true);
+        config.setDebounceMillis(200);
+        listener = new RecordingListener(folder.toString());
+        runner = new WatchLocalRunner(config, listener);
+        runner.startThread();
+    }
+
+    @After
+    public void tearDown() {
+        runner.stopThread();
+    }
+
+    @Test
+    public void testWritesAreCoalesced() throws Exception {
+        Path file = folder.resolve("prices.csv");
+        for (int i = 0; i < 20; i++) {
+            Files.write(file, ("line" + i + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        waitFor(1);
+        assertEquals("CREATE " + file.toUri(), listener.get(0));
+
+        Files.write(folder.resolve("existing.csv"), "new".getBytes(StandardCharsets.UTF_8));
+        waitFor(2);
+        assertEquals("MODIFY " + folder.resolve("existing.csv").toUri(), listener.get(1));
+
+        Files.delete(file);
+        waitFor(3);
+        assertEquals("DELETE " + file.toUri(), listener.get(2));
+
+        // nothing else turns up
+        Thread.sleep(500);
+        assertEquals(3, listener.size());
+    }
+
+    @Test
+    public void testNewFoldersAreWatched() throws Exception {
+        Path sub = Files.createDirectory(folder.resolve("sub"));
+        Path file = sub.resolve("late.csv");
+        Files.write(file, "x".getBytes(StandardCharsets.UTF_8));
+        waitFor(1);
+        assertEquals("CREATE " + file.toUri(), listener.get(0));
+
+        // a file that comes and goes within the quiet period is never reported
+        Path brief = folder.resolve("brief.tmp");
+        Files.write(brief, "x".getBytes(StandardCharsets.UTF_8));
+        Files.delete(brief);
+        Thread.sleep(600);
+        assertEquals(1, listener.size());
+    }
+
+    private void waitFor(int count) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 10000;
+        while (listener.size() < count && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, listener.size());
+    }
+
+    private static class RecordingListener extends WatchEventListener {
+        private final List<String> actions = new ArrayList<>();
+
+        RecordingListener(String folder) {
+            super(Collections.<Event> emptyList(), folder);
+        }
+
+        @Override
+        public void callRaptureAction(EventType et, String fileUri) {
+            synchronized (actions) {
+                actions.add(et + " " + fileUri);
+            }
+        }
+
+        String get(int i) {
+            synchronized (actions) {
+                return actions.get(i);
+            }
+        }
+
+        int size() {
+            synchronized (actions) {
+                return actions.size();
+            }
+        }
+    }
+}
@@ -23,30 +23,125 @@
  */
 package rapture.repo;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
 import rapture.common.LockHandle;
 import rapture.lock.ILockingHandler;
 import rapture.util.IDGenerator;
 
 /**
+ * Takes the locks that protect writes to a repo. How fine grained they are depends on the lockMode in the repo config:
+ * <ul>
+ * <li>repo (the default) - one lock for the whole repo</li>
+ * <li>striped - each document is locked on its own, by hashing its path to one of lockStripes (default 64) locks; operations on the whole
+ * repo or on a folder take every stripe</li>
+ * <li>optimistic - like striped, but repos that can do so first try to write a document without a lock, using the document version as a
+ * compare-and-set (see {@link #isOptimistic()})</li>
+ * </ul>
+ *
  * @author bardhi
  * @since 5/11/15.
  */
 public class RepoLockHandler {
+    private static final Logger log = Logger.getLogger(RepoLockHandler.class);
+
     protected static final int SECONDS_TO_HOLD = 5;
     protected static final int SECONDS_TO_WAIT = 5;
 
+    public static final String LOCK_MODE = "lockMode";
+    public static final String LOCK_STRIPES = "lockStripes";
+    private static final int DEFAULT_STRIPES = 64;
+
+    public enum LockMode {
+        REPO, STRIPED, OPTIMISTIC
+    }
+
     private boolean lockIsDummy;
     private final ILockingHandler lockHandler;
     private final String lockName;
+    private final LockMode lockMode;
+    private final int stripes;
+    // the stripe handles behind each whole-repo handle, when striping
+    private final Map<LockHandle, List<LockHandle>> stripeHandles = Collections.synchronizedMap(new IdentityHashMap<LockHandle, List<LockHandle>>());
 
     public RepoLockHandler(boolean lockIsDummy, ILockingHandler lockHandler, String storeId) {
+        this(lockIsDummy, lockHandler, storeId, null);
+    }
+
+    public RepoLockHandler(boolean lockIsDummy, ILockingHandler lockHandler, String storeId, Map<String, String> config) {
         this.lockIsDummy = lockIsDummy;
         this.lockHandler = lockHandler;
         this.lockName = storeId;
+        this.lockMode = getLockMode(config);
+        this.stripes = getStripes(config);
+    }
+
+    private static LockMode getLockMode(Map<String, String> config) {
+        String mode = (config == null) ? null : config.get(LOCK_MODE);
+        if (mode != null) {
+            try {
+                return LockMode.valueOf(mode.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.error("Illegal " + LOCK_MODE + " " + mode + " - ignored");
+            }
+        }
+        return LockMode.REPO;
     }
 
+    private static int getStripes(Map<String, String> config) {
+        String value = (config == null) ? null : config.get(LOCK_STRIPES);
+        if (value != null) {
+            try {
+                int ret = Integer.parseInt(value);
+                if (ret > 0) return ret;
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            log.error("Illegal " + LOCK_STRIPES + " " + value + " - ignored");
+        }
+        return DEFAULT_STRIPES;
+    }
+
+    public LockMode getLockMode() {
+        return lockMode;
+    }
+
+    /**
+     * @return true if documents should first be written without a lock, falling back to {@link #acquireDocumentLock(String, String)} if the
+     *         optimistic write cannot be used or keeps losing to other writers
+     */
+    public boolean isOptimistic() {
+        return lockMode == LockMode.OPTIMISTIC;
+    }
+
+    /**
+     * Lock the whole repo
+     */
     public LockHandle acquireLock(String lockHolder) {
-        return lockHandler.acquireLock(lockHolder, lockName, SECONDS_TO_WAIT, SECONDS_TO_HOLD);
+        if (lockMode == LockMode.REPO) {
+            return lockHandler.acquireLock(lockHolder, lockName, SECONDS_TO_WAIT, SECONDS_TO_HOLD);
+        }
+        // Always in the same order, so two of these cannot deadlock, and document locks only ever hold one stripe
+        List<LockHandle> handles = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            LockHandle handle = lockHandler.acquireLock(lockHolder, stripeName(i), SECONDS_TO_WAIT, SECONDS_TO_HOLD);
+            if (handle == null) {
+                releaseStripes(lockHolder, handles);
+                return null;
+            }
+            handles.add(handle);
+        }
+        LockHandle repoHandle = new LockHandle();
+        repoHandle.setLockName(lockName);
+        repoHandle.setLockHolder(lockHolder);
+        stripeHandles.put(repoHandle, handles);
+        return repoHandle;
     }
 
     public String generateLockHolder() {
@@ -54,9 +149,27 @@ public class RepoLockHandler {
     }
 
     public Boolean releaseLock(String lockHolder, LockHandle lockHandle) {
-        return lockHandler.releaseLock(lockHolder, lockName, lockHandle);
+        if (lockMode == LockMode.REPO) {
+            return lockHandler.releaseLock(lockHolder, lockName, lockHandle);
+        }
+        List<LockHandle> handles = stripeHandles.remove(lockHandle);
+        if (handles == null) {
+            return false;
+        }
+        return releaseStripes(lockHolder, handles);
     }
 
+    private boolean releaseStripes(String lockHolder, List<LockHandle> handles) {
+        boolean released = true;
+        for (int i = handles.size() - 1; i >= 0; i--) {
+            released &= lockHandler.releaseLock(lockHolder, stripeName(i), handles.get(i));
+        }
+        return released;
+    }
+
+    /**
+     * Lock a folder. A folder may hold any document, so this locks the whole repo.
+     */
     public LockHandle acquireLock(String lockHolder, String folderPath) {
         return this.acquireLock(lockHolder);
     }
@@ -64,4 +177,32 @@ public class RepoLockHandler {
     public Boolean releaseLock(String lockHolder, LockHandle lockHandle, String folderPath) {
         return releaseLock(lockHolder, lockHandle);
     }
+
+    /**
+     * Lock a single document. Unless striping, this locks the whole repo.
+     */
+    public LockHandle acquireDocumentLock(String lockHolder, String docPath) {
+        if (lockMode == LockMode.REPO) {
+            return acquireLock(lockHolder);
+        }
+        return lockHandler.acquireLock(lockHolder, stripeName(stripeFor(docPath)), SECONDS_TO_WAIT, SECONDS_TO_HOLD);
+    }
+
+    public Boolean releaseDocumentLock(String lockHolder, LockHandle lockHandle, String docPath) {
+        if (lockMode == LockMode.REPO) {
+            return releaseLock(lockHolder, lockHandle);
+        }
+        return lockHandler.releaseLock(lockHolder, stripeName(stripeFor(docPath)), lockHandle);
+    }
+
+    private int stripeFor(String docPath) {
+        // FileDataStore paths may carry a #element suffix, which is not part of the document's identity
+        int index = docPath.lastIndexOf('#');
+        String path = (index > 0) ? docPath.substring(0, index) : docPath;
+        return (path.hashCode() & Integer.MAX_VALUE) % stripes;
+    }
+
+    private String stripeName(int stripe) {
+        return lockName + "/" + stripe;
+    }
 }
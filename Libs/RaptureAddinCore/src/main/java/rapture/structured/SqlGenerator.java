@@ -43,6 +43,17 @@ public interface SqlGenerator {
 
     String constructUpdatePreparedStatement(String schema, String tableName, List<String> columnNames, String where);
 
+    /**
+     * A single-row insert that instead updates the existing row if one has the same values in the key columns, or null if the database has no
+     * such statement
+     */
+    String constructUpsertPreparedStatement(String schema, String table, List<String> columnNames, List<String> keyColumns);
+
+    /**
+     * A statement that loads rows, as CSV with the given columns, from standard input, or null if the database has no bulk load of its own
+     */
+    String constructCopyIn(String schema, String table, List<String> columnNames);
+
     String constructCreateSchema(String schema);
 
     String constructDropSchema(String schema);
@@ -93,6 +93,16 @@ public abstract class StandardSqlGenerator implements SqlGenerator {
         return s;
     }
 
+    @Override
+    public String constructUpsertPreparedStatement(String schema, String table, List<String> columnNames, List<String> keyColumns) {
+        return null;
+    }
+
+    @Override
+    public String constructCopyIn(String schema, String table, List<String> columnNames) {
+        return null;
+    }
+
     @Override
     public String constructUpdatePreparedStatement(String schema, String table, List<String> columnNames, String where) {
         String ret = String.format("UPDATE %s SET %s", getSafeFullName(schema, table), getPreparedStatement(columnNames));
@@ -321,7 +331,7 @@ public abstract class StandardSqlGenerator implements SqlGenerator {
         return StringUtils.join(pstmts, ",");
     }
 
-    private String getPreparedStatementQuestionMarks(int rows, int num) {
+    protected String getPreparedStatementQuestionMarks(int rows, int num) {
         return StringUtils.join(Collections.nCopies(rows, String.format("(%s)", StringUtils.join(Collections.nCopies(num, "?"), ","))), ",");
     }
 
@@ -23,6 +23,7 @@
  */
 package rapture.structured;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -84,6 +85,15 @@ public interface StructuredStore {
 
     Boolean insertRows(String tableName, List<? extends Map<String, ?>> values);
 
+    Boolean upsertRows(String tableName, List<? extends Map<String, ?>> values, List<String> keyColumns);
+
+    /**
+     * Insert every row the iterator returns, without holding them all in memory at once
+     *
+     * @return the number of rows inserted
+     */
+    Long loadRows(String tableName, Iterator<? extends Map<String, ?>> rows);
+
     Boolean deleteUsingSql(CallingContext context, String sql);
 
     Boolean deleteRows(String tableName, String where);
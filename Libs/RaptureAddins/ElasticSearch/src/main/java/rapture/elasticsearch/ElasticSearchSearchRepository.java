@@ -31,6 +31,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,8 @@ import org.apache.tika.parser.pdf.PDFParser;
 import org.elasticsearch.action.ActionFuture;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
@@ -117,22 +120,48 @@ public class ElasticSearchSearchRepository implements SearchRepository {
     @SuppressWarnings("rawtypes")
     @Override
     public void put(AbstractUpdateObject updateObject) {
+        bulkUpdate(Collections.<RaptureURI> emptyList(), Collections.singletonList(updateObject));
+    }
+
+    /**
+     * Send all the updates to ElasticSearch in a single bulk request, rather than one request per entry
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void bulkUpdate(List<RaptureURI> removes, List<AbstractUpdateObject> puts) {
+        BulkRequestBuilder bulk = ensureClient().prepareBulk();
+        for (RaptureURI uri : removes) {
+            addRemove(bulk, uri);
+        }
+        for (AbstractUpdateObject updateObject : puts) {
+            addPut(bulk, updateObject);
+        }
+        if (bulk.numberOfActions() == 0) {
+            return;
+        }
+        BulkResponse response = bulk.get();
+        if (response.hasFailures()) {
+            log.error("Failed to index some search entries: " + response.buildFailureMessage());
+            throw RaptureExceptionFactory.create("Failed to index search entries " + response.buildFailureMessage());
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void addPut(BulkRequestBuilder bulk, AbstractUpdateObject updateObject) {
         RaptureURI uri = updateObject.getUri();
         log.info("URI for indexing is " + uri.toString());
-        putUriStore(uri);
+        addUriStore(bulk, uri);
 
         if (updateObject instanceof DocUpdateObject) {
             DocumentWithMeta docMeta = ((DocUpdateObject) updateObject).getPayload();
-            ensureClient().prepareIndex(index, uri.getScheme().toString(), uri.toString()).setSource(docMeta.getContent()).get();
+            bulk.add(ensureClient().prepareIndex(index, uri.getScheme().toString(), uri.toString()).setSource(docMeta.getContent()));
             String meta = JacksonUtil.jsonFromObject(docMeta.getMetaData());
-            ensureClient().prepareIndex(index, SearchRepoType.meta.toString(), uri.toString()).setSource(meta).get();
+            bulk.add(ensureClient().prepareIndex(index, SearchRepoType.meta.toString(), uri.toString()).setSource(meta));
         } else if (updateObject instanceof SeriesUpdateObject) {
             Map<String, String> map = ((SeriesUpdateObject) updateObject).asStringMap();
             if (!map.isEmpty()) {
-                synchronized (client) {
-                    ensureClient().prepareUpdate(index, uri.getScheme().toString(), uri.toString()).setDoc(map).setUpsert(map)
-                            .setRetryOnConflict(DEFAULT_RETRY_ON_CONFLICT).get();
-                }
+                bulk.add(ensureClient().prepareUpdate(index, uri.getScheme().toString(), uri.toString()).setDoc(map).setUpsert(map)
+                        .setRetryOnConflict(DEFAULT_RETRY_ON_CONFLICT));
             }
         } else if (updateObject instanceof BlobUpdateObject) {
             BlobContainer content = ((BlobUpdateObject) updateObject).getPayload();
@@ -162,7 +191,7 @@ public class ElasticSearchSearchRepository implements SearchRepository {
             } else {
                 try {
                     XContentBuilder source = jsonBuilder().startObject().field("blob", new String(content.getContent())).endObject();
-                    ensureClient().prepareIndex(index, Scheme.BLOB.toString(), uri.toString()).setSource(source).get();
+                    bulk.add(ensureClient().prepareIndex(index, Scheme.BLOB.toString(), uri.toString()).setSource(source));
                 } catch (IOException ioe) {
                     log.error("Cannot index CSV " + ioe.getMessage());
                     log.debug(ExceptionToString.format(ioe));
@@ -178,7 +207,7 @@ public class ElasticSearchSearchRepository implements SearchRepository {
                     }
                 }
                 source.field("mimetype", updateObject.getMimeType()).endObject();
-                ensureClient().prepareIndex(index, SearchRepoType.meta.toString(), uri.toString()).setSource(source).get();
+                bulk.add(ensureClient().prepareIndex(index, SearchRepoType.meta.toString(), uri.toString()).setSource(source));
             } catch (IOException ioe) {
                 log.error("Cannot index blob metadata " + ioe.getMessage());
                 log.debug(ExceptionToString.format(ioe));
@@ -189,12 +218,12 @@ public class ElasticSearchSearchRepository implements SearchRepository {
         }
     }
 
-    private void putUriStore(RaptureURI uri) {
+    private void addUriStore(BulkRequestBuilder bulk, RaptureURI uri) {
         SimpleURI uriStore = new SimpleURI();
         uriStore.setParts(Arrays.asList(uri.getDocPath().split("/")));
         uriStore.setRepo(uri.getAuthority());
         uriStore.setScheme(uri.getScheme().toString());
-        ensureClient().prepareIndex(index, SearchRepoType.uri.toString(), uri.toString()).setSource(JacksonUtil.jsonFromObject(uriStore)).get();
+        bulk.add(ensureClient().prepareIndex(index, SearchRepoType.uri.toString(), uri.toString()).setSource(JacksonUtil.jsonFromObject(uriStore)));
     }
 
     /**
@@ -202,11 +231,15 @@ public class ElasticSearchSearchRepository implements SearchRepository {
      */
     @Override
     public void remove(RaptureURI uri) {
+        bulkUpdate(Collections.singletonList(uri), Collections.<AbstractUpdateObject> emptyList());
+    }
+
+    private void addRemove(BulkRequestBuilder bulk, RaptureURI uri) {
         // delete from everywhere. it won't error if it's not there
         String id = uri.toString();
-        ensureClient().prepareDelete(index, uri.getScheme().toString(), id).get();
-        ensureClient().prepareDelete(index, SearchRepoType.meta.toString(), id).get();
-        ensureClient().prepareDelete(index, SearchRepoType.uri.toString(), id).get();
+        bulk.add(ensureClient().prepareDelete(index, uri.getScheme().toString(), id));
+        bulk.add(ensureClient().prepareDelete(index, SearchRepoType.meta.toString(), id));
+        bulk.add(ensureClient().prepareDelete(index, SearchRepoType.uri.toString(), id));
     }
 
     @Override
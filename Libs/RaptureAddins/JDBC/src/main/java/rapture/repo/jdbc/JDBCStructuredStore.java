@@ -12,26 +12,36 @@
  */
 package rapture.repo.jdbc;
 
+import java.net.HttpURLConnection;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.SqlInOutParameter;
@@ -42,17 +52,13 @@ import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcCall;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 
 import net.sf.jsqlparser.JSQLParserException;
-import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.create.table.CreateTable;
-import net.sf.jsqlparser.statement.delete.Delete;
-import net.sf.jsqlparser.statement.insert.Insert;
-import net.sf.jsqlparser.statement.select.Select;
-import net.sf.jsqlparser.statement.update.Update;
 import rapture.common.CallingContext;
 import rapture.common.EntitlementSet;
 import rapture.common.ForeignKey;
@@ -63,9 +69,8 @@ import rapture.common.TableIndex;
 import rapture.common.TableMeta;
 import rapture.common.exception.ExceptionToString;
 import rapture.common.exception.RaptureExceptionFactory;
+import rapture.config.ConfigLoader;
 import rapture.kernel.Kernel;
-import rapture.repo.jdbc.context.ConverterContext;
-import rapture.repo.jdbc.context.StatementContext;
 import rapture.repo.jdbc.context.StatementType;
 import rapture.structured.Cache;
 import rapture.structured.InMemoryCache;
@@ -80,12 +85,29 @@ public abstract class JDBCStructuredStore implements StructuredStore {
 
     private static Logger log = Logger.getLogger(JDBCStructuredStore.class);
 
+    /**
+     * Config key for how cursors are kept: "stateful" (the default) holds the query's ResultSet, and with it a connection, until the cursor is
+     * closed or expires; "stateless" only remembers the cursor's position and queries for each page as it is asked for
+     */
+    public static final String CURSOR_MODE = "cursorMode";
+    public static final String STATELESS = "stateless";
+    /**
+     * Config key for the most rows sent to the database in one JDBC batch
+     */
+    public static final String BATCH_SIZE = "batchSize";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
     protected TransactionAwareDataSource dataSource;
     protected JdbcTemplate jdbc;
     protected SqlGenerator sqlGenerator;
     protected String instance = "default";
     protected String schema;
     private Cache cache;
+    private boolean statelessCursors = false;
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    private com.google.common.cache.Cache<String, StatelessCursor> statelessCursorCache = CacheBuilder.newBuilder()
+            .maximumSize(ConfigLoader.getConf().StructuredCursorCacheSize)
+            .expireAfterAccess(ConfigLoader.getConf().StructuredCursorExpiryMinutes, TimeUnit.MINUTES).build();
 
     @Override
     public void setInstance(String instanceName) {
@@ -101,6 +123,10 @@ public abstract class JDBCStructuredStore implements StructuredStore {
     @Override
     public void setConfig(Map<String, String> config, String authority) {
         schema = authority;
+        statelessCursors = config != null && STATELESS.equalsIgnoreCase(config.get(CURSOR_MODE));
+        if (config != null && config.containsKey(BATCH_SIZE)) {
+            batchSize = Integer.parseInt(config.get(BATCH_SIZE));
+        }
         jdbc.execute(sqlGenerator.constructCreateSchema(schema));
     }
 
@@ -230,15 +256,9 @@ public abstract class JDBCStructuredStore implements StructuredStore {
     @Override
     public Boolean insertUsingSql(CallingContext context, String sql) {
         try {
-            Insert insert = (Insert) CCJSqlParserUtil.parse(sql);
-            checkTableEntitlement(context, StatementType.INSERT, insert.getTable());
-            // if there is sub query, check entitlements on those tables
-            if (insert.getSelect() != null) {
-                SelectConverter selectConverter = getSelectConverter();
-                insert.getSelect().getSelectBody().accept(selectConverter);
-                checkEntitlements(context, selectConverter.getContext());
-            }
-            return jdbc.update(insert.toString()) > 0;
+            ParsedSql insert = ParsedSql.insert(sql);
+            checkEntitlements(context, insert);
+            return jdbc.update(insert.getSql()) > 0;
         } catch (ClassCastException e) {
             throw RaptureExceptionFactory.create("Not an insert statement: " + sql);
         } catch (JSQLParserException e) {
@@ -256,31 +276,140 @@ public abstract class JDBCStructuredStore implements StructuredStore {
 
     @Override
     public Boolean insertRows(String table, List<? extends Map<String, ?>> values) {
-        List<String> columnNames = new ArrayList<>(values.get(0).keySet());
-        List<List<String>> allCols = new ArrayList<>();
-        List<Object> allVals = new ArrayList<>();
-        for (Map<String, ?> row : values) {
-            allCols.add(new ArrayList<>(row.keySet()));
-            allVals.addAll(row.values());
-        }
-        int res = jdbc.update(sqlGenerator.constructInsertPreparedStatement(schema, table, allCols), allVals.toArray(),
-                multiplyAndFlatten(values.size(), getTypes(table, columnNames, true)));
+        int res = 0;
+        for (List<? extends Map<String, ?>> rows : splitByColumns(values)) {
+            List<String> columnNames = new ArrayList<>(rows.get(0).keySet());
+            res += batchUpdate(sqlGenerator.constructInsertPreparedStatement(schema, table, Arrays.asList(columnNames)), columnNames,
+                    getTypes(table, columnNames, true), rows);
+        }
         return res == values.size();
     }
 
+    @Override
+    public Boolean upsertRows(String table, List<? extends Map<String, ?>> values, List<String> keyColumns) {
+        if (CollectionUtils.isEmpty(keyColumns)) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, "At least one key column is needed to upsert rows");
+        }
+        for (List<? extends Map<String, ?>> rows : splitByColumns(values)) {
+            List<String> columnNames = new ArrayList<>(rows.get(0).keySet());
+            if (!columnNames.containsAll(keyColumns)) {
+                throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST,
+                        String.format("Every row must have a value for each of the key columns %s", keyColumns));
+            }
+            String sql = sqlGenerator.constructUpsertPreparedStatement(schema, table, columnNames, keyColumns);
+            if (sql != null) {
+                batchUpdate(sql, columnNames, getTypes(table, columnNames, true), rows);
+            } else {
+                updateThenInsert(table, columnNames, keyColumns, rows);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Upsert for databases without a statement for it: update each row by its key, then insert the rows that did not update anything. Unlike a
+     * real upsert this is not atomic, so a row inserted by someone else in between will make the insert fail.
+     */
+    private void updateThenInsert(String table, List<String> columnNames, List<String> keyColumns, List<? extends Map<String, ?>> rows) {
+        List<String> setColumns = new ArrayList<>(columnNames);
+        setColumns.removeAll(keyColumns);
+        if (setColumns.isEmpty()) {
+            // nothing to change, but the update still counts the rows that exist
+            setColumns.addAll(keyColumns);
+        }
+        List<String> conditions = new ArrayList<>();
+        for (String keyColumn : keyColumns) {
+            conditions.add(keyColumn + "=?");
+        }
+        List<String> updateColumns = new ArrayList<>(setColumns);
+        updateColumns.addAll(keyColumns);
+        String update = sqlGenerator.constructUpdatePreparedStatement(schema, table, setColumns, StringUtils.join(conditions, " AND "));
+        int[] updateTypes = getTypes(table, updateColumns, true);
+
+        List<Map<String, ?>> missing = new ArrayList<>();
+        for (int start = 0; start < rows.size(); start += batchSize) {
+            List<? extends Map<String, ?>> chunk = rows.subList(start, Math.min(rows.size(), start + batchSize));
+            List<Object[]> args = getBatchArgs(chunk, updateColumns);
+            int[] counts = jdbc.batchUpdate(update, args, updateTypes);
+            for (int i = 0; i < counts.length; i++) {
+                // some drivers do not say how many rows each statement in a batch changed
+                int count = (counts[i] == Statement.SUCCESS_NO_INFO) ? jdbc.update(update, args.get(i), updateTypes) : counts[i];
+                if (count == 0) {
+                    missing.add(chunk.get(i));
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            batchUpdate(sqlGenerator.constructInsertPreparedStatement(schema, table, Arrays.asList(columnNames)), columnNames,
+                    getTypes(table, columnNames, true), missing);
+        }
+    }
+
+    @Override
+    public Long loadRows(String table, Iterator<? extends Map<String, ?>> rows) {
+        long count = 0;
+        List<Map<String, ?>> chunk = new ArrayList<>();
+        while (rows.hasNext()) {
+            chunk.add(rows.next());
+            if (chunk.size() >= batchSize || !rows.hasNext()) {
+                insertRows(table, chunk);
+                count += chunk.size();
+                chunk.clear();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Run the statement once for each row, sending at most batchSize rows to the database at a time, and return the number of rows changed.
+     * The statement must take the values of the given columns, in that order.
+     */
+    private int batchUpdate(String sql, List<String> columnNames, int[] types, List<? extends Map<String, ?>> rows) {
+        int ret = 0;
+        for (int start = 0; start < rows.size(); start += batchSize) {
+            List<? extends Map<String, ?>> chunk = rows.subList(start, Math.min(rows.size(), start + batchSize));
+            for (int count : jdbc.batchUpdate(sql, getBatchArgs(chunk, columnNames), types)) {
+                ret += (count == Statement.SUCCESS_NO_INFO) ? 1 : count;
+            }
+        }
+        return ret;
+    }
+
+    private List<Object[]> getBatchArgs(List<? extends Map<String, ?>> rows, List<String> columnNames) {
+        List<Object[]> ret = new ArrayList<>(rows.size());
+        for (Map<String, ?> row : rows) {
+            Object[] args = new Object[columnNames.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = row.get(columnNames.get(i));
+            }
+            ret.add(args);
+        }
+        return ret;
+    }
+
+    /**
+     * Split the rows into runs that have the same columns, as each run needs its own statement
+     */
+    private List<List<? extends Map<String, ?>>> splitByColumns(List<? extends Map<String, ?>> rows) {
+        List<List<? extends Map<String, ?>>> ret = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= rows.size(); i++) {
+            if (i == rows.size() || !rows.get(i).keySet().equals(rows.get(start).keySet())) {
+                ret.add(rows.subList(start, i));
+                start = i;
+            }
+        }
+        return ret;
+    }
+
     @Override
     public List<Map<String, Object>> selectUsingSql(CallingContext context, String sql) {
         try {
-            // visit select statement
-            Select select = (Select) CCJSqlParserUtil.parse(sql);
-            SelectConverter selectConverter = getSelectConverter();
-            select.getSelectBody().accept(selectConverter);
-            checkEntitlements(context, selectConverter.getContext());
+            ParsedSql select = ParsedSql.select(sql);
+            checkEntitlements(context, select);
 
             // execute query
-            String preparedSql = selectConverter.getBuffer().toString();
-            Object[] args = selectConverter.getExpressionConverter().getValues().toArray();
-            return jdbc.query(preparedSql, args, createResultSetExtractor());
+            return jdbc.query(select.getSql(), select.getArgs(), createResultSetExtractor());
         } catch (ClassCastException e) {
             throw RaptureExceptionFactory.create("Not a select statement: " + sql);
         } catch (JSQLParserException e) {
@@ -288,14 +417,6 @@ public abstract class JDBCStructuredStore implements StructuredStore {
         }
     }
 
-    private SelectConverter getSelectConverter() {
-        SelectConverter selectConverter = new SelectConverter();
-        PreparedExpressionConverter expressionConverter = new PreparedExpressionConverter(selectConverter,
-                selectConverter.getBuffer(), selectConverter.getContext());
-        selectConverter.setExpressionVisitor(expressionConverter);
-        return selectConverter;
-    }
-
     @Override
     public List<Map<String, Object>> selectJoinedRows(List<String> tables, List<String> columnNames, String from, String where,
                                                       List<String> order, Boolean ascending, int limit) {
@@ -319,26 +440,21 @@ public abstract class JDBCStructuredStore implements StructuredStore {
             return where;
         }
         try {
-            Expression expression = CCJSqlParserUtil.parseCondExpression(where);
-            PreparedExpressionConverter expressionConverter = getSelectConverter().getExpressionConverter();
-            expression.accept(expressionConverter);
+            ParsedSql parsedWhere = ParsedSql.where(where);
 
             // TODO pass in context to check entitlements
-            // checkEntitlements(expressionConverter.getContext());
-            args.addAll(expressionConverter.getValues());
+            // checkEntitlements(context, parsedWhere);
+            args.addAll(Arrays.asList(parsedWhere.getArgs()));
 
-            return expressionConverter.getBuffer().toString();
+            return parsedWhere.getSql();
         } catch (JSQLParserException e) {
             throw RaptureExceptionFactory.create("Failed to parse where clause (" + where + ")", e);
         }
     }
 
-    private void checkEntitlements(CallingContext context, ConverterContext visitorContext) {
-        for (StatementContext statementContext : visitorContext.getStatementContexts()) {
-            StatementType statementType = statementContext.getStatementType();
-            for (final Table table : statementContext.getTables()) {
-                checkTableEntitlement(context, statementType, table);
-            }
+    private void checkEntitlements(CallingContext context, ParsedSql parsedSql) {
+        for (ParsedSql.TableAccess access : parsedSql.getTables()) {
+            checkTableEntitlement(context, access.getStatementType(), access.getTable());
         }
     }
 
@@ -403,19 +519,11 @@ public abstract class JDBCStructuredStore implements StructuredStore {
     @Override
     public Boolean updateUsingSql(CallingContext context, String sql) {
         try {
-            Update update = (Update) CCJSqlParserUtil.parse(sql);
-            // check entitlements on tables
-            for (Table table : update.getTables()) {
-                checkTableEntitlement(context, StatementType.UPDATE, table);
-            }
-            // if there is sub query, check entitlements on those tables
-            if (update.getSelect() != null) {
-                SelectConverter selectConverter = getSelectConverter();
-                update.getSelect().getSelectBody().accept(selectConverter);
-                checkEntitlements(context, selectConverter.getContext());
-            }
+            // check entitlements on tables, including those in any sub query
+            ParsedSql update = ParsedSql.update(sql);
+            checkEntitlements(context, update);
             // execute query
-            return jdbc.update(update.toString()) > 0;
+            return jdbc.update(update.getSql()) > 0;
         } catch (ClassCastException e) {
             throw RaptureExceptionFactory.create("Not an update statement: " + sql);
         } catch (JSQLParserException e) {
@@ -434,18 +542,11 @@ public abstract class JDBCStructuredStore implements StructuredStore {
     @Override
     public Boolean deleteUsingSql(CallingContext context, String sql) {
         try {
-            Delete delete = (Delete) CCJSqlParserUtil.parse(sql);
-            if (delete.getWhere() == null) {
-                throw RaptureExceptionFactory.create("Where clause not specified in delete statement: " + sql);
-            }
-            checkTableEntitlement(context, StatementType.DELETE, delete.getTable());
-
-            // check entitlements on any sub queries
-            SelectConverter selectConverter = getSelectConverter();
-            delete.getWhere().accept(selectConverter.getExpressionVisitor());
-            checkEntitlements(context, selectConverter.getContext());
+            // check entitlements on the table and any sub queries
+            ParsedSql delete = ParsedSql.delete(sql);
+            checkEntitlements(context, delete);
 
-            return jdbc.update(delete.toString()) > 0;
+            return jdbc.update(delete.getSql()) > 0;
         } catch (ClassCastException e) {
             throw RaptureExceptionFactory.create("Not a delete statement: " + sql);
         } catch (JSQLParserException e) {
@@ -538,10 +639,24 @@ public abstract class JDBCStructuredStore implements StructuredStore {
     public String getCursorUsingSql(CallingContext context, String sql) {
         try {
             // check entitlements on tables
-            Select select = (Select) CCJSqlParserUtil.parse(sql);
-            SelectConverter selectConverter = getSelectConverter();
-            select.getSelectBody().accept(selectConverter);
-            checkEntitlements(context, selectConverter.getContext());
+            ParsedSql select = ParsedSql.select(sql);
+            checkEntitlements(context, select);
+
+            if (statelessCursors) {
+                final String preparedSql = select.getSql();
+                final Object[] args = select.getArgs();
+                return putStatelessCursor(new StatelessCursor(new StatelessCursor.Query() {
+                    @Override
+                    public String select(String condition, String orderBy) {
+                        return "SELECT * FROM (" + preparedSql + ") rapture_cursor";
+                    }
+
+                    @Override
+                    public Object[] getArgs() {
+                        return args;
+                    }
+                }, -1));
+            }
 
             // execute query
             ResultSet rs = getPreparedStatementForCursor(sql).executeQuery();
@@ -571,6 +686,9 @@ public abstract class JDBCStructuredStore implements StructuredStore {
 
     @Override
     public String getCursor(String table, List<String> columnNames, String where, List<String> order, Boolean ascending, int limit) {
+        if (statelessCursors) {
+            return putStatelessCursor(createStatelessCursor(table, columnNames, where, order, ascending, limit));
+        }
         try {
             ResultSet rs = getPreparedStatementForCursor(sqlGenerator.constructSelect(schema, table, columnNames, where, order, ascending, limit))
                     .executeQuery();
@@ -587,6 +705,10 @@ public abstract class JDBCStructuredStore implements StructuredStore {
                                    String where, List<String> order, Boolean ascending, int limit) {
         List<? super Object> args = new ArrayList<>();
         where = convertToPreparedStatement(where, args);
+        if (statelessCursors) {
+            return putStatelessCursor(new StatelessCursor(
+                    new FixedQuery(sqlGenerator.constructSelectJoin(tables, columnNames, from, where, order, ascending, -1), args.toArray()), limit));
+        }
         String sql = sqlGenerator.constructSelectJoin(tables, columnNames, from, where, order, ascending, limit);
         try {
             PreparedStatement pstmt = getPreparedStatementForCursor(sql);
@@ -602,18 +724,165 @@ public abstract class JDBCStructuredStore implements StructuredStore {
         }
     }
 
+    private String putStatelessCursor(StatelessCursor cursor) {
+        String uuid = IDGenerator.getUUID();
+        statelessCursorCache.put(uuid, cursor);
+        return uuid;
+    }
+
+    private StatelessCursor createStatelessCursor(String table, List<String> columnNames, String where, final List<String> order,
+            final Boolean ascending, int limit) {
+        final List<? super Object> args = new ArrayList<>();
+        where = convertToPreparedStatement(where, args);
+        List<String> keyColumns = getKeysetColumns(table, columnNames, order);
+        if (keyColumns == null) {
+            return new StatelessCursor(new FixedQuery(sqlGenerator.constructSelect(schema, table, columnNames, where, order, ascending, -1),
+                    args.toArray()), limit);
+        }
+
+        // the same order as constructSelect gives, which only applies the direction to the last of the order columns
+        boolean descending = ascending != null && !ascending;
+        List<Boolean> directions = new ArrayList<>();
+        for (int i = 0; i < keyColumns.size(); i++) {
+            directions.add(descending && (order == null || i >= order.size() - 1));
+        }
+        final String table_ = table;
+        final List<String> columnNames_ = columnNames;
+        final String where_ = where;
+        return new StatelessCursor(new StatelessCursor.Query() {
+            @Override
+            public String select(String condition, String orderBy) {
+                String fullWhere = where_;
+                if (condition != null) {
+                    fullWhere = StringUtils.isBlank(where_) ? condition : "(" + where_ + ") AND (" + condition + ")";
+                }
+                return sqlGenerator.constructSelect(schema, table_, columnNames_, fullWhere, null, null, -1) + "ORDER BY " + orderBy;
+            }
+
+            @Override
+            public Object[] getArgs() {
+                return args.toArray();
+            }
+        }, keyColumns, directions, limit);
+    }
+
+    /**
+     * The columns a cursor on this table can page by key on: the order columns followed by the rest of the primary key. Only if the table has
+     * a primary key, none of these columns can be null and all of them are selected; otherwise null.
+     */
+    private List<String> getKeysetColumns(final String table, List<String> columnNames, List<String> order) {
+        final Set<String> notNull = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        final List<String> primaryKey = new ArrayList<>();
+        try {
+            jdbc.execute(new ConnectionCallback<Void>() {
+                @Override
+                public Void doInConnection(Connection connection) throws SQLException, DataAccessException {
+                    DatabaseMetaData metaData = connection.getMetaData();
+                    // how the database stores unquoted names varies
+                    for (String[] names : new String[][] { { schema, table }, { schema.toLowerCase(), table.toLowerCase() },
+                            { schema.toUpperCase(), table.toUpperCase() } }) {
+                        Map<Short, String> keyColumns = new TreeMap<>();
+                        try (ResultSet rs = metaData.getPrimaryKeys(null, names[0], names[1])) {
+                            while (rs.next()) {
+                                keyColumns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+                            }
+                        }
+                        if (!keyColumns.isEmpty()) {
+                            primaryKey.addAll(keyColumns.values());
+                            try (ResultSet rs = metaData.getColumns(null, names[0], names[1], null)) {
+                                while (rs.next()) {
+                                    if (rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls) {
+                                        notNull.add(rs.getString("COLUMN_NAME"));
+                                    }
+                                }
+                            }
+                            break;
+                        }
+                    }
+                    return null;
+                }
+            });
+        } catch (DataAccessException e) {
+            log.warn(String.format("Unable to read the primary key of [%s], cursor will page by offset: %s", table, e.getMessage()));
+            return null;
+        }
+        if (primaryKey.isEmpty()) {
+            return null;
+        }
+        Set<String> ret = new LinkedHashSet<>();
+        Set<String> seen = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        if (order != null) {
+            for (String column : order) {
+                // anything other than a plain column name, such as an expression, will not be found here
+                if (!notNull.contains(column.trim())) {
+                    return null;
+                }
+                if (seen.add(column.trim())) {
+                    ret.add(column.trim());
+                }
+            }
+        }
+        for (String column : primaryKey) {
+            if (seen.add(column)) {
+                ret.add(column);
+            }
+        }
+        if (!CollectionUtils.isEmpty(columnNames) && !(columnNames.size() == 1 && "*".equals(columnNames.get(0).trim()))) {
+            Set<String> selected = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            for (String column : columnNames) {
+                selected.add(column.trim());
+            }
+            if (!selected.containsAll(ret)) {
+                return null;
+            }
+        }
+        return new ArrayList<>(ret);
+    }
+
+    /**
+     * A query for a cursor that pages by offset
+     */
+    private static class FixedQuery implements StatelessCursor.Query {
+        private final String sql;
+        private final Object[] args;
+
+        FixedQuery(String sql, Object[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+
+        @Override
+        public String select(String condition, String orderBy) {
+            return sql;
+        }
+
+        @Override
+        public Object[] getArgs() {
+            return args;
+        }
+    }
+
     @Override
     public List<Map<String, Object>> next(String table, String cursorId, int count) {
+        StatelessCursor cursor = statelessCursorCache.getIfPresent(cursorId);
+        if (cursor != null) {
+            return cursor.next(jdbc, createResultSetExtractor(), count);
+        }
         return getCursorResult(cursorId, count, true);
     }
 
     @Override
     public List<Map<String, Object>> previous(String table, String cursorId, int count) {
+        StatelessCursor cursor = statelessCursorCache.getIfPresent(cursorId);
+        if (cursor != null) {
+            return cursor.previous(jdbc, createResultSetExtractor(), count);
+        }
         return getCursorResult(cursorId, count, false);
     }
 
     @Override
     public Boolean closeCursor(String table, String cursorId) {
+        statelessCursorCache.invalidate(cursorId);
         cache.removeCursor(cursorId);
         return true;
     }
@@ -868,22 +1137,4 @@ public abstract class JDBCStructuredStore implements StructuredStore {
         }
         return types;
     }
-
-    /**
-     * given an array of integers make 'multiple' copies of it and then flatten into a single array
-     *
-     * @param multiple
-     * @param types
-     * @return
-     */
-    private int[] multiplyAndFlatten(int multiple, int[] types) {
-        int[] ret = new int[multiple * types.length];
-        int index = 0;
-        for (int i = 0; i < multiple; i++) {
-            for (int j = 0; j < types.length; j++) {
-                ret[index++] = types[j];
-            }
-        }
-        return ret;
-    }
 }
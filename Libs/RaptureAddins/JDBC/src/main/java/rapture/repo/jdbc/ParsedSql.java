@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2011-2015 Incapture Technologies LLC
+ *
+ * This is an autogenerated license statement. When copyright notices appear below
+ * this one that copyright supercedes this statement.
+ *
+ * Unless required by applicable law or agreed to in writing, software is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied.
+ *
+ * Unless explicit permission obtained in writing this software cannot be distributed.
+ */
+package rapture.repo.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.update.Update;
+import rapture.common.exception.RaptureExceptionFactory;
+import rapture.config.ConfigLoader;
+import rapture.repo.jdbc.context.ConverterContext;
+import rapture.repo.jdbc.context.StatementContext;
+import rapture.repo.jdbc.context.StatementType;
+
+/**
+ * The result of parsing and converting the SQL passed to the *UsingSql calls and the where clauses passed to the row calls: the SQL to run, the
+ * literal values taken out of it to bind as parameters, and the tables it touches (for the entitlement checks, which are made on every call).
+ *
+ * Scripts tend to run the same few statements over and over, so results are cached by statement text and shared by all stores. The converted SQL
+ * does not depend on the store, and its text is the same on every run, so drivers that cache prepared statements can reuse them. Statements
+ * that fail to parse are not cached, so they always produce the same error.
+ */
+class ParsedSql {
+    private static final Cache<String, ParsedSql> parsed = CacheBuilder.newBuilder()
+            .maximumSize(ConfigLoader.getConf().StructuredSqlCacheSize).build();
+
+    private final String sql;
+    private final Object[] args;
+    private final List<TableAccess> tables;
+
+    private ParsedSql(String sql, Object[] args, List<TableAccess> tables) {
+        this.sql = sql;
+        this.args = args;
+        this.tables = Collections.unmodifiableList(tables);
+    }
+
+    /**
+     * @return the select converted to a prepared statement
+     */
+    static ParsedSql select(String sql) throws JSQLParserException {
+        String key = "select:" + sql;
+        ParsedSql ret = parsed.getIfPresent(key);
+        if (ret == null) {
+            Select select = (Select) CCJSqlParserUtil.parse(sql);
+            SelectConverter selectConverter = getSelectConverter();
+            select.getSelectBody().accept(selectConverter);
+            List<TableAccess> tables = new ArrayList<>();
+            addTables(tables, selectConverter.getContext());
+            ret = new ParsedSql(selectConverter.getBuffer().toString(), selectConverter.getExpressionConverter().getValues().toArray(), tables);
+            parsed.put(key, ret);
+        }
+        return ret;
+    }
+
+    static ParsedSql insert(String sql) throws JSQLParserException {
+        String key = "insert:" + sql;
+        ParsedSql ret = parsed.getIfPresent(key);
+        if (ret == null) {
+            Insert insert = (Insert) CCJSqlParserUtil.parse(sql);
+            List<TableAccess> tables = new ArrayList<>();
+            tables.add(new TableAccess(StatementType.INSERT, insert.getTable()));
+            // if there is sub query, check entitlements on those tables
+            if (insert.getSelect() != null) {
+                SelectConverter selectConverter = getSelectConverter();
+                insert.getSelect().getSelectBody().accept(selectConverter);
+                addTables(tables, selectConverter.getContext());
+            }
+            ret = new ParsedSql(insert.toString(), new Object[0], tables);
+            parsed.put(key, ret);
+        }
+        return ret;
+    }
+
+    static ParsedSql update(String sql) throws JSQLParserException {
+        String key = "update:" + sql;
+        ParsedSql ret = parsed.getIfPresent(key);
+        if (ret == null) {
+            Update update = (Update) CCJSqlParserUtil.parse(sql);
+            List<TableAccess> tables = new ArrayList<>();
+            for (Table table : update.getTables()) {
+                tables.add(new TableAccess(StatementType.UPDATE, table));
+            }
+            // if there is sub query, check entitlements on those tables
+            if (update.getSelect() != null) {
+                SelectConverter selectConverter = getSelectConverter();
+                update.getSelect().getSelectBody().accept(selectConverter);
+                addTables(tables, selectConverter.getContext());
+            }
+            ret = new ParsedSql(update.toString(), new Object[0], tables);
+            parsed.put(key, ret);
+        }
+        return ret;
+    }
+
+    static ParsedSql delete(String sql) throws JSQLParserException {
+        String key = "delete:" + sql;
+        ParsedSql ret = parsed.getIfPresent(key);
+        if (ret == null) {
+            Delete delete = (Delete) CCJSqlParserUtil.parse(sql);
+            if (delete.getWhere() == null) {
+                throw RaptureExceptionFactory.create("Where clause not specified in delete statement: " + sql);
+            }
+            List<TableAccess> tables = new ArrayList<>();
+            tables.add(new TableAccess(StatementType.DELETE, delete.getTable()));
+            // check entitlements on any sub queries
+            SelectConverter selectConverter = getSelectConverter();
+            delete.getWhere().accept(selectConverter.getExpressionVisitor());
+            addTables(tables, selectConverter.getContext());
+            ret = new ParsedSql(delete.toString(), new Object[0], tables);
+            parsed.put(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the where clause converted to use parameters
+     */
+    static ParsedSql where(String where) throws JSQLParserException {
+        String key = "where:" + where;
+        ParsedSql ret = parsed.getIfPresent(key);
+        if (ret == null) {
+            Expression expression = CCJSqlParserUtil.parseCondExpression(where);
+            PreparedExpressionConverter expressionConverter = getSelectConverter().getExpressionConverter();
+            expression.accept(expressionConverter);
+            List<TableAccess> tables = new ArrayList<>();
+            addTables(tables, expressionConverter.getContext());
+            ret = new ParsedSql(expressionConverter.getBuffer().toString(), expressionConverter.getValues().toArray(), tables);
+            parsed.put(key, ret);
+        }
+        return ret;
+    }
+
+    private static SelectConverter getSelectConverter() {
+        SelectConverter selectConverter = new SelectConverter();
+        PreparedExpressionConverter expressionConverter = new PreparedExpressionConverter(selectConverter,
+                selectConverter.getBuffer(), selectConverter.getContext());
+        selectConverter.setExpressionVisitor(expressionConverter);
+        return selectConverter;
+    }
+
+    private static void addTables(List<TableAccess> tables, ConverterContext visitorContext) {
+        for (StatementContext statementContext : visitorContext.getStatementContexts()) {
+            for (Table table : statementContext.getTables()) {
+                tables.add(new TableAccess(statementContext.getStatementType(), table));
+            }
+        }
+    }
+
+    static long cacheSize() {
+        return parsed.size();
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the values to bind to the parameters in the SQL, in order; a copy, as the parsed statement is shared
+     */
+    Object[] getArgs() {
+        return args.clone();
+    }
+
+    List<TableAccess> getTables() {
+        return tables;
+    }
+
+    static class TableAccess {
+        private final StatementType statementType;
+        private final Table table;
+
+        TableAccess(StatementType statementType, Table table) {
+            this.statementType = statementType;
+            this.table = table;
+        }
+
+        StatementType getStatementType() {
+            return statementType;
+        }
+
+        Table getTable() {
+            return table;
+        }
+    }
+}
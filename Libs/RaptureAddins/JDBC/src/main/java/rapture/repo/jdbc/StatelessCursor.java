@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2011-2015 Incapture Technologies LLC
+ *
+ * This is an autogenerated license statement. When copyright notices appear below
+ * this one that copyright supercedes this statement.
+ *
+ * Unless required by applicable law or agreed to in writing, software is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied.
+ *
+ * Unless explicit permission obtained in writing this software cannot be distributed.
+ */
+package rapture.repo.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * A cursor that remembers where it is rather than holding an open ResultSet, and so a pooled connection, between calls. Each next or previous
+ * runs a query for just the rows it returns.
+ * <p>
+ * When the cursor is ordered by a unique key (its order columns followed by the table's primary key) the query picks up after the key of the
+ * current row (keyset paging). Otherwise it skips to the current row by offset, which is still bounded but gets slower further into the results.
+ * Either way the cursor moves like a scrollable ResultSet: next and previous step from the current row, and running off either end leaves the
+ * cursor before the first or after the last row.
+ */
+public class StatelessCursor {
+    private final Query query;
+    private final List<String> keyColumns;
+    private final List<Boolean> descending;
+    private final int limit;
+
+    // the current row is the position'th, 0 being before the first
+    private int position = 0;
+    private boolean afterLast = false;
+    // the key of the current row, when keyset paging
+    private Object[] key;
+
+    /**
+     * Builds the select for a page, given an extra condition (with ? for its values) to add to the where clause, and the ORDER BY to use
+     */
+    public interface Query {
+        String select(String condition, String orderBy);
+
+        Object[] getArgs();
+    }
+
+    /**
+     * A cursor that pages by key
+     *
+     * @param keyColumns
+     *            columns that together are unique, are never null, and are in every row returned by the query
+     * @param descending
+     *            the direction of each of the key columns
+     */
+    public StatelessCursor(Query query, List<String> keyColumns, List<Boolean> descending, int limit) {
+        this.query = query;
+        this.keyColumns = keyColumns;
+        this.descending = descending;
+        this.limit = limit;
+    }
+
+    /**
+     * A cursor that pages by offset. The query must apply its own order, if it has one.
+     */
+    public StatelessCursor(Query query, int limit) {
+        this(query, null, null, limit);
+    }
+
+    public boolean isKeyset() {
+        return keyColumns != null;
+    }
+
+    public synchronized List<Map<String, Object>> next(JdbcTemplate jdbc, ResultSetExtractor<List<Map<String, Object>>> extractor, int count) {
+        if (afterLast || count <= 0) {
+            return null;
+        }
+        int toRead = (limit > 0) ? Math.min(count, limit - position) : count;
+        List<Map<String, Object>> rows = Collections.emptyList();
+        if (toRead > 0) {
+            if (isKeyset()) {
+                List<Object> args = new ArrayList<>();
+                String condition = (position == 0) ? null : keyCondition(true, false, args);
+                rows = page(jdbc, extractor, condition, args, orderBy(false), toRead, 0);
+            } else {
+                rows = page(jdbc, extractor, null, Collections.<Object> emptyList(), null, toRead, position);
+            }
+        }
+        if (!rows.isEmpty()) {
+            position += rows.size();
+            key = keyOf(rows.get(rows.size() - 1));
+        }
+        if (rows.size() < count) {
+            afterLast = true;
+        }
+        return rows.isEmpty() ? null : rows;
+    }
+
+    public synchronized List<Map<String, Object>> previous(JdbcTemplate jdbc, ResultSetExtractor<List<Map<String, Object>>> extractor, int count) {
+        if (position == 0 || count <= 0) {
+            return null;
+        }
+        // after the last row, the current row is the first one to return
+        int end = afterLast ? position : position - 1;
+        List<Map<String, Object>> rows = Collections.emptyList();
+        if (end > 0) {
+            if (isKeyset()) {
+                List<Object> args = new ArrayList<>();
+                rows = page(jdbc, extractor, keyCondition(false, afterLast, args), args, orderBy(true), count, 0);
+            } else {
+                int toRead = Math.min(count, end);
+                rows = new ArrayList<>(page(jdbc, extractor, null, Collections.<Object> emptyList(), null, toRead, end - toRead));
+                Collections.reverse(rows);
+            }
+        }
+        afterLast = false;
+        if (rows.size() < count) {
+            position = 0;
+            key = null;
+        } else {
+            position = end - rows.size() + 1;
+            key = keyOf(rows.get(rows.size() - 1));
+        }
+        return rows.isEmpty() ? null : rows;
+    }
+
+    private List<Map<String, Object>> page(JdbcTemplate jdbc, ResultSetExtractor<List<Map<String, Object>>> extractor, String condition,
+            List<Object> conditionArgs, String orderBy, int count, int offset) {
+        List<Object> args = new ArrayList<>();
+        Collections.addAll(args, query.getArgs());
+        args.addAll(conditionArgs);
+        StringBuilder sql = new StringBuilder(query.select(condition, orderBy));
+        sql.append(" LIMIT ? OFFSET ?");
+        args.add(count);
+        args.add(offset);
+        return jdbc.query(sql.toString(), args.toArray(), extractor);
+    }
+
+    private Object[] keyOf(Map<String, Object> row) {
+        if (!isKeyset()) {
+            return null;
+        }
+        Object[] ret = new Object[keyColumns.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = row.get(keyColumns.get(i));
+        }
+        return ret;
+    }
+
+    /**
+     * Rows after (or before) the current key, spelt out column by column as not every database compares row values:
+     * (a > ?) OR (a = ? AND b > ?) ...
+     */
+    private String keyCondition(boolean after, boolean inclusive, List<Object> args) {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < keyColumns.size(); i++) {
+            List<String> parts = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                parts.add(keyColumns.get(j) + " = ?");
+                args.add(key[j]);
+            }
+            boolean greater = after != descending.get(i);
+            String op = greater ? ">" : "<";
+            if (inclusive && i == keyColumns.size() - 1) {
+                op += "=";
+            }
+            parts.add(keyColumns.get(i) + " " + op + " ?");
+            args.add(key[i]);
+            terms.add("(" + StringUtils.join(parts, " AND ") + ")");
+        }
+        return StringUtils.join(terms, " OR ");
+    }
+
+    private String orderBy(boolean reverse) {
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < keyColumns.size(); i++) {
+            parts.add(keyColumns.get(i) + ((descending.get(i) != reverse) ? " DESC" : " ASC"));
+        }
+        return StringUtils.join(parts, ",");
+    }
+}
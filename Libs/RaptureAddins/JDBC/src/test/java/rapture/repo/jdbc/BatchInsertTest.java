@@ -0,0 +1,129 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+public class BatchInsertTest {
+    private static final String TABLE = "prices";
+
+    private ComboPooledDataSource pool;
+    private JDBCStructuredStore store;
+
+    @Before
+    public void setUp() {
+        pool = new ComboPooledDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:batch" + System.nanoTime() + ";DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        store = new H2StructuredStore(pool);
+        store.setInstance("default");
+        // a small batch size so that every test spans several batches
+        store.setConfig(ImmutableMap.of(JDBCStructuredStore.BATCH_SIZE, "7"), "test");
+        store.jdbc.execute("CREATE TABLE test.prices (ticker varchar(20) NOT NULL, day int NOT NULL, price double, PRIMARY KEY (ticker, day))");
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testInsertRowsWithDifferingColumns() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("ticker", "IBM");
+            row.put("day", i);
+            // the second half of the rows has no price
+            if (i < 25) {
+                row.put("price", i * 1.5);
+            }
+            rows.add(row);
+        }
+        assertTrue(store.insertRows(TABLE, rows));
+        assertEquals(50, count("1=1"));
+        assertEquals(25, count("price IS NULL"));
+    }
+
+    @Test
+    public void testUpsertUpdatesExistingRows() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(ImmutableMap.<String, Object> of("ticker", "MSFT", "day", i, "price", 1.0));
+        }
+        assertTrue(store.insertRows(TABLE, rows));
+
+        rows.clear();
+        for (int i = 10; i < 30; i++) {
+            rows.add(ImmutableMap.<String, Object> of("ticker", "MSFT", "day", i, "price", 2.0));
+        }
+        assertTrue(store.upsertRows(TABLE, rows, Arrays.asList("ticker", "day")));
+        assertEquals(30, count("1=1"));
+        assertEquals(10, count("price = 1.0"));
+        assertEquals(20, count("price = 2.0"));
+    }
+
+    @Test
+    public void testLoadRowsStreamsInBatches() {
+        final int total = 1000;
+        Iterator<Map<String, Object>> rows = new Iterator<Map<String, Object>>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < total;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                return ImmutableMap.<String, Object> of("ticker", "T" + (next % 10), "day", next++, "price", 3.0);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        assertEquals(total, store.loadRows(TABLE, rows).longValue());
+        assertEquals(total, count("price = 3.0"));
+    }
+
+    private int count(String where) {
+        return store.jdbc.queryForObject("SELECT COUNT(*) FROM test.prices WHERE " + where, Integer.class);
+    }
+}
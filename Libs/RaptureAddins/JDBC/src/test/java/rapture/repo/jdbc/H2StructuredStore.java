@@ -0,0 +1,58 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo.jdbc;
+
+import javax.sql.DataSource;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.platform.SqlBuilder;
+
+import rapture.structured.SqlGenerator;
+import rapture.structured.StandardSqlGenerator;
+
+/**
+ * A structured store on an in-memory H2 database, for testing the parts of JDBCStructuredStore that do not depend on the database
+ */
+public class H2StructuredStore extends JDBCStructuredStore {
+    private final DataSource dataSource;
+
+    public H2StructuredStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    protected TransactionAwareDataSource getDataSource(String instance) {
+        return new TransactionAwareDataSource(dataSource);
+    }
+
+    @Override
+    public SqlGenerator getSqlGenerator() {
+        return new StandardSqlGenerator() {
+            @Override
+            protected SqlBuilder getDdlSqlBuilder(String schema, Platform platform) {
+                return null;
+            }
+        };
+    }
+}
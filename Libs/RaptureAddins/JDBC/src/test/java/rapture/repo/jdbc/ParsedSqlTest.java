@@ -0,0 +1,90 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import net.sf.jsqlparser.JSQLParserException;
+import rapture.common.exception.RaptureException;
+import rapture.repo.jdbc.ParsedSql.TableAccess;
+import rapture.repo.jdbc.context.StatementType;
+
+public class ParsedSqlTest {
+
+    @Test
+    public void testSelectIsCached() throws JSQLParserException {
+        String sql = "select * from myschema.books b where b.author = 'smith' and b.id in (select id from other.loans where days > 10)";
+        ParsedSql first = ParsedSql.select(sql);
+        assertSame(first, ParsedSql.select(sql));
+
+        assertArrayEquals(new Object[] { "smith", 10L }, first.getArgs());
+        // callers get their own copy of the values
+        assertNotSame(first.getArgs(), first.getArgs());
+
+        List<TableAccess> tables = first.getTables();
+        assertEquals(2, tables.size());
+        assertEquals(StatementType.SELECT, tables.get(0).getStatementType());
+        assertEquals("books", tables.get(0).getTable().getName());
+        assertEquals("other", tables.get(1).getTable().getSchemaName());
+    }
+
+    @Test
+    public void testStatementKindsAreKeptApart() throws JSQLParserException {
+        String where = "a = 1";
+        ParsedSql parsedWhere = ParsedSql.where(where);
+        assertEquals("a = ?", parsedWhere.getSql());
+        assertSame(parsedWhere, ParsedSql.where(where));
+
+        ParsedSql delete = ParsedSql.delete("delete from s.t where a = 1");
+        assertEquals(StatementType.DELETE, delete.getTables().get(0).getStatementType());
+        try {
+            ParsedSql.insert("delete from s.t where a = 1");
+            fail("not an insert");
+        } catch (ClassCastException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws JSQLParserException {
+        long size = ParsedSql.cacheSize();
+        for (int i = 0; i < 2; i++) {
+            try {
+                ParsedSql.delete("delete from s.nowhere");
+                fail("delete without where");
+            } catch (RaptureException e) {
+                // expected
+            }
+        }
+        assertEquals(size, ParsedSql.cacheSize());
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+public class StatelessCursorTest {
+
+    private static final int ROWS = 100;
+    private static final String TABLE = "trades";
+
+    private ComboPooledDataSource pool;
+    private JDBCStructuredStore store;
+
+    @Before
+    public void setUp() {
+        pool = new ComboPooledDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:cursors" + System.nanoTime() + ";DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        pool.setMaxPoolSize(2);
+        // fail rather than wait if a cursor were to keep hold of a connection
+        pool.setCheckoutTimeout(2000);
+        store = new H2StructuredStore(pool);
+        store.setInstance("default");
+        store.setConfig(ImmutableMap.of(JDBCStructuredStore.CURSOR_MODE, JDBCStructuredStore.STATELESS), "test");
+        store.jdbc.execute("CREATE TABLE test.trades (id int NOT NULL, book varchar(20) NOT NULL, notes varchar(20), PRIMARY KEY (id))");
+        for (int i = 0; i < ROWS; i++) {
+            // five rows per book, so ordering by book alone is not unique
+            store.jdbc.update("INSERT INTO test.trades VALUES (?, ?, ?)", i, "book" + (i % 20), null);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testOpenCursorsDoNotHoldConnections() throws SQLException {
+        List<String> cursors = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            String cursorId = store.getCursor(TABLE, null, null, Arrays.asList("book"), i % 2 == 0, -1);
+            assertEquals(2, store.next(TABLE, cursorId, 2).size());
+            cursors.add(cursorId);
+        }
+        assertEquals(0, pool.getNumBusyConnections());
+
+        // every cursor carries on from where it was left
+        for (String cursorId : cursors) {
+            assertEquals(3, store.next(TABLE, cursorId, 3).size());
+        }
+        assertEquals(0, pool.getNumBusyConnections());
+        for (String cursorId : cursors) {
+            store.closeCursor(TABLE, cursorId);
+        }
+    }
+
+    @Test
+    public void testKeysetCursorVisitsEveryRowOnceInOrder() {
+        String cursorId = store.getCursor(TABLE, Arrays.asList("id", "book"), "id >= 10", Arrays.asList("book"), false, -1);
+        List<Map<String, Object>> all = new ArrayList<>();
+        List<Map<String, Object>> page;
+        while ((page = store.next(TABLE, cursorId, 7)) != null) {
+            all.addAll(page);
+        }
+        assertEquals(ROWS - 10, all.size());
+        // ties on book are broken by the primary key, in the same direction
+        List<Integer> expected = store.jdbc.queryForList("SELECT id FROM test.trades WHERE id >= 10 ORDER BY book DESC, id DESC", Integer.class);
+        assertEquals(expected, ids(all));
+
+        // off the end, previous starts again from the last row
+        page = store.previous(TABLE, cursorId, 3);
+        assertEquals(expected.subList(expected.size() - 3, expected.size()), reversed(ids(page)));
+        page = store.next(TABLE, cursorId, 1);
+        assertEquals(expected.get(expected.size() - 2), page.get(0).get("id"));
+        store.closeCursor(TABLE, cursorId);
+    }
+
+    @Test
+    public void testOffsetCursorWithLimit() {
+        // notes can be null, so this cursor has to page by offset
+        String cursorId = store.getCursor(TABLE, null, null, Arrays.asList("notes", "id"), true, 12);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), ids(store.next(TABLE, cursorId, 5)));
+        assertEquals(Arrays.asList(5, 6, 7, 8, 9), ids(store.next(TABLE, cursorId, 5)));
+        assertEquals(Arrays.asList(8, 7, 6), ids(store.previous(TABLE, cursorId, 3)));
+        assertEquals(Arrays.asList(7, 8, 9, 10, 11), ids(store.next(TABLE, cursorId, 10)));
+        assertNull(store.next(TABLE, cursorId, 10));
+        store.closeCursor(TABLE, cursorId);
+    }
+
+    private static List<Object> reversed(List<Object> list) {
+        List<Object> ret = new ArrayList<>(list);
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    private static List<Object> ids(List<Map<String, Object>> rows) {
+        List<Object> ret = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            ret.add(row.get("id"));
+        }
+        return ret;
+    }
+}
@@ -33,4 +33,8 @@ public interface BlobHandler {
     public Boolean deleteBlob(CallingContext context, String docPath);
 
     public InputStream getBlob(CallingContext context, String docPath);
+
+    public InputStream getBlobPart(CallingContext context, String docPath, long start, long size);
+
+    public Long getBlobSize(CallingContext context, String docPath);
 }
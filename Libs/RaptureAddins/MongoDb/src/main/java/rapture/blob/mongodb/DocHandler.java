@@ -30,6 +30,7 @@ import java.io.InputStream;
 import java.util.Iterator;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.log4j.Logger;
 import org.bson.Document;
 import org.bson.types.Binary;
@@ -159,4 +160,25 @@ public class DocHandler implements BlobHandler {
 
         return wrapper.doAction();
     }
+
+    /**
+     * Blobs stored as documents are assembled in memory by getBlob anyway, so ranges and sizes are taken from that
+     */
+    @Override
+    public InputStream getBlobPart(CallingContext context, String docPath, long start, long size) {
+        InputStream in = getBlob(context, docPath);
+        if (in == null) return null;
+        try {
+            IOUtils.skip(in, start);
+        } catch (IOException e) {
+            log.debug(ExceptionToString.format(e));
+        }
+        return new BoundedInputStream(in, size);
+    }
+
+    @Override
+    public Long getBlobSize(CallingContext context, String docPath) {
+        ByteArrayInputStream in = (ByteArrayInputStream) getBlob(context, docPath);
+        return (in == null) ? null : (long) in.available();
+    }
 }
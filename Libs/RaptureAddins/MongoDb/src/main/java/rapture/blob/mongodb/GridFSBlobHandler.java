@@ -23,6 +23,7 @@
  */
 package rapture.blob.mongodb;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -30,6 +31,8 @@ import java.io.InputStream;
 import java.io.SequenceInputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.log4j.Logger;
 
 import rapture.common.CallingContext;
@@ -177,4 +180,26 @@ public class GridFSBlobHandler implements BlobHandler {
         return retVal;
     }
 
+    /**
+     * GridFS streams skip whole chunks without fetching them, so only the chunks covering the range are read
+     */
+    @Override
+    public InputStream getBlobPart(CallingContext context, String docPath, long start, long size) {
+        InputStream in = getBlob(context, docPath);
+        if (in == null) return null;
+        try {
+            IOUtils.skipFully(in, start);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return new BoundedInputStream(in, size);
+    }
+
+    @Override
+    public Long getBlobSize(CallingContext context, String docPath) {
+        GridFSDBFile file = getGridFS().findOne(docPath);
+        return (file == null) ? null : file.getLength();
+    }
+
 }
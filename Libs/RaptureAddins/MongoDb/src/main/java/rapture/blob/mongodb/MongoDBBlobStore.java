@@ -82,6 +82,26 @@ public class MongoDBBlobStore extends BaseBlobStore {
 
     }
 
+    @Override
+    public InputStream getBlobPart(CallingContext context, RaptureURI blobUri, Long start, Long size) {
+        try {
+            return blobHandler.getBlobPart(context, blobUri.getDocPath(), start, size);
+        } catch (MongoException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST,
+                    mongoMsgCatalog.getMessage("ReadError", new String[] { blobUri.getDocPath(), e.getMessage() }));
+        }
+    }
+
+    @Override
+    public Long getBlobSize(CallingContext context, RaptureURI blobUri) {
+        try {
+            return blobHandler.getBlobSize(context, blobUri.getDocPath());
+        } catch (MongoException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST,
+                    mongoMsgCatalog.getMessage("ReadError", new String[] { blobUri.getDocPath(), e.getMessage() }));
+        }
+    }
+
     @Override
     public void setConfig(Map<String, String> config) {
         String bucket;
@@ -63,6 +63,7 @@ import rapture.mongodb.MongoRetryWrapper;
 import rapture.notification.NotificationMessage;
 import rapture.notification.RaptureMessageListener;
 import rapture.repo.AbstractKeyStore;
+import rapture.repo.ConditionalKeyStore;
 import rapture.repo.KeyStore;
 import rapture.repo.RepoLockHandler;
 import rapture.repo.RepoVisitor;
@@ -80,7 +81,7 @@ import rapture.table.mongodb.MongoIndexHandler;
  *
  * @author alan
  */
-public class MongoDbDataStore extends AbstractKeyStore implements KeyStore, RaptureMessageListener<NotificationMessage> {
+public class MongoDbDataStore extends AbstractKeyStore implements ConditionalKeyStore, RaptureMessageListener<NotificationMessage> {
     private static final Logger log = Logger.getLogger(MongoDbDataStore.class);
     private static final String MONGODB = "MONGODB";
     private static final String $IN = "$in";
@@ -277,6 +278,14 @@ public class MongoDbDataStore extends AbstractKeyStore implements KeyStore, Rapt
         }
     }
 
+    @Override
+    public boolean putIfUnchanged(String key, String expectedValue, String newValue) {
+        // a single document update is atomic, so the filter on the old value makes this a compare-and-set
+        Document query = new Document(KEY, key).append(VALUE, expectedValue);
+        Document toPut = new Document($SET, new Document(VALUE, newValue));
+        return getCollection().updateOne(query, toPut).getMatchedCount() > 0;
+    }
+
     @Override
     public RaptureQueryResult runNativeQuery(final String repoType, final List<String> queryParams) {
         if (repoType.toUpperCase().equals(MONGODB)) {
@@ -25,7 +25,9 @@ package rapture.series.mongo;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -43,9 +45,11 @@ import com.google.common.collect.Lists;
 import com.mongodb.MongoException;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.IndexOptions;
-import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 
 import rapture.common.Messages;
@@ -76,6 +80,11 @@ public class MongoSeriesStore extends AbstractSeriesStore {
     public static final String ROWKEY = "row";
     public static final String COLKEY = "col";
     public static final String VALKEY = "val";
+    public static final String BATCH_SIZE = "batchSize";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+    private int batchSize = DEFAULT_BATCH_SIZE;
     private Cache<String, Boolean> keyCache = CacheBuilder.newBuilder().expireAfterAccess(3, TimeUnit.SECONDS).build();
     private final ChildrenRepo childrenRepo;
     private static Logger log = Logger.getLogger(MongoSeriesStore.class);
@@ -138,27 +147,65 @@ public class MongoSeriesStore extends AbstractSeriesStore {
 
     @Override
     public void addPointToSeries(String key, SeriesValue value) {
-        if (value.isDouble()) addDoubleToSeries(key, value.getColumn(), value.asDouble());
-        else if (value.isLong()) addLongToSeries(key, value.getColumn(), value.asLong());
-        else if (value.isString()) addStringToSeries(key, value.getColumn(), value.asString());
-        else if (value.isStructure()) addStructureToSeries(key, value.getColumn(), value.asString());
-        else throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, mongoMsgCatalog.getMessage("NoEncoder", value.asString()));
+        Object val = encode(value);
+        if (val == null) throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, mongoMsgCatalog.getMessage("NoEncoder", value.asString()));
+        saveDocument(key, value.getColumn(), val);
+    }
+
+    /**
+     * The stored form of a point: doubles and longs as themselves, strings with a leading quote and structures as their JSON. Returns null for
+     * values that cannot be stored.
+     */
+    private Object encode(SeriesValue value) {
+        if (value.isDouble()) return value.asDouble();
+        else if (value.isLong()) return value.asLong();
+        else if (value.isString()) return "'" + value.asString();
+        else if (value.isStructure()) return value.asString();
+        else return null;
     }
 
     private void saveDocument(String key, String column, Object val) {
         registerKey(key);
         MongoCollection<Document> collection = getCollection(key);
-        Document dbkey = new Document(ROWKEY, key).append(COLKEY, column);
-        Document dbval = new Document($SET, new Document(ROWKEY, key).append(COLKEY, column).append(VALKEY, val));
-        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER);
         try {
-            @SuppressWarnings("unused")
-            Document ret = collection.findOneAndUpdate(dbkey, dbval, options);
+            collection.updateOne(makeKey(key, column), makeUpdate(key, column, val), UPSERT);
         } catch (MongoException me) {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, new ExceptionToString(me));
         }
     }
 
+    private static Document makeKey(String key, String column) {
+        return new Document(ROWKEY, key).append(COLKEY, column);
+    }
+
+    private static Document makeUpdate(String key, String column, Object val) {
+        return new Document($SET, new Document(ROWKEY, key).append(COLKEY, column).append(VALKEY, val));
+    }
+
+    /**
+     * Write a batch of points to one series as a single unordered bulk upsert. Because the writes in an unordered batch may be applied in any
+     * order, the batch holds at most one value per column (the latest); batches themselves are written in sequence, so later points still win.
+     */
+    private void saveDocuments(String key, Map<String, Object> batch) {
+        if (batch.isEmpty()) return;
+        registerKey(key);
+        List<WriteModel<Document>> writes = new ArrayList<>(batch.size());
+        for (Map.Entry<String, Object> entry : batch.entrySet()) {
+            writes.add(new UpdateOneModel<Document>(makeKey(key, entry.getKey()), makeUpdate(key, entry.getKey(), entry.getValue()), UPSERT));
+        }
+        try {
+            getCollection(key).bulkWrite(writes, UNORDERED);
+        } catch (MongoException me) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, new ExceptionToString(me));
+        }
+        batch.clear();
+    }
+
+    private void addToBatch(String key, Map<String, Object> batch, String column, Object val) {
+        batch.put(column, val);
+        if (batch.size() >= batchSize) saveDocuments(key, batch);
+    }
+
     private static final String DIRECTORY_KEY = "..directory";
     private Callable<Boolean> FALSE_CALL = new Callable<Boolean>() {
         @Override
@@ -204,87 +251,67 @@ public class MongoSeriesStore extends AbstractSeriesStore {
         return ret;
     }
 
-    private <T> void multiAdd(String key, List<String> columns, List<T> values, Callback<T> c) {
+    private <T> void multiAdd(String key, List<String> columns, List<T> values, Encoder<? super T> encoder) {
         boolean nullKey = false;
         Preconditions.checkArgument(columns.size() == values.size());
+        Map<String, Object> batch = new LinkedHashMap<>();
         Iterator<String> col = columns.iterator();
         Iterator<T> val = values.iterator();
         while (col.hasNext()) {
             String column = col.next();
             T value = val.next();
             if (column == null) nullKey = true;
-            else c.go(key, column, value);
+            else addToBatch(key, batch, column, encoder.encode(value));
         }
+        saveDocuments(key, batch);
         if (nullKey) throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, mongoMsgCatalog.getMessage("NullKey"));
     }
 
     @Override
     public void addDoublesToSeries(String key, List<String> columns, List<Double> values) {
-        multiAdd(key, columns, values, multiDouble);
+        multiAdd(key, columns, values, asIs);
     }
 
     @Override
     public void addLongsToSeries(String key, List<String> columns, List<Long> values) {
-        multiAdd(key, columns, values, multiLong);
+        multiAdd(key, columns, values, asIs);
     }
 
     @Override
     public void addStringsToSeries(String key, List<String> columns, List<String> values) {
-        multiAdd(key, columns, values, multiString);
+        multiAdd(key, columns, values, quoted);
     }
 
     @Override
     public void addStructuresToSeries(String key, List<String> columns, List<String> values) {
-        multiAdd(key, columns, values, multiStruct);
+        multiAdd(key, columns, values, asIs);
     }
 
     @Override
     public void addPointsToSeries(String key, List<SeriesValue> values) {
-        Iterator<SeriesValue> val = values.iterator();
-        while (val.hasNext()) {
-            multiPoint.go(key, null, val.next());
+        Map<String, Object> batch = new LinkedHashMap<>();
+        for (SeriesValue value : values) {
+            Object val = encode(value);
+            if (val != null) addToBatch(key, batch, value.getColumn(), val);
         }
+        saveDocuments(key, batch);
     }
 
-    private interface Callback<T> {
-        public void go(String key, String column, T value);
+    private interface Encoder<T> {
+        public Object encode(T value);
     }
 
-    private Callback<Double> multiDouble = new Callback<Double>() {
-        @Override
-        public void go(String key, String column, Double value) {
-            addDoubleToSeries(key, column, value);
-        }
-    };
-
-    private Callback<Long> multiLong = new Callback<Long>() {
-        @Override
-        public void go(String key, String column, Long value) {
-            addLongToSeries(key, column, value);
-        }
-    };
-
-    private Callback<String> multiString = new Callback<String>() {
+    private static final Encoder<Object> asIs = new Encoder<Object>() {
         @Override
-        public void go(String key, String column, String value) {
-            addStringToSeries(key, column, value);
+        public Object encode(Object value) {
+            return value;
         }
     };
 
-    private Callback<String> multiStruct = new Callback<String>() {
+    private static final Encoder<String> quoted = new Encoder<String>() {
         @Override
-        public void go(String key, String column, String value) {
-            addStructureToSeries(key, column, value);
-        }
-    };
-
-    private Callback<SeriesValue> multiPoint = new Callback<SeriesValue>() {
-        @Override
-        public void go(String key, String column, SeriesValue value) {
-            if (value.isDouble()) addDoubleToSeries(key, value.getColumn(), value.asDouble());
-            else if (value.isLong()) addLongToSeries(key, value.getColumn(), value.asLong());
-            else if (value.isString()) addStringToSeries(key, value.getColumn(), value.asString());
-            else if (value.isStructure()) addStructureToSeries(key, value.getColumn(), value.asString());
+        public Object encode(String value) {
+            return "'" + value;
         }
     };
 
@@ -416,9 +443,14 @@ public class MongoSeriesStore extends AbstractSeriesStore {
         if (tableName == null) {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, mongoMsgCatalog.getMessage("NoPrefix"));
         }
+        String batchSizeString = config.get(BATCH_SIZE);
+        if (batchSizeString != null) {
+            batchSize = Integer.parseInt(batchSizeString);
+            Preconditions.checkArgument(batchSize > 0, BATCH_SIZE + " must be positive");
+        }
         // WARNING: Fragile code assumes setInstanceName is called BEFORE
         // setConfig
-        MongoDBFactory.getCollection(instanceName, tableName).createIndex(INDEX_KEYS, INDEX_OPTS);
+        getCollection(null).createIndex(INDEX_KEYS, INDEX_OPTS);
     }
 
     @Override
@@ -441,7 +473,7 @@ public class MongoSeriesStore extends AbstractSeriesStore {
         return childrenRepo.getChildren(folderName);
     }
 
-    private MongoCollection<Document> getCollection(String checkAllTheCallersIfYouStopIgnoringThisParameter) {
+    protected MongoCollection<Document> getCollection(String checkAllTheCallersIfYouStopIgnoringThisParameter) {
         MongoCollection<Document> result = MongoDBFactory.getCollection(instanceName, tableName);
         return result;
     }
@@ -34,6 +34,8 @@ import org.bson.BsonDocument;
 import org.bson.BsonInt32;
 import org.bson.Document;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.mongodb.client.DistinctIterable;
 import com.mongodb.client.FindIterable;
@@ -84,6 +86,9 @@ public class MongoIndexHandler implements IndexHandler {
     private String instanceName = "default";
     private IndexProducer indexProducer;
 
+    // Mongo filters for the shared, frozen queries handed out by IndexQueryFactory. Keys are compared by identity and dropped along with the query.
+    private final Cache<IndexQuery, Document> clauseCache = CacheBuilder.newBuilder().weakKeys().maximumSize(1000).build();
+
     @Override
     public void setInstanceName(String instanceName) {
         this.instanceName = instanceName;
@@ -323,7 +328,7 @@ public class MongoIndexHandler implements IndexHandler {
             log.debug("Parsed query " + indexQuery);
         }
         TableQueryResult res = new TableQueryResult();
-        final Document mongoQuery = getClause(indexQuery.getWhere());
+        final Document mongoQuery = getCachedClause(indexQuery);
         final MongoCollection<Document> collection = MongoDBFactory.getCollection(instanceName, tableName);
         List<List<Object>> rows = new ArrayList<>();
 
@@ -481,6 +486,22 @@ public class MongoIndexHandler implements IndexHandler {
         return res;
     }
 
+    /**
+     * The filter for a frozen query never changes, so build it once. The cached Document is only ever passed to find/distinct, which do not
+     * modify it.
+     */
+    private Document getCachedClause(IndexQuery indexQuery) {
+        if (!indexQuery.isFrozen()) {
+            return getClause(indexQuery.getWhere());
+        }
+        Document clause = clauseCache.getIfPresent(indexQuery);
+        if (clause == null) {
+            clause = getClause(indexQuery.getWhere());
+            clauseCache.put(indexQuery, clause);
+        }
+        return clause;
+    }
+
     private Document getClause(WhereClause whereClause) {
         log.debug("Getting where clause");
         Document ret = EpochManager.getNotEqualEpochQueryObject();
@@ -0,0 +1,114 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.series.mongo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.fakemongo.Fongo;
+import com.google.common.collect.ImmutableMap;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+
+/**
+ * Points written per millisecond when a series is written one findOneAndUpdate per point, as MongoSeriesStore did before multi-point adds were
+ * batched, against addDoublesToSeries writing the same points as bulk upserts of 1000. Both run against fongo, which has no network round trip,
+ * so the gap against a real server is larger. Not run as part of the unit tests, run the main method (or the JMH runner) against the test
+ * classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MongoSeriesStoreBenchmark {
+    private static final int POINTS = 5000;
+
+    private MongoCollection<Document> collection;
+    private MongoSeriesStore store;
+    private List<String> columns;
+    private List<Double> values;
+
+    @Setup
+    public void setUp() {
+        collection = new Fongo("mongoBenchmark").getDatabase("mongoBenchmarkDB").getCollection("mongoBenchmarkSeries");
+        store = new MongoSeriesStore() {
+            @Override
+            protected MongoCollection<Document> getCollection(String key) {
+                return collection;
+            }
+        };
+        store.setConfig(ImmutableMap.of("prefix", "mongoBenchmarkSeries", MongoSeriesStore.BATCH_SIZE, "1000"));
+        columns = new ArrayList<>(POINTS);
+        values = new ArrayList<>(POINTS);
+        for (int i = 0; i < POINTS; i++) {
+            columns.add(String.format("%06d", i));
+            values.add((double) i);
+        }
+    }
+
+    /**
+     * The per-point write MongoSeriesStore used to make for every point of a multi-point add
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void findOneAndUpdatePerPoint() {
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER);
+        for (int i = 0; i < POINTS; i++) {
+            Document dbkey = new Document(MongoSeriesStore.ROWKEY, "before").append(MongoSeriesStore.COLKEY, columns.get(i));
+            Document dbval = new Document("$set", new Document(MongoSeriesStore.ROWKEY, "before").append(MongoSeriesStore.COLKEY, columns.get(i))
+                    .append(MongoSeriesStore.VALKEY, values.get(i)));
+            collection.findOneAndUpdate(dbkey, dbval, options);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void addDoublesToSeries() {
+        store.addDoublesToSeries("after", columns, values);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MongoSeriesStoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}
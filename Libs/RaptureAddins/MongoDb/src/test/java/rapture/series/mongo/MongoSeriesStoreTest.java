@@ -0,0 +1,105 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.series.mongo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.fakemongo.Fongo;
+import com.google.common.collect.ImmutableMap;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import rapture.common.SeriesValue;
+import rapture.common.exception.RaptureException;
+import rapture.dsl.serfun.DecimalSeriesValue;
+import rapture.dsl.serfun.StringSeriesValue;
+
+public class MongoSeriesStoreTest {
+    private MongoCollection<Document> collection;
+    private MongoSeriesStore store;
+
+    @Before
+    public void setup() {
+        Fongo fongo = new Fongo("mongoUnitTest");
+        MongoDatabase db = fongo.getDatabase("mongoUnitTestDB");
+        collection = db.getCollection("mongoUnitTestSeries");
+        store = new MongoSeriesStore() {
+            @Override
+            protected MongoCollection<Document> getCollection(String key) {
+                return collection;
+            }
+        };
+        // a small batch size so that the tests cross batch boundaries
+        store.setConfig(ImmutableMap.of("prefix", "mongoUnitTestSeries", MongoSeriesStore.BATCH_SIZE, "7"));
+    }
+
+    @Test
+    public void testBatchedAdd() {
+        List<String> columns = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            columns.add(String.format("%03d", i));
+            values.add((double) i);
+        }
+        store.addDoublesToSeries("batched", columns, values);
+
+        List<SeriesValue> points = store.getPoints("batched");
+        assertEquals(50, points.size());
+        assertEquals(49.0, store.getLastPoint("batched").asDouble(), 0.0);
+    }
+
+    @Test
+    public void testLaterPointsWin() {
+        // the same column repeated within one batch and across batches
+        List<String> columns = Arrays.asList("a", "b", "a", "c", "d", "e", "f", "g", "h", "a");
+        List<Long> values = Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+        store.addLongsToSeries("repeats", columns, values);
+        assertEquals(10L, store.getPointsAfter("repeats", "a", 1).get(0).asLong());
+
+        store.addPointsToSeries("repeats", Arrays.<SeriesValue> asList(new StringSeriesValue("x", "b"), new DecimalSeriesValue(2.5, "b")));
+        assertEquals(2.5, store.getPointsAfter("repeats", "b", 1).get(0).asDouble(), 0.0);
+        assertEquals(8, store.getPoints("repeats").size());
+    }
+
+    @Test
+    public void testNullColumn() {
+        try {
+            store.addStringsToSeries("nulls", Arrays.asList("a", null, "c"), Arrays.asList("1", "2", "3"));
+            fail("Null column should be rejected");
+        } catch (RaptureException e) {
+            // the valid points are still written
+            assertEquals(2, store.getPoints("nulls").size());
+            assertEquals("3", store.getPointsAfter("nulls", "c", 1).get(0).asString());
+        }
+    }
+}
@@ -13,8 +13,11 @@
 package rapture.repo.postgres;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.ddlutils.Platform;
 import org.apache.ddlutils.model.Column;
 import org.apache.ddlutils.model.Table;
@@ -40,6 +43,24 @@ public class PostgresSqlGenerator extends StandardSqlGenerator {
         return String.format("ALTER TABLE %s %s", getSafeFullName(schema, table), getColumnExpression("RENAME COLUMN %s TO %s", columns));
     }
 
+    @Override
+    public String constructUpsertPreparedStatement(String schema, String table, List<String> columnNames, List<String> keyColumns) {
+        List<String> updates = new ArrayList<>();
+        for (String column : columnNames) {
+            if (!keyColumns.contains(column)) {
+                updates.add(String.format("%s=EXCLUDED.%s", column, column));
+            }
+        }
+        return String.format("INSERT INTO %s (%s) VALUES %s ON CONFLICT (%s) DO %s", getSafeFullName(schema, table), StringUtils.join(columnNames, ','),
+                getPreparedStatementQuestionMarks(1, columnNames.size()), StringUtils.join(keyColumns, ','),
+                updates.isEmpty() ? "NOTHING" : "UPDATE SET " + StringUtils.join(updates, ','));
+    }
+
+    @Override
+    public String constructCopyIn(String schema, String table, List<String> columnNames) {
+        return String.format("COPY %s (%s) FROM STDIN WITH (FORMAT csv)", getSafeFullName(schema, table), StringUtils.join(columnNames, ','));
+    }
+
     @Override
     public String constructGetIndexes(String schema, String table) {
         return String.format("SELECT indexname, indexdef FROM pg_indexes WHERE schemaname='%s' and tablename='%s'", schema, table);
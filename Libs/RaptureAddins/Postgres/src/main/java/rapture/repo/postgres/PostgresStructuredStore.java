@@ -12,6 +12,26 @@
  */
 package rapture.repo.postgres;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.postgresql.PGConnection;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import rapture.common.exception.RaptureExceptionFactory;
 import rapture.postgres.PostgresFactory;
 import rapture.repo.jdbc.JDBCStructuredStore;
 import rapture.repo.jdbc.TransactionAwareDataSource;
@@ -29,4 +49,87 @@ public class PostgresStructuredStore extends JDBCStructuredStore {
         return new PostgresSqlGenerator();
     }
 
+    /**
+     * Streams the rows to the server with COPY, which is far quicker than any number of inserts. The columns are those of the first row.
+     */
+    @Override
+    public Long loadRows(final String tableName, Iterator<? extends Map<String, ?>> rows) {
+        if (!rows.hasNext()) {
+            return 0L;
+        }
+        final PeekingIterator<? extends Map<String, ?>> peekingRows = Iterators.peekingIterator(rows);
+        final List<String> columnNames = new ArrayList<>(peekingRows.peek().keySet());
+        return jdbc.execute(new ConnectionCallback<Long>() {
+            @Override
+            public Long doInConnection(Connection connection) throws SQLException, DataAccessException {
+                try {
+                    return connection.unwrap(PGConnection.class).getCopyAPI()
+                            .copyIn(sqlGenerator.constructCopyIn(schema, tableName, columnNames), new CsvReader(columnNames, peekingRows));
+                } catch (IOException e) {
+                    throw RaptureExceptionFactory.create(String.format("Failed to load rows into [%s]", tableName), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Presents rows as CSV text, one row at a time
+     */
+    private static class CsvReader extends Reader {
+        private final List<String> columnNames;
+        private final Iterator<? extends Map<String, ?>> rows;
+        private final StringBuilder line = new StringBuilder();
+        private int linePos = 0;
+
+        CsvReader(List<String> columnNames, Iterator<? extends Map<String, ?>> rows) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (linePos == line.length()) {
+                if (!rows.hasNext()) {
+                    return -1;
+                }
+                line.setLength(0);
+                linePos = 0;
+                appendRow(rows.next());
+            }
+            int count = Math.min(len, line.length() - linePos);
+            line.getChars(linePos, linePos + count, cbuf, off);
+            linePos += count;
+            return count;
+        }
+
+        private void appendRow(Map<String, ?> row) {
+            if (!columnNames.containsAll(row.keySet())) {
+                throw RaptureExceptionFactory.create(String.format("Every row must have only the columns %s, not %s", columnNames, row.keySet()));
+            }
+            for (int i = 0; i < columnNames.size(); i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                Object value = row.get(columnNames.get(i));
+                // an unquoted empty value is null, a quoted one is an empty string
+                if (value != null) {
+                    line.append('"').append(format(value).replace("\"", "\"\"")).append('"');
+                }
+            }
+            line.append('\n');
+        }
+
+        private static String format(Object value) {
+            if (value instanceof byte[]) {
+                return "\\x" + Hex.encodeHexString((byte[]) value);
+            } else if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof Timestamp)) {
+                return new Timestamp(((Date) value).getTime()).toString();
+            }
+            return value.toString();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -32,6 +32,7 @@ import rapture.repo.postgres.PostgresSanitizer;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -45,6 +46,9 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import rapture.config.MultiValueConfigLoader;
 
 public class PostgresIndexHandler implements IndexHandler {
@@ -59,6 +63,9 @@ public class PostgresIndexHandler implements IndexHandler {
     private Map<String, IndexFieldType> fieldToType;
     private String instanceName;
 
+    // SQL for recently run queries. The SQL depends on the field types, so this is cleared whenever an index is (re)defined.
+    private final Cache<String, PreparedQuery> preparedQueries = CacheBuilder.newBuilder().maximumSize(1000).build();
+
     public PostgresIndexHandler() {
         fieldToType = new HashMap<>();
     }
@@ -120,6 +127,7 @@ public class PostgresIndexHandler implements IndexHandler {
             fieldToType.put(fieldName, fieldType);
             pgFields.add(String.format("(%s)", pgField));
         }
+        preparedQueries.invalidateAll();
 
         String pgFieldsString = StringUtils.join(pgFields, ", ");
         String pgIndexName = sanitizer.sanitizeIndexName(String.format("%s_%s", tableName, indexDefinition.getIndexName()));
@@ -145,33 +153,42 @@ public class PostgresIndexHandler implements IndexHandler {
     @Override
     public TableQueryResult query(String query) {
         log.debug("Performing query " + query);
-        final IndexQuery parsedQuery = IndexQueryFactory.parseQuery(query);
+        final PreparedQuery prepared = prepareQuery(query);
 
         TableQueryResult result = new TableQueryResult();
 
-        List<String> selectFields = formatSelect(parsedQuery.getSelect().getFieldList());
-        String selectClause = StringUtils.join(selectFields, ", ");
-        PostgresWhereClause whereClause = QueryParser.parseWhereClause(fieldToType, parsedQuery.getWhere());
-        String sql = String.format("SELECT %s \n"
-                + "FROM %s\n"
-                + "WHERE (%s)", selectClause, tableName, whereClause.getSql());
-
         RowMapper<List<Object>> rowMapper = new RowMapper<List<Object>>() {
             @Override
             public List<Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
                 List<Object> list = new LinkedList<>();
-                for (String field : parsedQuery.getSelect().getFieldList()) {
+                for (String field : prepared.fields) {
                     Object object = rs.getObject(field);
                     list.add(object);
                 }
                 return list;
             }
         };
-        List<List<Object>> resultRows = namedJdbcTemplate.query(sql, whereClause.getParameterSource(), rowMapper);
+        List<List<Object>> resultRows = namedJdbcTemplate.query(prepared.sql, prepared.parameters, rowMapper);
         result.setRows(resultRows);
         return result;
     }
 
+    private PreparedQuery prepareQuery(String query) {
+        PreparedQuery prepared = preparedQueries.getIfPresent(query);
+        if (prepared == null) {
+            IndexQuery parsedQuery = IndexQueryFactory.parseQuery(query);
+            List<String> selectFields = formatSelect(parsedQuery.getSelect().getFieldList());
+            String selectClause = StringUtils.join(selectFields, ", ");
+            PostgresWhereClause whereClause = QueryParser.parseWhereClause(fieldToType, parsedQuery.getWhere());
+            String sql = String.format("SELECT %s \n"
+                    + "FROM %s\n"
+                    + "WHERE (%s)", selectClause, tableName, whereClause.getSql());
+            prepared = new PreparedQuery(parsedQuery.getSelect().getFieldList(), sql, whereClause.getParameterSource().getValues());
+            preparedQueries.put(query, prepared);
+        }
+        return prepared;
+    }
+
     private List<String> formatSelect(List<String> fieldList) {
         List<String> list = new ArrayList<>(fieldList.size());
         for (String field : fieldList) {
@@ -211,4 +228,18 @@ public class PostgresIndexHandler implements IndexHandler {
         //noop
     }
 
+    /**
+     * A query translated to SQL. The parameters are held read-only and only ever read by the JDBC template.
+     */
+    private static class PreparedQuery {
+        private final List<String> fields;
+        private final String sql;
+        private final Map<String, ?> parameters;
+
+        PreparedQuery(List<String> fields, String sql, Map<String, Object> parameters) {
+            this.fields = fields;
+            this.sql = sql;
+            this.parameters = Collections.unmodifiableMap(new HashMap<>(parameters));
+        }
+    }
 }
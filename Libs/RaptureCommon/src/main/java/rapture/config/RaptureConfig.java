@@ -64,6 +64,8 @@ public class RaptureConfig {
     public String DefaultPipelineTaskStatus = "TABLE {} USING MEMORY {}";
     public String Categories = "alpha";
     public Boolean WorkflowOnPipeline = false;
+    // workflow steps a worker may run back to back on this server before going back through the pipeline, 0 to always publish
+    public int WorkflowLocalChainDepth = 10;
     public Boolean InitConfig = false;
     public String InitSysConfig = "NREP {} USING MEMORY { prefix=\"sys.config\"}";
     public String InitSysEphemeral = "REP {} USING MEMORY { prefix=\"sys.emphemeral\"}";
@@ -99,6 +101,27 @@ public class RaptureConfig {
     // maximum number of series points to return from any series get* call
     public int SeriesOverflowLimit = 100000;
 
+    // number of parsed Reflex scripts to keep, see ReflexParseCache
+    public int ReflexParseCacheSize = 1000;
+
+    // threads shared by every Reflex pfor loop in the process, 0 for the larger of the processor count and ReflexParallelismPerScript, see ReflexParallel
+    public int ReflexParallelism = 0;
+    // most pfor iterations a single Reflex script runs at once
+    public int ReflexParallelismPerScript = 10;
+
+    // number of parsed index queries to keep, see IndexQueryFactory
+    public int IndexQueryCacheSize = 1000;
+
+    // number of parsed structured repo SQL statements to keep, see ParsedSql in the JDBC addin
+    public int StructuredSqlCacheSize = 1000;
+
+    // number of open stateless structured repo cursors to keep, and minutes an unused one is kept for, see JDBCStructuredStore
+    public int StructuredCursorCacheSize = 10000;
+    public int StructuredCursorExpiryMinutes = 30;
+
+    // bytes (of serialized JSON) of decoded objects to keep per versioned repo, see ObjectDatabase
+    public long ObjectDatabaseCacheBytes = 16L * 1024 * 1024;
+
     public String DefaultPythonLocation = "/usr/bin/python";
     public String DefaultAnacondaPythonLocation = "/opt/anaconda/bin/python";
     public String DefaultAnacondaRoot = "/opt/anaconda/envs/";
@@ -117,6 +140,11 @@ public class RaptureConfig {
     public String FullTextSearchDefaultRepo = "search://main";
     public String FullTextSearchDefaultConfig = "SEARCH {} USING ELASTIC { index = \"rapturemain\" }";
 
+    // search updates are buffered and indexed in bulk, see SearchIndexBuffer
+    public int FullTextSearchBatchSize = 500;
+    public long FullTextSearchFlushMillis = 1000L;
+    public int FullTextSearchMaxPending = 5000;
+
     public void applyOverrides() {
         // Apply overrides to the public fields by looking for properties or env
         // variables that
@@ -16,6 +16,7 @@ options {
 // [REPSTYLE] { x=y, ...} using [STORESTYLE] { x=y, ...}
 
 ELASTIC : 'ELASTIC';
+LUCENE : 'LUCENE';
 
 SEARCH : 'SEARCH';
 
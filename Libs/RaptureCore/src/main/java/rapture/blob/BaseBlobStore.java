@@ -26,9 +26,10 @@ package rapture.blob;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 
 import rapture.common.CallingContext;
 import rapture.common.RaptureURI;
@@ -46,20 +47,33 @@ public abstract class BaseBlobStore implements BlobStore {
         return instanceName;
     }
 
+    /**
+     * Fallback for stores that cannot seek: skips to the start of the range and bounds the stream, so the blob is read but never held in memory.
+     * Stores that can read a range natively should override this.
+     */
     @Override
     public InputStream getBlobPart(CallingContext context, RaptureURI blobUri, Long start, Long size) {
+        InputStream in = getBlob(context, blobUri);
+        if (in == null) return null;
         try {
-            return new ByteArrayInputStream(Arrays.copyOfRange(IOUtils.toByteArray(getBlob(context, blobUri)), start.intValue(), start.intValue() + size.intValue()));
+            IOUtils.skipFully(in, start);
         } catch (IOException e) {
-            throw new IllegalStateException(e);
+            IOUtils.closeQuietly(in);
+            // A range starting past the end of the blob is empty
+            return new ByteArrayInputStream(new byte[0]);
         }
+        return new BoundedInputStream(in, size);
     }
 
+    /**
+     * Fallback for stores that do not know the size of a blob: counts the bytes as they are read. Stores that can get the size from metadata should
+     * override this.
+     */
     @Override
     public Long getBlobSize(CallingContext context, RaptureURI blobUri) {
-        try {
-            long retVal = IOUtils.toByteArray(getBlob(context, blobUri)).length;
-            return retVal;
+        try (InputStream in = getBlob(context, blobUri)) {
+            if (in == null) return null;
+            return IOUtils.copyLarge(in, new NullOutputStream());
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
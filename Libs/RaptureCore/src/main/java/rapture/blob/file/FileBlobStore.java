@@ -29,13 +29,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
@@ -179,6 +183,30 @@ public class FileBlobStore extends BaseBlobStore implements BlobStore {
         }
     }
 
+    /**
+     * Positions a channel at the start of the range, so only the requested bytes are read from disk
+     */
+    @Override
+    public InputStream getBlobPart(CallingContext context, RaptureURI blobUri, Long start, Long size) {
+        File f = FileRepoUtils.makeGenericFile(parentDir, blobUri.getDocPath() + Parser.COLON_CHAR);
+        if (!f.exists()) return null;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            channel.position(start);
+            return new BoundedInputStream(Channels.newInputStream(channel), size);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(channel);
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Error reading blob from file", e);
+        }
+    }
+
+    @Override
+    public Long getBlobSize(CallingContext context, RaptureURI blobUri) {
+        File f = FileRepoUtils.makeGenericFile(parentDir, blobUri.getDocPath() + Parser.COLON_CHAR);
+        return f.exists() ? f.length() : null;
+    }
+
     @Override
     public void setConfig(Map<String, String> config) {
         // What happens if this is called twice?
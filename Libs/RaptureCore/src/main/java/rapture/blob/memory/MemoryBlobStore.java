@@ -94,6 +94,21 @@ public class MemoryBlobStore extends BaseBlobStore implements BlobStore {
         return null;
     }
 
+    @Override
+    public InputStream getBlobPart(CallingContext context, RaptureURI blobUri, Long start, Long size) {
+        byte[] content = contentMap.get(blobUri.getDocPath());
+        if (content == null) return null;
+        int offset = (int) Math.min(start, content.length);
+        int length = (int) Math.min(size, content.length - offset);
+        return new ByteArrayInputStream(content, offset, length);
+    }
+
+    @Override
+    public Long getBlobSize(CallingContext context, RaptureURI blobUri) {
+        byte[] content = contentMap.get(blobUri.getDocPath());
+        return (content == null) ? null : (long) content.length;
+    }
+
     @Override
     public void setConfig(Map<String, String> config) {
     }
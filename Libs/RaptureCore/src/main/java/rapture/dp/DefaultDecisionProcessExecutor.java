@@ -44,6 +44,7 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -79,12 +80,14 @@ import rapture.common.dp.Workflow;
 import rapture.common.dp.WorkflowStorage;
 import rapture.common.event.DPEventConstants;
 import rapture.common.event.EventConstants;
+import rapture.common.exception.ExceptionToString;
 import rapture.common.exception.RaptureException;
 import rapture.common.exception.RaptureExceptionFactory;
 import rapture.common.impl.jackson.JacksonUtil;
 import rapture.common.jar.ChildFirstClassLoader;
 import rapture.common.jar.ParentFirstClassLoader;
 import rapture.common.mime.MimeDecisionProcessAdvance;
+import rapture.config.ConfigLoader;
 import rapture.config.LocalConfigService;
 import rapture.dp.event.WorkOrderStatusUpdateEvent;
 import rapture.dp.metrics.WorkflowMetricsService;
@@ -125,6 +128,9 @@ public class DefaultDecisionProcessExecutor implements DecisionProcessExecutor {
     private static final ExecutorService metricsExecutor = Executors
             .newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("DP-Metrics-Executor").build());
 
+    // steps waiting to be run on this thread instead of going through the pipeline, see advance
+    private static final ThreadLocal<LocalChain> localChain = new ThreadLocal<>();
+
     static {
         RETURN.setName("$RETURN");
         RETURN.setTargetStep("$RETURN");
@@ -334,6 +340,39 @@ public class DefaultDecisionProcessExecutor implements DecisionProcessExecutor {
 
     @Override
     public void executeStep(Worker worker) {
+        if (localChain.get() != null) {
+            runStep(worker);
+            return;
+        }
+        LocalChain chain = new LocalChain();
+        localChain.set(chain);
+        try {
+            runStep(worker);
+            while (chain.next != null) {
+                Worker next = chain.next;
+                chain.next = null;
+                String workOrderURI = new RaptureURI(next.getWorkOrderURI(), Scheme.WORKORDER).withoutElement().toString();
+                if (Kernel.getDecision().wasCancelCalled(ContextFactory.getKernelUser(), workOrderURI)) {
+                    // let the pipeline handler wind the worker up, as it does for any other cancelled step
+                    publishStep(next, chain.category);
+                } else {
+                    try {
+                        runStep(next);
+                    } catch (RuntimeException e) {
+                        // fail this step alone, as the pipeline handler would have had it been published, the step that started the chain has finished
+                        log.error(String.format("Locally chained step of worker %s failed: %s", next.getId(), ExceptionToString.summary(e)));
+                    }
+                }
+            }
+        } finally {
+            localChain.remove();
+            if (chain.next != null) {
+                publishStep(chain.next, chain.category);
+            }
+        }
+    }
+
+    private void runStep(Worker worker) {
         WorkOrder workOrder = WorkOrderFactory.loadWorkOrder(worker);
         if (workOrder == null) {
             log.warn("No work order for worker " + worker.toString());
@@ -713,8 +752,7 @@ public class DefaultDecisionProcessExecutor implements DecisionProcessExecutor {
                 stack.add(0, nextStepURI);
                 try {
                     String stepCategory = Kernel.getDecision().getStepCategory(ContextFactory.getKernelUser(), nextStepURI);
-                    saveWorker(worker);
-                    publishStep(worker, stepCategory);
+                    advance(worker, stepCategory);
                 } catch (RaptureException e) {
                     // For debugging it helps if we log the step name. getStepCategory doesn't know what the name is.
                     log.error("Error in step " + step.getName() + ": " + e.getMessage());
@@ -960,8 +998,6 @@ public class DefaultDecisionProcessExecutor implements DecisionProcessExecutor {
                     throw RaptureExceptionFactory.create("Unable to determine start step for " + executableUri);
                 }
                 String stepURI = RaptureURI.builder(executableUri).element(stepName).build().toString();
-                // TODO optimize to just immediately execute if current
-                // server supports listed category
                 String category = Kernel.getDecision().getTrusted().getStepCategory(ctx, stepURI);
                 worker.getStack().add(0, stepURI);
                 // Push the view context for this workflow onto the local
@@ -974,8 +1010,7 @@ public class DefaultDecisionProcessExecutor implements DecisionProcessExecutor {
                     appStatusName = "";
                 }
                 worker.getAppStatusNameStack().add(0, appStatusName);
-                saveWorker(worker);
-                publishStep(worker, category);
+                advance(worker, category);
                 return REPUBLISHED;
             case DP_JAVA_INVOCABLE:
                 AbstractInvocable<?> abstractInvocable = findInvocable(ctx, step, flow, executableUri, workerURI, stepRecord);
@@ -1019,6 +1054,46 @@ public class DefaultDecisionProcessExecutor implements DecisionProcessExecutor {
         WorkerStorage.add(worker, ContextFactory.getKernelUser().getUser(), "Updating Worker");
     }
 
+    /**
+     * Save the worker and send it on to the step at the top of its stack. If this server takes steps in that category the step is run on this thread once the
+     * current one has finished, rather than going round the pipeline, until WorkflowLocalChainDepth steps have been run that way and the worker goes back on
+     * the pipeline behind everything else.
+     *
+     * @param worker
+     *            - The {@link Worker} to move on, with the next step on top of its stack
+     * @param category
+     *            The category associated with the next step
+     */
+    private static void advance(Worker worker, String category) {
+        saveWorker(worker);
+        LocalChain chain = localChain.get();
+        if (chain != null && chain.next == null && chain.length < ConfigLoader.getConf().WorkflowLocalChainDepth && Kernel.runsStepsFor(category)) {
+            // take a copy as the pipeline would, the current step still has to finish with the worker
+            chain.next = JacksonUtil.objectFromJson(JacksonUtil.jsonFromObject(worker), Worker.class);
+            chain.category = category;
+            chain.length++;
+            log.debug(String.format("Running next step of worker %s on this server", worker.getId()));
+        } else {
+            publishStep(worker, category);
+        }
+    }
+
+    /**
+     * @return the number of steps this thread has taken on in place of publishing them since it took its current worker off the pipeline, so 0
+     *         while running the step that came off the pipeline, 1 while running the first step chained from it and so on
+     */
+    @VisibleForTesting
+    public static int getLocalChainLength() {
+        LocalChain chain = localChain.get();
+        return (chain == null) ? 0 : chain.length;
+    }
+
+    private static class LocalChain {
+        private Worker next;
+        private String category;
+        private int length;
+    }
+
     @Override
     public void start(CallingContext context, Worker worker) {
         log.trace("DefaultDecisionProcessExecutor.start");
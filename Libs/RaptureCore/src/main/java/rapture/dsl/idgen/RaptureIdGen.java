@@ -24,6 +24,8 @@
 package rapture.dsl.idgen;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
@@ -34,12 +36,19 @@ import rapture.dsl.idgen.IdGenStore;
  * 
  * The implementation of the idgen store is provided by the factory that
  * creates this idgen
+ * 
+ * If the config has a blockSize greater than 1 then ids are not taken from
+ * the store one at a time; instead this idgen reserves blockSize ids from the
+ * store in one go and hands them out locally until they run out. Ids remain
+ * unique across servers and restarts, but unused ids in a block are lost when
+ * the server stops (so there may be gaps), and ids from different servers are
+ * no longer issued in strictly increasing order.
  */
 
 public class RaptureIdGen {
     @Override
     public String toString() {
-        return "RaptureIdGen [prefix=" + prefix + ", base=" + base + ", length=" + length + ", initial=" + initial + ", idgenStore=" + idgenStore + "]";
+        return "RaptureIdGen [prefix=" + prefix + ", base=" + base + ", length=" + length + ", initial=" + initial + ", blockSize=" + blockSize + ", idgenStore=" + idgenStore + "]";
     }
 
     private static Logger log = Logger.getLogger(RaptureIdGen.class);
@@ -49,6 +58,7 @@ public class RaptureIdGen {
     private static final String BASE = "base";
     private static final String PREFIX = "prefix";
     private static final String INITIAL = "initial";
+    private static final String BLOCK_SIZE = "blockSize";
     /**
      * What prefix (if any) we should put before any ids returned by this
      * idgen
@@ -69,6 +79,18 @@ public class RaptureIdGen {
      * Useful if you have multiple limited-range idgens that cannot overlap. (eg Reuters)
      */
     private Long initial = 0L;
+
+    /**
+     * How many ids to reserve from the store at a time. 0 or 1 means go to
+     * the store for every id.
+     */
+    private long blockSize = 0L;
+
+    /**
+     * The ids reserved by this idgen that have not been handed out yet, if
+     * blockSize is in use
+     */
+    private final AtomicReference<IdBlock> block = new AtomicReference<>();
     
     /**
      * What to use to actually interact with the persistent idgen
@@ -86,7 +108,7 @@ public class RaptureIdGen {
     }
 
     public String incrementIdGen(Long amount) {
-        Long newNumber = idgenStore.getNextIdGen(amount);
+        Long newNumber = nextNumber(amount);
         String val = Long.toString(newNumber, this.base).toUpperCase();
         // Keep to length chars?
         int _length = val.length();
@@ -103,6 +125,39 @@ public class RaptureIdGen {
         return prefix + val;
     }
 
+    private Long nextNumber(Long amount) {
+        // Zero is used to read the current value, so always ask the store
+        if (blockSize <= 1L || amount <= 0L) {
+            return idgenStore.getNextIdGen(amount);
+        }
+        while (true) {
+            IdBlock current = block.get();
+            if (current != null) {
+                Long number = current.take(amount);
+                if (number != null) {
+                    return number;
+                }
+            }
+            // Only one thread reserves a new block, the others retry against it
+            synchronized (this) {
+                if (block.get() == current) {
+                    long size = Math.max(blockSize, amount);
+                    long top = idgenStore.getNextIdGen(size);
+                    block.set(new IdBlock(top - size, top));
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the value of the underlying store, discarding any ids reserved by
+     * this idgen so that they cannot be handed out after the reset
+     */
+    public synchronized void resetIdGen(Long number) {
+        block.set(null);
+        idgenStore.resetIdGen(number);
+    }
+
     // TODO: Take these static strings for the config and handle them better,
     // probably through some config class
 
@@ -160,13 +215,53 @@ public class RaptureIdGen {
                 log.error("Illegal initial value "+i+" - ignored");
             }
         }
+
+        String bs = config.get(BLOCK_SIZE);
+        if (bs != null) {
+            try {
+                blockSize = Long.parseLong(bs);
+            } catch (NumberFormatException e) {
+                log.error("Illegal block size "+bs+" - ignored");
+            }
+        }
     }
     
     public void invalidate() {
+        block.set(null);
         idgenStore.invalidate();
     }
     
     public void makeValid() {
         idgenStore.makeValid();
     }
+
+    /**
+     * A range of ids reserved from the store. last is the most recent id
+     * handed out, and end is the last id in the range.
+     */
+    private static class IdBlock {
+        private final AtomicLong last;
+        private final long end;
+
+        IdBlock(long last, long end) {
+            this.last = new AtomicLong(last);
+            this.end = end;
+        }
+
+        /**
+         * @return the new last id, or null if there are not enough ids left
+         */
+        Long take(long amount) {
+            while (true) {
+                long current = last.get();
+                long next = current + amount;
+                if (next > end || next < current) {
+                    return null;
+                }
+                if (last.compareAndSet(current, next)) {
+                    return next;
+                }
+            }
+        }
+    }
 }
@@ -45,6 +45,7 @@ public class IndexQuery {
 
     private int limit;
     private int skip = 0;
+    private boolean frozen = false;
 
     public SelectList getOrderBy() {
         return orderBy;
@@ -55,22 +56,26 @@ public class IndexQuery {
     }
 
     public IndexQuery setSelect(SelectList select) {
+        checkMutable();
         this.select = select;
         return this;
 
     }
 
     public IndexQuery setSelect(String select) {
+        checkMutable();
         this.select = new SelectList(select);
         return this;
     }
 
     public IndexQuery setSelect(Collection<String> select) {
+        checkMutable();
         this.select = new SelectList(select);
         return this;
     }
 
     public IndexQuery setWhere(WhereClause where) {
+        checkMutable();
         this.where = where;
         return this;
     }
@@ -81,11 +86,13 @@ public class IndexQuery {
     }
 
     public IndexQuery setOrderBy(SelectList orderBy) {
+        checkMutable();
         this.orderBy = orderBy;
         return this;
     }
 
     public IndexQuery setOrderDirection(OrderDirection direction) {
+        checkMutable();
         this.direction = direction;
         return this;
     }
@@ -101,6 +108,7 @@ public class IndexQuery {
     }
 
     public IndexQuery setDistinct(boolean distinct) {
+        checkMutable();
         this.distinct = distinct;
         return this;
     }
@@ -110,14 +118,41 @@ public class IndexQuery {
     }
 
     public void setLimit(int limit) {
+        checkMutable();
         this.limit = Math.abs(limit);
     }
     
     public void setSkip(int skip) {
+        checkMutable();
         this.skip = Math.abs(skip);
     }
     
     public int getSkip() {
     	return skip;
     }
+
+    /**
+     * Make this query (and its select, where and order by parts) read-only, so that a single parsed instance can be shared between threads.
+     * Any later attempt to change it throws an IllegalStateException or UnsupportedOperationException.
+     */
+    IndexQuery freeze() {
+        if (!frozen) {
+            getSelect().freeze();
+            getWhere().freeze();
+            orderBy.freeze();
+            frozen = true;
+        }
+        return this;
+    }
+
+    /**
+     * @return true if this query is shared and must not be modified; see {@link IndexQueryFactory#parseQuery(String)}
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkMutable() {
+        if (frozen) throw new IllegalStateException("Parsed index queries are shared and cannot be modified");
+    }
 }
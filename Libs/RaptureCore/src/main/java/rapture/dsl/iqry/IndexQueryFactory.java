@@ -26,6 +26,7 @@ package rapture.dsl.iqry;
 import rapture.common.exception.RaptureException;
 import rapture.common.exception.RaptureExceptionFactory;
 import rapture.common.exception.RaptureExceptionFormatter;
+import rapture.config.ConfigLoader;
 import rapture.generated.IndexQueryLexer;
 import rapture.generated.IndexQueryParser;
 import rapture.generated.IndexQueryParser.qry_return;
@@ -36,10 +37,35 @@ import org.antlr.runtime.RecognitionException;
 import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 public class IndexQueryFactory {
     private static final Logger log = Logger.getLogger(IndexQueryFactory.class);
 
+    private static final Cache<String, IndexQuery> parsedQueries = CacheBuilder.newBuilder()
+            .maximumSize(ConfigLoader.getConf().IndexQueryCacheSize).build();
+
+    /**
+     * Parse and validate an index query. The same few query strings tend to be run over and over again, so the result is cached and shared: the
+     * returned query is frozen (see {@link IndexQuery#isFrozen()}) and the same instance is returned for the same query string. Queries that fail
+     * to parse or validate are not cached, so they always produce the same error.
+     */
     public static IndexQuery parseQuery(String query) {
+        if (query == null) {
+            return parse(query);
+        }
+        IndexQuery indexQuery = parsedQueries.getIfPresent(query);
+        if (indexQuery == null) {
+            indexQuery = parse(query);
+            if (indexQuery != null) {
+                parsedQueries.put(query, indexQuery.freeze());
+            }
+        }
+        return indexQuery;
+    }
+
+    private static IndexQuery parse(String query) {
         IndexQueryLexer lexer = new IndexQueryLexer();
         lexer.setCharStream(new ANTLRStringStream(query));
         CommonTokenStream tokens = new CommonTokenStream(lexer);
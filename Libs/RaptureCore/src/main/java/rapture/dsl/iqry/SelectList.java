@@ -25,6 +25,7 @@ package rapture.dsl.iqry;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 public class SelectList {
@@ -59,4 +60,8 @@ public class SelectList {
 	public List<String> getFieldList() {
 	    return fieldList;
 	}
+
+    void freeze() {
+        fieldList = Collections.unmodifiableList(fieldList);
+    }
 }
@@ -24,6 +24,7 @@
 package rapture.dsl.iqry;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class WhereClause {
@@ -39,8 +40,10 @@ public class WhereClause {
 
     private WhereStatement primaryStatement;
 	private List<WhereExtension> extensions = new ArrayList<>();
+	private boolean frozen = false;
 	
 	public void addStatement(WhereStatement where) {
+        if (frozen) throw new IllegalStateException("Parsed index queries are shared and cannot be modified");
 	    // What if we already have a a primary?
 		this.primaryStatement = where;
 	}
@@ -48,6 +51,7 @@ public class WhereClause {
 	// Joiner is ignored for first statement. This eliminates fencepost problems.
 	
     public WhereClause appendStatement(WhereJoiner joiner, WhereStatement where) {
+        if (frozen) throw new IllegalStateException("Parsed index queries are shared and cannot be modified");
         if (primaryStatement == null)
             this.primaryStatement = where;
         else
@@ -56,6 +60,7 @@ public class WhereClause {
     }
 
     public WhereClause appendStatement(String joiner, WhereStatement where) {
+        if (frozen) throw new IllegalStateException("Parsed index queries are shared and cannot be modified");
         if (primaryStatement == null)
             this.primaryStatement = where;
         else
@@ -70,4 +75,9 @@ public class WhereClause {
     public List<WhereExtension> getExtensions() {
         return extensions;
     }
+
+    void freeze() {
+        extensions = Collections.unmodifiableList(extensions);
+        frozen = true;
+    }
 }
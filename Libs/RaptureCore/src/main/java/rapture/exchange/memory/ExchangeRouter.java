@@ -23,35 +23,93 @@
  */
 package rapture.exchange.memory;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
 import rapture.common.RapturePipelineTask;
+import rapture.common.exception.RaptureExceptionFactory;
 import rapture.common.model.RaptureExchange;
 import rapture.common.model.RaptureExchangeQueue;
 import rapture.exchange.QueueHandler;
+import rapture.kernel.Kernel;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Routes tasks put on a memory exchange to the handlers of the bound queues. Each queue has its own bounded work queue and a fixed pool of
+ * consumer threads, configured through the exchange config:
+ * 
+ * <ul>
+ * <li>consumers - the number of consumer threads per queue (default 8)</li>
+ * <li>queueSize - how many tasks may wait per queue (default 10000)</li>
+ * <li>whenFull - what putItemOnExchange does when the queue is full: callerRuns (the default) handles the task on the calling thread, block
+ * waits for space and reject throws an exception</li>
+ * </ul>
+ */
 public class ExchangeRouter {
     private static Logger log = Logger.getLogger(ExchangeRouter.class);
 
+    public static final String CONSUMERS = "consumers";
+    public static final String QUEUE_SIZE = "queueSize";
+    public static final String WHEN_FULL = "whenFull";
+    public static final String CALLER_RUNS = "callerRuns";
+    public static final String BLOCK = "block";
+    public static final String REJECT = "reject";
+
+    private static final int DEFAULT_CONSUMERS = 8;
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
     private String exchangeName;
-    private Map<String, List<QueueHandler>> queueToHandler = new HashMap<String, List<QueueHandler>>();
-    private Map<String, String> routingKeyToQueueName = new HashMap<String, String>();
-    private ExecutorService service;
+    private ConcurrentMap<String, QueueWorker> queueWorkers = new ConcurrentHashMap<String, QueueWorker>();
+    private ConcurrentMap<String, String> routingKeyToQueueName = new ConcurrentHashMap<String, String>();
+    private final int consumers;
+    private final int queueSize;
+    private final String whenFull;
 
     public ExchangeRouter(RaptureExchange exchange) {
+        this(exchange, ImmutableMap.<String, String> of());
+    }
+
+    public ExchangeRouter(RaptureExchange exchange, Map<String, String> config) {
         log.debug(exchange.debug());
         this.exchangeName = exchange.getName();
-        service = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ExchangeRouter-" + exchange.getName() + "-%d").build());
+        this.consumers = getInt(config, CONSUMERS, DEFAULT_CONSUMERS);
+        this.queueSize = getInt(config, QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+        String policy = config.get(WHEN_FULL);
+        if (policy == null || (!BLOCK.equals(policy) && !REJECT.equals(policy))) {
+            if (policy != null && !CALLER_RUNS.equals(policy)) {
+                log.error("Illegal " + WHEN_FULL + " " + policy + " - using " + CALLER_RUNS);
+            }
+            policy = CALLER_RUNS;
+        }
+        this.whenFull = policy;
+    }
 
+    private static int getInt(Map<String, String> config, String key, int defaultValue) {
+        String value = config.get(key);
+        if (value != null) {
+            try {
+                int ret = Integer.parseInt(value);
+                if (ret > 0) return ret;
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            log.error("Illegal " + key + " " + value + " - ignored");
+        }
+        return defaultValue;
     }
 
     public void bindQueues(RaptureExchange exchange) {
@@ -75,58 +133,147 @@ public class ExchangeRouter {
 
     public void registerQueueHandler(String queueName, QueueHandler handler) {
         log.info("Registering queue handler");
-        List<QueueHandler> currHandlers = queueToHandler.get(queueName);
-        if (currHandlers == null) {
-            currHandlers = new LinkedList<QueueHandler>();
-            queueToHandler.put(queueName, currHandlers);
-        }
-        currHandlers.add(handler);
+        getWorker(queueName).handlers.add(handler);
     }
 
     public void deregisterQueueHandler(String queueName, QueueHandler handler) {
-        if (queueToHandler.containsKey(queueName)) {
-            queueToHandler.get(queueName).remove(handler);
+        QueueWorker worker = queueWorkers.get(queueName);
+        if (worker != null) {
+            worker.handlers.remove(handler);
         }
     }
 
     public void putItemOnExchange(final RapturePipelineTask task, final String routingKey) {
         // We don't do any real routing, we push the message onto one handler at
         // each queue
+        String queueName;
+        if (routingKey == null || routingKey.length() == 0) {
+            queueName = routingKeyToQueueName.get("");
+        } else {
+            queueName = routingKeyToQueueName.get(routingKey);
+        }
+        if (queueName == null) {
+            log.info(String.format("NULL queueName for routingKey=%s, exchange=%s", routingKey, exchangeName));
+            return;
+        }
+        QueueWorker worker = queueWorkers.get(queueName);
+        if (worker == null || worker.handlers.isEmpty()) {
+            log.info(String.format("NULL handlers for queueName=%s routingKey=%s, exchange=%s", queueName, routingKey, exchangeName));
+            return;
+        }
+        worker.submit(task, routingKey);
+    }
 
-        service.execute(new Runnable() {
+    /**
+     * @return the number of tasks waiting to be handled on this queue
+     */
+    public int getQueueDepth(String queueName) {
+        QueueWorker worker = queueWorkers.get(queueName);
+        return (worker == null) ? 0 : worker.executor.getQueue().size();
+    }
 
-            @Override
-            public void run() {
-                log.info("Routing message");
-                String queueName;
-                if (routingKey == null || routingKey.length() == 0) {
-                    queueName = routingKeyToQueueName.get("");
-                } else {
-                    queueName = routingKeyToQueueName.get(routingKey);
-                }
-                if (queueName == null) {
-                    log.info(String.format("NULL queueName for routingKey=%s, exchange=%s", routingKey, exchangeName));
-                } else {
-                    List<QueueHandler> currHandlers = queueToHandler.get(queueName);
-                    if (currHandlers == null) {
-                        log.info(String.format("NULL handlers for queueName=%s routingKey=%s, exchange=%s", queueName, routingKey, exchangeName));
-
-                    } else {
-                        boolean handled = false;
-                        for (QueueHandler handler : currHandlers) {
-                            // Loop until someone takes it
-                            handled = handleMessage(task, handler);
-                            if (handled) break;
-                        }
-                        if (!handled)
-                            log.info(String.format("Task not handled for queueName=%s routingKey=%s, exchange=%s", queueName, routingKey, exchangeName));
-                    }
-                }
+    /**
+     * Stop the consumer threads. Tasks that are still waiting are discarded.
+     */
+    public void shutdown() {
+        for (QueueWorker worker : queueWorkers.values()) {
+            worker.executor.shutdownNow();
+        }
+    }
+
+    private QueueWorker getWorker(String queueName) {
+        QueueWorker worker = queueWorkers.get(queueName);
+        if (worker == null) {
+            QueueWorker newWorker = new QueueWorker(queueName);
+            worker = queueWorkers.putIfAbsent(queueName, newWorker);
+            if (worker == null) {
+                worker = newWorker;
+                worker.executor.prestartAllCoreThreads();
             }
-        });
+        }
+        return worker;
     }
 
     private boolean handleMessage(final RapturePipelineTask task, QueueHandler handler) {
         return handler.handleMessage("test", "test", task.getContentType(), task);
     }
+
+    /**
+     * The consumers of one queue. Handlers are tried in turn, starting with the one after the handler that was tried first last time, until one
+     * of them takes the task.
+     */
+    private class QueueWorker {
+        private final String queueName;
+        private final List<QueueHandler> handlers = new CopyOnWriteArrayList<QueueHandler>();
+        private final AtomicInteger nextHandler = new AtomicInteger();
+        private final ThreadPoolExecutor executor;
+        private final String depthMetric;
+        private final String latencyMetric;
+
+        QueueWorker(String queueName) {
+            this.queueName = queueName;
+            String metricPrefix = "exchange.memory." + exchangeName + "." + queueName;
+            this.depthMetric = metricPrefix + ".depth";
+            this.latencyMetric = metricPrefix + ".latency";
+            executor = new ThreadPoolExecutor(consumers, consumers, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                    new ThreadFactoryBuilder().setNameFormat("ExchangeRouter-" + exchangeName + "-" + queueName + "-%d").setDaemon(true).build(),
+                    getRejectionHandler());
+        }
+
+        private RejectedExecutionHandler getRejectionHandler() {
+            if (BLOCK.equals(whenFull)) {
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Exchange " + exchangeName + " has been torn down");
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for space on queue " + queueName, e);
+                        }
+                    }
+                };
+            } else if (REJECT.equals(whenFull)) {
+                return new ThreadPoolExecutor.AbortPolicy();
+            } else {
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            }
+        }
+
+        void submit(final RapturePipelineTask task, final String routingKey) {
+            final long queuedAt = System.currentTimeMillis();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Kernel.getMetricsService().recordTimeDifference(latencyMetric, System.currentTimeMillis() - queuedAt);
+                        handle(task, routingKey);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_UNAVAILABLE,
+                        String.format("Queue %s on exchange %s is full, task not accepted", queueName, exchangeName), e);
+            }
+            Kernel.getMetricsService().recordGaugeValue(depthMetric, (long) executor.getQueue().size());
+        }
+
+        private void handle(RapturePipelineTask task, String routingKey) {
+            log.debug("Routing message");
+            Object[] current = handlers.toArray();
+            boolean handled = false;
+            if (current.length > 0) {
+                int start = (nextHandler.getAndIncrement() & Integer.MAX_VALUE) % current.length;
+                for (int i = 0; i < current.length && !handled; i++) {
+                    // Loop until someone takes it
+                    handled = handleMessage(task, (QueueHandler) current[(start + i) % current.length]);
+                }
+            }
+            if (!handled) {
+                log.info(String.format("Task not handled for queueName=%s routingKey=%s, exchange=%s", queueName, routingKey, exchangeName));
+            }
+        }
+    }
 }
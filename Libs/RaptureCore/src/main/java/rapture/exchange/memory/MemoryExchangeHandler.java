@@ -23,12 +23,18 @@
  */
 package rapture.exchange.memory;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 
+import com.google.common.collect.ImmutableMap;
+
 import rapture.common.RapturePipelineTask;
 import rapture.common.model.RaptureExchange;
 import rapture.exchange.ExchangeHandler;
@@ -36,21 +42,26 @@ import rapture.exchange.QueueHandler;
 import rapture.exchange.TopicMessageHandler;
 
 /**
- * A trivial implementation of ExchangeHandler, primarily for single server use and for testing
+ * A trivial implementation of ExchangeHandler, primarily for single server use and for testing. See {@link ExchangeRouter} for the config
+ * that controls the consumer threads.
  * 
  * @author amkimian
  * 
  */
 public class MemoryExchangeHandler implements ExchangeHandler {
     private static Logger log = Logger.getLogger(MemoryExchangeHandler.class);
-    private Map<String, ExchangeRouter> routerMap = new HashMap<>();
+    private ConcurrentMap<String, ExchangeRouter> routerMap = new ConcurrentHashMap<>();
     private String instanceName = "default"; //$NON-NLS-1$
+    private Map<String, String> config = ImmutableMap.of();
 
-    Map<String, Map<String, LinkedList<String>>> exchanges = new HashMap<>();
-    Map<String, Map<String, LinkedList<TopicMessageHandler>>> topicHandlers = new HashMap<>();
+    ConcurrentMap<String, ConcurrentMap<String, Queue<String>>> exchanges = new ConcurrentHashMap<>();
+    ConcurrentMap<String, ConcurrentMap<String, List<TopicMessageHandler>>> topicHandlers = new ConcurrentHashMap<>();
 
     @Override
     public void setConfig(Map<String, String> config) {
+        if (config != null) {
+            this.config = ImmutableMap.copyOf(config);
+        }
     }
 
     @Override
@@ -64,24 +75,29 @@ public class MemoryExchangeHandler implements ExchangeHandler {
         ExchangeRouter exchangeRouter = routerMap.get(exchange.getName());
         if (exchangeRouter == null) {
             log.info("Setting up exchange " + exchange.getName());
-            exchangeRouter = new ExchangeRouter(exchange);
-            routerMap.put(exchange.getName(), exchangeRouter);
+            ExchangeRouter newRouter = new ExchangeRouter(exchange, config);
+            exchangeRouter = routerMap.putIfAbsent(exchange.getName(), newRouter);
+            if (exchangeRouter == null) {
+                exchangeRouter = newRouter;
+            }
         }
         exchangeRouter.bindQueues(exchange);
     }
 
     @Override
     public void tearDownExchange(RaptureExchange exchange) {
-        if (routerMap.containsKey(exchange.getName())) {
-            routerMap.remove(exchange.getName());
+        ExchangeRouter exchangeRouter = routerMap.remove(exchange.getName());
+        if (exchangeRouter != null) {
+            exchangeRouter.shutdown();
         }
     }
 
     @Override
     public void putTaskOnExchange(String exchange, RapturePipelineTask task, String routingKey) {
-        if (routerMap.containsKey(exchange)) {
+        ExchangeRouter exchangeRouter = routerMap.get(exchange);
+        if (exchangeRouter != null) {
             log.info("Putting task on exchange " + exchange);
-            routerMap.get(exchange).putItemOnExchange(task, routingKey);
+            exchangeRouter.putItemOnExchange(task, routingKey);
         } else {
             log.warn("No mapping for " + routingKey + " on " + exchange);
         }
@@ -90,8 +106,9 @@ public class MemoryExchangeHandler implements ExchangeHandler {
     @Override
     public String startConsuming(String exchange, String queue, QueueHandler handler) {
         log.info("Registering queue handler for " + exchange + "; " + queue);
-        if (routerMap.containsKey(exchange)) {
-            routerMap.get(exchange).registerQueueHandler(queue, handler);
+        ExchangeRouter exchangeRouter = routerMap.get(exchange);
+        if (exchangeRouter != null) {
+            exchangeRouter.registerQueueHandler(queue, handler);
             return "test";
         } else {
             log.error("Cannot register queue handler for " + exchange + "; " + queue);
@@ -106,26 +123,27 @@ public class MemoryExchangeHandler implements ExchangeHandler {
 
     @Override
     public void publishTopicMessage(String exchange, String topic, String message) {
-        Map<String, LinkedList<String>> queues = exchanges.get(exchange);
+        ConcurrentMap<String, Queue<String>> queues = exchanges.get(exchange);
         if (queues == null) {
-            queues = new HashMap<>();
-            exchanges.put(exchange, queues);
+            exchanges.putIfAbsent(exchange, new ConcurrentHashMap<String, Queue<String>>());
+            queues = exchanges.get(exchange);
         }
-        LinkedList<String> queue = queues.get(topic);
+        Queue<String> queue = queues.get(topic);
         if (queue == null) {
-            queue = new LinkedList<>();
-            queues.put(topic, queue);
+            queues.putIfAbsent(topic, new ConcurrentLinkedQueue<String>());
+            queue = queues.get(topic);
         }
-        queue.addLast(message);
+        queue.add(message);
 
-        Map<String, LinkedList<TopicMessageHandler>> handlers = topicHandlers.get(exchange);
+        Map<String, List<TopicMessageHandler>> handlers = topicHandlers.get(exchange);
         if (handlers == null) return;
+        List<TopicMessageHandler> handleList = handlers.get(topic);
 
-        while (!queue.isEmpty()) {
+        String mess;
+        while ((mess = queue.poll()) != null) {
+            if (handleList == null) continue;
             try {
-                String mess = queue.removeFirst();
-                if (mess == null) return;
-                for (TopicMessageHandler handler : handlers.get(topic))
+                for (TopicMessageHandler handler : handleList)
                     handler.deliverMessage(exchange, topic, topic, mess);
             } catch (Exception e) {
                 return;
@@ -135,17 +153,17 @@ public class MemoryExchangeHandler implements ExchangeHandler {
 
     @Override
     public long subscribeTopic(String exchange, String topic, TopicMessageHandler messageHandler) {
-        Map<String, LinkedList<TopicMessageHandler>> handlers = topicHandlers.get(exchange);
+        ConcurrentMap<String, List<TopicMessageHandler>> handlers = topicHandlers.get(exchange);
         if (handlers == null) {
-            handlers = new HashMap<>();
-            topicHandlers.put(exchange, handlers);
+            topicHandlers.putIfAbsent(exchange, new ConcurrentHashMap<String, List<TopicMessageHandler>>());
+            handlers = topicHandlers.get(exchange);
         }
-        LinkedList<TopicMessageHandler> handleList = handlers.get(topic);
+        List<TopicMessageHandler> handleList = handlers.get(topic);
         if (handleList == null) {
-            handleList = new LinkedList<>();
-            handlers.put(topic, handleList);
+            handlers.putIfAbsent(topic, new CopyOnWriteArrayList<TopicMessageHandler>());
+            handleList = handlers.get(topic);
         }
-        handleList.addLast(messageHandler);
+        handleList.add(messageHandler);
         return 0L;
     }
 
@@ -158,6 +158,7 @@ public class AdminApiImpl extends KernelBase implements AdminApi {
             RaptureUserHelper.validateSalt(usr);
             usr.setInactive(false);
             RaptureUserStorage.add(usr, context.getUser(), adminMessageCatalog.getMessage("AddedUser", userName).toString()); //$NON-NLS-1$
+            Kernel.getEntitlementCache().userChanged(userName);
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, Messages.getMessage("Admin", "UserAlreadyExists", null, null)); //$NON-NLS-1$
         }
@@ -636,6 +637,7 @@ public class AdminApiImpl extends KernelBase implements AdminApi {
             throw RaptureExceptionFactory.create(error);
         }
         RaptureUserStorage.deleteByFields(userName, context.getUser(), adminMessageCatalog.getMessage("UserDestroyed", userName).toString());
+        Kernel.getEntitlementCache().userChanged(userName);
     }
 
     @Override
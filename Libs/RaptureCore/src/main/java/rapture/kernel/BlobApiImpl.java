@@ -313,9 +313,37 @@ public class BlobApiImpl extends KernelBase implements BlobApi, RaptureScheme {
         String sizeString = metaData.get(ContentEnvelope.CONTENT_SIZE);
         if (sizeString != null) {
             return Long.valueOf(sizeString);
-        } else {
-            return -1L;
         }
+        // No size was recorded when the blob was written; ask the store rather than reading the content
+        RaptureURI interimUri = new RaptureURI(blobUri, BLOB);
+        Long size = getRepoFromCache(interimUri.getAuthority()).getBlobSize(context, interimUri);
+        return (size == null) ? -1L : size;
+    }
+
+    /**
+     * Not part of the public API. Returns a stream over the whole of the blob, read from the underlying store as the caller reads it. The caller
+     * must close the stream. Returns null if there is no such blob.
+     */
+    public InputStream getBlobStream(CallingContext context, String blobUri) {
+        RaptureURI interimUri = new RaptureURI(blobUri, BLOB);
+        BlobRepo blobRepo = getRepoFromCache(interimUri.getAuthority());
+        if (blobRepo == null) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, apiMessageCatalog.getMessage("NoSuchRepo", interimUri.toAuthString())); //$NON-NLS-1$
+        }
+        return blobRepo.getBlob(context, interimUri);
+    }
+
+    /**
+     * Not part of the public API. Returns a stream over size bytes of the blob starting at offset start, reading only that range from the underlying
+     * store where it supports it. The caller must close the stream. Returns null if there is no such blob.
+     */
+    public InputStream getBlobPartStream(CallingContext context, String blobUri, long start, long size) {
+        RaptureURI interimUri = new RaptureURI(blobUri, BLOB);
+        BlobRepo blobRepo = getRepoFromCache(interimUri.getAuthority());
+        if (blobRepo == null) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, apiMessageCatalog.getMessage("NoSuchRepo", interimUri.toAuthString())); //$NON-NLS-1$
+        }
+        return blobRepo.getBlobPart(context, interimUri, start, size);
     }
 
     @Override
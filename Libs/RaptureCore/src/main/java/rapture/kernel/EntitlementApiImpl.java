@@ -72,6 +72,7 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
             ent.getGroups().add(groupName);
         }
         RaptureEntitlementStorage.add(ent, context.getUser(), Messages.getString("Entitlement.CreateEnt") + entitlementName); //$NON-NLS-1$
+        Kernel.getEntitlementCache().entitlementChanged(entitlementName);
         return ent;
     }
 
@@ -81,6 +82,7 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
         group.setUsers(new HashSet<String>());
         group.setName(groupName);
         RaptureEntitlementGroupStorage.add(group, context.getUser(), Messages.getString("Entitlement.CreateEntGroup") + groupName); //$NON-NLS-1$
+        Kernel.getEntitlementCache().groupChanged(groupName);
         return group;
     }
 
@@ -92,6 +94,7 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
         if (ent != null) {
             ent.getGroups().add(groupName);
             RaptureEntitlementStorage.add(ent, context.getUser(), Messages.getString("Entitlement.AddGroup")); //$NON-NLS-1$
+            Kernel.getEntitlementCache().entitlementChanged(entitlementName);
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, Messages.getString("Entitlement.NotExist")); //$NON-NLS-1$
         }
@@ -104,6 +107,7 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
         if (group != null) {
             group.getUsers().add(user);
             RaptureEntitlementGroupStorage.add(group, context.getUser(), Messages.getString("Entitlement.AddUserToGroup")); //$NON-NLS-1$
+            Kernel.getEntitlementCache().groupChanged(groupName);
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, Messages.getString("Entitlement.NotExistEntGroup")); //$NON-NLS-1$
         }
@@ -115,6 +119,7 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
         // If we delete an entitlement we just drop it - it doesn't depend on
         // anything (it's at the top)
         RaptureEntitlementStorage.deleteByFields(entitlementName, context.getUser(), Messages.getString("Entitlement.RemoveEnt"));
+        Kernel.getEntitlementCache().entitlementChanged(entitlementName);
     }
 
     @Override
@@ -129,9 +134,11 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
                 e.getGroups().remove(groupName);
                 RaptureEntitlementStorage.add(e, context.getUser(),
                         Messages.getString("Entitlement.Group") + groupName + Messages.getString("Entitlement.Deleted")); //$NON-NLS-1$ //$NON-NLS-2$
+                Kernel.getEntitlementCache().entitlementChanged(e.getName());
             }
         }
         RaptureEntitlementGroupStorage.deleteByFields(groupName, context.getUser(), Messages.getString("Entitlement.RemovingGroup"));
+        Kernel.getEntitlementCache().groupChanged(groupName);
     }
 
     @Override
@@ -153,6 +160,7 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
             if (ent.getGroups().contains(groupName)) {
                 ent.getGroups().remove(groupName);
                 RaptureEntitlementStorage.add(ent, context.getUser(), Messages.getString("Entitlement.RemoveGroupEntitle")); //$NON-NLS-1$
+                Kernel.getEntitlementCache().entitlementChanged(entitlementName);
             }
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, Messages.getString("Entitlement.NoExistEntitle")); //$NON-NLS-1$
@@ -170,6 +178,7 @@ public class EntitlementApiImpl extends KernelBase implements EntitlementApi {
             if (entGroup.getUsers().contains(user)) {
                 entGroup.getUsers().remove(user);
                 RaptureEntitlementGroupStorage.add(entGroup, context.getUser(), Messages.getString("Entitlement.RemoveUserGroup")); //$NON-NLS-1$
+                Kernel.getEntitlementCache().groupChanged(groupName);
             }
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, Messages.getString("Entitlement.NoExistGroup")); //$NON-NLS-1$
@@ -81,7 +81,7 @@ public class IdGenApiImpl extends KernelBase implements IdGenApi {
             RaptureIdGen idgen = getIdGenConfig(uri);
             if (idgen != null) {
                 // RAP-2107 Can't delete the IdGen Store?
-                idgen.getIdGenStore().resetIdGen(0L);
+                idgen.resetIdGen(0L);
                 idgen.invalidate();
                 idgenCache.remove(normalized);
                 RaptureIdGenConfigStorage.deleteByFields(uri.getAuthority(), uri.getDocPath(), context.getUser(), "deleted idgen");
@@ -178,7 +178,7 @@ public class IdGenApiImpl extends KernelBase implements IdGenApi {
     @Override
     public void setIdGen(CallingContext context, String idGenUri, Long count) {
         RaptureIdGen f = getIdGenConfig(idGenUri);
-        f.getIdGenStore().resetIdGen(count);
+        f.resetIdGen(count);
     }
 
     @Override
@@ -35,7 +35,9 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -44,6 +46,7 @@ import org.apache.log4j.Logger;
 
 import com.google.common.base.Optional;
 import com.google.common.cache.Cache;
+import com.google.common.collect.Sets;
 
 import rapture.api.hooks.ApiHooksService;
 import rapture.audit.AuditLog;
@@ -71,10 +74,7 @@ import rapture.common.exception.RaptureExceptionFormatter;
 import rapture.common.hooks.HooksConfig;
 import rapture.common.hooks.HooksConfigRepo;
 import rapture.common.impl.jackson.JacksonUtil;
-import rapture.common.model.RaptureEntitlement;
 import rapture.common.model.RaptureEntitlementGroup;
-import rapture.common.model.RaptureEntitlementGroupStorage;
-import rapture.common.model.RaptureEntitlementStorage;
 import rapture.common.model.RaptureServerInfo;
 import rapture.common.model.RaptureServerStatus;
 import rapture.common.model.RaptureServerStatusStorage;
@@ -84,6 +84,8 @@ import rapture.config.ConfigLoader;
 import rapture.dsl.entparser.ParseEntitlementPath;
 import rapture.exchange.QueueHandler;
 import rapture.index.IndexHandler;
+import rapture.kernel.cache.EntitlementCache;
+import rapture.kernel.cache.EntitlementCache.CachedEntitlement;
 import rapture.kernel.cache.KernelCaches;
 import rapture.kernel.cache.RepoCacheManager;
 import rapture.kernel.internalnotification.ExchangeChangeManager;
@@ -339,6 +341,7 @@ public enum Kernel {
     private ExchangeChangeManager exchangeChangeManager;
     private ContextStackContainer stackContainer = new ContextStackContainer();
     private RepoCacheManager repoCacheManager;
+    private EntitlementCache entitlementCache;
 
     public static ContextStackContainer getStackContainer() {
         return INSTANCE.stackContainer;
@@ -348,6 +351,10 @@ public enum Kernel {
         return INSTANCE.typeChangeManager;
     }
 
+    public static EntitlementCache getEntitlementCache() {
+        return INSTANCE.entitlementCache;
+    }
+
     public static RepoCacheManager getRepoCacheManager() {
         return INSTANCE.repoCacheManager;
     }
@@ -439,6 +446,8 @@ public enum Kernel {
 
     private IConfigRetriever config = new DefaultConfigRetriever();
     private KernelTaskHandler taskHandler;
+    // categories this server picks up workflow steps for
+    private Set<String> stepCategories = Sets.newConcurrentHashSet();
     private IndexCache indexCache;
     private AuditLogCache auditLogCache;
     private boolean bypassWhiteList = false;
@@ -585,16 +594,12 @@ public enum Kernel {
         return config;
     }
 
-    private RaptureEntitlement getEnt(String path) {
-        if (path.startsWith("/")) {
-            path = path.substring(1);
-        }
-        return RaptureEntitlementStorage.readByFields(path);
-
+    private CachedEntitlement getEnt(String path) {
+        return entitlementCache.getEntitlement(path);
     }
 
     private RaptureEntitlementGroup getEntGroup(String path) {
-        return RaptureEntitlementGroupStorage.readByFields(path);
+        return entitlementCache.getGroup(path);
     }
 
     public IndexHandler getIndex(String name) {
@@ -627,10 +632,6 @@ public enum Kernel {
         return stat;
     }
 
-    private RaptureUser getUserViaCache(CallingContext context) {
-        return getUserViaName(context.getUser());
-    }
-
     private RaptureUser getUserViaName(String name) {
         return RaptureUserStorage.readByFields(name);
     }
@@ -650,8 +651,8 @@ public enum Kernel {
         return bypassWhiteList;
     }
 
-    private boolean isRootUser(RaptureUser user) {
-        return user != null && user.getHasRoot();
+    private boolean isRootUser(CallingContext context) {
+        return entitlementCache.isRootUser(context.getUser());
     }
 
     private boolean isValidEntitlementPath(String entitlementPath) {
@@ -703,6 +704,7 @@ public enum Kernel {
              * Initialize the caches
              */
             repoCacheManager = new RepoCacheManager();
+            entitlementCache = new EntitlementCache();
             indexCache = new IndexCache();
             auditLogCache = new AuditLogCache();
 
@@ -890,6 +892,7 @@ public enum Kernel {
 
     public void stopRapture() {
         if (notificationManager != null) notificationManager.stopNotificationManager();
+        if (search != null) search.getTrusted().shutdown();
         if (repoCacheManager != null) repoCacheManager.resetAllCache();
     }
 
@@ -921,8 +924,7 @@ public enum Kernel {
         // that is associated with the entitlement path given
 
         if (isAdminContext(context)) return;
-        RaptureUser user = getUserViaCache(context);
-        if (isRootUser(user)) return;
+        if (isRootUser(context)) return;
 
         // If the entitlementPath is not null and length > 0
         // Validate the entitlements, using that path, the RaptureCallingContext
@@ -932,17 +934,18 @@ public enum Kernel {
         }
     }
 
-    private static Map<String, DynamicEntitlementGroup> classCache = new HashMap<>();
+    private static Map<String, DynamicEntitlementGroup> classCache = new ConcurrentHashMap<>();
 
     private void validateEntitlements(CallingContext context, String entitlementPath, IEntitlementsContext entCtx) {
         if (context == null) throw RaptureExceptionFactory.create("Null calling context in security validation");
         // Convert the entitlement path to a context specific path
         String realEntPath = ParseEntitlementPath.getEntPath(entitlementPath, entCtx);
         // Now find an appropriate entitlement document for this path
-        RaptureEntitlement rEnt = null;
+        CachedEntitlement rEnt = null;
         while (rEnt == null) {
             rEnt = getEnt(realEntPath);
-            if (rEnt == null) {
+            if (!rEnt.exists()) {
+                rEnt = null;
                 int lastIndexPoint = realEntPath.lastIndexOf('/');
                 if (lastIndexPoint != -1) {
                     realEntPath = realEntPath.substring(0, lastIndexPoint);
@@ -1014,6 +1017,7 @@ public enum Kernel {
         } else {
             INSTANCE.taskHandler.setCategoryMembership(category);
         }
+        INSTANCE.stepCategories.add(category);
     }
 
     /**
@@ -1032,6 +1036,21 @@ public enum Kernel {
         } else {
             INSTANCE.taskHandler.setCategoryMembership(category, customHandlers);
         }
+        // custom handlers may do their own thing with workflow steps
+        if (customHandlers == null || customHandlers.isEmpty()) {
+            INSTANCE.stepCategories.add(category);
+        }
+    }
+
+    /**
+     * Whether this server picks up workflow steps published to the given category, so that a step in that category can be run here without going through
+     * the pipeline
+     *
+     * @param category
+     * @return
+     */
+    public static boolean runsStepsFor(String category) {
+        return category != null && INSTANCE.stepCategories.contains(category);
     }
 
     public SeriesRepo getSeriesRepo(RaptureURI seriesURI) {
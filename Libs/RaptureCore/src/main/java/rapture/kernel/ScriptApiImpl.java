@@ -72,6 +72,7 @@ import rapture.script.IActivityInfo;
 import rapture.script.IRaptureScript;
 import rapture.script.ScriptFactory;
 import rapture.script.reflex.ReflexHandler;
+import rapture.script.reflex.ReflexParseCache;
 import rapture.script.reflex.ReflexRaptureScript;
 import rapture.util.IDGenerator;
 import reflex.IReflexHandler;
@@ -151,6 +152,7 @@ public class ScriptApiImpl extends KernelBase implements ScriptApi {
         } else {
             RaptureURI internalURI = new RaptureURI(scriptURI, Scheme.SCRIPT);
             RaptureScriptStorage.deleteByAddress(internalURI, context.getUser(), Messages.getString("Script.removedScript"));
+            ReflexParseCache.getInstance().invalidate(internalURI.toString());
         }
     }
 
@@ -204,6 +206,7 @@ public class ScriptApiImpl extends KernelBase implements ScriptApi {
         }
 
         RaptureScriptStorage.add(internalURI, script, context.getUser(), Messages.getString("Script.updated")); //$NON-NLS-1$
+        ReflexParseCache.getInstance().invalidate(script.getAddressURI().toString());
         return script;
     }
 
@@ -626,6 +629,7 @@ public class ScriptApiImpl extends KernelBase implements ScriptApi {
         script.setScript(content);
         script.setParameters(parms);
         RaptureScriptStorage.add(uri, script, context.getUser(), "Update");
+        ReflexParseCache.getInstance().invalidate(uri.toString());
         return script;
     }
 
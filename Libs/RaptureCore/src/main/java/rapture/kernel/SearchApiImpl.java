@@ -31,6 +31,8 @@ import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
+import com.google.common.base.Function;
+
 import rapture.common.AbstractUpdateObject;
 import rapture.common.BlobContainer;
 import rapture.common.BlobUpdateObject;
@@ -52,14 +54,23 @@ import rapture.common.pipeline.PipelineConstants;
 import rapture.common.series.SeriesUpdateObject;
 import rapture.config.ConfigLoader;
 import rapture.kernel.pipeline.SearchPublisher;
+import rapture.kernel.search.SearchIndexBuffer;
 import rapture.kernel.search.SearchRepository;
 import rapture.search.SearchRepoType;
 
 public class SearchApiImpl extends KernelBase implements SearchApi {
     private static Logger logger = Logger.getLogger(SearchApiImpl.class);
 
+    private final SearchIndexBuffer indexBuffer;
+
     public SearchApiImpl(Kernel raptureKernel) {
         super(raptureKernel);
+        indexBuffer = new SearchIndexBuffer(new Function<String, SearchRepository>() {
+            @Override
+            public SearchRepository apply(String searchRepo) {
+                return getRepoOrFail(searchRepo);
+            }
+        }, ConfigLoader.getConf().FullTextSearchBatchSize, ConfigLoader.getConf().FullTextSearchFlushMillis, ConfigLoader.getConf().FullTextSearchMaxPending);
     }
 
     // Trusted calls
@@ -72,12 +83,26 @@ public class SearchApiImpl extends KernelBase implements SearchApi {
 
     public void writeSearchEntry(String searchRepo, AbstractUpdateObject updateObject) {
         logger.debug(String.format("Writing series search entry to [%s]", searchRepo));
-        getRepoOrFail(searchRepo).put(updateObject);
+        // fail now for an unknown search repo, rather than when the batch is flushed
+        getRepoOrFail(searchRepo);
+        indexBuffer.put(searchRepo, updateObject);
     }
 
     public void deleteSearchEntry(String searchRepo, RaptureURI uri) {
         logger.debug(String.format("Removing uri [%s] search entry from search repo [%s]", uri.toString(), searchRepo));
-        getRepoOrFail(searchRepo).remove(uri);
+        getRepoOrFail(searchRepo);
+        indexBuffer.remove(searchRepo, uri);
+    }
+
+    /**
+     * Write out any search updates still waiting to be indexed
+     */
+    public void flushSearchEntries() {
+        indexBuffer.flushAll();
+    }
+
+    public void shutdown() {
+        indexBuffer.shutdown();
     }
 
     @Override
@@ -164,11 +189,12 @@ public class SearchApiImpl extends KernelBase implements SearchApi {
         RaptureURI repoUri = new RaptureURI(repoUriStr);
         if (StringUtils.isNotBlank(searchRepoUriStr)) {
             workOn(searchRepoUriStr, repoUri.toShortString(), repoUri.getScheme());
+            indexBuffer.flush(searchRepoUriStr);
         }
     }
 
     private void workOn(String searchRepo, String prefix, Scheme scheme) {
-        SearchRepository r = getRepoOrFail(searchRepo);
+        getRepoOrFail(searchRepo);
         Map<String, RaptureFolderInfo> info;
         switch (scheme) {
         case SERIES:
@@ -198,17 +224,17 @@ public class SearchApiImpl extends KernelBase implements SearchApi {
                         values.add(pt.getValue());
                     }
                     SeriesUpdateObject ser = new SeriesUpdateObject(newPrefix, keys, values);
-                    r.put(ser);
+                    indexBuffer.put(searchRepo, ser);
                     break;
                 case BLOB:
                     BlobContainer bc = Kernel.getBlob().getBlob(ContextFactory.getKernelUser(), newPrefix);
                     BlobUpdateObject buo = new BlobUpdateObject(new RaptureURI(newPrefix, Scheme.BLOB));
                     buo.setPayload(bc);
-                    r.put(buo);
+                    indexBuffer.put(searchRepo, buo);
                 default:
                     DocumentWithMeta dm = Kernel.getDoc().getDocAndMeta(ContextFactory.getKernelUser(), newPrefix);
                     dm.setDisplayName(newPrefix);
-                    r.put(new DocUpdateObject(dm));
+                    indexBuffer.put(searchRepo, new DocUpdateObject(dm));
                     break;
                 }
             }
@@ -222,6 +248,8 @@ public class SearchApiImpl extends KernelBase implements SearchApi {
         if (searchRepo != null) {
             SearchRepository r = getRepoOrFail(searchRepo);
             if (r != null) {
+                // so that nothing buffered for the repo is indexed again after the drop
+                indexBuffer.flush(searchRepo);
                 SearchResponse resp = r.searchForRepoUris(repoUri.getScheme().toString(), repoUri.getAuthority(), null);
                 while (!resp.getSearchHits().isEmpty()) {
                     for (SearchHit h : resp.getSearchHits()) {
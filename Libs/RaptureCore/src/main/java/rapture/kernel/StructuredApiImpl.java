@@ -23,7 +23,11 @@
  */
 package rapture.kernel;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +44,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
 import rapture.common.CallingContext;
+import rapture.common.EntitlementSet;
 import rapture.common.ForeignKey;
 import rapture.common.RaptureURI;
 import rapture.common.Scheme;
@@ -50,8 +55,11 @@ import rapture.common.StructuredRepoConfigStorage;
 import rapture.common.TableIndex;
 import rapture.common.api.StructuredApi;
 import rapture.common.exception.RaptureExceptionFactory;
+import rapture.common.shared.blob.GetBlobPayload;
+import rapture.kernel.context.ContextValidator;
 import rapture.repo.StructuredRepo;
 import rapture.structured.DefaultValidator;
+import rapture.structured.RowReader;
 import rapture.structured.Validator;
 
 public class StructuredApiImpl extends KernelBase implements StructuredApi {
@@ -379,6 +387,45 @@ public class StructuredApiImpl extends KernelBase implements StructuredApi {
         }
     }
 
+    @Override
+    public void upsertRows(CallingContext context, String tableUri, List<Map<String, Object>> values, List<String> keyColumns) {
+        RaptureURI uri = new RaptureURI(tableUri, Scheme.STRUCTURED);
+        StructuredRepo repo = getRepoOrFail(uri.getAuthority());
+        registerWithTxManager(context, repo);
+        try {
+            repo.upsertRows(uri.getDocPath(), values, keyColumns);
+        } catch (Exception e) {
+            TransactionManager.transactionFailed(getTxId(context));
+            throw RaptureExceptionFactory.create(e.getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public Long loadRowsFromBlob(CallingContext context, String tableUri, String blobUri, String format) {
+        RaptureURI uri = new RaptureURI(tableUri, Scheme.STRUCTURED);
+        StructuredRepo repo = getRepoOrFail(uri.getAuthority());
+
+        // the blob is read with the trusted api, so check the caller could read it themselves
+        GetBlobPayload requestObj = new GetBlobPayload();
+        requestObj.setContext(context);
+        requestObj.setBlobUri(blobUri);
+        ContextValidator.validateContext(context, EntitlementSet.Blob_getBlob, requestObj);
+        try (InputStream in = Kernel.getBlob().getTrusted().getBlobStream(context, blobUri)) {
+            if (in == null) {
+                throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, apiMessageCatalog.getMessage("NoSuchBlob", blobUri)); //$NON-NLS-1$
+            }
+            registerWithTxManager(context, repo);
+            try {
+                return repo.loadRows(uri.getDocPath(), RowReader.create(format, new InputStreamReader(in, StandardCharsets.UTF_8)));
+            } catch (Exception e) {
+                TransactionManager.transactionFailed(getTxId(context));
+                throw RaptureExceptionFactory.create(e.getMessage(), e.getCause());
+            }
+        } catch (IOException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, apiMessageCatalog.getMessage("ErrorGettingBlob"), e); //$NON-NLS-1$
+        }
+    }
+
     @Override
     public void updateUsingSql(CallingContext context, String schema, String rawSql) {
         StructuredRepo repo = getRepoOrFail(schema);
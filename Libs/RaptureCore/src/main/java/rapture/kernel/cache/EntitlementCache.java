@@ -0,0 +1,201 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.kernel.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import rapture.common.exception.RaptureExceptionFactory;
+import rapture.common.model.RaptureEntitlement;
+import rapture.common.model.RaptureEntitlementGroup;
+import rapture.common.model.RaptureEntitlementGroupStorage;
+import rapture.common.model.RaptureEntitlementStorage;
+import rapture.common.model.RaptureUser;
+import rapture.common.model.RaptureUserStorage;
+import rapture.kernel.Kernel;
+import rapture.notification.NotificationMessage;
+import rapture.notification.RaptureMessageListener;
+
+/**
+ * Holds what Kernel.validateContext needs to decide whether a call is allowed - whether each user has root, the groups named by each entitlement
+ * and the members of each group - so that the common case makes no storage reads. Missing documents are cached too, as most entitlement lookups
+ * walk up through paths that have no entitlement of their own.
+ *
+ * Entries are evicted when the Admin and Entitlement APIs change a user, group or entitlement, here and (through the TypeChangeManager) on every
+ * other Rapture instance. Entries also expire after a few minutes in case a change is made some other way.
+ */
+public class EntitlementCache implements RaptureMessageListener<NotificationMessage> {
+    private static final Logger log = Logger.getLogger(EntitlementCache.class);
+
+    public static final String TYPE = "entitlement";
+    private static final String KIND = "kind";
+    private static final String NAME = "name";
+    private static final String USER = "user";
+    private static final String GROUP = "group";
+    private static final String ENTITLEMENT = "entitlement";
+    private static final long EXPIRY_MINUTES = 5;
+
+    /**
+     * The parts of an entitlement needed to check it. A null group set means there is no entitlement at that path.
+     */
+    public static class CachedEntitlement {
+        private final String name;
+        private final Set<String> groups;
+
+        CachedEntitlement(String name, Set<String> groups) {
+            this.name = name;
+            this.groups = groups;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean exists() {
+            return groups != null;
+        }
+
+        public Set<String> getGroups() {
+            return groups;
+        }
+    }
+
+    private final Cache<String, Boolean> rootUsers;
+    private final Cache<String, CachedEntitlement> entitlements;
+    private final Cache<String, Optional<RaptureEntitlementGroup>> groups;
+
+    public EntitlementCache() {
+        rootUsers = CacheBuilder.newBuilder().expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES).build();
+        entitlements = CacheBuilder.newBuilder().expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES).build();
+        groups = CacheBuilder.newBuilder().expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES).build();
+        Kernel.getKernel().registerTypeListener(TYPE, this);
+    }
+
+    public boolean isRootUser(final String userName) {
+        return get(rootUsers, userName, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                RaptureUser user = RaptureUserStorage.readByFields(userName);
+                return user != null && user.getHasRoot();
+            }
+        });
+    }
+
+    /**
+     * The entitlement defined at exactly this path, which may not exist
+     */
+    public CachedEntitlement getEntitlement(String path) {
+        final String name = normalize(path);
+        return get(entitlements, name, new Callable<CachedEntitlement>() {
+            @Override
+            public CachedEntitlement call() {
+                RaptureEntitlement ent = RaptureEntitlementStorage.readByFields(name);
+                if (ent == null) return new CachedEntitlement(name, null);
+                Set<String> entGroups = (ent.getGroups() == null) ? Collections.<String> emptySet() : new HashSet<>(ent.getGroups());
+                return new CachedEntitlement(name, Collections.unmodifiableSet(entGroups));
+            }
+        });
+    }
+
+    /**
+     * The group, or null if there is none. The group must not be modified.
+     */
+    public RaptureEntitlementGroup getGroup(final String groupName) {
+        return get(groups, groupName, new Callable<Optional<RaptureEntitlementGroup>>() {
+            @Override
+            public Optional<RaptureEntitlementGroup> call() {
+                return Optional.fromNullable(RaptureEntitlementGroupStorage.readByFields(groupName));
+            }
+        }).orNull();
+    }
+
+    public void userChanged(String userName) {
+        changed(USER, userName);
+    }
+
+    public void groupChanged(String groupName) {
+        changed(GROUP, groupName);
+    }
+
+    public void entitlementChanged(String entitlementName) {
+        changed(ENTITLEMENT, entitlementName);
+    }
+
+    private void changed(String kind, String name) {
+        evict(kind, name);
+        if (Kernel.getTypeChangeManager() != null) {
+            Kernel.getTypeChangeManager().publishMessage(TYPE, ImmutableMap.<String, Object> of(KIND, kind, NAME, name));
+        }
+    }
+
+    @Override
+    public void signalMessage(NotificationMessage message) {
+        Object kind = message.getAttributes().get(KIND);
+        Object name = message.getAttributes().get(NAME);
+        if (kind != null && name != null) evict(kind.toString(), name.toString());
+    }
+
+    private void evict(String kind, String name) {
+        if (log.isDebugEnabled()) log.debug("Evicting " + kind + " " + name);
+        switch (kind) {
+        case USER:
+            rootUsers.invalidate(name);
+            break;
+        case GROUP:
+            groups.invalidate(name);
+            break;
+        case ENTITLEMENT:
+            entitlements.invalidate(normalize(name));
+            break;
+        default:
+            log.warn("Unknown entitlement change " + kind);
+        }
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private static <T> T get(Cache<String, T> cache, String key, Callable<T> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // storage errors are already RaptureExceptions, so pass them on unchanged
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw RaptureExceptionFactory.create("Unable to read entitlement information for " + key, e.getCause());
+        }
+    }
+}
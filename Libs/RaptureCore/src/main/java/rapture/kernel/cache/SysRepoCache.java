@@ -37,6 +37,7 @@ import rapture.common.model.RaptureUser;
 import rapture.common.model.RepoConfig;
 import rapture.common.model.RepoConfigStorage;
 import rapture.config.ConfigLoader;
+import rapture.kernel.Kernel;
 import rapture.repo.RepoFactory;
 import rapture.repo.Repository;
 
@@ -144,6 +145,7 @@ public class SysRepoCache extends AbstractStorableRepoCache<RepoConfig> {
         String jsonString = JacksonUtil.jsonFromObject(user);
         Repository repository = getRepo(RaptureConstants.SETTINGS_REPO);
         repository.addDocument(user.getStorageLocation().getDocPath(), jsonString, "internal", "Create default rapture user", false);
+        if (Kernel.getEntitlementCache() != null) Kernel.getEntitlementCache().userChanged(user.getUsername());
     }
 
     @Override
@@ -0,0 +1,463 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.kernel.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import rapture.common.AbstractUpdateObject;
+import rapture.common.BlobContainer;
+import rapture.common.BlobUpdateObject;
+import rapture.common.DocUpdateObject;
+import rapture.common.RaptureURI;
+import rapture.common.SearchHit;
+import rapture.common.SearchResponse;
+import rapture.common.exception.ExceptionToString;
+import rapture.common.exception.RaptNotSupportedException;
+import rapture.common.exception.RaptureExceptionFactory;
+import rapture.common.impl.jackson.JacksonUtil;
+import rapture.common.model.DocumentWithMeta;
+import rapture.common.series.SeriesUpdateObject;
+import rapture.kernel.file.FileRepoUtils;
+import rapture.search.SearchRepoType;
+import rapture.util.IDGenerator;
+
+/**
+ * A search repository that keeps its index on local disk with Lucene, for installations that do not run an ElasticSearch cluster. Configured with
+ * <code>SEARCH {} USING LUCENE { index = "name", prefix = "/var/rapture/search" }</code>.
+ * <p>
+ * It stores the same entries as the ElasticSearch repository - the content under the URI's scheme, the meta data under meta and the parts of the
+ * URI under uri - and takes the same query string syntax. Writes become visible to searches after at most refreshMillis (default one second);
+ * segments are merged in the background by Lucene's merge scheduler.
+ */
+public class LuceneSearchRepository implements SearchRepository {
+    private static final Logger log = Logger.getLogger(LuceneSearchRepository.class);
+
+    public static final String INDEX = "index";
+    public static final String REFRESH_MILLIS = "refreshMillis";
+
+    // how long to keep a cursor between paginated searches, as for ElasticSearch
+    private static final long CURSOR_KEEPALIVE = 600000;
+    private static final int DEFAULT_SIZE = 10;
+
+    // fields of every entry
+    private static final String KEY = "_key";
+    private static final String ID = "_id";
+    private static final String TYPE = "_type";
+    private static final String REPO = "_repo";
+    private static final String SOURCE = "_source";
+    // every value of an entry, searched when the query names no field
+    private static final String ALL = "_all";
+
+    private static final Sort SORT = new Sort(SortField.FIELD_SCORE, new SortField(KEY, SortField.Type.STRING));
+
+    // indexes are opened once per directory however many repositories use them, as Lucene allows only one writer
+    private static final Map<String, LuceneIndex> indexes = new HashMap<>();
+
+    private Map<String, String> config = new HashMap<>();
+    private LuceneIndex luceneIndex;
+    private final Cache<String, Cursor> cursors = CacheBuilder.newBuilder().expireAfterAccess(CURSOR_KEEPALIVE, TimeUnit.MILLISECONDS).build();
+
+    @Override
+    public void setInstanceName(String instanceName) {
+    }
+
+    @Override
+    public void setConfig(Map<String, String> config) {
+        this.config = config;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (luceneIndex != null) {
+            return;
+        }
+        String prefix = config.get(FileRepoUtils.PREFIX);
+        if (StringUtils.isBlank(prefix)) {
+            prefix = new File(System.getProperty("java.io.tmpdir"), "raptureSearch").getPath();
+        }
+        String index = StringUtils.defaultIfBlank(config.get(INDEX), "rapturemain");
+        File dir = FileRepoUtils.ensureDirectory(new File(prefix, index).getPath());
+        long refreshMillis = config.containsKey(REFRESH_MILLIS) ? Long.parseLong(config.get(REFRESH_MILLIS)) : 1000L;
+        try {
+            String path = dir.getCanonicalPath();
+            synchronized (indexes) {
+                luceneIndex = indexes.get(path);
+                if (luceneIndex == null) {
+                    luceneIndex = new LuceneIndex(dir, refreshMillis);
+                    indexes.put(path, luceneIndex);
+                }
+            }
+        } catch (IOException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Unable to open search index in " + dir, e);
+        }
+        log.info(String.format("Lucene search index in [%s]", dir));
+    }
+
+    private LuceneIndex ensureIndex() {
+        if (luceneIndex == null) {
+            start();
+        }
+        return luceneIndex;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void put(AbstractUpdateObject updateObject) {
+        RaptureURI uri = updateObject.getUri();
+        Map<String, Object> uriSource = new LinkedHashMap<>();
+        uriSource.put("parts", Arrays.asList(uri.getDocPath().split("/")));
+        uriSource.put("repo", uri.getAuthority());
+        uriSource.put("scheme", uri.getScheme().toString());
+        index(uri, SearchRepoType.uri.toString(), uriSource);
+
+        if (updateObject instanceof DocUpdateObject) {
+            DocumentWithMeta docMeta = ((DocUpdateObject) updateObject).getPayload();
+            index(uri, uri.getScheme().toString(), JacksonUtil.getMapFromJson(docMeta.getContent()), docMeta.getContent());
+            index(uri, SearchRepoType.meta.toString(), JacksonUtil.getMapFromJson(JacksonUtil.jsonFromObject(docMeta.getMetaData())));
+        } else if (updateObject instanceof SeriesUpdateObject) {
+            Map<String, String> map = ((SeriesUpdateObject) updateObject).asStringMap();
+            if (!map.isEmpty()) {
+                mergeIndex(uri, uri.getScheme().toString(), map);
+            }
+        } else if (updateObject instanceof BlobUpdateObject) {
+            BlobContainer content = ((BlobUpdateObject) updateObject).getPayload();
+            // there is no PDF text extraction here, so only the meta data of a PDF is searchable
+            if (!MediaType.PDF.toString().equals(updateObject.getMimeType()) && content.getContent() != null) {
+                Map<String, Object> source = new LinkedHashMap<>();
+                source.put("blob", new String(content.getContent(), StandardCharsets.UTF_8));
+                index(uri, uri.getScheme().toString(), source);
+            }
+            Map<String, Object> meta = new LinkedHashMap<>();
+            if (content.getHeaders() != null) {
+                meta.putAll(content.getHeaders());
+            }
+            meta.put("mimetype", updateObject.getMimeType());
+            index(uri, SearchRepoType.meta.toString(), meta);
+        } else {
+            throw new RaptNotSupportedException(String.format("Search update for uri [%s] not supported yet", uri.toString()));
+        }
+    }
+
+    /**
+     * The index writer already buffers and merges in the background, so a bulk update is just the individual updates without a refresh in between
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void bulkUpdate(List<RaptureURI> removes, List<AbstractUpdateObject> puts) {
+        for (RaptureURI uri : removes) {
+            remove(uri);
+        }
+        for (AbstractUpdateObject updateObject : puts) {
+            put(updateObject);
+        }
+    }
+
+    private void index(RaptureURI uri, String type, Map<String, Object> source) {
+        index(uri, type, source, JacksonUtil.jsonFromObject(source));
+    }
+
+    /**
+     * @param json
+     *            the source as it is to be returned in search hits
+     */
+    private void index(RaptureURI uri, String type, Map<String, Object> source, String json) {
+        try {
+            ensureIndex().writer.updateDocument(new Term(KEY, key(type, uri.toString())), toDocument(uri, type, source, json));
+        } catch (IOException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Unable to index " + uri, e);
+        }
+    }
+
+    /**
+     * Series entries accumulate their points, so the new ones are added to what is already there
+     */
+    private void mergeIndex(RaptureURI uri, String type, Map<String, String> points) {
+        LuceneIndex index = ensureIndex();
+        synchronized (index) {
+            Map<String, Object> source = new LinkedHashMap<>();
+            try {
+                // see any update made since the last refresh
+                index.searcherManager.maybeRefreshBlocking();
+                IndexSearcher searcher = index.searcherManager.acquire();
+                try {
+                    ScoreDoc[] hits = searcher.search(new TermQuery(new Term(KEY, key(type, uri.toString()))), 1).scoreDocs;
+                    if (hits.length > 0) {
+                        source.putAll(JacksonUtil.getMapFromJson(searcher.doc(hits[0].doc).get(SOURCE)));
+                    }
+                } finally {
+                    index.searcherManager.release(searcher);
+                }
+            } catch (IOException e) {
+                throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Unable to index " + uri, e);
+            }
+            source.putAll(points);
+            index(uri, type, source);
+        }
+    }
+
+    private static Document toDocument(RaptureURI uri, String type, Map<String, Object> source, String json) {
+        Document doc = new Document();
+        String id = uri.toString();
+        String key = key(type, id);
+        doc.add(new StringField(KEY, key, Store.NO));
+        doc.add(new SortedDocValuesField(KEY, new BytesRef(key)));
+        doc.add(new StringField(ID, id, Store.YES));
+        doc.add(new StringField(TYPE, type, Store.YES));
+        doc.add(new StringField(REPO, uri.getScheme() + "://" + uri.getAuthority(), Store.NO));
+        doc.add(new StoredField(SOURCE, json));
+        addFields(doc, null, source);
+        return doc;
+    }
+
+    /**
+     * Nested values are indexed under their dotted path, as ElasticSearch does, and everything is also indexed under _all
+     */
+    private static void addFields(Document doc, String path, Object value) {
+        if (value instanceof Map) {
+            for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                addFields(doc, (path == null) ? entry.getKey().toString() : path + "." + entry.getKey(), entry.getValue());
+            }
+        } else if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                addFields(doc, path, item);
+            }
+        } else if (value != null && path != null) {
+            doc.add(new TextField(path, value.toString(), Store.NO));
+            doc.add(new TextField(ALL, value.toString(), Store.NO));
+        }
+    }
+
+    private static String key(String type, String id) {
+        return type + " " + id;
+    }
+
+    @Override
+    public void remove(RaptureURI uri) {
+        try {
+            ensureIndex().writer.deleteDocuments(new Term(ID, uri.toString()));
+        } catch (IOException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Unable to remove " + uri + " from search", e);
+        }
+    }
+
+    /**
+     * Remove every entry for the repository, given as its URI (e.g. document://x)
+     */
+    @Override
+    public void dropIndexForRepo(String repoName) {
+        RaptureURI repoUri = new RaptureURI(repoName);
+        try {
+            ensureIndex().writer.deleteDocuments(new Term(REPO, repoUri.getScheme() + "://" + repoUri.getAuthority()));
+        } catch (IOException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Unable to drop search entries for " + repoName, e);
+        }
+    }
+
+    @Override
+    public SearchResponse search(List<String> types, String query) {
+        return search(new Cursor(parse(types, query), DEFAULT_SIZE), null);
+    }
+
+    @Override
+    public SearchResponse searchForRepoUris(String scheme, String repo, String cursorId) {
+        String searchQuery = String.format("scheme:%s AND repo:%s", scheme, repo);
+        return searchWithCursor(Arrays.asList(SearchRepoType.uri.toString()), cursorId, 10, searchQuery);
+    }
+
+    @Override
+    public SearchResponse searchWithCursor(List<String> types, String cursorId, int size, String query) {
+        if (StringUtils.isBlank(cursorId)) {
+            cursorId = IDGenerator.getUUID();
+            Cursor cursor = new Cursor(parse(types, query), size);
+            cursors.put(cursorId, cursor);
+            return search(cursor, cursorId);
+        }
+        Cursor cursor = cursors.getIfPresent(cursorId);
+        if (cursor == null) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, String.format("No search cursor [%s], it may have expired", cursorId));
+        }
+        return search(cursor, cursorId);
+    }
+
+    private Query parse(List<String> types, String query) {
+        try {
+            QueryParser parser = new QueryParser(Version.LUCENE_4_10_0, ALL, ensureIndex().analyzer);
+            parser.setAllowLeadingWildcard(true);
+            BooleanQuery ret = new BooleanQuery();
+            ret.add(parser.parse(query), Occur.MUST);
+            // If the List is null, empty or only contains a single null or empty String then search all types
+            if (!(types == null || types.isEmpty() || (types.size() == 1 && StringUtils.isEmpty(types.get(0))))) {
+                BooleanQuery typeQuery = new BooleanQuery();
+                for (String type : types) {
+                    typeQuery.add(new TermQuery(new Term(TYPE, type)), Occur.SHOULD);
+                }
+                ret.add(typeQuery, Occur.MUST);
+            }
+            return ret;
+        } catch (ParseException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, "Invalid search query: " + query, e);
+        }
+    }
+
+    /**
+     * Return the next page for the cursor. Pages carry on after the (score, key) of the last hit rather than counting hits, so entries added or
+     * removed between pages do not cause others to be skipped or repeated.
+     */
+    private SearchResponse search(Cursor cursor, String cursorId) {
+        LuceneIndex index = ensureIndex();
+        try {
+            IndexSearcher searcher = index.searcherManager.acquire();
+            try {
+                TopDocs topDocs = searcher.searchAfter(cursor.after, cursor.query, null, cursor.size, SORT, true, true);
+                SearchResponse ret = new SearchResponse();
+                ret.setCursorId(cursorId);
+                ret.setTotal((long) topDocs.totalHits);
+                ret.setMaxScore(Double.isNaN(topDocs.getMaxScore()) ? 0.0 : (double) topDocs.getMaxScore());
+                ret.setSearchHits(new ArrayList<SearchHit>());
+                for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    Document doc = searcher.doc(scoreDoc.doc);
+                    SearchHit hit = new SearchHit();
+                    hit.setScore((double) scoreDoc.score);
+                    hit.setSource(doc.get(SOURCE));
+                    hit.setIndexType(doc.get(TYPE));
+                    hit.setId(doc.get(ID));
+                    hit.setUri(doc.get(ID));
+                    ret.getSearchHits().add(hit);
+                }
+                if (topDocs.scoreDocs.length > 0) {
+                    cursor.after = (FieldDoc) topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+                }
+                return ret;
+            } finally {
+                index.searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Search failed", e);
+        }
+    }
+
+    /**
+     * Make every change so far visible to searches now, rather than at the next scheduled refresh
+     */
+    void refresh() throws IOException {
+        ensureIndex().searcherManager.maybeRefreshBlocking();
+    }
+
+    private static class Cursor {
+        private final Query query;
+        private final int size;
+        private volatile FieldDoc after;
+
+        Cursor(Query query, int size) {
+            this.query = query;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The writer and searchers for one index directory, and the thread that keeps the searchers near real time and commits the changes
+     */
+    private static class LuceneIndex {
+        private final Analyzer analyzer = new StandardAnalyzer();
+        private final IndexWriter writer;
+        private final SearcherManager searcherManager;
+        private final ScheduledExecutorService refresher;
+
+        LuceneIndex(File dir, final long refreshMillis) throws IOException {
+            IndexWriterConfig writerConfig = new IndexWriterConfig(Version.LUCENE_4_10_0, analyzer);
+            writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            writerConfig.setMergePolicy(new TieredMergePolicy());
+            writerConfig.setMergeScheduler(new ConcurrentMergeScheduler());
+            writer = new IndexWriter(FSDirectory.open(dir), writerConfig);
+            searcherManager = new SearcherManager(writer, true, null);
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("LuceneSearchRefresh-%d").setDaemon(true).build());
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                private int refreshes = 0;
+
+                @Override
+                public void run() {
+                    try {
+                        searcherManager.maybeRefresh();
+                        // commit about every ten seconds, so a restart loses little
+                        if (++refreshes % Math.max(1, 10000 / refreshMillis) == 0 && writer.hasUncommittedChanges()) {
+                            writer.commit();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        log.error("Unable to refresh search index: " + ExceptionToString.format(e));
+                    }
+                }
+            }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.kernel.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import rapture.common.AbstractUpdateObject;
+import rapture.common.RaptureURI;
+import rapture.common.series.SeriesUpdateObject;
+import rapture.kernel.Kernel;
+
+/**
+ * Collects search index updates and hands them to the search repository in bulk. Updates are held per search repo and keyed by uri, so a uri
+ * written many times before a flush is only indexed once, with its last content (series updates are merged instead, as series entries accumulate
+ * their points). A batch is flushed when it reaches batchSize entries or when its oldest entry is flushMillis old.
+ *
+ * The buffer is bounded: a writer that fills a batch flushes it itself, and once a batch holds maxPending entries writers wait for the flush in
+ * progress rather than adding more.
+ */
+public class SearchIndexBuffer {
+    private static final Logger log = Logger.getLogger(SearchIndexBuffer.class);
+
+    private static final String BATCH_SIZE_METRIC = "search.index.batchSize";
+    private static final String LAG_METRIC = "search.index.lag";
+
+    private final Function<String, SearchRepository> repoLookup;
+    private final int batchSize;
+    private final long flushMillis;
+    private final int maxPending;
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param repoLookup
+     *            finds the search repository for a search repo uri when a batch is flushed
+     */
+    public SearchIndexBuffer(Function<String, SearchRepository> repoLookup, int batchSize, long flushMillis, int maxPending) {
+        this.repoLookup = repoLookup;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushMillis = flushMillis;
+        this.maxPending = Math.max(this.batchSize, maxPending);
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SearchIndexBuffer-flusher").setDaemon(true).build());
+        if (flushMillis > 0) {
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushExpired();
+                }
+            }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    public void put(String searchRepo, AbstractUpdateObject updateObject) {
+        add(searchRepo, updateObject.getUri(), updateObject, false);
+    }
+
+    public void remove(String searchRepo, RaptureURI uri) {
+        add(searchRepo, uri, null, true);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void add(String searchRepo, RaptureURI uri, AbstractUpdateObject updateObject, boolean remove) {
+        Batch batch = getBatch(searchRepo);
+        int size = batch.add(uri.toString(), updateObject, remove);
+        if (size >= maxPending) {
+            // wait for whoever is flushing, then flush what is left
+            batch.flush(true);
+        } else if (size >= batchSize) {
+            batch.flush(false);
+        }
+    }
+
+    private Batch getBatch(String searchRepo) {
+        Batch batch = batches.get(searchRepo);
+        if (batch == null) {
+            Batch newBatch = new Batch(searchRepo);
+            batch = batches.putIfAbsent(searchRepo, newBatch);
+            if (batch == null) batch = newBatch;
+        }
+        return batch;
+    }
+
+    /**
+     * Write everything buffered for this search repo now, e.g. before the index for a repo is dropped or rebuilt
+     */
+    public void flush(String searchRepo) {
+        Batch batch = batches.get(searchRepo);
+        if (batch != null) batch.flush(true);
+    }
+
+    public void flushAll() {
+        for (Batch batch : batches.values()) {
+            batch.flush(true);
+        }
+    }
+
+    /**
+     * Stop the timed flushes and write out anything still buffered
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(flushMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (Batch batch : batches.values()) {
+            if (batch.isOlderThan(now - flushMillis)) {
+                try {
+                    batch.flush(true);
+                } catch (RuntimeException e) {
+                    log.error("Unable to flush search updates for " + batch.searchRepo, e);
+                }
+            }
+        }
+    }
+
+    public int pending(String searchRepo) {
+        Batch batch = batches.get(searchRepo);
+        return (batch == null) ? 0 : batch.size();
+    }
+
+    /**
+     * What is waiting to be done for one uri
+     */
+    @SuppressWarnings("rawtypes")
+    private static class Pending {
+        private boolean removeFirst;
+        private AbstractUpdateObject update;
+    }
+
+    private class Batch {
+        private final String searchRepo;
+        // only one flush at a time, so that batches for a search repo are applied in the order they were taken
+        private final ReentrantLock flushLock = new ReentrantLock();
+        private Map<String, Pending> entries = new LinkedHashMap<>();
+        private long oldest;
+
+        Batch(String searchRepo) {
+            this.searchRepo = searchRepo;
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        synchronized int add(String key, AbstractUpdateObject updateObject, boolean remove) {
+            if (entries.isEmpty()) oldest = System.currentTimeMillis();
+            Pending pending = entries.get(key);
+            if (pending == null) {
+                pending = new Pending();
+                entries.put(key, pending);
+            }
+            if (remove) {
+                pending.removeFirst = true;
+                pending.update = null;
+            } else if (pending.update instanceof SeriesUpdateObject && updateObject instanceof SeriesUpdateObject) {
+                // series entries accumulate, so both sets of points must be indexed
+                Map<String, String> points = new HashMap<>(((SeriesUpdateObject) pending.update).asStringMap());
+                points.putAll(((SeriesUpdateObject) updateObject).asStringMap());
+                SeriesUpdateObject merged = new SeriesUpdateObject(updateObject.getUri());
+                merged.setPayload(points);
+                pending.update = merged;
+            } else {
+                pending.update = updateObject;
+            }
+            return entries.size();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized boolean isOlderThan(long time) {
+            return !entries.isEmpty() && oldest <= time;
+        }
+
+        private synchronized Map<String, Pending> take() {
+            Map<String, Pending> ret = entries;
+            entries = new LinkedHashMap<>();
+            return ret;
+        }
+
+        /**
+         * @param wait
+         *            if false and another thread is already flushing, leave this batch for it or the next writer
+         */
+        @SuppressWarnings("rawtypes")
+        void flush(boolean wait) {
+            if (wait) {
+                flushLock.lock();
+            } else if (!flushLock.tryLock()) {
+                return;
+            }
+            try {
+                long started;
+                synchronized (this) {
+                    started = oldest;
+                }
+                Map<String, Pending> taken = take();
+                if (taken.isEmpty()) return;
+
+                List<RaptureURI> removes = new ArrayList<>();
+                List<AbstractUpdateObject> puts = new ArrayList<>();
+                for (Map.Entry<String, Pending> entry : taken.entrySet()) {
+                    Pending pending = entry.getValue();
+                    if (pending.removeFirst) removes.add(new RaptureURI(entry.getKey()));
+                    if (pending.update != null) puts.add(pending.update);
+                }
+                log.debug(String.format("Flushing %d search updates to [%s]", taken.size(), searchRepo));
+                try {
+                    repoLookup.apply(searchRepo).bulkUpdate(removes, puts);
+                } catch (RuntimeException e) {
+                    // don't let one bad entry lose the whole batch
+                    log.error(String.format("Bulk search update of %d entries to [%s] failed, applying them one at a time", taken.size(), searchRepo), e);
+                    applySingly(removes, puts);
+                }
+                Kernel.getMetricsService().recordGaugeValue(BATCH_SIZE_METRIC, (long) taken.size());
+                Kernel.getMetricsService().recordTimeDifference(LAG_METRIC, System.currentTimeMillis() - started);
+            } finally {
+                flushLock.unlock();
+            }
+        }
+
+        @SuppressWarnings("rawtypes")
+        private void applySingly(List<RaptureURI> removes, List<AbstractUpdateObject> puts) {
+            SearchRepository repo = repoLookup.apply(searchRepo);
+            for (RaptureURI uri : removes) {
+                try {
+                    repo.remove(uri);
+                } catch (RuntimeException e) {
+                    log.error(String.format("Unable to remove [%s] from search repo [%s]", uri, searchRepo), e);
+                }
+            }
+            for (AbstractUpdateObject update : puts) {
+                try {
+                    repo.put(update);
+                } catch (RuntimeException e) {
+                    log.error(String.format("Unable to index [%s] in search repo [%s]", update.getUri(), searchRepo), e);
+                }
+            }
+        }
+    }
+}
@@ -38,6 +38,12 @@ public interface SearchRepository {
 
     void put(AbstractUpdateObject updateObject);
 
+    /**
+     * Apply many updates in as few round trips as the store allows. The removals are applied before the puts, so a uri that is in both lists ends
+     * up holding only what was put.
+     */
+    void bulkUpdate(List<RaptureURI> removes, List<AbstractUpdateObject> puts);
+
     SearchResponse search(List<String> types, String query);
 
     SearchResponse searchWithCursor(List<String> types, String cursorId, int size, String query);
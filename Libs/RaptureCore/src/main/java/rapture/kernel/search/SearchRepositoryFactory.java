@@ -49,6 +49,7 @@ public final class SearchRepositoryFactory {
     static {
         Map<Integer, String> setupMap = new HashMap<Integer, String>();
         setupMap.put(FTGenLexer.ELASTIC, "rapture.elasticsearch.ElasticSearchSearchRepository");
+        setupMap.put(FTGenLexer.LUCENE, "rapture.kernel.search.LuceneSearchRepository");
         implementationMap = Collections.unmodifiableMap(setupMap);
     }
 
@@ -23,8 +23,12 @@
  */
 package rapture.lock.memory;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import rapture.common.LockHandle;
 import rapture.lock.ILockingHandler;
@@ -32,59 +36,71 @@ import rapture.lock.ILockingHandler;
 /*
  * The memory locking handler is basically a local synchronization point
  * 
+ * Each lock name has its own record, so unrelated locks never contend with
+ * each other. Threads waiting for a lock sleep on the record's condition and
+ * are woken (oldest first) as soon as it is released, or when the current
+ * holder's time runs out. A record is dropped once nobody holds or waits for it.
  */
 public class MemoryLockingHandler implements ILockingHandler {
-    private Map<String, MemoryLock> lockMap;
-    private Object syncLock;
+    private ConcurrentMap<String, LockRecord> lockMap;
     @SuppressWarnings("unused")
     private String instanceName;
 
     public MemoryLockingHandler() {
-        lockMap = new HashMap<String, MemoryLock>();
-        syncLock = new Object();
+        lockMap = new ConcurrentHashMap<String, LockRecord>();
     }
 
     @Override
     public LockHandle acquireLock(String lockContext, String lockName, long secondsToWait, long secondsToHold) {
-        if (getLockForMe(lockContext, lockName, secondsToHold)) {
-            return new LockHandle();
-        }
-
-        if (secondsToWait != 0) {
-            long secondsCountdown = secondsToWait;
-            while (secondsCountdown > 0) {
+        long start = System.nanoTime();
+        long nanosToWait = TimeUnit.SECONDS.toNanos(Math.max(secondsToWait, 0));
+        while (true) {
+            LockRecord record = getRecord(lockName);
+            record.mutex.lock();
+            try {
+                if (record.retired) {
+                    // released and dropped from the map while we were getting it
+                    continue;
+                }
+                record.waiters++;
                 try {
-                    Thread.sleep(1000);
+                    while (record.current != null && !record.current.readyToRelease()) {
+                        long nanosLeft = nanosToWait - (System.nanoTime() - start);
+                        if (nanosLeft <= 0) {
+                            return null;
+                        }
+                        long millisToExpiry = record.current.getTimeToRelease() - System.currentTimeMillis() + 1;
+                        record.released.awaitNanos(Math.min(nanosLeft, TimeUnit.MILLISECONDS.toNanos(millisToExpiry)));
+                    }
+                    record.current = generateLock(lockContext, lockName, secondsToHold);
+                    return makeHandle(lockContext, lockName);
                 } catch (InterruptedException e) {
-
-                }
-                if (getLockForMe(lockContext, lockName, secondsToHold)) {
-                    return new LockHandle();
+                    Thread.currentThread().interrupt();
+                    return null;
+                } finally {
+                    record.waiters--;
+                    if (record.current == null || record.current.readyToRelease()) {
+                        // we did not take it, so pass the wake-up on
+                        record.released.signal();
+                    }
+                    retireIfUnused(lockName, record);
                 }
-                secondsCountdown--;
+            } finally {
+                record.mutex.unlock();
             }
         }
-        return null;
     }
 
-    private boolean checkLock(String lockContext, String lockName, long secondsToHold) {
-        if (!lockExists(lockName)) {
-            createLock(lockContext, lockName, secondsToHold);
-            return true;
-        } else {
-            MemoryLock lock = lockMap.get(lockName);
-            if (lock.readyToRelease()) {
-                // Replace lock as current lock has expired
-                createLock(lockContext, lockName, secondsToHold);
-                return true;
+    private LockRecord getRecord(String lockName) {
+        LockRecord record = lockMap.get(lockName);
+        if (record == null) {
+            LockRecord newRecord = new LockRecord();
+            record = lockMap.putIfAbsent(lockName, newRecord);
+            if (record == null) {
+                record = newRecord;
             }
         }
-        return false;
-    }
-
-    private void createLock(String lockContext, String lockName, long secondsToHold) {
-        MemoryLock lock = generateLock(lockContext, lockName, secondsToHold);
-        lockMap.put(lockName, lock);
+        return record;
     }
 
     private MemoryLock generateLock(String lockHolder, String lockName, long secondsToHold) {
@@ -95,13 +111,11 @@ public class MemoryLockingHandler implements ILockingHandler {
         return lock;
     }
 
-    private boolean getLockForMe(String lockContext, String lockName, long secondsToHold) {
-        synchronized (syncLock) {
-            if (checkLock(lockContext, lockName, secondsToHold)) {
-                return true;
-            }
-        }
-        return false;
+    private LockHandle makeHandle(String lockHolder, String lockName) {
+        LockHandle handle = new LockHandle();
+        handle.setLockHolder(lockHolder);
+        handle.setLockName(lockName);
+        return handle;
     }
 
     private long getReleaseTime(long secondsToHold) {
@@ -112,25 +126,43 @@ public class MemoryLockingHandler implements ILockingHandler {
         }
     }
 
-    private boolean lockExists(String lockName) {
-        return lockMap.containsKey(lockName);
+    /**
+     * Must be called with the record's mutex held
+     */
+    private void retireIfUnused(String lockName, LockRecord record) {
+        if (record.current == null && record.waiters == 0 && !record.retired) {
+            record.retired = true;
+            lockMap.remove(lockName, record);
+        }
     }
 
     @Override
     public Boolean releaseLock(String lockContext, String lockName, LockHandle lockHandle) {
-        synchronized (syncLock) {
-            if (lockMap.containsKey(lockName) && lockContext.equals(lockMap.get(lockName).getLockHolder())) {
-                lockMap.remove(lockName);
-                return true;
+        return release(lockContext, lockName);
+    }
+
+    private Boolean release(String lockContext, String lockName) {
+        LockRecord record = lockMap.get(lockName);
+        if (record == null) {
+            return false;
+        }
+        record.mutex.lock();
+        try {
+            if (record.current == null || (lockContext != null && !record.current.hasContext(lockContext))) {
+                return false;
             }
+            record.current = null;
+            record.released.signal();
+            retireIfUnused(lockName, record);
+            return true;
+        } finally {
+            record.mutex.unlock();
         }
-        return false;
     }
 
     @Override
     public void setConfig(Map<String, String> config) {
-        lockMap = new HashMap<String, MemoryLock>();
-        syncLock = new Object();
+        lockMap = new ConcurrentHashMap<String, LockRecord>();
     }
 
     @Override
@@ -140,12 +172,18 @@ public class MemoryLockingHandler implements ILockingHandler {
 
     @Override
     public Boolean forceReleaseLock(String lockName) {
-        synchronized (syncLock) {
-            if (lockMap.containsKey(lockName)) {
-                lockMap.remove(lockName);
-                return true;
-            }
-        }
-        return false;
+        return release(null, lockName);
+    }
+
+    /**
+     * The state of one named lock. All fields are guarded by the mutex, which
+     * is fair so that woken waiters are not overtaken by newly arriving threads.
+     */
+    private static class LockRecord {
+        private final ReentrantLock mutex = new ReentrantLock(true);
+        private final Condition released = mutex.newCondition();
+        private MemoryLock current;
+        private int waiters;
+        private boolean retired;
     }
 }
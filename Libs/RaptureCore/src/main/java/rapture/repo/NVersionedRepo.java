@@ -34,7 +34,9 @@ import rapture.dsl.dparse.AsOfTimeDirective;
 import rapture.dsl.dparse.BaseDirective;
 import rapture.dsl.dparse.VersionDirective;
 import rapture.lock.ILockingHandler;
+import rapture.kernel.Kernel;
 import rapture.repo.meta.AbstractMetaBasedRepo;
+import rapture.repo.meta.handler.AbstractMetaHandler;
 import rapture.repo.meta.handler.VersionedMetaHandler;
 
 import java.net.HttpURLConnection;
@@ -55,13 +57,36 @@ public class NVersionedRepo extends AbstractMetaBasedRepo<VersionedMetaHandler>
 
     public NVersionedRepo(Map<String, String> config, KeyStore store, KeyStore versionKeyStore, KeyStore metaKeyStore, KeyStore attributeStore,
             ILockingHandler lockHandler) {
-        super(store, lockHandler);
+        super(config, store, lockHandler);
         metaHandler = new VersionedMetaHandler(store, versionKeyStore, metaKeyStore, attributeStore);
     }
 
     @Override
     public DocumentWithMeta revertDoc(String disp, BaseDirective directive) {
-        return metaHandler.revertDoc(disp, producer);
+        if (!repoLockHandler.isOptimistic()) {
+            return metaHandler.revertDoc(disp, producer);
+        }
+        DocumentWithMeta ret = metaHandler.revertDocOptimistically(disp, producer, false);
+        if (ret != AbstractMetaHandler.NOT_WRITTEN) {
+            return ret;
+        }
+        Kernel.getMetricsService().recordCount("repo.doc.optimistic.fallback", 1L);
+
+        String lockHolder = repoLockHandler.generateLockHolder();
+        LockHandle lockHandle = repoLockHandler.acquireDocumentLock(lockHolder, disp);
+        if (lockHandle != null) {
+            try {
+                ret = metaHandler.revertDocOptimistically(disp, producer, true);
+                if (ret == AbstractMetaHandler.NOT_WRITTEN) {
+                    ret = metaHandler.revertDoc(disp, producer);
+                }
+            } finally {
+                repoLockHandler.releaseDocumentLock(lockHolder, lockHandle, disp);
+            }
+        } else {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, Messages.getString("NVersionedRepo.nolockWrite")); //$NON-NLS-1$
+        }
+        return ret;
     }
 
     @Override
@@ -261,12 +286,18 @@ public class NVersionedRepo extends AbstractMetaBasedRepo<VersionedMetaHandler>
     public DocumentWithMeta addDocumentWithVersion(String docPath, String content, String user, String comment, boolean mustBeNew, int expectedVersion) {
         String lockHolder = repoLockHandler.generateLockHolder();
         DocumentWithMeta ret = null;
-        LockHandle lockHandle = repoLockHandler.acquireLock(lockHolder);
+        LockHandle lockHandle = repoLockHandler.acquireDocumentLock(lockHolder, docPath);
         if (lockHandle != null) {
             try {
-                ret = metaHandler.addDocumentWithExpectedVersion(docPath, content, user, comment, expectedVersion, producer);
+                // lock-free writers do not take the document lock, so in optimistic mode the checked version is only replaced if it is still latest
+                ret = repoLockHandler.isOptimistic()
+                        ? metaHandler.addDocumentWithExpectedVersionOptimistically(docPath, content, user, comment, expectedVersion, producer)
+                        : AbstractMetaHandler.NOT_WRITTEN;
+                if (ret == AbstractMetaHandler.NOT_WRITTEN) {
+                    ret = metaHandler.addDocumentWithExpectedVersion(docPath, content, user, comment, expectedVersion, producer);
+                }
             } finally {
-                repoLockHandler.releaseLock(lockHolder, lockHandle);
+                repoLockHandler.releaseDocumentLock(lockHolder, lockHandle, docPath);
             }
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, Messages.getString("NVersionedRepo.nolockWrite")); //$NON-NLS-1$
@@ -23,6 +23,7 @@
  */
 package rapture.repo;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -145,6 +146,14 @@ public class StructuredRepo {
         return store.insertRows(tableName, values);
     }
 
+    public Boolean upsertRows(String tableName, List<Map<String, Object>> values, List<String> keyColumns){
+        return store.upsertRows(tableName, values, keyColumns);
+    }
+
+    public Long loadRows(String tableName, Iterator<? extends Map<String, ?>> rows){
+        return store.loadRows(tableName, rows);
+    }
+
     public Boolean updateUsingSql(CallingContext context, String rawSql){
         // TODO RAP-3141: Does this count as a write???
         return store.updateUsingSql(context, rawSql);
@@ -41,7 +41,7 @@ import rapture.repo.meta.handler.UnversionedMetaHandler;
 public class UnversionedRepo extends AbstractMetaBasedRepo<UnversionedMetaHandler> {
 
     public UnversionedRepo(Map<String, String> config, KeyStore store, KeyStore metaKeyStore, KeyStore attributeKeyStore, ILockingHandler locker) {
-        super(store, locker);
+        super(config, store, locker);
         metaHandler = new UnversionedMetaHandler(store, metaKeyStore, attributeKeyStore);
     }
 
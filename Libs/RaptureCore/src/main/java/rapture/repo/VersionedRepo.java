@@ -403,7 +403,7 @@ public class VersionedRepo extends BaseRepo implements Repository {
         directive.reset(context);
         CommitObject cObj = startPoint;
         while (directive.incorrect(cObj)) {
-            cObj = objDb.getCommit(cObj.getPreviousReference());
+            cObj = objDb.getSharedCommit(cObj.getPreviousReference());
             if (cObj == null) {
                 break;
             }
@@ -419,7 +419,7 @@ public class VersionedRepo extends BaseRepo implements Repository {
         }
 
         PerspectiveObject po = keyDb.getPerspective(OFFICIAL);
-        CommitObject cObj = objDb.getCommit(po.getLatestCommit());
+        CommitObject cObj = objDb.getSharedCommit(po.getLatestCommit());
         return getDocumentFromCommit(documentName, cObj);
     }
 
@@ -434,7 +434,7 @@ public class VersionedRepo extends BaseRepo implements Repository {
         // we get the document
         // from that commit
         PerspectiveObject po = keyDb.getPerspective(OFFICIAL);
-        CommitObject cObj = objDb.getCommit(po.getLatestCommit());
+        CommitObject cObj = objDb.getSharedCommit(po.getLatestCommit());
         cObj = getCommitViaDirective(cObj, documentName, directive);
 
         if (cObj != null) {
@@ -446,29 +446,20 @@ public class VersionedRepo extends BaseRepo implements Repository {
     }
 
     public String getDocumentFromCommit(String documentName, CommitObject cObj) {
-        TreeObject tObj = objDb.getTree(cObj.getTreeRef());
+        String treeRef = cObj.getTreeRef();
         String[] parts = documentName.split("/");
-        String ret = null;
-        for (int i = 0; i < parts.length; i++) {
+        for (int i = 0; i < parts.length - 1; i++) {
+            TreeObject tObj = objDb.getSharedTree(treeRef);
             if (tObj == null) {
-                break;
-            }
-            if (i == parts.length - 1) {
-                for (DocumentBagReference bagRef : tObj.getDocuments()) {
-                    DocumentBagObject dObj = objDb.getDocumentBag(bagRef.getBagRef());
-
-                    ret = dObj.getDocRefs().get(parts[i]);
-                    if (ret != null) {
-                        ret = objDb.getDocument(ret).getContent().toString();
-                        break;
-                    }
-                }
-            } else {
-                String treeRef = tObj.getTrees().get(parts[i]);
-                tObj = objDb.getTree(treeRef);
+                return null;
             }
+            treeRef = tObj.getTrees().get(parts[i]);
         }
-        return ret;
+        String docRef = objDb.findDocumentRef(treeRef, parts[parts.length - 1]);
+        if (docRef == null) {
+            return null;
+        }
+        return objDb.getSharedDocument(docRef).getContent().toString();
     }
 
     @Override
@@ -566,7 +557,7 @@ public class VersionedRepo extends BaseRepo implements Repository {
     @Override
     public String getTagDocument(String tag, String key) {
         TagObject to = keyDb.getTag(tag);
-        CommitObject cObj = objDb.getCommit(to.getCommitRef());
+        CommitObject cObj = objDb.getSharedCommit(to.getCommitRef());
         return getDocumentFromCommit(key, cObj);
     }
 
@@ -27,21 +27,132 @@ import rapture.common.RaptureFolderInfo;
 import rapture.common.impl.jackson.JacksonUtil;
 import rapture.common.impl.jackson.MD5Utils;
 import rapture.common.repo.*;
+import rapture.config.ConfigLoader;
+import rapture.kernel.Kernel;
 import rapture.repo.KeyStore;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 
 /**
  * An object database reads and write BaseObjects
  * 
+ * Objects are stored under the hash of their content, so the parts of them that lead from a commit to a document never change once written.
+ * The getShared methods keep decoded objects (and, for trees, the index of document names to references built from their bags) in a cache
+ * weighed by serialized size, and must only be used by readers that will not modify what they are given. Commentary is the one thing that is
+ * added to an object in place, and is not to be read from the shared copies.
+ * 
  * @author amkimian
  * 
  */
 public class ObjectDatabase {
+    private static final String HIT_METRIC = "repo.objectdb.cache.hit";
+    private static final String MISS_METRIC = "repo.objectdb.cache.miss";
+    // prefix for the cached document name index of a tree, which is not a valid hash
+    private static final String INDEX_PREFIX = "index:";
+
     private KeyStore store;
+    private final Cache<String, Decoded> cache;
 
     public ObjectDatabase(KeyStore store) {
+        this(store, ConfigLoader.getConf().ObjectDatabaseCacheBytes);
+    }
+
+    ObjectDatabase(KeyStore store, long cacheBytes) {
         this.store = store;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(cacheBytes).weigher(new Weigher<String, Decoded>() {
+            @Override
+            public int weigh(String key, Decoded value) {
+                return value.weight;
+            }
+        }).build();
+    }
+
+    /**
+     * A decoded object and the size of its serialized form
+     */
+    private static class Decoded {
+        private final Object value;
+        private final int weight;
+
+        Decoded(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private <T> T getShared(String ref, Class<T> klass) {
+        if (ref == null) {
+            return null;
+        }
+        Decoded decoded = cache.getIfPresent(ref);
+        if (decoded != null) {
+            Kernel.getMetricsService().recordCount(HIT_METRIC, 1L);
+            return klass.cast(decoded.value);
+        }
+        Kernel.getMetricsService().recordCount(MISS_METRIC, 1L);
+        String json = store.get(ref);
+        if (json == null) {
+            return null;
+        }
+        T value = JacksonUtil.objectFromJson(json, klass);
+        cache.put(ref, new Decoded(value, json.length()));
+        return value;
+    }
+
+    public CommitObject getSharedCommit(String ref) {
+        return getShared(ref, CommitObject.class);
+    }
+
+    public TreeObject getSharedTree(String ref) {
+        return getShared(ref, TreeObject.class);
+    }
+
+    public DocumentObject getSharedDocument(String ref) {
+        return getShared(ref, DocumentObject.class);
+    }
+
+    /**
+     * Find a document directly in a tree, without going through each of its bags in turn
+     * 
+     * @return the reference of the document, or null if the tree does not exist or has no such document
+     */
+    @SuppressWarnings("unchecked")
+    public String findDocumentRef(String treeRef, String name) {
+        String indexKey = INDEX_PREFIX + treeRef;
+        Decoded index = cache.getIfPresent(indexKey);
+        if (index == null) {
+            TreeObject tObj = getSharedTree(treeRef);
+            if (tObj == null) {
+                return null;
+            }
+            Map<String, String> docRefs = new HashMap<String, String>();
+            int weight = 0;
+            for (DocumentBagReference bagRef : tObj.getDocuments()) {
+                DocumentBagObject dObj = getDocumentBag(bagRef.getBagRef());
+                for (Map.Entry<String, String> entry : dObj.getDocRefs().entrySet()) {
+                    // the first bag wins, as it would when going through them in order
+                    if (!docRefs.containsKey(entry.getKey())) {
+                        docRefs.put(entry.getKey(), entry.getValue());
+                        weight += entry.getKey().length() + entry.getValue().length();
+                    }
+                }
+            }
+            index = new Decoded(Collections.unmodifiableMap(docRefs), weight);
+            cache.put(indexKey, index);
+        }
+        return ((Map<String, String>) index.value).get(name);
+    }
+
+    private void invalidate(String ref) {
+        cache.invalidate(ref);
+        cache.invalidate(INDEX_PREFIX + ref);
     }
 
     public CommentaryObject getCommentary(String ref) {
@@ -95,6 +206,7 @@ public class ObjectDatabase {
     public void writeCommit(CommitObject cObj, String cRef) {
         String json = JacksonUtil.jsonFromObject(cObj);
         store.put(cRef, json);
+        invalidate(cRef);
     }
 
     public String writeDocument(DocumentObject d) {
@@ -103,6 +215,7 @@ public class ObjectDatabase {
 
     public void writeDocument(DocumentObject docObject, String reference) {
         store.put(reference, JacksonUtil.jsonFromObject(docObject));
+        invalidate(reference);
     }
 
     public String writeDocumentBag(DocumentBagObject d) {
@@ -121,9 +234,13 @@ public class ObjectDatabase {
 
     public void writeTree(TreeObject treeObject, String reference) {
         store.put(reference, JacksonUtil.jsonFromObject(treeObject));
+        invalidate(reference);
     }
 
     public boolean delete(List<String> keys) {
+        for (String key : keys) {
+            invalidate(key);
+        }
         return store.delete(keys);
     }
 
@@ -39,12 +39,13 @@ import rapture.common.exception.RaptureExceptionFactory;
 import rapture.index.IndexHandler;
 import rapture.index.IndexProducer;
 import rapture.repo.AbstractKeyStore;
+import rapture.repo.ConditionalKeyStore;
 import rapture.repo.KeyStore;
 import rapture.repo.StoreKeyVisitor;
 import rapture.table.memory.MemoryIndexHandler;
 import rapture.util.IDGenerator;
 
-public class MemKeyStore extends AbstractKeyStore implements KeyStore {
+public class MemKeyStore extends AbstractKeyStore implements ConditionalKeyStore {
     // Trivial implementation at present - delegate to storage class later
     private Map<String, String> db;
     private String id;
@@ -98,6 +99,16 @@ public class MemKeyStore extends AbstractKeyStore implements KeyStore {
         db.put(k, v);
     }
 
+    @Override
+    public synchronized boolean putIfUnchanged(String k, String expectedValue, String newValue) {
+        String current = db.get(k);
+        if (current == null || !current.equals(expectedValue)) {
+            return false;
+        }
+        db.put(k, newValue);
+        return true;
+    }
+
     @Override
     public RaptureQueryResult runNativeQuery(String repoType, List<String> queryParams) {
         if (repoType.toUpperCase().equals("MEMORY")) {
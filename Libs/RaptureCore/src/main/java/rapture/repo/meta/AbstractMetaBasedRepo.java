@@ -25,6 +25,7 @@ package rapture.repo.meta;
 
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -74,12 +75,20 @@ public abstract class AbstractMetaBasedRepo<MH extends AbstractMetaHandler> exte
     protected IndexProducer producer;
 
     public AbstractMetaBasedRepo(KeyStore store, ILockingHandler lockHandler) {
+        this(null, store, lockHandler);
+    }
+
+    /**
+     * @param config
+     *            the repo config, which may set the {@link RepoLockHandler#LOCK_MODE} and {@link RepoLockHandler#LOCK_STRIPES}
+     */
+    public AbstractMetaBasedRepo(Map<String, String> config, KeyStore store, ILockingHandler lockHandler) {
         boolean lockIsDummy = false;
         if (lockHandler instanceof DummyLockHandler) {
             lockIsDummy = true;
         }
         this.storeId = store.getStoreId();
-        this.repoLockHandler = new RepoLockHandler(lockIsDummy, lockHandler, storeId);
+        this.repoLockHandler = new RepoLockHandler(lockIsDummy, lockHandler, storeId, config);
         store.setRepoLockHandler(repoLockHandler);
     }
 
@@ -116,18 +125,31 @@ public abstract class AbstractMetaBasedRepo<MH extends AbstractMetaHandler> exte
     public DocumentWithMeta addDocument(String docPath, String value, String user, String comment, boolean mustBeNew) {
         Long startTime = System.currentTimeMillis();
 
+        if (repoLockHandler.isOptimistic()) {
+            DocumentWithMeta ret = metaHandler.addDocumentOptimistically(docPath, value, user, comment, producer, false);
+            if (ret != AbstractMetaHandler.NOT_WRITTEN) {
+                Kernel.getMetricsService().recordTimeDifference("repo.doc.single.wrote", System.currentTimeMillis() - startTime);
+                return ret;
+            }
+            Kernel.getMetricsService().recordCount("repo.doc.optimistic.fallback", 1L);
+        }
+
         String lockHolder = repoLockHandler.generateLockHolder();
         DocumentWithMeta ret = null;
-        LockHandle lockHandle = repoLockHandler.acquireLock(lockHolder);
+        LockHandle lockHandle = repoLockHandler.acquireDocumentLock(lockHolder, docPath);
         if (lockHandle != null) {
             try {
                 if (log.isTraceEnabled()) {
                     log.trace("addDocument docPath=" + docPath + " value=" + value + " user=" + user + " comment=" + comment + " producer=" + producer);
                 }
-                ret = metaHandler.addDocument(docPath, value, user, comment, producer);
+                ret = repoLockHandler.isOptimistic() ? metaHandler.addDocumentOptimistically(docPath, value, user, comment, producer, true)
+                        : AbstractMetaHandler.NOT_WRITTEN;
+                if (ret == AbstractMetaHandler.NOT_WRITTEN) {
+                    ret = metaHandler.addDocument(docPath, value, user, comment, producer);
+                }
                 Kernel.getMetricsService().recordTimeDifference("repo.doc.single.wrote", System.currentTimeMillis() - startTime);
             } finally {
-                repoLockHandler.releaseLock(lockHolder, lockHandle);
+                repoLockHandler.releaseDocumentLock(lockHolder, lockHandle, docPath);
             }
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, Messages.getString("NVersionedRepo.nolockWrite")); //$NON-NLS-1$
@@ -280,15 +302,24 @@ public abstract class AbstractMetaBasedRepo<MH extends AbstractMetaHandler> exte
 
     @Override
     public boolean removeDocument(String docPath, String user, String comment) {
+        if (repoLockHandler.isOptimistic()) {
+            Boolean removed = metaHandler.deleteLatestOptimistically(user, docPath, producer, false);
+            if (removed != null) {
+                return removed;
+            }
+            Kernel.getMetricsService().recordCount("repo.doc.optimistic.fallback", 1L);
+        }
+
         String lockHolder = repoLockHandler.generateLockHolder();
         boolean removed = false;
-        LockHandle lockHandle = repoLockHandler.acquireLock(lockHolder);
+        LockHandle lockHandle = repoLockHandler.acquireDocumentLock(lockHolder, docPath);
 
         if (lockHandle != null) {
             try {
-                removed = metaHandler.deleteLatest(user, docPath, producer);
+                Boolean optimistic = repoLockHandler.isOptimistic() ? metaHandler.deleteLatestOptimistically(user, docPath, producer, true) : null;
+                removed = (optimistic != null) ? optimistic : metaHandler.deleteLatest(user, docPath, producer);
             } finally {
-                repoLockHandler.releaseLock(lockHolder, lockHandle);
+                repoLockHandler.releaseDocumentLock(lockHolder, lockHandle, docPath);
             }
         } else {
             throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, Messages.getString("NVersionedRepo.nolockWrite")); //$NON-NLS-1$
@@ -457,23 +488,54 @@ public abstract class AbstractMetaBasedRepo<MH extends AbstractMetaHandler> exte
     @Override
 	public DocumentWithMeta addTagToDocument(String user, String docPath, String tagUri,
 			String value) {
-    	return metaHandler.addDocumentTag(user, docPath, tagUri, value);
+    	return editTags(user, docPath, AbstractMetaHandler.addingTags(Collections.singletonMap(tagUri, value)));
 	}
     @Override
     public DocumentWithMeta addTagsToDocument(String user, String docPath,
 			Map<String, String> tagMap) {
-    	return metaHandler.addDocumentTags(user, docPath, tagMap);
+    	return editTags(user, docPath, AbstractMetaHandler.addingTags(tagMap));
     }
 
     @Override
 	public DocumentWithMeta removeTagFromDocument(String user, String docPath,
 			String tagUri) {
-    	return metaHandler.removeDocumentTag(user, docPath, tagUri);
+    	return editTags(user, docPath, AbstractMetaHandler.removingTags(Collections.singletonList(tagUri)));
     }
 
     @Override
 	public DocumentWithMeta removeTagsFromDocument(String user, String docPath,
 			List<String> tags) {
-    	return metaHandler.removeDocumentTags(user, docPath, tags);
+    	return editTags(user, docPath, AbstractMetaHandler.removingTags(tags));
+    }
+
+    /**
+     * Tagging writes a new version, so with optimistic locking it has to claim that version the same way
+     * {@link #addDocument(String, String, String, String, boolean)} does
+     */
+    private DocumentWithMeta editTags(String user, String docPath, AbstractMetaHandler.TagEdit edit) {
+        if (!repoLockHandler.isOptimistic()) {
+            return metaHandler.editTags(user, docPath, edit);
+        }
+        DocumentWithMeta ret = metaHandler.editTagsOptimistically(user, docPath, edit, false);
+        if (ret != AbstractMetaHandler.NOT_WRITTEN) {
+            return ret;
+        }
+        Kernel.getMetricsService().recordCount("repo.doc.optimistic.fallback", 1L);
+
+        String lockHolder = repoLockHandler.generateLockHolder();
+        LockHandle lockHandle = repoLockHandler.acquireDocumentLock(lockHolder, docPath);
+        if (lockHandle != null) {
+            try {
+                ret = metaHandler.editTagsOptimistically(user, docPath, edit, true);
+                if (ret == AbstractMetaHandler.NOT_WRITTEN) {
+                    ret = metaHandler.editTags(user, docPath, edit);
+                }
+            } finally {
+                repoLockHandler.releaseDocumentLock(lockHolder, lockHandle, docPath);
+            }
+        } else {
+            throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, Messages.getString("NVersionedRepo.nolockWrite")); //$NON-NLS-1$
+        }
+        return ret;
     }
 }
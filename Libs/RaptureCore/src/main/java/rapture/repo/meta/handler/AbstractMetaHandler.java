@@ -24,6 +24,7 @@
 package rapture.repo.meta.handler;
 
 import java.text.DecimalFormat;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -70,6 +71,10 @@ public abstract class AbstractMetaHandler {
 
     private static Logger log = Logger.getLogger(AbstractMetaHandler.class);
     public static final String LATEST = "l";
+    /**
+     * Returned by {@link #addDocumentOptimistically(String, String, String, String, IndexProducer, boolean)} when nothing was written
+     */
+    public static final DocumentWithMeta NOT_WRITTEN = new DocumentWithMeta();
     protected KeyStore metaStore;
     protected KeyStore documentStore;
     private KeyStore attributeStore;
@@ -248,6 +253,27 @@ public abstract class AbstractMetaHandler {
 
     protected abstract void updateMetaOnDelete(String user, String docPath);
 
+    /**
+     * Write a document for a repo that uses optimistic locking. Without the document lock this may give up, returning {@link #NOT_WRITTEN};
+     * the caller must then lock the document and call this again with lockHeld set. Handlers that do not support optimistic writes always
+     * return NOT_WRITTEN, and the caller must use {@link #addDocument(String, String, String, String, IndexProducer)} instead. Otherwise the
+     * result is the same as for addDocument.
+     */
+    public DocumentWithMeta addDocumentOptimistically(String docPath, String value, String user, String comment, IndexProducer producer,
+            boolean lockHeld) {
+        return NOT_WRITTEN;
+    }
+
+    /**
+     * Delete a document for a repo that uses optimistic locking, as for
+     * {@link #addDocumentOptimistically(String, String, String, String, IndexProducer, boolean)}
+     *
+     * @return null if nothing was done, otherwise the result of the delete
+     */
+    public Boolean deleteLatestOptimistically(String user, String docPath, IndexProducer producer, boolean lockHeld) {
+        return null;
+    }
+
     public RaptureQueryResult runNativeQuery(String repoType, List<String> queryParams) {
         return documentStore.runNativeQuery(repoType, queryParams);
     }
@@ -378,8 +404,12 @@ public abstract class AbstractMetaHandler {
 
     protected DocumentMetadata createMetadataFromLatest(String user, String comment, String docPath, Boolean isDeleted, int defaultVersion,
             boolean incrementVersion) {
+        return createMetadataFrom(getLatestMeta(docPath), user, comment, isDeleted, defaultVersion, incrementVersion);
+    }
+
+    protected DocumentMetadata createMetadataFrom(DocumentMetadata metadata, String user, String comment, Boolean isDeleted, int defaultVersion,
+            boolean incrementVersion) {
         Long now = System.currentTimeMillis();
-        DocumentMetadata metadata = getLatestMeta(docPath);
         if (metadata != null) {
             if (incrementVersion) {
                 metadata.setVersion(metadata.getVersion() + 1);
@@ -401,67 +431,59 @@ public abstract class AbstractMetaHandler {
         return indexHandler;
     }
 
-    public DocumentWithMeta addDocumentTag(String user, String docPath, String tagUri, String value) {
-        // Get the latest metadata, update the tags, increment version etc. and
-        // write new content and
-        // value
+    /**
+     * A change to the tags of a document, see {@link #editTags(String, String, TagEdit)}
+     */
+    public interface TagEdit {
+        void apply(Map<String, Object> tags);
+    }
 
-        DocumentWithMeta dwm = getLatestDocAndMeta(docPath);
-        DocumentMetadata dm = dwm.getMetaData();
-        int currentVersion = dm.getVersion();
-        addToMapWithDepth(dm.getTags(), tagUri, value);
-        dm.setVersion(currentVersion + 1);
-        dm.setUser(user);
-        dm.setModifiedTimestamp(System.currentTimeMillis());
+    public static TagEdit addingTags(final Map<String, String> tagMap) {
+        return new TagEdit() {
+            @Override
+            public void apply(Map<String, Object> tags) {
+                for (Map.Entry<String, String> e : tagMap.entrySet()) {
+                    addToMapWithDepth(tags, e.getKey(), e.getValue());
+                }
+            }
+        };
+    }
 
-        dwm.setMetaData(dm);
-        String latestKey = createLatestKey(docPath);
-        addLatestToMetaStore(latestKey, dm);
-        addToVersionStore(docPath, dwm.getContent(), dm);
-        return dwm;
+    public static TagEdit removingTags(final List<String> tagUris) {
+        return new TagEdit() {
+            @Override
+            public void apply(Map<String, Object> tags) {
+                for (String tagUri : tagUris) {
+                    removeFromMapWithDepth(tags, tagUri);
+                }
+            }
+        };
     }
 
-    public DocumentWithMeta addDocumentTags(String user, String docPath, Map<String, String> tagMap) {
-        DocumentWithMeta dwm = getLatestDocAndMeta(docPath);
-        DocumentMetadata dm = dwm.getMetaData();
-        int currentVersion = dm.getVersion();
-        for (Map.Entry<String, String> e : tagMap.entrySet()) {
-            addToMapWithDepth(dm.getTags(), e.getKey(), e.getValue());
-        }
-        dm.setVersion(currentVersion + 1);
-        dm.setUser(user);
-        dm.setModifiedTimestamp(System.currentTimeMillis());
+    public DocumentWithMeta addDocumentTag(String user, String docPath, String tagUri, String value) {
+        return editTags(user, docPath, addingTags(Collections.singletonMap(tagUri, value)));
+    }
 
-        dwm.setMetaData(dm);
-        String latestKey = createLatestKey(docPath);
-        addLatestToMetaStore(latestKey, dm);
-        addToVersionStore(docPath, dwm.getContent(), dm);
-        return dwm;
+    public DocumentWithMeta addDocumentTags(String user, String docPath, Map<String, String> tagMap) {
+        return editTags(user, docPath, addingTags(tagMap));
     }
 
     public DocumentWithMeta removeDocumentTag(String user, String docPath, String tagUri) {
-        DocumentWithMeta dwm = getLatestDocAndMeta(docPath);
-        DocumentMetadata dm = dwm.getMetaData();
-        int currentVersion = dm.getVersion();
-        removeFromMapWithDepth(dm.getTags(), tagUri);
-        dm.setVersion(currentVersion + 1);
-        dm.setUser(user);
-        dm.setModifiedTimestamp(System.currentTimeMillis());
-
-        dwm.setMetaData(dm);
-        String latestKey = createLatestKey(docPath);
-        addLatestToMetaStore(latestKey, dm);
-        addToVersionStore(docPath, dwm.getContent(), dm);
-        return dwm;
+        return editTags(user, docPath, removingTags(Collections.singletonList(tagUri)));
     }
 
     public DocumentWithMeta removeDocumentTags(String user, String docPath, List<String> tags) {
+        return editTags(user, docPath, removingTags(tags));
+    }
+
+    /**
+     * Get the latest metadata, update the tags, increment version etc. and write new content and value
+     */
+    public DocumentWithMeta editTags(String user, String docPath, TagEdit edit) {
         DocumentWithMeta dwm = getLatestDocAndMeta(docPath);
         DocumentMetadata dm = dwm.getMetaData();
         int currentVersion = dm.getVersion();
-        for (String e : tags) {
-            removeFromMapWithDepth(dm.getTags(), e);
-        }
+        edit.apply(dm.getTags());
         dm.setVersion(currentVersion + 1);
         dm.setUser(user);
         dm.setModifiedTimestamp(System.currentTimeMillis());
@@ -473,7 +495,15 @@ public abstract class AbstractMetaHandler {
         return dwm;
     }
 
-    private void removeFromMapWithDepth(Map<String, Object> tags, String tagUri) {
+    /**
+     * Change the tags of a document for a repo that uses optimistic locking, as for
+     * {@link #addDocumentOptimistically(String, String, String, String, IndexProducer, boolean)}
+     */
+    public DocumentWithMeta editTagsOptimistically(String user, String docPath, TagEdit edit, boolean lockHeld) {
+        return NOT_WRITTEN;
+    }
+
+    private static void removeFromMapWithDepth(Map<String, Object> tags, String tagUri) {
         if (tagUri.startsWith("//")) {
             tagUri = tagUri.substring(2);
         } else if (tagUri.startsWith("/")) {
@@ -496,7 +526,7 @@ public abstract class AbstractMetaHandler {
         tags.remove(parts[parts.length - 1]);
     }
 
-    private void addToMapWithDepth(Map<String, Object> tags, String tagUri, String value) {
+    private static void addToMapWithDepth(Map<String, Object> tags, String tagUri, String value) {
         if (tagUri.startsWith("//")) {
             tagUri = tagUri.substring(2);
         } else if (tagUri.startsWith("/")) {
@@ -32,9 +32,11 @@ import rapture.common.model.DocumentMetadata;
 import rapture.common.model.DocumentWithMeta;
 import rapture.dsl.dparse.AsOfTimeDirectiveParser;
 import rapture.index.IndexProducer;
+import rapture.repo.ConditionalKeyStore;
 import rapture.repo.KeyStore;
 import rapture.repo.Messages;
 import rapture.repo.RepoUtil;
+import rapture.repo.file.FileDataStore;
 
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
@@ -52,6 +54,8 @@ import java.util.Map;
  */
 public class VersionedMetaHandler extends AbstractMetaHandler {
     private static final int INITIAL_VERSION = 1;
+    // lost compare-and-sets before an optimistic write gives up and takes the lock
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
     private KeyStore versionStore;
 
     public VersionedMetaHandler(KeyStore latestStore, KeyStore versionStore, KeyStore metaStore, KeyStore attributeStore) {
@@ -68,6 +72,29 @@ public class VersionedMetaHandler extends AbstractMetaHandler {
         return addDocument(key, value, user, comment, producer);
     }
 
+    /**
+     * The optimistic form of {@link #addDocumentWithExpectedVersion(String, String, String, String, int, IndexProducer)}, for a caller holding the
+     * document lock. Lock-free writers do not take that lock, so the version checked is only written over if the latest meta is still the one
+     * that was checked; if another writer got in first this returns null just as a version mismatch does.
+     */
+    public DocumentWithMeta addDocumentWithExpectedVersionOptimistically(String key, String value, String user, String comment, int expectedVersion,
+            IndexProducer producer) {
+        if (!supportsOptimisticWrites(key)) {
+            return NOT_WRITTEN;
+        }
+        String latestJson = metaStore.get(createLatestKey(key));
+        if (latestJson == null) {
+            // only document lock holders create documents
+            return NOT_WRITTEN;
+        }
+        DocumentMetadata latest = JacksonUtil.objectFromJson(latestJson, DocumentMetadata.class);
+        if (latest.getVersion() != expectedVersion || documentStore.matches(key, value)) {
+            return null;
+        }
+        DocumentMetadata newMetaData = createMetadataFrom(latest, user, comment, false, INITIAL_VERSION, true);
+        return putVersionIfUnchanged(key, latestJson, newMetaData, value, producer);
+    }
+
     @Override
     protected boolean isVersioned() {
         return true;
@@ -144,6 +171,191 @@ public class VersionedMetaHandler extends AbstractMetaHandler {
         return createMetadataFromLatest(user, "Deleted", key, true, INITIAL_VERSION, true);
     }
 
+    private boolean supportsOptimisticWrites(String docPath) {
+        return metaStore instanceof ConditionalKeyStore && !supportsVersionLookupByTime() && !(documentStore instanceof FileDataStore)
+                && docPath.lastIndexOf('#') <= 0;
+    }
+
+    /**
+     * The new latest meta only goes in if the latest meta is still the one the new version was built from, so two writers can never claim the
+     * same version. Once the version is claimed the version history is written before the document itself, and then
+     * {@link #settleLatest(String, String, IndexProducer)} makes sure a slower writer has not left older content in place of a newer version.
+     * Without the document lock, new documents are left to the caller to write under the lock, as not every meta store can refuse a second
+     * insert of the same key; with it, an existing document is retried until its compare-and-set succeeds.
+     */
+    @Override
+    public DocumentWithMeta addDocumentOptimistically(String docPath, String value, String user, String comment, IndexProducer producer,
+            boolean lockHeld) {
+        if (!supportsOptimisticWrites(docPath)) {
+            return NOT_WRITTEN;
+        }
+        String latestKey = createLatestKey(docPath);
+        for (int attempt = 0; lockHeld || attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            String latestJson = metaStore.get(latestKey);
+            if (latestJson == null && !lockHeld) {
+                return NOT_WRITTEN;
+            }
+            if (documentStore.matches(docPath, value)) {
+                return null;
+            }
+            DocumentMetadata latest = (latestJson == null) ? null : JacksonUtil.objectFromJson(latestJson, DocumentMetadata.class);
+            DocumentMetadata newMetaData = createMetadataFrom(latest, user, comment, false, INITIAL_VERSION, true);
+            DocumentWithMeta ret = putVersionIfUnchanged(docPath, latestJson, newMetaData, value, producer);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return NOT_WRITTEN;
+    }
+
+    /**
+     * Put back the content of the version before the latest, as for {@link #revertDoc(String, IndexProducer)}, for a repo that uses optimistic
+     * locking
+     */
+    public DocumentWithMeta revertDocOptimistically(String key, IndexProducer producer, boolean lockHeld) {
+        if (!supportsOptimisticWrites(key)) {
+            return NOT_WRITTEN;
+        }
+        String latestKey = createLatestKey(key);
+        for (int attempt = 0; lockHeld || attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            String latestJson = metaStore.get(latestKey);
+            if (latestJson == null) {
+                return NOT_WRITTEN;
+            }
+            DocumentMetadata latest = JacksonUtil.objectFromJson(latestJson, DocumentMetadata.class);
+            DocumentWithMeta previous = getDocumentWithMeta(key, latest.getVersion() - 1);
+            if (!documentStore.matches(key, previous.getContent())) {
+                DocumentMetadata newMetaData = createMetadataFrom(latest, previous.getMetaData().getUser(), previous.getMetaData().getComment()
+                        + " - REVERTED", false, INITIAL_VERSION, true);
+                if (putVersionIfUnchanged(key, latestJson, newMetaData, previous.getContent(), producer) == null) {
+                    continue;
+                }
+            }
+            return getLatestDocAndMeta(key);
+        }
+        return NOT_WRITTEN;
+    }
+
+    @Override
+    public DocumentWithMeta editTagsOptimistically(String user, String docPath, TagEdit edit, boolean lockHeld) {
+        if (!supportsOptimisticWrites(docPath)) {
+            return NOT_WRITTEN;
+        }
+        String latestKey = createLatestKey(docPath);
+        for (int attempt = 0; lockHeld || attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            String latestJson = metaStore.get(latestKey);
+            if (latestJson == null) {
+                return NOT_WRITTEN;
+            }
+            DocumentMetadata latest = JacksonUtil.objectFromJson(latestJson, DocumentMetadata.class);
+            if (Boolean.TRUE.equals(latest.getDeleted())) {
+                return NOT_WRITTEN;
+            }
+            // the content of the version being tagged, the document itself may be mid-way through a newer write
+            String content = versionStore.get(createVersionKey(docPath, latest.getVersion()));
+            if (content == null) {
+                continue;
+            }
+            edit.apply(latest.getTags());
+            latest.setVersion(latest.getVersion() + 1);
+            latest.setUser(user);
+            latest.setModifiedTimestamp(System.currentTimeMillis());
+            DocumentWithMeta ret = putVersionIfUnchanged(docPath, latestJson, latest, content, null);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return NOT_WRITTEN;
+    }
+
+    /**
+     * Write a new version in place of the latest meta the caller read, or return null if another writer has claimed the next version since
+     */
+    private DocumentWithMeta putVersionIfUnchanged(String docPath, String latestJson, DocumentMetadata newMetaData, String value, IndexProducer producer) {
+        String newMetaJson = JacksonUtil.jsonFromObject(newMetaData);
+        if (!claimLatest(createLatestKey(docPath), latestJson, newMetaJson)) {
+            return null;
+        }
+        addToVersionStore(docPath, value, newMetaData);
+        documentStore.put(docPath, value);
+        if (producer != null && indexHandler.isPresent()) {
+            indexHandler.get().addedRecord(docPath, value, newMetaData);
+        }
+        settleLatest(docPath, newMetaJson, producer);
+        DocumentWithMeta ret = new DocumentWithMeta();
+        ret.setMetaData(newMetaData);
+        ret.setContent(value);
+        ret.setDisplayName(docPath);
+        return ret;
+    }
+
+    @Override
+    public Boolean deleteLatestOptimistically(String user, String docPath, IndexProducer producer, boolean lockHeld) {
+        if (!supportsOptimisticWrites(docPath)) {
+            return null;
+        }
+        String latestKey = createLatestKey(docPath);
+        for (int attempt = 0; lockHeld || attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            String latestJson = metaStore.get(latestKey);
+            if (latestJson == null) {
+                // never written, so there is nothing to race with once the caller holds the lock
+                return null;
+            }
+            DocumentMetadata latest = JacksonUtil.objectFromJson(latestJson, DocumentMetadata.class);
+            DocumentMetadata deletionMeta = createMetadataFrom(latest, user, "Deleted", true, INITIAL_VERSION, true);
+            String deletionMetaJson = JacksonUtil.jsonFromObject(deletionMeta);
+            if (claimLatest(latestKey, latestJson, deletionMetaJson)) {
+                metaStore.put(createVersionKey(docPath, deletionMeta.getVersion()), deletionMetaJson);
+                boolean retVal = documentStore.delete(docPath);
+                if (indexHandler.isPresent()) {
+                    indexHandler.get().removeAll(docPath);
+                }
+                settleLatest(docPath, deletionMetaJson, producer);
+                return retVal;
+            }
+        }
+        return null;
+    }
+
+    private boolean claimLatest(String latestKey, String latestJson, String newMetaJson) {
+        if (latestJson == null) {
+            // only document lock holders create documents
+            metaStore.put(latestKey, newMetaJson);
+            return true;
+        }
+        return ((ConditionalKeyStore) metaStore).putIfUnchanged(latestKey, latestJson, newMetaJson);
+    }
+
+    /**
+     * Called once an optimistic write has updated the document. If the latest meta has since moved on, the writer of that version may already
+     * have put its content, which ours has then overwritten, so put the latest content back and check again.
+     */
+    private void settleLatest(String docPath, String writtenMetaJson, IndexProducer producer) {
+        String latestKey = createLatestKey(docPath);
+        String current = metaStore.get(latestKey);
+        while (current != null && !current.equals(writtenMetaJson)) {
+            DocumentMetadata latest = JacksonUtil.objectFromJson(current, DocumentMetadata.class);
+            if (Boolean.TRUE.equals(latest.getDeleted())) {
+                documentStore.delete(docPath);
+                if (indexHandler.isPresent()) {
+                    indexHandler.get().removeAll(docPath);
+                }
+            } else {
+                String content = versionStore.get(createVersionKey(docPath, latest.getVersion()));
+                if (content == null) {
+                    // its writer has not got as far as the document yet, so will put its own content after ours
+                    return;
+                }
+                documentStore.put(docPath, content);
+                if (producer != null && indexHandler.isPresent()) {
+                    indexHandler.get().addedRecord(docPath, content, latest);
+                }
+            }
+            writtenMetaJson = current;
+            current = metaStore.get(latestKey);
+        }
+    }
+
     public DocumentWithMeta getDocumentWithMeta(String key, int version) {
         if (supportsVersionLookupByTime()) {
             return getDocumentWithMetaFromTimestampRepo(key, version);
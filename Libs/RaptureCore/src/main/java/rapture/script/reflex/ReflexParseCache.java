@@ -0,0 +1,222 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.script.reflex;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.CommonTree;
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+
+import rapture.common.CallingContext;
+import rapture.config.ConfigLoader;
+import rapture.kernel.Kernel;
+import rapture.notification.NotificationMessage;
+import rapture.notification.RaptureMessageListener;
+import reflex.IReflexScriptHandler;
+import reflex.MetaScriptInfo;
+import reflex.ReflexLexer;
+import reflex.ReflexParser;
+import reflex.util.function.LanguageRegistry;
+
+/**
+ * Holds the output of the Reflex lexer and parser for recently run scripts, so that running the same script again only needs the (cheap) tree walk
+ * that binds the program to its handler and scope. Entries are keyed by script URI and a hash of the script text, so an edited script can never be
+ * served stale; saving or deleting a script also evicts its entries here and, through the TypeChangeManager, on other Rapture instances.
+ *
+ * Scripts that include other scripts remember the content of each include and are re-parsed if any of them has changed. The includes are re-read
+ * with the caller's context, so a cache hit never grants access to a script the caller could not read.
+ */
+public class ReflexParseCache implements RaptureMessageListener<NotificationMessage> {
+    private static final Logger log = Logger.getLogger(ReflexParseCache.class);
+
+    public static final String TYPE = "reflexScript";
+    private static final String URI = "uri";
+    private static final String HIT_METRIC = "reflex.parseCache.script.hit";
+    private static final String MISS_METRIC = "reflex.parseCache.script.miss";
+
+    private static ReflexParseCache instance;
+
+    public static synchronized ReflexParseCache getInstance() {
+        if (instance == null) {
+            instance = new ReflexParseCache(ConfigLoader.getConf().ReflexParseCacheSize);
+            Kernel.getKernel().registerTypeListener(TYPE, instance);
+        }
+        return instance;
+    }
+
+    private final Cache<String, ParsedReflexScript> cache;
+
+    ReflexParseCache(int maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Return the parsed form of the script, parsing it only if there is no usable cached copy
+     *
+     * @param uri
+     *            the script's URI, or null for anonymous scripts
+     */
+    public ParsedReflexScript getParsed(CallingContext ctx, String uri, String source) throws RecognitionException {
+        String key = makeKey(uri, source);
+        ParsedReflexScript parsed = cache.getIfPresent(key);
+        if (parsed != null && parsed.includesUnchanged(ctx)) {
+            Kernel.getMetricsService().recordCount(HIT_METRIC, 1L);
+            return parsed;
+        }
+        Kernel.getMetricsService().recordCount(MISS_METRIC, 1L);
+        parsed = parse(ctx, source);
+        cache.put(key, parsed);
+        return parsed;
+    }
+
+    /**
+     * Drop any cached parses of the script at this URI, here and on all other Rapture instances
+     */
+    public void invalidate(String uri) {
+        evict(uri);
+        if (Kernel.getTypeChangeManager() != null) {
+            Kernel.getTypeChangeManager().publishMessage(TYPE, ImmutableMap.<String, Object> of(URI, uri));
+        }
+    }
+
+    @Override
+    public void signalMessage(NotificationMessage message) {
+        Object uri = message.getAttributes().get(URI);
+        if (uri != null) evict(uri.toString());
+    }
+
+    private void evict(String uri) {
+        String prefix = uri + "#";
+        for (String key : cache.asMap().keySet()) {
+            if (key.startsWith(prefix)) cache.invalidate(key);
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static String makeKey(String uri, String source) {
+        return ((uri == null) ? "" : uri) + "#" + hash(source);
+    }
+
+    private static String hash(String text) {
+        return Hashing.sha256().hashString(text, StandardCharsets.UTF_8).toString();
+    }
+
+    private static ParsedReflexScript parse(CallingContext ctx, String source) throws RecognitionException {
+        RecordingIncludeHelper includes = new RecordingIncludeHelper(new ReflexIncludeHelper(ctx));
+        ReflexLexer lexer = new ReflexLexer();
+        lexer.dataHandler = includes;
+        lexer.setCharStream(new ANTLRStringStream(source));
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        ReflexParser parser = new ReflexParser(tokens);
+        CommonTree tree = (CommonTree) parser.parse().getTree();
+        return new ParsedReflexScript(tree, parser.languageRegistry, parser.scriptInfo, includes.getIncludeHashes());
+    }
+
+    /**
+     * The immutable result of lexing and parsing a script. The tree is only ever read by the tree walker (function bodies are already re-walked from
+     * shared trees on every call), but the language registry is not, so each run takes its own copy.
+     */
+    public static class ParsedReflexScript {
+        private final CommonTree tree;
+        private final LanguageRegistry languageRegistry;
+        private final MetaScriptInfo scriptInfo;
+        private final Map<String, String> includeHashes;
+
+        ParsedReflexScript(CommonTree tree, LanguageRegistry languageRegistry, MetaScriptInfo scriptInfo, Map<String, String> includeHashes) {
+            this.tree = tree;
+            this.languageRegistry = languageRegistry;
+            this.scriptInfo = scriptInfo;
+            this.includeHashes = includeHashes;
+        }
+
+        public CommonTree getTree() {
+            return tree;
+        }
+
+        public LanguageRegistry newLanguageRegistry() {
+            return languageRegistry.copy();
+        }
+
+        public MetaScriptInfo getScriptInfo() {
+            return scriptInfo;
+        }
+
+        boolean includesUnchanged(CallingContext ctx) {
+            if (includeHashes.isEmpty()) return true;
+            ReflexIncludeHelper helper = new ReflexIncludeHelper(ctx);
+            try {
+                for (Map.Entry<String, String> include : includeHashes.entrySet()) {
+                    if (!include.getValue().equals(hash(helper.getScript(include.getKey())))) return false;
+                }
+            } catch (RuntimeException e) {
+                // let a fresh parse report the problem
+                log.debug("Unable to re-read include: " + e.getMessage());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Passes include requests through to the real helper, remembering what each one returned
+     */
+    private static class RecordingIncludeHelper implements IReflexScriptHandler {
+        private final IReflexScriptHandler delegate;
+        private final Map<String, String> includeHashes = new HashMap<>();
+
+        RecordingIncludeHelper(IReflexScriptHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getScript(String name) {
+            String script = delegate.getScript(name);
+            includeHashes.put(name, hash(script));
+            return script;
+        }
+
+        @Override
+        public boolean hasCapability() {
+            return delegate.hasCapability();
+        }
+
+        Map<String, String> getIncludeHashes() {
+            return includeHashes.isEmpty() ? Collections.<String, String> emptyMap() : Collections.unmodifiableMap(includeHashes);
+        }
+    }
+}
@@ -27,20 +27,44 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import rapture.common.RaptureURI;
 import rapture.common.Scheme;
-import rapture.common.client.HttpSeriesApi;
+import rapture.common.api.ScriptSeriesApi;
+import rapture.structured.CsvLineReader;
 
+/**
+ * Loads the columns of a csv file into series, keyed by the sort column.
+ * <p>
+ * The file is streamed a line at a time. Values are collected per target series and written with the add*sToSeries list calls once a series has
+ * batchSize points, with up to concurrency batches in flight at once. Batches for the same series may be written out of order, so a file that has
+ * the same sort key twice does not say which value wins.
+ */
 public class CSVSeriesLoader {
+    // rows between progress reports
+    private static final int PROGRESS_ROWS = 10000;
+    // batches waiting for a thread, per thread, before the reader sends batches itself
+    private static final int QUEUED_BATCHES_PER_THREAD = 2;
+
     private final int sortIndex;
     private final Set<Binding> bindings;
     private final int headerCount;
-    private static HttpSeriesApi api;
+    private final int batchSize;
+    private final int concurrency;
+    private static ScriptSeriesApi api;
     
-    public static void setApi(HttpSeriesApi seriesApi) {
+    public static void setApi(ScriptSeriesApi seriesApi) {
         api = seriesApi;
     }
     
@@ -48,18 +72,20 @@ public class CSVSeriesLoader {
         return new Builder();
     }
     
-    private CSVSeriesLoader(int headerCount, int sortIndex, Set<Binding> bindings) {
+    private CSVSeriesLoader(int headerCount, int sortIndex, Set<Binding> bindings, int batchSize, int concurrency) {
         this.headerCount = headerCount;
         this.sortIndex = sortIndex;
         this.bindings = bindings;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
     }
     
-    public void load(String filename) throws IOException {
-        load(new File(filename));
+    public long load(String filename) throws IOException {
+        return load(new File(filename));
     }
     
-    public void load(String filename, boolean showProgress) throws IOException {
-        load(new File(filename), false);
+    public long load(String filename, boolean showProgress) throws IOException {
+        return load(new File(filename), showProgress);
     }
     
     private String sanitize(String in) {
@@ -72,82 +98,100 @@ public class CSVSeriesLoader {
         return new String(buf);
     }
     
-    public void load(File f) throws IOException {
-        load(f, false);
+    public long load(File f) throws IOException {
+        return load(f, false);
     }
     
-    public void load(File f, boolean showProgress) throws IOException {
-        BufferedReader in = null;
-        String header[] = null;
-        try {
-            in = new BufferedReader(new FileReader(f));
-
+    /**
+     * @return the number of points written
+     */
+    public long load(File f, boolean showProgress) throws IOException {
+        final AtomicLong written = new AtomicLong();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ThreadPoolExecutor senders = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(concurrency * QUEUED_BATCHES_PER_THREAD),
+                new ThreadFactoryBuilder().setNameFormat("CSVSeriesLoader-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.currentTimeMillis();
+        int rows = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+            CsvLineReader lines = new CsvLineReader(in);
+            List<String> header = null;
             for (int i = 1; i <= headerCount; i++) {
-                String headers = in.readLine();
-                if (i < headerCount) {
-                    continue;
-                }
-                header = headers.split(",");
+                header = lines.readCells();
             }
-            
-            for(int i = 0; i < header.length; i++) {
-                header[i] = sanitize(header[i]);
+            if (header == null) {
+                return 0;
             }
+            List<Target> targets = getTargets(header);
 
-            int count = 0;
-            while (true) {
-                String line = in.readLine();
-                //TODO MEL deal with escape syntax
-                String value[] = line.split(",");
+            List<String> value;
+            while (failure.get() == null && (value = lines.readCells()) != null) {
                 //TODO MEL transform date from and to formats
-                String column = value[sortIndex];
-                for(Binding binding:bindings) {
-                    count++;
-                    if (showProgress && (count == 1 || count%10 == 0)) {
-                        System.out.println("\tRow "+count);
-                    }
-                    if (binding.column == -1) {
-                        for (int i=0; i<value.length; i++) {
-                            if (i == sortIndex) {
-                                continue;
-                            }
-                            double v;
-                            try {
-                                v = Double.parseDouble(value[i]);
-                            } catch (NumberFormatException ex) {
-                                v = Double.NaN;
-                            }
-                            api.addDoubleToSeries(RaptureURI.builder(Scheme.SERIES, binding.authority).docPath(binding.path + header[i]).asString(), column, v);
-                        }
-                    }
-                    else switch(binding.type) {
-                        case DECIMAL:
-                            double v;
-                            try {
-                                v = Double.parseDouble(value[binding.column]);           
-                            } catch (NumberFormatException ex) {
-                                v = Double.NaN;
-                            }
-                            api.addDoubleToSeries(RaptureURI.builder(Scheme.SERIES, binding.authority).docPath(binding.path).asString(), column, v);
-                            break;
-                        case LONG:
-                            try {
-                                long l = Long.parseLong(value[binding.column]);
-                                api.addLongToSeries(RaptureURI.builder(Scheme.SERIES, binding.authority).docPath(binding.path).asString(), column, l);
-                            } finally {
-                                // ignore unparsable items
-                            }
-                            break;
-                        case STRING:
-                            String s = value[binding.column];
-                            api.addStringToSeries(RaptureURI.builder(Scheme.SERIES, binding.authority).docPath(binding.path).asString(), column, s);
-                            break;
+                String column = (sortIndex < value.size()) ? value.get(sortIndex) : null;
+                if (column == null) {
+                    continue;
+                }
+                for (Target target : targets) {
+                    if (target.add(column, (target.column < value.size()) ? value.get(target.column) : null) >= batchSize) {
+                        senders.execute(target.drain(written, failure));
                     }
-                }         
+                }
+                rows++;
+                if (showProgress && (rows == 1 || rows % PROGRESS_ROWS == 0)) {
+                    report(rows, written.get(), start);
+                }
+            }
+            for (Target target : targets) {
+                if (target.size() > 0) {
+                    senders.execute(target.drain(written, failure));
+                }
             }
         } finally {
-            if (in != null) in.close();
+            senders.shutdown();
+            try {
+                senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (showProgress) {
+            report(rows, written.get(), start);
+        }
+        return written.get();
+    }
+
+    private void report(int rows, long points, long start) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(String.format("\tRow %d, %d points written, %d rows/sec", rows, points, rows * 1000L / elapsed));
+    }
+
+    /**
+     * Work out the series each bound column goes to once, rather than building the uri for every value
+     */
+    private List<Target> getTargets(List<String> header) {
+        List<Target> targets = new ArrayList<>();
+        for (Binding binding : bindings) {
+            if (binding.column == -1) {
+                for (int i = 0; i < header.size(); i++) {
+                    if (i == sortIndex) {
+                        continue;
+                    }
+                    String name = sanitize((header.get(i) == null) ? "" : header.get(i));
+                    targets.add(new Target(i, seriesUri(binding.authority, binding.path + name), Binding.Type.DECIMAL));
+                }
+            } else {
+                targets.add(new Target(binding.column, seriesUri(binding.authority, binding.path), binding.type));
+            }
         }
+        return targets;
+    }
+
+    private static String seriesUri(String authority, String path) {
+        return RaptureURI.builder(Scheme.SERIES, authority).docPath(path).asString();
     }
     
     public static class Builder {
@@ -155,6 +199,8 @@ public class CSVSeriesLoader {
         private String repo;
         private int sortIndex = 0;
         private int headerCount = 1;
+        private int batchSize = 1000;
+        private int concurrency = 4;
         private Set<Binding> bindings = new HashSet<Binding>();
 
         public Builder setAuthority(String authority) {
@@ -172,6 +218,22 @@ public class CSVSeriesLoader {
             return this;
         }
 
+        /**
+         * The number of points to send to a series in one call
+         */
+        public Builder setBatchSize(int batchSize) {
+            this.batchSize = Math.max(1, batchSize);
+            return this;
+        }
+
+        /**
+         * The number of batches to have in flight at once. Keep this below the number of connections the http client allows per host.
+         */
+        public Builder setConcurrency(int concurrency) {
+            this.concurrency = Math.max(1, concurrency);
+            return this;
+        }
+
         public Builder bindDecimalColumn(int index, String path) {
             return bindColumn(index, path, Binding.Type.DECIMAL);
         }
@@ -190,7 +252,7 @@ public class CSVSeriesLoader {
         }
         
         public Builder bindDecimalColumn(int index, String authority, String path) {
-            return bindColumn(index, authority, repo, Binding.Type.DECIMAL);
+            return bindColumn(index, authority, path, Binding.Type.DECIMAL);
         }
         
         public Builder bindLongColumn(int index, String authority, String path) {
@@ -212,7 +274,7 @@ public class CSVSeriesLoader {
         }
 
         public CSVSeriesLoader build() {
-            return new CSVSeriesLoader(headerCount, sortIndex, bindings);
+            return new CSVSeriesLoader(headerCount, sortIndex, bindings, batchSize, concurrency);
         }      
     }
     
@@ -235,4 +297,94 @@ public class CSVSeriesLoader {
             this.type = type;
         }
     }
+
+    /**
+     * The points collected for one series that have not been sent yet
+     */
+    private static class Target {
+        public final int column;
+        public final String uri;
+        public final Binding.Type type;
+        private List<String> keys = new ArrayList<>();
+        private List<Object> values = new ArrayList<>();
+
+        public Target(int column, String uri, Binding.Type type) {
+            this.column = column;
+            this.uri = uri;
+            this.type = type;
+        }
+
+        /**
+         * @return the number of points waiting to be sent
+         */
+        public int add(String key, String value) {
+            switch (type) {
+                case DECIMAL:
+                    double v;
+                    try {
+                        v = Double.parseDouble(value);
+                    } catch (NumberFormatException | NullPointerException ex) {
+                        v = Double.NaN;
+                    }
+                    keys.add(key);
+                    values.add(v);
+                    break;
+                case LONG:
+                    try {
+                        long l = Long.parseLong(value);
+                        keys.add(key);
+                        values.add(l);
+                    } catch (NumberFormatException ex) {
+                        // ignore unparsable items
+                    }
+                    break;
+                case STRING:
+                    if (value != null) {
+                        keys.add(key);
+                        values.add(value);
+                    }
+                    break;
+            }
+            return keys.size();
+        }
+
+        public int size() {
+            return keys.size();
+        }
+
+        /**
+         * Hand the waiting points over to a task that sends them, and start a new batch
+         */
+        public Runnable drain(final AtomicLong written, final AtomicReference<RuntimeException> failure) {
+            final List<String> batchKeys = keys;
+            final List<Object> batchValues = values;
+            keys = new ArrayList<>();
+            values = new ArrayList<>();
+            return new Runnable() {
+                @SuppressWarnings({ "unchecked", "rawtypes" })
+                @Override
+                public void run() {
+                    if (failure.get() != null) {
+                        return;
+                    }
+                    try {
+                        switch (type) {
+                            case DECIMAL:
+                                api.addDoublesToSeries(uri, batchKeys, (List) batchValues);
+                                break;
+                            case LONG:
+                                api.addLongsToSeries(uri, batchKeys, (List) batchValues);
+                                break;
+                            case STRING:
+                                api.addStringsToSeries(uri, batchKeys, (List) batchValues);
+                                break;
+                        }
+                        written.addAndGet(batchKeys.size());
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+        }
+    }
 }
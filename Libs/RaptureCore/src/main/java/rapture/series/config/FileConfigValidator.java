@@ -33,6 +33,14 @@ public class FileConfigValidator implements ConfigValidator{
         if ((filePath == null) || filePath.isEmpty()) {
             throw new InvalidConfigException("Mandatory argument prefix missing");
         }
+        String threshold = configMap.get("compactThreshold");
+        if (threshold != null) {
+            try {
+                if (Long.parseLong(threshold.trim()) < 0) throw new InvalidConfigException("compactThreshold must not be negative");
+            } catch (NumberFormatException e) {
+                throw new InvalidConfigException("compactThreshold must be a number of bytes");
+            }
+        }
     }
 
 }
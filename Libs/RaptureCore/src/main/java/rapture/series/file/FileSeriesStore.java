@@ -24,17 +24,18 @@
 package rapture.series.file;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
@@ -51,7 +52,6 @@ import rapture.common.exception.ExceptionToString;
 import rapture.common.exception.RaptureExceptionFactory;
 import rapture.dsl.serfun.DecimalSeriesValue;
 import rapture.dsl.serfun.LongSeriesValue;
-import rapture.dsl.serfun.SeriesValueCodec;
 import rapture.dsl.serfun.StringSeriesValue;
 import rapture.dsl.serfun.StructureSeriesValueImpl;
 import rapture.kernel.file.FileRepoUtils;
@@ -59,8 +59,13 @@ import rapture.series.AbstractSeriesStore;
 import rapture.series.SeriesPaginator;
 import rapture.series.children.ChildrenRepo;
 
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
- * A file based version of a series repo, for testing
+ * A file based version of a series repo, for testing. Each series is a log structured {@link SeriesSegmentFile}: writes append to the file and a
+ * background task compacts it once more than compactThreshold bytes (default 1MB) have been appended. Series written in the older line-per-point format
+ * are migrated the first time they are touched.
  *
  * @author dtong
  */
@@ -73,8 +78,8 @@ public class FileSeriesStore extends AbstractSeriesStore {
      */
     @Override
     public String toString() {
-        return "FileSeriesStore [childrenRepo=" + childrenRepo + ", parentDir=" + parentDir + ", forwards=" + forwards + ", backwards="
-                + backwards + ", instanceName=" + instanceName + "]";
+        return "FileSeriesStore [childrenRepo=" + childrenRepo + ", parentDir=" + parentDir + ", compactThreshold=" + compactThreshold
+                + ", instanceName=" + instanceName + "]";
     }
 
     public static final String PREFIX = "prefix";
@@ -83,19 +88,15 @@ public class FileSeriesStore extends AbstractSeriesStore {
     private File parentDir = null;
     private static final Logger log = Logger.getLogger(FileSeriesStore.class);
 
-    Comparator<SeriesValue> forwards = new Comparator<SeriesValue>() {
-        @Override
-        public int compare(SeriesValue o1, SeriesValue o2) {
-            return o1.getColumn().compareTo(o2.getColumn());
-        }
-    };
+    public static final String COMPACT_THRESHOLD = "compactThreshold";
+    static final long DEFAULT_COMPACT_THRESHOLD = 1024 * 1024;
 
-    Comparator<SeriesValue> backwards = new Comparator<SeriesValue>() {
-        @Override
-        public int compare(SeriesValue o1, SeriesValue o2) {
-            return o2.getColumn().compareTo(o1.getColumn());
-        }
-    };
+    // Compaction is cheap enough that one thread is shared by all file series stores in the process
+    private static final ExecutorService compactor = Executors
+            .newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("FileSeriesStore-compactor").setDaemon(true).build());
+    private final Set<String> pendingCompactions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Striped<ReadWriteLock> locks = Striped.readWriteLock(64);
+    private long compactThreshold = DEFAULT_COMPACT_THRESHOLD;
 
     private String instanceName = "default";
 
@@ -132,6 +133,8 @@ public class FileSeriesStore extends AbstractSeriesStore {
         String prefix = config.get(FileRepoUtils.PREFIX);
         if (StringUtils.trimToNull(prefix) == null) throw RaptureExceptionFactory.create("prefix must be specified");
         parentDir = FileRepoUtils.ensureDirectory(prefix + "_series");
+        String threshold = config.get(COMPACT_THRESHOLD);
+        if (StringUtils.trimToNull(threshold) != null) compactThreshold = Long.parseLong(threshold.trim());
     }
 
     @Override
@@ -140,78 +143,86 @@ public class FileSeriesStore extends AbstractSeriesStore {
         parentDir = null;
     }
 
+    private SeriesSegmentFile segmentFile(String key) {
+        return new SeriesSegmentFile(FileRepoUtils.makeGenericFile(parentDir, key + Parser.COLON_CHAR));
+    }
+
     /**
-     * Returns a sorted series
-     *
-     * @param direction
-     *            true for verbatim, false for reverse order.
-     * @return
+     * Returns the segment file for a series, converting it first if it was written in the old line-per-point format. Must be called with the write lock
+     * held if the file might need migrating, so callers that only hold the read lock go through {@link #readableSegment(String)}.
      */
-    protected Collection<SeriesValue> readSeriesSorted(String key, boolean direction) {
-        File seriesFile = FileRepoUtils.makeGenericFile(parentDir, key);
-        if (!seriesFile.isFile()) return new ArrayList<>();
-        TreeSet<SeriesValue> series = new TreeSet<>((direction) ? forwards : backwards);
-        try {
-            List<String> lines = Files.readAllLines(seriesFile.toPath(), StandardCharsets.UTF_8);
-            for (String line : lines) {
-                char c = line.charAt(0);
-                int i = line.indexOf(c, 1);
-                String column = line.substring(1, i);
-                byte[] bytes = line.substring(i + 1).getBytes();
-                series.add(SeriesValueCodec.decode(column, bytes));
+    private SeriesSegmentFile migratedSegment(String key) throws IOException {
+        SeriesSegmentFile segment = segmentFile(key);
+        if (segment.isLegacy()) {
+            log.info("Migrating series " + key + " to segment format");
+            segment.migrateLegacy();
+        }
+        return segment;
+    }
+
+    private SeriesSegmentFile readableSegment(String key) throws IOException {
+        SeriesSegmentFile segment = segmentFile(key);
+        if (segment.isLegacy()) {
+            Lock lock = locks.get(key).writeLock();
+            lock.lock();
+            try {
+                return migratedSegment(key);
+            } finally {
+                lock.unlock();
             }
-            return series;
-        } catch (IOException e) {
-            log.debug(ExceptionToString.format(e));
         }
-        return null;
+        return segment;
     }
 
     /**
-     * Writes an ordered series back to the file system
-     *
-     * @param key
-     * @param values
-     * @return
+     * Appends the values to the series and schedules a background compaction if the unsorted tail has grown past the threshold
      */
-    protected boolean writeSeries(String key, Collection<SeriesValue> values) {
-        File seriesFile = FileRepoUtils.makeGenericFile(parentDir, key + Parser.COLON_CHAR);
-        if (!seriesFile.exists()) try {
-            if ((!seriesFile.getParentFile().isDirectory() && !seriesFile.getParentFile().mkdirs())
-                    || !seriesFile.createNewFile()) throw RaptureExceptionFactory
-                            .create("Cannot create series " + seriesFile.getAbsolutePath());
-        } catch (IOException ioe) {
-            log.debug(ExceptionToString.format(ioe));
-            throw RaptureExceptionFactory.create("Cannot create series " + key, ioe);
+    protected void appendToSeries(String key, List<SeriesValue> values) {
+        Lock lock = locks.get(key).writeLock();
+        lock.lock();
+        try {
+            SeriesSegmentFile segment = migratedSegment(key);
+            segment.append(values);
+            if (segment.tailLength() > compactThreshold) scheduleCompaction(key);
+        } catch (IOException e) {
+            log.debug(ExceptionToString.format(e));
+            throw RaptureExceptionFactory.create("Cannot write series " + key, e);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        String path = seriesFile.getAbsolutePath();
-        String backup = path + "_prev";
-        File backupFile = new File(backup);
-        try {
-            seriesFile.renameTo(backupFile);
-            try (FileOutputStream fos = new FileOutputStream(new File(path))) {
-                for (SeriesValue value : values) {
-                    int ch = 32;
-                    // Find unique marker
-                    String column = value.getColumn();
-                    while (column.indexOf(ch) >= 0)
-                        ch++;
-                    fos.write(ch);
-                    fos.write(column.getBytes());
-                    fos.write(ch);
-                    fos.write(SeriesValueCodec.encodeValue(value));
-                    fos.write('\n');
+    private void scheduleCompaction(final String key) {
+        if (!pendingCompactions.add(key)) return;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pendingCompactions.remove(key);
+                try {
+                    compact(key);
+                } catch (RuntimeException e) {
+                    log.warn("Background compaction of series " + key + " failed: " + e.getMessage());
                 }
             }
+        });
+    }
+
+    /**
+     * Merges the appended tail of a series into its sorted, indexed region. Normally run in the background once the tail passes the compactThreshold
+     * config value.
+     */
+    public void compact(String key) {
+        Lock lock = locks.get(key).writeLock();
+        lock.lock();
+        try {
+            if (parentDir == null) return;
+            migratedSegment(key).compact();
         } catch (IOException e) {
             log.debug(ExceptionToString.format(e));
-            // put it back
-            seriesFile.renameTo(new File(path));
-            return false;
+            throw RaptureExceptionFactory.create("Cannot compact series " + key, e);
+        } finally {
+            lock.unlock();
         }
-        backupFile.delete();
-        return true;
     }
 
     @Override
@@ -265,42 +276,51 @@ public class FileSeriesStore extends AbstractSeriesStore {
     @Override
     public void addPointsToSeries(String key, List<SeriesValue> values) {
         boolean nullKey = false;
+        List<SeriesValue> toAdd = new ArrayList<>(values.size());
         for (SeriesValue value : values) {
             if (value.getColumn() == null) nullKey = true;
-            else addPointToSeries(key, value);
+            else toAdd.add(value);
         }
+        if (!toAdd.isEmpty()) appendToSeries(key, toAdd);
         if (nullKey) throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, "Column Key may not be null, other values added");
     }
 
     @Override
     public void addPointToSeries(String key, SeriesValue value) {
-        Collection<SeriesValue> series = readSeriesSorted(key, true);
-        series.add(value);
-        writeSeries(key, series);
+        appendToSeries(key, Collections.singletonList(value));
     }
 
     @Override
     public boolean deletePointsFromSeriesByPointKey(String key, List<String> pointKeys) {
-        File seriesFile = FileRepoUtils.makeGenericFile(parentDir, key + Parser.COLON_CHAR);
-        if ((pointKeys == null) || pointKeys.isEmpty() || !seriesFile.isFile()) return true;
-        List<SeriesValue> series = getPoints(key);
-        if (series == null) return true;
-        List<SeriesValue> newSeries = new ArrayList<SeriesValue>();
-        for (SeriesValue value : series) {
-            if (pointKeys.contains(value.getColumn())) {
-                pointKeys.remove(value.getColumn());
-            } else {
-                newSeries.add(value);
-            }
+        if ((pointKeys == null) || pointKeys.isEmpty()) return true;
+        Lock lock = locks.get(key).writeLock();
+        lock.lock();
+        try {
+            SeriesSegmentFile segment = segmentFile(key);
+            if (!segment.getFile().isFile()) return true;
+            segment = migratedSegment(key);
+            segment.appendDeletes(pointKeys);
+            if (segment.tailLength() > compactThreshold) scheduleCompaction(key);
+            return true;
+        } catch (IOException e) {
+            log.debug(ExceptionToString.format(e));
+            return false;
+        } finally {
+            lock.unlock();
         }
-        return writeSeries(key, newSeries);
     }
 
     @Override
     public boolean deletePointsFromSeries(String key) {
-        File seriesFile = FileRepoUtils.makeGenericFile(parentDir, key + Parser.COLON_CHAR);
-        if (!seriesFile.isFile()) return false;
-        return seriesFile.delete();
+        Lock lock = locks.get(key).writeLock();
+        lock.lock();
+        try {
+            File seriesFile = FileRepoUtils.makeGenericFile(parentDir, key + Parser.COLON_CHAR);
+            if (!seriesFile.isFile()) return false;
+            return seriesFile.delete();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -319,20 +339,20 @@ public class FileSeriesStore extends AbstractSeriesStore {
     }
 
     public List<SeriesValue> getPointsAfterReverse(String key, String startColumn, String endColumn, int maxNumber) {
-        List<SeriesValue> series = new ArrayList<>(); // or ((maxNumber > values.size()) ? values.size() : maxNumber);
-        boolean found = false;
         int limit = (maxNumber > overflowLimit) ? overflowLimit : maxNumber;
-        for (SeriesValue value : readSeriesSorted(key, false)) {
-            if (!found) {
-                if (value.getColumn().equals(startColumn)) {
-                    found = true;
-                } else continue;
+        Lock lock = locks.get(key).readLock();
+        try {
+            SeriesSegmentFile segment = readableSegment(key);
+            lock.lock();
+            try {
+                return segment.readReverse(startColumn, endColumn, limit);
+            } finally {
+                lock.unlock();
             }
-            series.add(value);
-            if (series.size() == limit) break;
-            if ((endColumn != null) && value.getColumn().equals(endColumn)) break;
+        } catch (IOException e) {
+            log.debug(ExceptionToString.format(e));
+            throw RaptureExceptionFactory.create("Cannot read Series " + key, e);
         }
-        return series;
     }
 
     @Override
@@ -340,30 +360,20 @@ public class FileSeriesStore extends AbstractSeriesStore {
         File seriesFile = FileRepoUtils.makeGenericFile(parentDir, key + Parser.COLON_CHAR);
         if (!seriesFile.exists()) return new ArrayList<>();
         if (!seriesFile.isFile()) throw RaptureExceptionFactory.create("For FILE implementation you can't have a Series with the same name as a Folder");
-        List<SeriesValue> series = new ArrayList<>();
         int limit = (maxNumber > overflowLimit) ? overflowLimit : maxNumber;
-        boolean found = (startColumn == null);
+        Lock lock = locks.get(key).readLock();
         try {
-            List<String> lines = Files.readAllLines(seriesFile.toPath(), StandardCharsets.UTF_8);
-            for (String line : lines) {
-                char c = line.charAt(0);
-                int i = line.indexOf(c, 1);
-                String column = line.substring(1, i);
-                byte[] bytes = line.substring(i + 1).getBytes();
-                SeriesValue value = SeriesValueCodec.decode(column, bytes);
-                if (!found) {
-                    if (!value.getColumn().equals(startColumn)) continue;
-                    found = true;
-                }
-                series.add(value);
-                if (series.size() == limit) break;
-                if ((endColumn != null) && value.getColumn().equals(endColumn)) break;
+            SeriesSegmentFile segment = readableSegment(key);
+            lock.lock();
+            try {
+                return segment.readForward(startColumn, endColumn, limit);
+            } finally {
+                lock.unlock();
             }
         } catch (IOException e) {
             log.debug(ExceptionToString.format(e));
             throw RaptureExceptionFactory.create("Cannot read Series " + key, e);
         }
-        return series;
     }
 
     @Override
@@ -411,6 +421,8 @@ public class FileSeriesStore extends AbstractSeriesStore {
                     inf.setName(kid.getName());
                     inf.setFolder(true);
                 } else {
+                    // skip compaction scratch files
+                    if (!kid.getName().endsWith(String.valueOf(Parser.COLON_CHAR))) continue;
                     inf.setName(kid.getName().substring(0, kid.getName().length() - 1)); // remove trailing colon
                     inf.setFolder(false);
                 }
@@ -433,27 +445,22 @@ public class FileSeriesStore extends AbstractSeriesStore {
 
     @Override
     public SeriesValue getLastPoint(String key) {
-        File seriesFile = FileRepoUtils.makeGenericFile(parentDir, key + Parser.COLON_CHAR);
-        if (!seriesFile.isFile()) return null;
-        try {
-            List<String> lines = Files.readAllLines(seriesFile.toPath(), StandardCharsets.UTF_8);
-            if (!lines.isEmpty()) {
-                String line = lines.get(lines.size() - 1);
-                char c = line.charAt(0);
-                int i = line.indexOf(c, 1);
-                String column = line.substring(1, i);
-                byte[] bytes = line.substring(i + 1).getBytes();
-                return SeriesValueCodec.decode(column, bytes);
-            }
-        } catch (IOException e) {
-            log.debug(ExceptionToString.format(e));
-        }
-        return null;
+        List<SeriesValue> last = getPointsAfterReverse(key, null, null, 1);
+        return last.isEmpty() ? null : last.get(0);
     }
 
     @Override
     public void createSeries(String key) {
-        writeSeries(key, new ArrayList<SeriesValue>());
+        Lock lock = locks.get(key).writeLock();
+        lock.lock();
+        try {
+            segmentFile(key).create();
+        } catch (IOException e) {
+            log.debug(ExceptionToString.format(e));
+            throw RaptureExceptionFactory.create("Cannot create series " + key, e);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -0,0 +1,543 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.series.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import rapture.common.SeriesValue;
+import rapture.dsl.serfun.SeriesValueCodec;
+
+/**
+ * On-disk layout of a single file backed series. The file is log structured:
+ *
+ * <pre>
+ * header  : magic (8 bytes), long indexOffset, long tailOffset
+ * sorted  : [HEADER_SIZE, indexOffset)  compacted records, unique and ordered by column
+ * index   : [indexOffset, tailOffset)   int count, then (UTF column, long offset) for every INDEX_INTERVAL-th sorted record
+ * tail    : [tailOffset, EOF)           records appended since the last compaction, in arrival order
+ * record  : byte kind, UTF column, int length, value bytes (as produced by SeriesValueCodec)
+ * </pre>
+ *
+ * New points and deletions are only ever appended to the tail, so a write costs one append regardless of the size of the series. Reads binary search
+ * the sparse index to seek into the sorted region and merge it with the (bounded) tail; compaction folds the tail back into the sorted region.
+ *
+ * Files written by earlier versions of FileSeriesStore (one line per point) are recognised by their first byte and converted in place by
+ * {@link #migrateLegacy()}.
+ *
+ * Instances are not thread safe; the owning store is responsible for serialising access to a given file.
+ */
+public class SeriesSegmentFile {
+    static final byte[] MAGIC = new byte[] { 0, 'R', 'S', 'E', 'G', 0, 0, 1 };
+    static final int HEADER_SIZE = MAGIC.length + 16;
+    static final int INDEX_INTERVAL = 128;
+
+    private static final byte PUT = 'P';
+    private static final byte DELETE = 'D';
+
+    private final File file;
+
+    public SeriesSegmentFile(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the file exists and is in the old line-per-point format
+     */
+    public boolean isLegacy() throws IOException {
+        if (!file.isFile()) return false;
+        if (file.length() < MAGIC.length) return true;
+        byte[] magic = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            in.readFully(magic);
+        }
+        return !Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Rewrite a line format series file as a compacted segment file. Later lines win if a column appears more than once.
+     */
+    public void migrateLegacy() throws IOException {
+        TreeMap<String, Record> points = new TreeMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) continue;
+            char c = line.charAt(0);
+            int i = line.indexOf(c, 1);
+            String column = line.substring(1, i);
+            points.put(column, new Record(PUT, column, line.substring(i + 1).getBytes(StandardCharsets.UTF_8)));
+        }
+        writeCompacted(points.values().iterator());
+    }
+
+    /**
+     * Create (or truncate to) an empty series
+     */
+    public void create() throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) throw new IOException("Cannot create directory " + parent.getAbsolutePath());
+        writeCompacted(Collections.<Record> emptyIterator());
+    }
+
+    public void append(List<SeriesValue> values) throws IOException {
+        List<Record> records = new ArrayList<>(values.size());
+        for (SeriesValue value : values) {
+            records.add(new Record(PUT, value.getColumn(), SeriesValueCodec.encodeValue(value)));
+        }
+        appendRecords(records);
+    }
+
+    public void appendDeletes(List<String> columns) throws IOException {
+        List<Record> records = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            records.add(new Record(DELETE, column, new byte[0]));
+        }
+        appendRecords(records);
+    }
+
+    private void appendRecords(List<Record> records) throws IOException {
+        if (!file.isFile()) create();
+        // Build the whole batch first so it reaches the file in a single write
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Record record : records) {
+                record.writeTo(out);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes appended since the last compaction
+     */
+    public long tailLength() throws IOException {
+        if (!file.isFile()) return 0;
+        return file.length() - readHeader().tailOffset;
+    }
+
+    /**
+     * Points with startColumn <= column <= endColumn in ascending order. Either bound may be null.
+     */
+    public List<SeriesValue> readForward(String startColumn, String endColumn, int limit) throws IOException {
+        List<SeriesValue> result = new ArrayList<>();
+        if (!file.isFile() || limit <= 0) return result;
+        Header header = readHeader();
+        NavigableMap<String, Record> tail = readTail(header);
+        if (startColumn != null) tail = tail.tailMap(startColumn, true);
+        if (endColumn != null) tail = tail.headMap(endColumn, true);
+
+        List<IndexEntry> index = readIndex(header);
+        long offset = HEADER_SIZE;
+        if (startColumn != null) {
+            int i = floorEntry(index, startColumn);
+            if (i >= 0) offset = index.get(i).offset;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Iterator<Record> sorted = new RecordIterator(openRegion(channel, offset, header.indexOffset));
+            Iterator<Record> merged = new MergingIterator(sorted, tail.values().iterator(), true);
+            while (merged.hasNext() && result.size() < limit) {
+                Record record = merged.next();
+                if (startColumn != null && record.column.compareTo(startColumn) < 0) continue;
+                if (endColumn != null && record.column.compareTo(endColumn) > 0) break;
+                if (record.kind == PUT) result.add(record.decode());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Points with startColumn >= column >= endColumn in descending order. Either bound may be null.
+     */
+    public List<SeriesValue> readReverse(String startColumn, String endColumn, int limit) throws IOException {
+        List<SeriesValue> result = new ArrayList<>();
+        if (!file.isFile() || limit <= 0) return result;
+        Header header = readHeader();
+        NavigableMap<String, Record> tail = readTail(header).descendingMap();
+        if (startColumn != null) tail = tail.tailMap(startColumn, true);
+        if (endColumn != null) tail = tail.headMap(endColumn, true);
+
+        List<IndexEntry> index = readIndex(header);
+        int block = (startColumn == null) ? index.size() - 1 : floorEntry(index, startColumn);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Iterator<Record> sorted = new ReverseBlockIterator(channel, index, block, header.indexOffset);
+            Iterator<Record> merged = new MergingIterator(sorted, tail.values().iterator(), false);
+            while (merged.hasNext() && result.size() < limit) {
+                Record record = merged.next();
+                if (startColumn != null && record.column.compareTo(startColumn) > 0) continue;
+                if (endColumn != null && record.column.compareTo(endColumn) < 0) break;
+                if (record.kind == PUT) result.add(record.decode());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fold the tail into the sorted region and rebuild the sparse index. The new file is written alongside and then moved over the old one.
+     */
+    public void compact() throws IOException {
+        if (!file.isFile()) return;
+        Header header = readHeader();
+        NavigableMap<String, Record> tail = readTail(header);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Iterator<Record> sorted = new RecordIterator(openRegion(channel, HEADER_SIZE, header.indexOffset));
+            final Iterator<Record> merged = new MergingIterator(sorted, tail.values().iterator(), true);
+            writeCompacted(new Iterator<Record>() {
+                Record next = advance();
+
+                private Record advance() {
+                    while (merged.hasNext()) {
+                        Record record = merged.next();
+                        if (record.kind == PUT) return record;
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Record next() {
+                    Record result = next;
+                    next = advance();
+                    return result;
+                }
+            });
+        }
+    }
+
+    private void writeCompacted(Iterator<Record> records) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + "_compact");
+        List<IndexEntry> index = new ArrayList<>();
+        long offset = HEADER_SIZE;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            // DataOutputStream.size() counts bytes handed to it, so it tracks offsets even though output is buffered
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+            int count = 0;
+            while (records.hasNext()) {
+                Record record = records.next();
+                if (count++ % INDEX_INTERVAL == 0) index.add(new IndexEntry(record.column, offset));
+                record.writeTo(out);
+                offset = HEADER_SIZE + out.size();
+            }
+            long indexOffset = offset;
+            out.writeInt(index.size());
+            for (IndexEntry entry : index) {
+                out.writeUTF(entry.column);
+                out.writeLong(entry.offset);
+            }
+            out.flush();
+            long tailOffset = HEADER_SIZE + out.size();
+
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE);
+            head.put(MAGIC).putLong(indexOffset).putLong(tailOffset).flip();
+            channel.position(0);
+            while (head.hasRemaining()) {
+                channel.write(head);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Header readHeader() throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a series segment file: " + file.getAbsolutePath());
+            return new Header(in.readLong(), in.readLong());
+        }
+    }
+
+    private List<IndexEntry> readIndex(Header header) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DataInputStream in = openRegion(channel, header.indexOffset, header.tailOffset);
+            int count = in.readInt();
+            List<IndexEntry> index = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                index.add(new IndexEntry(in.readUTF(), in.readLong()));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Read the tail into a map where the latest record for a column (put or delete) wins. A partially written record at the end of the file (from a crash
+     * mid-append) is ignored and will be discarded by the next compaction.
+     */
+    private TreeMap<String, Record> readTail(Header header) throws IOException {
+        TreeMap<String, Record> tail = new TreeMap<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            RecordIterator iter = new RecordIterator(openRegion(channel, header.tailOffset, channel.size()));
+            while (iter.hasNext()) {
+                Record record = iter.next();
+                tail.put(record.column, record);
+            }
+        }
+        return tail;
+    }
+
+    private static DataInputStream openRegion(FileChannel channel, long start, long end) throws IOException {
+        channel.position(start);
+        InputStream in = new BoundedInputStream(Channels.newInputStream(channel), Math.max(0, end - start));
+        return new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * @return the position of the last index entry whose column is <= column, or -1
+     */
+    private static int floorEntry(List<IndexEntry> index, String column) {
+        int low = 0;
+        int high = index.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (index.get(mid).column.compareTo(column) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private static final class Header {
+        final long indexOffset;
+        final long tailOffset;
+
+        Header(long indexOffset, long tailOffset) {
+            this.indexOffset = indexOffset;
+            this.tailOffset = tailOffset;
+        }
+    }
+
+    private static final class IndexEntry {
+        final String column;
+        final long offset;
+
+        IndexEntry(String column, long offset) {
+            this.column = column;
+            this.offset = offset;
+        }
+    }
+
+    private static final class Record {
+        final byte kind;
+        final String column;
+        final byte[] value;
+
+        Record(byte kind, String column, byte[] value) {
+            this.kind = kind;
+            this.column = column;
+            this.value = value;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(kind);
+            out.writeUTF(column);
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        static Record readFrom(DataInputStream in) throws IOException {
+            byte kind = in.readByte();
+            String column = in.readUTF();
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            return new Record(kind, column, value);
+        }
+
+        SeriesValue decode() throws IOException {
+            return SeriesValueCodec.decode(column, value);
+        }
+    }
+
+    /**
+     * Reads records sequentially until the region is exhausted
+     */
+    private static class RecordIterator implements Iterator<Record> {
+        private final DataInputStream in;
+        private Record next;
+
+        RecordIterator(DataInputStream in) {
+            this.in = in;
+            this.next = advance();
+        }
+
+        private Record advance() {
+            try {
+                return Record.readFrom(in);
+            } catch (EOFException e) {
+                return null;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (next == null) throw new NoSuchElementException();
+            Record result = next;
+            next = advance();
+            return result;
+        }
+    }
+
+    /**
+     * Walks the sorted region backwards one index block at a time, starting at the given block
+     */
+    private static class ReverseBlockIterator implements Iterator<Record> {
+        private final FileChannel channel;
+        private final List<IndexEntry> index;
+        private final long regionEnd;
+        private int block;
+        private List<Record> buffer = Collections.emptyList();
+        private int position = -1;
+
+        ReverseBlockIterator(FileChannel channel, List<IndexEntry> index, int block, long regionEnd) {
+            this.channel = channel;
+            this.index = index;
+            this.block = block;
+            this.regionEnd = regionEnd;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (position < 0) {
+                if (block < 0) return false;
+                long start = index.get(block).offset;
+                long end = (block + 1 < index.size()) ? index.get(block + 1).offset : regionEnd;
+                buffer = new ArrayList<>(INDEX_INTERVAL);
+                try {
+                    RecordIterator iter = new RecordIterator(openRegion(channel, start, end));
+                    while (iter.hasNext()) {
+                        buffer.add(iter.next());
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                position = buffer.size() - 1;
+                block--;
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return buffer.get(position--);
+        }
+    }
+
+    /**
+     * Merges the sorted region with the tail. Both inputs must be ordered in the same direction; on equal columns the tail record wins.
+     */
+    private static class MergingIterator implements Iterator<Record> {
+        private final Iterator<Record> sorted;
+        private final Iterator<Record> tail;
+        private final boolean ascending;
+        private Record nextSorted;
+        private Record nextTail;
+
+        MergingIterator(Iterator<Record> sorted, Iterator<Record> tail, boolean ascending) {
+            this.sorted = sorted;
+            this.tail = tail;
+            this.ascending = ascending;
+            nextSorted = sorted.hasNext() ? sorted.next() : null;
+            nextTail = tail.hasNext() ? tail.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSorted != null || nextTail != null;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Record result;
+            if (nextTail == null) {
+                result = nextSorted;
+                nextSorted = sorted.hasNext() ? sorted.next() : null;
+            } else if (nextSorted == null) {
+                result = nextTail;
+                nextTail = tail.hasNext() ? tail.next() : null;
+            } else {
+                int cmp = nextSorted.column.compareTo(nextTail.column);
+                if (!ascending) cmp = -cmp;
+                if (cmp < 0) {
+                    result = nextSorted;
+                    nextSorted = sorted.hasNext() ? sorted.next() : null;
+                } else {
+                    if (cmp == 0) nextSorted = sorted.hasNext() ? sorted.next() : null;
+                    result = nextTail;
+                    nextTail = tail.hasNext() ? tail.next() : null;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -25,19 +25,19 @@ package rapture.stat.memory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import rapture.stat.BaseStat;
 import rapture.stat.CounterStat;
 
 /**
- * A value memory type holds a current set of "working" records, and a history
- * of old records.
+ * A counter memory type holds a running total. The total is striped across threads, so the many callers bumping the same counter do not contend.
  * 
  * @author amkimian
  * 
  */
 public class CounterMemoryType extends BaseMemoryType {
-    private long currentValue = 0;
+    private final LongAdder currentValue = new LongAdder();
     private String key;
 
     public CounterMemoryType(String key) {
@@ -45,7 +45,7 @@ public class CounterMemoryType extends BaseMemoryType {
     }
 
     public void addValue(CounterStat value) {
-        currentValue += value.getValue();
+        currentValue.add(value.getValue());
     }
 
     @Override
@@ -57,7 +57,7 @@ public class CounterMemoryType extends BaseMemoryType {
     public BaseStat getCurrentStats() {
         CounterStat s = new CounterStat();
         s.setKey(key);
-        s.setValue(currentValue);
+        s.setValue(currentValue.sum());
         return s;
     }
 
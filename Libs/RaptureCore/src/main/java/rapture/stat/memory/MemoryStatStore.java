@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import rapture.stat.BaseStat;
 import rapture.stat.CounterStat;
@@ -41,17 +42,18 @@ import rapture.stat.ValueStat;
 import rapture.stat.ValueStatType;
 
 /**
- * A MemoryStatStore is intended to be used for testing only.
+ * A MemoryStatStore is intended to be used for testing only. Stats are recorded on every API call, so the maps here are concurrent and each stat
+ * type keeps a fixed amount of memory however many values are recorded.
  * 
  * @author amkimian
  * 
  */
 public class MemoryStatStore implements IStatStore {
-    private Map<String, StatType> keyDefs = new HashMap<String, StatType>();
-    private Map<String, StringMemoryType> stringMemoryTypes = new HashMap<String, StringMemoryType>();
-    private Map<String, PresenceMemoryType> presenceMemoryTypes = new HashMap<String, PresenceMemoryType>();
-    private Map<String, ValueMemoryType> valueMemoryTypes = new HashMap<String, ValueMemoryType>();
-    private Map<String, CounterMemoryType> counterMemoryTypes = new HashMap<String, CounterMemoryType>();
+    private Map<String, StatType> keyDefs = new ConcurrentHashMap<String, StatType>();
+    private Map<String, StringMemoryType> stringMemoryTypes = new ConcurrentHashMap<String, StringMemoryType>();
+    private Map<String, PresenceMemoryType> presenceMemoryTypes = new ConcurrentHashMap<String, PresenceMemoryType>();
+    private Map<String, ValueMemoryType> valueMemoryTypes = new ConcurrentHashMap<String, ValueMemoryType>();
+    private Map<String, CounterMemoryType> counterMemoryTypes = new ConcurrentHashMap<String, CounterMemoryType>();
 
     public MemoryStatStore() {
         // Nothing to do here.
@@ -23,70 +23,55 @@
  */
 package rapture.stat.memory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rapture.stat.BaseStat;
 import rapture.stat.PresenceStat;
 import rapture.stat.ValueStat;
 
 public class PresenceMemoryType extends BaseMemoryType {
-    private Map<String, PresenceStat> stats = new HashMap<String, PresenceStat>();
-    private List<ValueStat> history = new ArrayList<ValueStat>();
+    private ConcurrentMap<String, PresenceStat> stats = new ConcurrentHashMap<String, PresenceStat>();
+    private final StatHistory<ValueStat> history = new StatHistory<ValueStat>(StatHistory.DEFAULT_CAPACITY);
     private String key;
-    private long nextRecord;
+    private final AtomicLong nextRecord;
 
     private long ageInSeconds;
 
     public PresenceMemoryType(String key, Long age) {
         this.key = key;
         this.ageInSeconds = age;
-        this.nextRecord = nextExtractionTime(); // Try and record every minute
+        this.nextRecord = new AtomicLong(nextExtractionTime()); // Try and record every minute
     }
 
     public void addPresence(PresenceStat presence) {
-        synchronized (stats) {
-            stats.put(presence.getInstance(), presence);
-        }
+        stats.put(presence.getInstance(), presence);
     }
 
     @Override
     public boolean calculate() {
-        synchronized (stats) {
-            if (System.currentTimeMillis() > nextRecord) {
-                ValueStat v = new ValueStat();
-                v.setKey(key);
-                v.setValue(new Double(stats.size()));
-                history.add(v);
-                nextRecord = nextExtractionTime();
-                return true;
-            }
-            return false;
+        long next = nextRecord.get();
+        if (System.currentTimeMillis() > next && nextRecord.compareAndSet(next, nextExtractionTime())) {
+            ValueStat v = new ValueStat();
+            v.setKey(key);
+            v.setValue(new Double(stats.size()));
+            history.add(v);
+            return true;
         }
+        return false;
     }
 
     @Override
     public BaseStat getCurrentStats() {
-        if (!history.isEmpty()) {
-            return history.get(history.size() - 1);
-        } else {
-            return null;
-        }
+        return history.getLast();
     }
 
     @Override
     public List<? extends BaseStat> getHistory(int recordCount) {
-        // records are stored in oldest first, so we want to go back
-        if (recordCount >= history.size()) {
-            recordCount = history.size();
-        }
-        List<ValueStat> ret = new ArrayList<ValueStat>();
-        for (int i = history.size() - recordCount; i < history.size(); i++) {
-            ret.add(history.get(i));
-        }
-        return ret;
+        return history.getLast(recordCount);
     }
 
     private long nextExtractionTime() {
@@ -95,17 +80,11 @@ public class PresenceMemoryType extends BaseMemoryType {
 
     @Override
     public void purgeOldRecords() {
-        synchronized (stats) {
-            List<String> toRemove = new ArrayList<String>();
-            for (PresenceStat s : stats.values()) {
-                if (s.expiredInSeconds(ageInSeconds)) {
-                    toRemove.add(s.getInstance());
-                }
-            }
-            for (String k : toRemove) {
-                stats.remove(k);
+        Iterator<PresenceStat> it = stats.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiredInSeconds(ageInSeconds)) {
+                it.remove();
             }
-            history.clear();
         }
     }
 
@@ -0,0 +1,72 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.stat.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed size ring of stat records, oldest first. Once full each new record replaces the oldest, so the memory used never grows. Records are only
+ * added when a stat window closes, never on the calls being measured, so a simple lock is enough here.
+ */
+class StatHistory<T> {
+    static final int DEFAULT_CAPACITY = 100;
+
+    private final Object[] records;
+    private int next = 0;
+    private int size = 0;
+
+    StatHistory(int capacity) {
+        records = new Object[Math.max(1, capacity)];
+    }
+
+    synchronized void add(T record) {
+        records[next] = record;
+        next = (next + 1) % records.length;
+        if (size < records.length) size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized T getLast() {
+        if (size == 0) return null;
+        return (T) records[(next - 1 + records.length) % records.length];
+    }
+
+    /**
+     * @return up to recordCount of the most recent records, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<T> getLast(int recordCount) {
+        int count = Math.min(Math.max(recordCount, 0), size);
+        List<T> ret = new ArrayList<T>(count);
+        for (int i = count; i > 0; i--) {
+            ret.add((T) records[(next - i + records.length) % records.length]);
+        }
+        return ret;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
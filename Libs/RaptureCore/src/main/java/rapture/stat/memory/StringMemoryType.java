@@ -23,10 +23,7 @@
  */
 package rapture.stat.memory;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 import rapture.stat.BaseStat;
 import rapture.stat.StringStat;
@@ -38,19 +35,14 @@ import rapture.stat.StringStat;
  * 
  */
 public class StringMemoryType extends BaseMemoryType {
-    private Queue<StringStat> messages;
-    private int queueSize;
+    private final StatHistory<StringStat> messages;
 
     public StringMemoryType(int queueSize) {
-        messages = new LinkedList<StringStat>();
-        this.queueSize = queueSize;
+        messages = new StatHistory<StringStat>(queueSize);
     }
 
     public void addMessage(StringStat message) {
         messages.add(message);
-        if (messages.size() > queueSize) {
-            messages.remove();
-        }
     }
 
     @Override
@@ -60,25 +52,12 @@ public class StringMemoryType extends BaseMemoryType {
 
     @Override
     public BaseStat getCurrentStats() {
-        if (messages.isEmpty()) {
-            return null;
-        } else {
-            return ((LinkedList<StringStat>) messages).get(messages.size() - 1);
-        }
+        return messages.getLast();
     }
 
     @Override
     public List<? extends BaseStat> getHistory(int recordCount) {
-        List<StringStat> ret = new ArrayList<StringStat>();
-        LinkedList<StringStat> history = (LinkedList<StringStat>) messages;
-        // records are stored in oldest first, so we want to go back
-        if (recordCount >= history.size()) {
-            recordCount = history.size();
-        }
-        for (int i = history.size() - recordCount; i < history.size(); i++) {
-            ret.add(history.get(i));
-        }
-        return ret;
+        return messages.getLast(recordCount);
     }
 
     @Override
@@ -23,20 +23,21 @@
  */
 package rapture.stat.memory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.time.Clock;
 import java.util.List;
-
-import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 import rapture.stat.BaseStat;
 import rapture.stat.ValueOperation;
 import rapture.stat.ValueStat;
 
 /**
- * A value memory type holds a current set of "working" records, and a history
- * of old records.
+ * A value memory type accumulates the values recorded in the current window, and keeps a fixed length history of the result for each window.
+ * 
+ * Values are added to striped sum and count accumulators rather than being kept, so recording a value takes constant memory and does not lock. The
+ * window is rolled over by whichever caller first sees that it has ended, which swaps in a fresh set of accumulators and records the old one.
  * 
  * @author amkimian
  * 
@@ -44,90 +45,93 @@ import rapture.stat.ValueStat;
 public class ValueMemoryType extends BaseMemoryType {
     private ValueOperation operation;
     private long expireSeconds;
-    private List<ValueStat> workingValues = Collections.synchronizedList(new LinkedList<ValueStat>());
-    private List<ValueStat> history = Collections.synchronizedList(new ArrayList<ValueStat>());
+    private final AtomicReference<Window> current;
+    private final StatHistory<ValueStat> history = new StatHistory<ValueStat>(StatHistory.DEFAULT_CAPACITY);
     private String key;
-    private long nextRecord;
+    private final Clock clock;
 
     public ValueMemoryType(String key, ValueOperation operation, long seconds) {
+        this(key, operation, seconds, Clock.systemUTC());
+    }
+
+    ValueMemoryType(String key, ValueOperation operation, long seconds, Clock clock) {
         this.operation = operation;
         this.expireSeconds = seconds;
         this.key = key;
-        this.nextRecord = nextExtractionTime();
+        this.clock = clock;
+        this.current = new AtomicReference<Window>(new Window(nextExtractionTime(clock.millis())));
     }
 
     public void addValue(ValueStat value) {
-        workingValues.add(value);
+        Window window = current.get();
+        long now = clock.millis();
+        if (now > window.end) {
+            rollOver(window, now);
+            window = current.get();
+        }
+        window.sum.add(value.getValue());
+        window.count.increment();
     }
 
     @Override
     public boolean calculate() {
-        if (System.currentTimeMillis() > nextRecord) {
-            ValueStat v = new ValueStat();
-            v.setKey(key);
-            if (workingValues.isEmpty()) {
-                v.setValue(0.0);
-            } else {
-                SummaryStatistics summary = new SummaryStatistics();
-                synchronized (workingValues) {
-                    for (ValueStat vs : workingValues) {
-                        summary.addValue(vs.getValue());
-                    }
-                }
-                switch (operation) {
-                case AVERAGE:
-                    v.setValue(summary.getMean());
-                    break;
-                case SUM:
-                    v.setValue(summary.getSum());
-                    break;
-                }
+        Window window = current.get();
+        long now = clock.millis();
+        return now > window.end && rollOver(window, now);
+    }
+
+    /**
+     * Close the window and record its result, unless another thread got there first
+     */
+    private boolean rollOver(Window window, long now) {
+        if (!current.compareAndSet(window, new Window(nextExtractionTime(now)))) {
+            return false;
+        }
+        ValueStat v = new ValueStat();
+        v.setKey(key);
+        long count = window.count.sum();
+        if (count == 0) {
+            v.setValue(0.0);
+        } else {
+            switch (operation) {
+            case AVERAGE:
+                v.setValue(window.sum.sum() / count);
+                break;
+            case SUM:
+                v.setValue(window.sum.sum());
+                break;
             }
-            history.add(v);
-            nextRecord = nextExtractionTime();
-            return true;
         }
-        return false;
+        history.add(v);
+        return true;
     }
 
     @Override
     public BaseStat getCurrentStats() {
-        if (!history.isEmpty()) {
-            return history.get(history.size() - 1);
-        }
-        return null;
+        return history.getLast();
     }
 
     @Override
     public List<? extends BaseStat> getHistory(int recordCount) {
-        // records are stored in oldest first, so we want to go back
-        if (recordCount >= history.size()) {
-            recordCount = history.size();
-        }
-        List<ValueStat> ret = new ArrayList<ValueStat>();
-        synchronized (history) {
-            for (int i = history.size() - recordCount; i < history.size(); i++) {
-                ret.add(history.get(i));
-            }
-        }
-        return ret;
+        return history.getLast(recordCount);
     }
 
-    private long nextExtractionTime() {
-        return System.currentTimeMillis() + 1000 * expireSeconds;
+    private long nextExtractionTime(long now) {
+        return now + 1000 * expireSeconds;
     }
 
     @Override
     public void purgeOldRecords() {
-        List<ValueStat> toRemove = new ArrayList<ValueStat>();
-        synchronized (workingValues) {
-            for (ValueStat s : workingValues) {
-                if (s.expiredInSeconds(expireSeconds)) {
-                    toRemove.add(s);
-                }
-            }
-        }
-        workingValues.removeAll(toRemove);
+        // Nothing to do, values are dropped when their window closes and the history has a fixed size
     }
 
+    private static class Window {
+        private final long end;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        Window(long end) {
+            this.end = end;
+        }
+    }
 }
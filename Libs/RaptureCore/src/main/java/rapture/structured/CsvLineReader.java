@@ -0,0 +1,114 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.structured;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import rapture.common.exception.RaptureExceptionFactory;
+
+/**
+ * Splits csv text into the values on each line. An empty unquoted value is null and quoted values may contain commas, newlines and doubled quotes.
+ * Blank lines are skipped.
+ */
+public class CsvLineReader {
+    private final BufferedReader reader;
+    private int lineNumber = 0;
+
+    public CsvLineReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return the number of the last line read, counting from 1
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the values on the next non-blank line, or null at the end of the text
+     */
+    public List<String> readCells() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            lineNumber++;
+            if (line == null) {
+                return null;
+            }
+        } while (line.isEmpty());
+
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!inQuotes) {
+                    break;
+                }
+                // a quoted value carries on over the line break
+                line = reader.readLine();
+                lineNumber++;
+                if (line == null) {
+                    throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, "Unterminated quoted value at the end of the text");
+                }
+                cell.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (inQuotes) {
+                if (c != '"') {
+                    cell.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    cell.append('"');
+                    i++;
+                } else {
+                    inQuotes = false;
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(toValue(cell, quoted));
+                cell.setLength(0);
+                quoted = false;
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(toValue(cell, quoted));
+        return cells;
+    }
+
+    private static String toValue(StringBuilder cell, boolean quoted) {
+        return (cell.length() == 0 && !quoted) ? null : cell.toString();
+    }
+}
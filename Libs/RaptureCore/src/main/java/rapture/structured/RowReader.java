@@ -0,0 +1,161 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.structured;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import rapture.common.exception.RaptureExceptionFactory;
+import rapture.common.impl.jackson.JacksonUtil;
+
+/**
+ * Reads rows for a structured table from text, one row at a time, so that a load never needs the whole text in memory.
+ * <p>
+ * In csv the first line names the columns; an empty unquoted value is null and quoted values may contain commas, newlines and doubled quotes. In
+ * jsonl each non-blank line is a JSON object holding one row.
+ */
+public abstract class RowReader implements Iterator<Map<String, Object>>, Closeable {
+    public static final String CSV = "csv";
+    public static final String JSONL = "jsonl";
+
+    protected final BufferedReader reader;
+    private Map<String, Object> nextRow;
+    private boolean done = false;
+
+    public static RowReader create(String format, Reader reader) {
+        if (CSV.equalsIgnoreCase(format)) {
+            return new CsvRowReader(reader);
+        } else if (JSONL.equalsIgnoreCase(format)) {
+            return new JsonLinesRowReader(reader);
+        }
+        throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST, String.format("Unknown row format [%s], use %s or %s", format, CSV, JSONL));
+    }
+
+    protected RowReader(Reader reader) {
+        this.reader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * @return the next row, or null at the end of the text
+     */
+    protected abstract Map<String, Object> readRow() throws IOException;
+
+    @Override
+    public boolean hasNext() {
+        if (nextRow == null && !done) {
+            try {
+                nextRow = readRow();
+            } catch (IOException e) {
+                throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_INTERNAL_ERROR, "Failed to read rows", e);
+            }
+            done = (nextRow == null);
+        }
+        return nextRow != null;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map<String, Object> ret = nextRow;
+        nextRow = null;
+        return ret;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static class JsonLinesRowReader extends RowReader {
+        JsonLinesRowReader(Reader reader) {
+            super(reader);
+        }
+
+        @Override
+        protected Map<String, Object> readRow() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!StringUtils.isBlank(line)) {
+                    return JacksonUtil.getMapFromJson(line);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class CsvRowReader extends RowReader {
+        private final CsvLineReader lines;
+        private List<String> header;
+
+        CsvRowReader(Reader reader) {
+            super(reader);
+            lines = new CsvLineReader(this.reader);
+        }
+
+        @Override
+        protected Map<String, Object> readRow() throws IOException {
+            if (header == null) {
+                List<String> names = lines.readCells();
+                if (names == null) {
+                    return null;
+                }
+                header = new ArrayList<>();
+                for (String name : names) {
+                    header.add(StringUtils.trim(name));
+                }
+            }
+            List<String> cells = lines.readCells();
+            if (cells == null) {
+                return null;
+            }
+            if (cells.size() > header.size()) {
+                throw RaptureExceptionFactory.create(HttpURLConnection.HTTP_BAD_REQUEST,
+                        String.format("Line %d has %d values but there are only %d columns", lines.getLineNumber(), cells.size(), header.size()));
+            }
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                row.put(header.get(i), (i < cells.size()) ? cells.get(i) : null);
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.table.memory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import rapture.dsl.iqry.WhereTest;
+
+/**
+ * A secondary index on one field of a memory index. It narrows a where statement down to the rows that could match it; the caller must still
+ * test those rows against the statement, as the index follows the loose comparison rules of AbstractIndexHandler (numbers match numeric strings,
+ * and values of different types are compared as strings) only as far as guaranteeing that no matching row is left out.
+ *
+ * Not thread safe; MemoryIndexHandler guards it with its own lock.
+ */
+class FieldIndex {
+    private final Map<Object, Set<String>> byValue = new HashMap<>();
+    private final TreeMap<Double, Set<String>> byNumber = new TreeMap<>();
+    private final TreeMap<String, Set<String>> byString = new TreeMap<>();
+    private final Set<String> nonNumeric = new HashSet<>();
+
+    void add(String rowId, Object value) {
+        if (value == null) return;
+        String string = value.toString();
+        put(byValue, string, rowId);
+        put(byString, string, rowId);
+        Double number = asNumber(value);
+        if (number != null) {
+            put(byValue, number, rowId);
+            put(byNumber, number, rowId);
+        } else {
+            nonNumeric.add(rowId);
+        }
+    }
+
+    void remove(String rowId, Object value) {
+        if (value == null) return;
+        String string = value.toString();
+        take(byValue, string, rowId);
+        take(byString, string, rowId);
+        Double number = asNumber(value);
+        if (number != null) {
+            take(byValue, number, rowId);
+            take(byNumber, number, rowId);
+        } else {
+            nonNumeric.remove(rowId);
+        }
+    }
+
+    /**
+     * The ids of every row that could satisfy the test, or null if the index cannot narrow it down
+     */
+    Set<String> candidates(WhereTest test, Object queryValue) {
+        if (queryValue == null) return null;
+        Double number = (queryValue instanceof Number) ? normalize(((Number) queryValue).doubleValue()) : null;
+        boolean isString = queryValue instanceof String;
+        if (number == null && !isString) return null;
+
+        switch (test) {
+        case EQUAL:
+            Set<String> equal = new HashSet<>(get(byValue, queryValue.toString()));
+            if (number != null) equal.addAll(get(byValue, number));
+            return equal;
+        case GT:
+            // bounds are inclusive as -0.0 and 0.0 share an entry
+            if (number != null) return union(byNumber.tailMap(number, true).values(), nonNumeric);
+            return union(byString.tailMap((String) queryValue, false).values(), Collections.<String> emptySet());
+        case LT:
+            if (number != null) return union(byNumber.headMap(number, true).values(), nonNumeric);
+            return union(byString.headMap((String) queryValue, false).values(), Collections.<String> emptySet());
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Numeric view of a value, as used by the comparisons: numbers and strings that parse as numbers
+     */
+    private static Double asNumber(Object value) {
+        if (value instanceof Number) return normalize(((Number) value).doubleValue());
+        if (value instanceof String) {
+            try {
+                return normalize(Double.parseDouble((String) value));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static Double normalize(double d) {
+        // fold -0.0 into 0.0, which compares equal numerically
+        return d + 0.0;
+    }
+
+    private static Set<String> union(Collection<Set<String>> sets, Set<String> extra) {
+        Set<String> result = new HashSet<>(extra);
+        for (Set<String> set : sets) {
+            result.addAll(set);
+        }
+        return result;
+    }
+
+    private static <K> void put(Map<K, Set<String>> map, K key, String rowId) {
+        Set<String> rows = map.get(key);
+        if (rows == null) {
+            rows = new HashSet<>();
+            map.put(key, rows);
+        }
+        rows.add(rowId);
+    }
+
+    private static <K> void take(Map<K, Set<String>> map, K key, String rowId) {
+        Set<String> rows = map.get(key);
+        if (rows != null) {
+            rows.remove(rowId);
+            if (rows.isEmpty()) map.remove(key);
+        }
+    }
+
+    private static Set<String> get(Map<Object, Set<String>> map, Object key) {
+        Set<String> rows = map.get(key);
+        return (rows == null) ? Collections.<String> emptySet() : rows;
+    }
+}
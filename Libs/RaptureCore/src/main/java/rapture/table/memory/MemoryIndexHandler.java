@@ -24,12 +24,18 @@
 package rapture.table.memory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 
@@ -42,19 +48,26 @@ import rapture.common.model.DocumentMetadata;
 import rapture.dsl.iqry.IndexQuery;
 import rapture.dsl.iqry.IndexQueryFactory;
 import rapture.dsl.iqry.OrderDirection;
+import rapture.dsl.iqry.WhereClause;
+import rapture.dsl.iqry.WhereExtension;
+import rapture.dsl.iqry.WhereStatement;
 import rapture.index.AbstractIndexHandler;
 import rapture.index.IndexProducer;
 import rapture.index.IndexRecord;
 
 /*
- * An in memory table, primarily for testing
+ * An in memory table, primarily for testing, but also used as a read-through layer in front of slower indexes.
  * 
+ * A secondary index is built for a field the first time a query filters on it, and is kept up to date from then on. A query uses the most
+ * selective of its indexed where statements to pick candidate rows, and only tests those against the full where clause.
  */
 public class MemoryIndexHandler extends AbstractIndexHandler {
     protected static Logger log = Logger.getLogger(MemoryIndexHandler.class);
 
     protected Map<String, Map<String, Object>> memoryView = null;
     private IndexProducer indexProducer;
+    private final Map<String, FieldIndex> fieldIndexes = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     public MemoryIndexHandler() {
         reset();
@@ -63,16 +76,28 @@ public class MemoryIndexHandler extends AbstractIndexHandler {
     @Override
     public void deleteTable() {
         log.info("Removing index content ");
-        memoryView.clear();
+        lock.writeLock().lock();
+        try {
+            memoryView.clear();
+            fieldIndexes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public void removeAll(String rowId) {
-        memoryView.put(rowId, new HashMap<String, Object>());
+        putRow(rowId, new HashMap<String, Object>());
     }
 
     private void reset() {
-        memoryView = new ConcurrentHashMap<>();
+        lock.writeLock().lock();
+        try {
+            memoryView = new ConcurrentHashMap<>();
+            fieldIndexes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -89,14 +114,27 @@ public class MemoryIndexHandler extends AbstractIndexHandler {
             if (values != null) {
                 // Should be set but Continuous build #80 failed because values was null
                 values.put(ROWID, key);
-                memoryView.put(key, values);
+                putRow(key, values);
             }
         }
     }
 
     @Override
     public void updateRow(String key, Map<String, Object> recordValues) {
-        memoryView.put(key, recordValues);
+        putRow(key, recordValues);
+    }
+
+    private void putRow(String key, Map<String, Object> values) {
+        lock.writeLock().lock();
+        try {
+            Map<String, Object> previous = memoryView.put(key, values);
+            for (Map.Entry<String, FieldIndex> entry : fieldIndexes.entrySet()) {
+                if (previous != null) entry.getValue().remove(key, previous.get(entry.getKey()));
+                entry.getValue().add(key, values.get(entry.getKey()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -118,50 +156,195 @@ public class MemoryIndexHandler extends AbstractIndexHandler {
     public TableQueryResult query(String query) {
         TableQueryResult result = new TableQueryResult();
         IndexQuery indexQuery = IndexQueryFactory.parseQuery(query);
-        Map<String, Map<String, Object>> data = memoryView;
         List<Predicate<Map<String, Object>>> predicates = predicatesFromQuery(indexQuery);
+        List<WhereStatement> statements = whereStatements(indexQuery);
+        ensureFieldIndexes(statements);
 
         List<String> columnNames = indexQuery.getSelect().getFieldList();
         result.setColumnNames(columnNames);
-        List<List<Object>> rows = new LinkedList<>();
-        for (Map.Entry<String, Map<String, Object>> mainEntry : data.entrySet()) {
-            boolean isGood = true;
-            Map<String, Object> body = mainEntry.getValue();
-            for (Predicate<Map<String, Object>> predicate : predicates) {
-                isGood = predicate.apply(body);
-                if (!isGood) {
-                    break;
-                }
+
+        int skip = Math.max(indexQuery.getSkip(), 0);
+        int limit = indexQuery.getLimit();
+        boolean ordered = indexQuery.getOrderBy().getFieldList().size() > 0;
+        Comparator<List<Object>> comparator = null;
+        if (ordered) {
+            comparator = RowComparatorFactory.createComparator(indexQuery.getOrderBy().getFieldList(), columnNames, indexQuery.getDirection());
+            if (indexQuery.getDirection() == OrderDirection.DESC) {
+                comparator = Collections.reverseOrder(comparator);
             }
-            if (isGood) {
-                List<Object> row = new LinkedList<>();
+        }
+        // Without an order we can stop as soon as we have enough rows; with one we need only keep the best skip + limit
+        int wanted = (limit > 0) ? (int) Math.min((long) skip + limit, Integer.MAX_VALUE) : Integer.MAX_VALUE;
+        RowCollector collector = ordered ? new TopRowCollector(comparator, wanted) : new FirstRowCollector(wanted);
+        Set<List<Object>> seen = indexQuery.isDistinct() ? new HashSet<List<Object>>() : null;
+
+        lock.readLock().lock();
+        try {
+            for (Map<String, Object> body : candidateRows(statements)) {
+                if (!matches(body, predicates)) continue;
+                List<Object> row = new ArrayList<>(columnNames.size());
                 for (String columnName : columnNames) {
                     row.add(body.get(columnName));
                 }
-                if (indexQuery.isDistinct() && rows.contains(row)) continue;
-                rows.add(row);
+                if (seen != null && !seen.add(row)) continue;
+                if (!collector.add(row)) break;
             }
+        } finally {
+            lock.readLock().unlock();
         }
 
-        if (indexQuery.getOrderBy().getFieldList().size() > 0) {
-            Collections.sort(rows, RowComparatorFactory.createComparator(indexQuery.getOrderBy().getFieldList(), columnNames, indexQuery.getDirection()));
-            if (indexQuery.getDirection() == OrderDirection.DESC) {
-                Collections.reverse(rows);
+        List<List<Object>> rows = collector.getRows();
+        if (skip >= rows.size()) {
+            rows = new ArrayList<>();
+        } else if (skip > 0) {
+            rows = new ArrayList<>(rows.subList(skip, rows.size()));
+        }
+        result.setRows(rows);
+        return result;
+    }
+
+    private static boolean matches(Map<String, Object> body, List<Predicate<Map<String, Object>>> predicates) {
+        for (Predicate<Map<String, Object>> predicate : predicates) {
+            if (!predicate.apply(body)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The where statements of the query. As in predicatesFromQuery, every statement must hold.
+     */
+    private static List<WhereStatement> whereStatements(IndexQuery indexQuery) {
+        List<WhereStatement> statements = new ArrayList<>();
+        WhereClause whereClause = indexQuery.getWhere();
+        if (whereClause.getPrimary() != null) {
+            statements.add(whereClause.getPrimary());
+            for (WhereExtension whereExtension : whereClause.getExtensions()) {
+                statements.add(whereExtension.getClause());
             }
         }
+        return statements;
+    }
 
-        int skip = indexQuery.getSkip();
-        if (skip < 0) skip = 0;
-        if (skip < rows.size()) {
-            int limit = indexQuery.getLimit();
+    private void ensureFieldIndexes(List<WhereStatement> statements) {
+        lock.readLock().lock();
+        try {
+            boolean missing = false;
+            for (WhereStatement statement : statements) {
+                missing |= !fieldIndexes.containsKey(statement.getField());
+            }
+            if (!missing) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            for (WhereStatement statement : statements) {
+                String field = statement.getField();
+                if (fieldIndexes.containsKey(field)) continue;
+                log.debug("Building memory index on field " + field);
+                FieldIndex index = new FieldIndex();
+                for (Map.Entry<String, Map<String, Object>> entry : memoryView.entrySet()) {
+                    index.add(entry.getKey(), entry.getValue().get(field));
+                }
+                fieldIndexes.put(field, index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The rows that could match the query: those picked out by the most selective indexed statement, or every row if no statement can use an index.
+     * Must be called holding the read lock.
+     */
+    private Collection<Map<String, Object>> candidateRows(List<WhereStatement> statements) {
+        Set<String> best = null;
+        for (WhereStatement statement : statements) {
+            FieldIndex index = fieldIndexes.get(statement.getField());
+            if (index == null) continue;
+            Set<String> candidates = index.candidates(statement.getOper(), statement.getValue().getValue());
+            if (candidates != null && (best == null || candidates.size() < best.size())) {
+                best = candidates;
+            }
+        }
+        if (best == null) return memoryView.values();
+        List<Map<String, Object>> rows = new ArrayList<>(best.size());
+        for (String rowId : best) {
+            Map<String, Object> row = memoryView.get(rowId);
+            if (row != null) rows.add(row);
+        }
+        return rows;
+    }
+
+    private interface RowCollector {
+        /**
+         * @return false if no more rows are needed
+         */
+        boolean add(List<Object> row);
+
+        List<List<Object>> getRows();
+    }
+
+    private static class FirstRowCollector implements RowCollector {
+        private final int wanted;
+        private final List<List<Object>> rows = new ArrayList<>();
+
+        FirstRowCollector(int wanted) {
+            this.wanted = wanted;
+        }
 
-            if ((limit > 0) && (rows.size() - skip > limit)) {
-                result.setRows(rows.subList(skip, skip + limit));
+        @Override
+        public boolean add(List<Object> row) {
+            rows.add(row);
+            return rows.size() < wanted;
+        }
+
+        @Override
+        public List<List<Object>> getRows() {
+            return rows;
+        }
+    }
+
+    /**
+     * Keeps the first wanted rows in sort order, in a heap with the worst of them at the top
+     */
+    private static class TopRowCollector implements RowCollector {
+        private final Comparator<List<Object>> comparator;
+        private final int wanted;
+        private final PriorityQueue<List<Object>> heap;
+        private final List<List<Object>> all;
+
+        TopRowCollector(Comparator<List<Object>> comparator, int wanted) {
+            this.comparator = comparator;
+            this.wanted = wanted;
+            if (wanted == Integer.MAX_VALUE) {
+                heap = null;
+                all = new ArrayList<>();
             } else {
-                result.setRows(rows);
+                heap = new PriorityQueue<>(Math.min(wanted, 1024), Collections.reverseOrder(comparator));
+                all = null;
             }
         }
-        return result;
+
+        @Override
+        public boolean add(List<Object> row) {
+            if (heap == null) {
+                all.add(row);
+            } else if (heap.size() < wanted) {
+                heap.add(row);
+            } else if (comparator.compare(row, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(row);
+            }
+            return true;
+        }
+
+        @Override
+        public List<List<Object>> getRows() {
+            List<List<Object>> rows = (heap == null) ? all : new ArrayList<>(heap);
+            Collections.sort(rows, comparator);
+            return rows;
+        }
     }
 
     @Override
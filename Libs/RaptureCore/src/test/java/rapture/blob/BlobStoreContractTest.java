@@ -183,6 +183,14 @@ public abstract class BlobStoreContractTest {
         printDiff("testGetBlobPart: getBlob2", before, after);
         assertEquals(TEST_BLOB_CONTENT.substring(2, 6), blobPart2);
 
+        String pastEnd = IOUtils.toString(getBlobStore().getBlobPart(CONTEXT, TEST_URI, 2l, 1000l), "UTF-8");
+        assertEquals(TEST_BLOB_CONTENT.substring(2), pastEnd);
+    }
+
+    @Test
+    public void testGetBlobSize() {
+        assertTrue(getBlobStore().storeBlob(CONTEXT, TEST_URI, false, IOUtils.toInputStream(TEST_BLOB_CONTENT)));
+        assertEquals(Long.valueOf(TEST_BLOB_CONTENT.length()), getBlobStore().getBlobSize(CONTEXT, TEST_URI));
     }
 
 }
@@ -69,8 +69,10 @@ import rapture.common.model.RaptureExchange;
 import rapture.common.model.RaptureExchangeQueue;
 import rapture.common.model.RaptureExchangeType;
 import rapture.common.pipeline.PipelineConstants;
+import rapture.config.ConfigLoader;
 import rapture.dp.invocable.CheckPrerequisiteStep;
 import rapture.dp.invocable.PrerequisiteConfig;
+import rapture.dp.invocable.ThreadRecorder;
 import rapture.dp.semaphore.LockKeyFactory;
 import rapture.dp.semaphore.WorkOrderSemaphore;
 import rapture.dp.semaphore.WorkOrderSemaphoreFactory;
@@ -512,6 +514,99 @@ public class DecisionProcessExecutorTest {
         Kernel.getSeries().addLongToSeries(CONTEXT, uri.toString(), today, 123L);
     }
 
+    @Test
+    public void testStepsChainLocally() {
+        String wuri = "workflow://myworkflow/xChain";
+        putChainWorkflow(wuri);
+        final String workOrderUri = Kernel.getDecision().createWorkOrder(CONTEXT, wuri, null);
+        waitForFinish(workOrderUri);
+        assertEquals(4, ThreadRecorder.countRuns(workOrderUri));
+        // this server takes alpha, so every step after the first runs on the thread that picked the first up
+        assertEquals(1, ThreadRecorder.getThreads(workOrderUri).size());
+        assertEquals(Arrays.asList(0, 1, 2, 3), ThreadRecorder.getChainLengths(workOrderUri));
+    }
+
+    @Test
+    public void testSubWorkflowChainsLocally() {
+        String subUri = "workflow://myworkflow/xSubChain";
+        putChainWorkflow(subUri);
+        List<Step> steps = new ArrayList<>();
+        Step call = new Step();
+        call.setName("call");
+        call.setExecutable(subUri);
+        call.setTransitions(WorkflowFactory.createTransition("ok", "last"));
+        steps.add(call);
+        steps.add(makeRecorderStep("last", null));
+
+        String wuri = "workflow://myworkflow/xCallChain";
+        Workflow workflow = new Workflow();
+        workflow.setSteps(steps);
+        workflow.setWorkflowURI(wuri);
+        workflow.setStartStep("call");
+        workflow.setCategory(PipelineConstants.CATEGORY_ALPHA);
+        Kernel.getDecision().putWorkflow(CONTEXT, workflow);
+
+        final String workOrderUri = Kernel.getDecision().createWorkOrder(CONTEXT, wuri, null);
+        waitForFinish(workOrderUri);
+        assertEquals(5, ThreadRecorder.countRuns(workOrderUri));
+        assertEquals(1, ThreadRecorder.getThreads(workOrderUri).size());
+    }
+
+    @Test
+    public void testChainDepthLimit() {
+        String wuri = "workflow://myworkflow/xShortChain";
+        putChainWorkflow(wuri);
+        int depth = ConfigLoader.getConf().WorkflowLocalChainDepth;
+        ConfigLoader.getConf().WorkflowLocalChainDepth = 1;
+        try {
+            final String workOrderUri = Kernel.getDecision().createWorkOrder(CONTEXT, wuri, null);
+            waitForFinish(workOrderUri);
+            assertEquals(4, ThreadRecorder.countRuns(workOrderUri));
+            // after one step run locally the worker goes back through the pipeline, so three comes off it and four is chained from there
+            assertEquals(Arrays.asList(0, 1, 0, 1), ThreadRecorder.getChainLengths(workOrderUri));
+            List<StepRecord> records = getStepRecords(workOrderUri);
+            assertEquals(4, records.size());
+            for (StepRecord record : records) {
+                assertEquals(WorkOrderExecutionState.FINISHED, record.getStatus());
+            }
+        } finally {
+            ConfigLoader.getConf().WorkflowLocalChainDepth = depth;
+        }
+    }
+
+    private void waitForFinish(final String workOrderUri) {
+        assertNotNull(workOrderUri);
+        WaitingTestHelper.retry(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(WorkOrderExecutionState.FINISHED, Kernel.getDecision().getWorkOrderStatus(CONTEXT, workOrderUri).getStatus());
+            }
+        }, MAX_WAIT);
+    }
+
+    private static Step makeRecorderStep(String name, String next) {
+        Step step = new Step();
+        step.setName(name);
+        step.setExecutable(new RaptureURI.Builder(Scheme.DP_JAVA_INVOCABLE, "ThreadRecorder").build().toString());
+        step.setTransitions(next == null ? new ArrayList<Transition>() : WorkflowFactory.createTransition("ok", next));
+        return step;
+    }
+
+    private static void putChainWorkflow(String uri) {
+        List<Step> steps = new ArrayList<>();
+        steps.add(makeRecorderStep("one", "two"));
+        steps.add(makeRecorderStep("two", "three"));
+        steps.add(makeRecorderStep("three", "four"));
+        steps.add(makeRecorderStep("four", null));
+
+        Workflow workflow = new Workflow();
+        workflow.setSteps(steps);
+        workflow.setWorkflowURI(uri);
+        workflow.setStartStep("one");
+        workflow.setCategory(PipelineConstants.CATEGORY_ALPHA);
+        Kernel.getDecision().putWorkflow(CONTEXT, workflow);
+    }
+
     private static String putWorkflow() {
         List<Step> steps = new ArrayList<>();
         Step step1 = new Step();
@@ -0,0 +1,90 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.dp.invocable;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import rapture.common.CallingContext;
+import rapture.common.dp.AbstractInvocable;
+import rapture.dp.DefaultDecisionProcessExecutor;
+
+/**
+ * Test step that notes which thread ran it, and how far along a local chain of steps that thread was
+ */
+public class ThreadRecorder extends AbstractInvocable {
+    private static final List<String[]> runs = Lists.newArrayList();
+
+    public ThreadRecorder(String workerURI, String stepName) {
+        super(workerURI, stepName);
+    }
+
+    @Override
+    public String invoke(CallingContext ctx) {
+        synchronized (runs) {
+            runs.add(new String[] { getWorkerURI(), Thread.currentThread().getName(),
+                    Integer.toString(DefaultDecisionProcessExecutor.getLocalChainLength()) });
+        }
+        return "ok";
+    }
+
+    public static int countRuns(String workOrderURI) {
+        int count = 0;
+        synchronized (runs) {
+            for (String[] run : runs) {
+                if (run[0].startsWith(workOrderURI)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public static Set<String> getThreads(String workOrderURI) {
+        Set<String> threads = Sets.newHashSet();
+        synchronized (runs) {
+            for (String[] run : runs) {
+                if (run[0].startsWith(workOrderURI)) {
+                    threads.add(run[1]);
+                }
+            }
+        }
+        return threads;
+    }
+
+    public static List<Integer> getChainLengths(String workOrderURI) {
+        List<Integer> lengths = Lists.newArrayList();
+        synchronized (runs) {
+            for (String[] run : runs) {
+                if (run[0].startsWith(workOrderURI)) {
+                    lengths.add(Integer.valueOf(run[2]));
+                }
+            }
+        }
+        return lengths;
+    }
+}
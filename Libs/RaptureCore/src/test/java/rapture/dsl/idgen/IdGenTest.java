@@ -24,9 +24,17 @@
 package rapture.dsl.idgen;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
+
 public class IdGenTest {
     @Test
     public void testIdGen() {
@@ -45,4 +53,50 @@ public class IdGenTest {
         result = f.incrementIdGen(655030524L);
         assertEquals("OI-YOMAMA", result);
     }
+
+    @Test
+    public void testBlockReservation() {
+        RaptureIdGen f = IdGenFactory.getIdGen("IDGEN { length=\"4\", blockSize=\"10\" } USING MEMORY {}");
+        assertEquals("0001", f.incrementIdGen(1L));
+        assertEquals("0003", f.incrementIdGen(2L));
+        // the whole block has been taken from the store
+        assertEquals(10L, f.getIdGenStore().getNextIdGen(0L).longValue());
+
+        // another server (or this one after a restart) starts after the reserved block
+        RaptureIdGen g = new RaptureIdGen();
+        g.setIdGenStore(f.getIdGenStore());
+        g.setProcessorConfig(ImmutableMap.of("length", "4", "blockSize", "10"));
+        assertEquals("0011", g.incrementIdGen(1L));
+        assertEquals("0004", f.incrementIdGen(1L));
+
+        // asking for more than is left skips to a new block
+        assertEquals("0027", f.incrementIdGen(7L));
+
+        f.resetIdGen(100L);
+        assertEquals("0101", f.incrementIdGen(1L));
+    }
+
+    @Test
+    public void testBlockReservationIsThreadSafe() throws InterruptedException {
+        final RaptureIdGen f = IdGenFactory.getIdGen("IDGEN { length=\"8\", blockSize=\"7\" } USING MEMORY {}");
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        ids.add(f.incrementIdGen(1L));
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(8000, ids.size());
+        assertTrue(f.getIdGenStore().getNextIdGen(0L) >= 8000L);
+    }
 }
@@ -83,4 +83,36 @@ public class IndexQueryFactoryTest {
         }
     }
 
+    @Test
+    public void testParsedQueriesAreSharedAndFrozen() {
+        IndexQuery iq = IndexQueryFactory.parseQuery("Select x, y where x > 1 and y = \"a\" order by x limit 5");
+        Assert.assertSame(iq, IndexQueryFactory.parseQuery("Select x, y where x > 1 and y = \"a\" order by x limit 5"));
+        Assert.assertTrue(iq.isFrozen());
+        Assert.assertEquals(2, iq.getSelect().getFieldList().size());
+        Assert.assertEquals(1, iq.getWhere().getExtensions().size());
+        try {
+            iq.setLimit(10);
+            Assert.fail("Shared query was modified");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(5, iq.getLimit());
+        }
+        try {
+            iq.getSelect().add("z");
+            Assert.fail("Shared query was modified");
+        } catch (UnsupportedOperationException e) {
+            Assert.assertEquals(2, iq.getSelect().getFieldList().size());
+        }
+    }
+
+    @Test
+    public void testBadQueriesAreNotCached() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                IndexQueryFactory.parseQuery("Select x order by x should cause an error");
+                Assert.fail("Didn't spot the garbage");
+            } catch (Exception e) {
+                Assert.assertEquals("Unexpected token should found in Select x order by x should cause an error", e.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.exchange.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import rapture.common.RapturePipelineTask;
+import rapture.common.exception.RaptureException;
+import rapture.common.model.RaptureExchange;
+import rapture.common.model.RaptureExchangeQueue;
+import rapture.exchange.QueueHandler;
+
+public class ExchangeRouterTest {
+    private ExchangeRouter router;
+
+    @After
+    public void tearDown() {
+        if (router != null) router.shutdown();
+    }
+
+    private ExchangeRouter makeRouter(String consumers, String queueSize, String whenFull) {
+        RaptureExchangeQueue queue = new RaptureExchangeQueue();
+        queue.setName("default");
+        queue.setRouteBindings(new ArrayList<String>());
+        RaptureExchange exchange = new RaptureExchange();
+        exchange.setName("test");
+        exchange.setQueueBindings(Collections.singletonList(queue));
+        router = new ExchangeRouter(exchange, ImmutableMap.of(ExchangeRouter.CONSUMERS, consumers, ExchangeRouter.QUEUE_SIZE, queueSize,
+                ExchangeRouter.WHEN_FULL, whenFull));
+        router.bindQueues(exchange);
+        return router;
+    }
+
+    private static RapturePipelineTask makeTask() {
+        RapturePipelineTask task = new RapturePipelineTask();
+        task.setContentType("text/plain");
+        return task;
+    }
+
+    @Test
+    public void testConsumerPoolIsFixed() throws InterruptedException {
+        makeRouter("3", "1000", ExchangeRouter.CALLER_RUNS);
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch done = new CountDownLatch(200);
+        router.registerQueueHandler("default", new QueueHandler() {
+            @Override
+            public boolean handleMessage(String tag, String routing, String contentType, RapturePipelineTask task) {
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+                return true;
+            }
+        });
+        for (int i = 0; i < 200; i++) {
+            router.putItemOnExchange(makeTask(), null);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(threads.size() <= 3);
+    }
+
+    @Test
+    public void testHandlersAreUsedInTurn() throws InterruptedException {
+        makeRouter("1", "1000", ExchangeRouter.CALLER_RUNS);
+        final CountDownLatch done = new CountDownLatch(10);
+        final List<AtomicInteger> counts = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final AtomicInteger count = new AtomicInteger();
+            counts.add(count);
+            router.registerQueueHandler("default", new QueueHandler() {
+                @Override
+                public boolean handleMessage(String tag, String routing, String contentType, RapturePipelineTask task) {
+                    count.incrementAndGet();
+                    done.countDown();
+                    return true;
+                }
+            });
+        }
+        for (int i = 0; i < 10; i++) {
+            router.putItemOnExchange(makeTask(), "");
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(5, counts.get(0).get());
+        assertEquals(5, counts.get(1).get());
+    }
+
+    @Test
+    public void testFullQueueIsRejected() throws InterruptedException {
+        makeRouter("1", "1", ExchangeRouter.REJECT);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        router.registerQueueHandler("default", new QueueHandler() {
+            @Override
+            public boolean handleMessage(String tag, String routing, String contentType, RapturePipelineTask task) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        });
+        router.putItemOnExchange(makeTask(), null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        router.putItemOnExchange(makeTask(), null);
+        assertEquals(1, router.getQueueDepth("default"));
+        try {
+            router.putItemOnExchange(makeTask(), null);
+            fail("Full queue accepted a task");
+        } catch (RaptureException e) {
+            assertEquals(503, e.getStatus().intValue());
+        } finally {
+            release.countDown();
+        }
+    }
+}
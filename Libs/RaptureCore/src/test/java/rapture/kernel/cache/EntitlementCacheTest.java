@@ -0,0 +1,106 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.kernel.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rapture.common.CallingContext;
+import rapture.common.impl.jackson.MD5Utils;
+import rapture.common.model.RaptureEntitlementGroup;
+import rapture.common.model.RaptureEntitlementGroupStorage;
+import rapture.config.ConfigLoader;
+import rapture.config.RaptureConfig;
+import rapture.kernel.ContextFactory;
+import rapture.kernel.Kernel;
+import rapture.notification.NotificationMessage;
+
+public class EntitlementCacheTest {
+    private CallingContext context;
+    private EntitlementCache cache;
+    private String suffix;
+
+    @Before
+    public void setUp() {
+        RaptureConfig.setLoadYaml(false);
+        ConfigLoader.getConf();
+        System.setProperty("LOGSTASH-ISENABLED", "false");
+        Kernel.INSTANCE.restart();
+        Kernel.initBootstrap();
+        context = ContextFactory.getKernelUser();
+        cache = Kernel.getEntitlementCache();
+        suffix = Long.toString(System.nanoTime());
+    }
+
+    @Test
+    public void testEntitlementChangesAreSeen() {
+        String entName = "/cacheTest" + suffix + "/ent";
+        String groupName = "cacheGroup" + suffix;
+        String user = "cacheUser" + suffix;
+
+        assertFalse(cache.getEntitlement(entName).exists());
+        assertNull(cache.getGroup(groupName));
+
+        Kernel.getEntitlement().addEntitlementGroup(context, groupName);
+        Kernel.getEntitlement().addEntitlement(context, entName, groupName);
+        assertTrue(cache.getEntitlement(entName).exists());
+        assertEquals(1, cache.getEntitlement(entName).getGroups().size());
+        assertTrue(cache.getGroup(groupName).getUsers().isEmpty());
+
+        Kernel.getAdmin().addUser(context, user, "Cache User", MD5Utils.hash16(user), "cache@test.com");
+        Kernel.getEntitlement().addUserToEntitlementGroup(context, groupName, user);
+        assertTrue(cache.getGroup(groupName).getUsers().contains(user));
+        assertFalse(cache.isRootUser(user));
+
+        Kernel.getEntitlement().removeGroupFromEntitlement(context, entName, groupName);
+        assertTrue(cache.getEntitlement(entName).getGroups().isEmpty());
+
+        Kernel.getEntitlement().deleteEntitlement(context, entName);
+        assertFalse(cache.getEntitlement(entName).exists());
+    }
+
+    @Test
+    public void testRemoteChangeEvicts() {
+        String groupName = "remoteGroup" + suffix;
+        Kernel.getEntitlement().addEntitlementGroup(context, groupName);
+        assertTrue(cache.getGroup(groupName).getUsers().isEmpty());
+
+        // a change made on another instance arrives only as a notification
+        RaptureEntitlementGroup group = RaptureEntitlementGroupStorage.readByFields(groupName);
+        group.getUsers().add("remoteUser");
+        RaptureEntitlementGroupStorage.add(group, context.getUser(), "remote change");
+        assertTrue(cache.getGroup(groupName).getUsers().isEmpty());
+
+        NotificationMessage message = new NotificationMessage();
+        message.getAttributes().put("kind", "group");
+        message.getAttributes().put("name", groupName);
+        cache.signalMessage(message);
+        assertTrue(cache.getGroup(groupName).getUsers().contains("remoteUser"));
+    }
+}
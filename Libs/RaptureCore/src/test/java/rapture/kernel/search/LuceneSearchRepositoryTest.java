@@ -0,0 +1,175 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.kernel.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.MediaType;
+
+import rapture.common.BlobUpdateObject;
+import rapture.common.DocUpdateObject;
+import rapture.common.RaptureURI;
+import rapture.common.Scheme;
+import rapture.common.SearchHit;
+import rapture.common.SearchResponse;
+import rapture.common.model.DocumentMetadata;
+import rapture.common.model.DocumentWithMeta;
+import rapture.common.series.SeriesUpdateObject;
+import rapture.kernel.file.FileRepoUtils;
+import rapture.search.SearchRepoType;
+
+public class LuceneSearchRepositoryTest {
+    private LuceneSearchRepository repo;
+
+    @Before
+    public void setUp() {
+        repo = new LuceneSearchRepository();
+        // a fresh index for every test, refreshed by hand
+        repo.setConfig(ImmutableMap.of(FileRepoUtils.PREFIX, "/tmp/LuceneSearchRepositoryTest", LuceneSearchRepository.INDEX,
+                "index" + System.nanoTime(), LuceneSearchRepository.REFRESH_MILLIS, "60000"));
+        repo.start();
+    }
+
+    @Test
+    public void testDocPut() throws IOException {
+        String docPath = "dubnation/d2/d1";
+        repo.put(new DocUpdateObject(createDocument("document://" + docPath, "{\"k1\":\"v1\",\"nested\":{\"k2\":\"deep value\"}}")));
+        repo.refresh();
+
+        SearchResponse r = repo.search(Arrays.asList(Scheme.DOCUMENT.toString()), "v1");
+        assertEquals(1L, r.getTotal().longValue());
+        SearchHit hit = r.getSearchHits().get(0);
+        assertEquals("document", hit.getIndexType());
+        assertEquals("document://" + docPath, hit.getId());
+        assertEquals("document://" + docPath, hit.getUri());
+        assertEquals("{\"k1\":\"v1\",\"nested\":{\"k2\":\"deep value\"}}", hit.getSource());
+
+        assertEquals(1L, repo.search(Arrays.asList(Scheme.DOCUMENT.toString()), "nested.k2:deep").getTotal().longValue());
+        assertEquals(0L, repo.search(Arrays.asList(Scheme.DOCUMENT.toString()), "k1:deep").getTotal().longValue());
+
+        r = repo.search(Arrays.asList(SearchRepoType.uri.toString()), "d2");
+        assertEquals(1L, r.getTotal().longValue());
+        assertEquals(SearchRepoType.uri.toString(), r.getSearchHits().get(0).getIndexType());
+        assertTrue(r.getSearchHits().get(0).getSource().contains("\"parts\":[\"d2\",\"d1\"]"));
+
+        r = repo.search(Arrays.asList(SearchRepoType.meta.toString()), "comment");
+        assertEquals(1L, r.getTotal().longValue());
+
+        // writing the document again replaces its entries
+        repo.put(new DocUpdateObject(createDocument("document://" + docPath, "{\"k1\":\"v2\"}")));
+        repo.refresh();
+        assertEquals(0L, repo.search(null, "v1").getTotal().longValue());
+        assertEquals(1L, repo.search(null, "v2").getTotal().longValue());
+    }
+
+    @Test
+    public void testSeriesPutAccumulates() throws IOException {
+        String docPath = "testme/x/y";
+        repo.put(new SeriesUpdateObject(docPath, Arrays.asList("k1"), Arrays.asList("v1")));
+        // no refresh in between, the second update must still see the first
+        repo.put(new SeriesUpdateObject(docPath, Arrays.asList("k2"), Arrays.asList("v2")));
+        repo.refresh();
+        SearchResponse r = repo.search(Arrays.asList(Scheme.SERIES.toString()), "v1");
+        assertEquals(1L, r.getTotal().longValue());
+        assertEquals("{\"k1\":\"v1\",\"k2\":\"v2\"}", r.getSearchHits().get(0).getSource());
+    }
+
+    @Test
+    public void testCursorAndRemove() throws IOException {
+        insertTestDocs("unittest", 100);
+        insertTestDocs("other", 5);
+
+        Set<String> seen = new HashSet<>();
+        SearchResponse r = repo.searchForRepoUris(Scheme.DOCUMENT.toString(), "unittest", null);
+        assertEquals(100L, r.getTotal().longValue());
+        while (!r.getSearchHits().isEmpty()) {
+            assertEquals(10, r.getSearchHits().size());
+            for (SearchHit hit : r.getSearchHits()) {
+                assertTrue(seen.add(hit.getUri()));
+            }
+            r = repo.searchForRepoUris(Scheme.DOCUMENT.toString(), "unittest", r.getCursorId());
+        }
+        assertEquals(100, seen.size());
+
+        for (String uri : seen) {
+            repo.remove(new RaptureURI(uri));
+        }
+        repo.refresh();
+        assertEquals(5L, repo.search(Arrays.asList(Scheme.DOCUMENT.toString()), "trying").getTotal().longValue());
+    }
+
+    @Test
+    public void testDropIndexForRepo() throws IOException {
+        insertTestDocs("unittest", 20);
+        insertTestDocs("other", 5);
+        repo.dropIndexForRepo("document://unittest");
+        repo.refresh();
+        assertEquals(5L, repo.search(null, "trying").getTotal().longValue());
+        assertEquals(0L, repo.search(null, "repo:unittest").getTotal().longValue());
+    }
+
+    @Test
+    public void testSearchBlob() throws IOException {
+        String csv = "1,Leicester City,36,30,77\n2,Tottenham Hotspur,36,39,70\n";
+        RaptureURI uri = new RaptureURI.Builder(Scheme.BLOB, "unittest").docPath("English/Premier").build();
+        repo.put(new BlobUpdateObject(uri, csv.getBytes(StandardCharsets.UTF_8), MediaType.CSV_UTF_8.toString()));
+        repo.refresh();
+        SearchResponse r = repo.searchWithCursor(Arrays.asList(""), null, 10, "blob:*City");
+        assertEquals(1, r.getSearchHits().size());
+        assertEquals(uri.toString(), r.getSearchHits().get(0).getUri());
+        assertEquals(1L, repo.search(Arrays.asList(SearchRepoType.meta.toString()), "mimetype:csv").getTotal().longValue());
+    }
+
+    private void insertTestDocs(String authority, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            String json = "{\"user\":\"user" + i + "\",\"postDate\":\"2014-01-30\",\"message\":\"trying out search\"}";
+            repo.put(new DocUpdateObject(createDocument("document://" + authority + "/doc" + i, json)));
+        }
+        repo.refresh();
+    }
+
+    private DocumentWithMeta createDocument(String semanticUri, String json) {
+        DocumentWithMeta d = new DocumentWithMeta();
+        DocumentMetadata dm = new DocumentMetadata();
+        dm.setComment("comment");
+        dm.setUser("user");
+        dm.setVersion(1);
+        dm.setSemanticUri(semanticUri);
+        d.setMetaData(dm);
+        d.setContent(json);
+        d.setDisplayName(semanticUri);
+        return d;
+    }
+}
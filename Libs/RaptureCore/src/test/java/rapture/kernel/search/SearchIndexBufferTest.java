@@ -0,0 +1,202 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.kernel.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.base.Function;
+
+import rapture.common.AbstractUpdateObject;
+import rapture.common.DocUpdateObject;
+import rapture.common.RaptureURI;
+import rapture.common.SearchResponse;
+import rapture.common.model.DocumentMetadata;
+import rapture.common.model.DocumentWithMeta;
+import rapture.common.series.SeriesUpdateObject;
+
+public class SearchIndexBufferTest {
+    private static final String SEARCH_REPO = "search://buffer";
+
+    private final RecordingSearchRepository repo = new RecordingSearchRepository();
+
+    private SearchIndexBuffer buffer(int batchSize, long flushMillis) {
+        return new SearchIndexBuffer(new Function<String, SearchRepository>() {
+            @Override
+            public SearchRepository apply(String searchRepo) {
+                return repo;
+            }
+        }, batchSize, flushMillis, batchSize * 10);
+    }
+
+    @Test
+    public void testFlushesFullBatchesInBulk() {
+        SearchIndexBuffer buffer = buffer(10, 0);
+        for (int i = 0; i < 25; i++) {
+            buffer.put(SEARCH_REPO, doc("document://buffer/doc" + i, "{\"i\":" + i + "}"));
+        }
+        assertEquals(2, repo.batches.size());
+        assertEquals(10, repo.batches.get(0).size());
+        assertEquals(5, buffer.pending(SEARCH_REPO));
+
+        buffer.shutdown();
+        assertEquals(3, repo.batches.size());
+        assertEquals(5, repo.batches.get(2).size());
+        assertEquals(0, buffer.pending(SEARCH_REPO));
+    }
+
+    @Test
+    public void testLastWriteWins() {
+        SearchIndexBuffer buffer = buffer(100, 0);
+        buffer.put(SEARCH_REPO, doc("document://buffer/a", "{\"v\":1}"));
+        buffer.put(SEARCH_REPO, doc("document://buffer/b", "{\"v\":1}"));
+        buffer.put(SEARCH_REPO, doc("document://buffer/a", "{\"v\":2}"));
+        buffer.remove(SEARCH_REPO, new RaptureURI("document://buffer/b"));
+        assertEquals(2, buffer.pending(SEARCH_REPO));
+        buffer.flush(SEARCH_REPO);
+
+        assertEquals(Arrays.asList(new RaptureURI("document://buffer/b")), repo.removes);
+        assertEquals(1, repo.puts.size());
+        assertEquals("{\"v\":2}", ((DocUpdateObject) repo.puts.get(0)).getPayload().getContent());
+    }
+
+    @Test
+    public void testSeriesPointsAreMerged() {
+        SearchIndexBuffer buffer = buffer(100, 0);
+        buffer.put(SEARCH_REPO, new SeriesUpdateObject("buffer/s", Arrays.asList("k1", "k2"), Arrays.asList("v1", "v2")));
+        buffer.put(SEARCH_REPO, new SeriesUpdateObject("buffer/s", Arrays.asList("k2", "k3"), Arrays.asList("w2", "w3")));
+        buffer.flush(SEARCH_REPO);
+
+        assertEquals(1, repo.puts.size());
+        Map<String, String> points = ((SeriesUpdateObject) repo.puts.get(0)).asStringMap();
+        assertEquals(3, points.size());
+        assertEquals("w2", points.get("k2"));
+    }
+
+    @Test
+    public void testRemoveThenWriteKeepsBoth() {
+        SearchIndexBuffer buffer = buffer(100, 0);
+        buffer.remove(SEARCH_REPO, new RaptureURI("series://buffer/s"));
+        buffer.put(SEARCH_REPO, new SeriesUpdateObject("buffer/s", Arrays.asList("k1"), Arrays.asList("v1")));
+        buffer.flush(SEARCH_REPO);
+        assertEquals(1, repo.removes.size());
+        assertEquals(1, repo.puts.size());
+    }
+
+    @Test
+    public void testTimedFlush() throws InterruptedException {
+        SearchIndexBuffer buffer = buffer(100, 50);
+        buffer.put(SEARCH_REPO, doc("document://buffer/timed", "{}"));
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (repo.puts.isEmpty() && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, repo.puts.size());
+        assertEquals(0, buffer.pending(SEARCH_REPO));
+        buffer.shutdown();
+    }
+
+    @Test
+    public void testFailedBulkIsAppliedSingly() {
+        repo.failBulk = true;
+        SearchIndexBuffer buffer = buffer(2, 0);
+        buffer.put(SEARCH_REPO, doc("document://buffer/a", "{}"));
+        buffer.put(SEARCH_REPO, doc("document://buffer/b", "{}"));
+        assertTrue(repo.batches.isEmpty());
+        assertEquals(2, repo.puts.size());
+    }
+
+    private static DocUpdateObject doc(String uri, String json) {
+        DocumentWithMeta d = new DocumentWithMeta();
+        DocumentMetadata dm = new DocumentMetadata();
+        dm.setSemanticUri(uri);
+        d.setMetaData(dm);
+        d.setContent(json);
+        return new DocUpdateObject(d);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static class RecordingSearchRepository implements SearchRepository {
+        private final List<List<AbstractUpdateObject>> batches = new ArrayList<>();
+        private final List<AbstractUpdateObject> puts = new ArrayList<>();
+        private final List<RaptureURI> removes = new ArrayList<>();
+        private boolean failBulk;
+
+        @Override
+        public synchronized void bulkUpdate(List<RaptureURI> removes, List<AbstractUpdateObject> puts) {
+            if (failBulk) throw new IllegalStateException("bulk update failed");
+            batches.add(puts);
+            this.removes.addAll(removes);
+            this.puts.addAll(puts);
+        }
+
+        @Override
+        public synchronized void put(AbstractUpdateObject updateObject) {
+            puts.add(updateObject);
+        }
+
+        @Override
+        public synchronized void remove(RaptureURI uri) {
+            removes.add(uri);
+        }
+
+        @Override
+        public void setInstanceName(String instanceName) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public SearchResponse search(List<String> types, String query) {
+            return null;
+        }
+
+        @Override
+        public SearchResponse searchWithCursor(List<String> types, String cursorId, int size, String query) {
+            return null;
+        }
+
+        @Override
+        public void setConfig(Map<String, String> config) {
+        }
+
+        @Override
+        public void dropIndexForRepo(String repoName) {
+        }
+
+        @Override
+        public SearchResponse searchForRepoUris(String scheme, String repo, String cursorId) {
+            return null;
+        }
+    }
+}
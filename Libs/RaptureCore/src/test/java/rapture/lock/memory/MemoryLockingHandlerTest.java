@@ -0,0 +1,137 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.lock.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rapture.common.LockHandle;
+
+public class MemoryLockingHandlerTest {
+    private MemoryLockingHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = new MemoryLockingHandler();
+    }
+
+    @Test
+    public void testAcquireAndRelease() {
+        LockHandle handle = handler.acquireLock("one", "/lock/a", 0, 60);
+        assertNotNull(handle);
+        assertNull(handler.acquireLock("two", "/lock/a", 0, 60));
+        // other names are independent
+        assertNotNull(handler.acquireLock("two", "/lock/b", 0, 60));
+
+        assertFalse(handler.releaseLock("two", "/lock/a", handle));
+        assertTrue(handler.releaseLock("one", "/lock/a", handle));
+        assertFalse(handler.releaseLock("one", "/lock/a", handle));
+        assertNotNull(handler.acquireLock("two", "/lock/a", 0, 60));
+
+        assertTrue(handler.forceReleaseLock("/lock/a"));
+        assertFalse(handler.forceReleaseLock("/lock/a"));
+    }
+
+    @Test
+    public void testWaiterIsWokenOnRelease() throws InterruptedException {
+        final LockHandle handle = handler.acquireLock("one", "/lock/wake", 0, 60);
+        final AtomicReference<LockHandle> acquired = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acquired.set(handler.acquireLock("two", "/lock/wake", 30, 60));
+                done.countDown();
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        long released = System.nanoTime();
+        handler.releaseLock("one", "/lock/wake", handle);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(acquired.get());
+        // no polling interval to sit out
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - released) < 900);
+    }
+
+    @Test
+    public void testExpiredLockIsTakenOver() {
+        assertNotNull(handler.acquireLock("one", "/lock/expire", 0, 1));
+        long start = System.currentTimeMillis();
+        assertNotNull(handler.acquireLock("two", "/lock/expire", 5, 60));
+        assertTrue(System.currentTimeMillis() - start < 3000);
+        // the old holder no longer owns it
+        assertFalse(handler.releaseLock("one", "/lock/expire", null));
+    }
+
+    @Test
+    public void testWaitTimesOut() {
+        assertNotNull(handler.acquireLock("one", "/lock/timeout", 0, 60));
+        long start = System.currentTimeMillis();
+        assertNull(handler.acquireLock("two", "/lock/timeout", 1, 60));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    public void testMutualExclusionUnderContention() throws InterruptedException {
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final String holder = "holder" + i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        LockHandle handle = handler.acquireLock(holder, "/lock/busy", 30, 60);
+                        if (handle == null || inside.incrementAndGet() != 1) {
+                            failures.incrementAndGet();
+                        }
+                        count.incrementAndGet();
+                        inside.decrementAndGet();
+                        handler.releaseLock(holder, "/lock/busy", handle);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(4000, count.get());
+    }
+}
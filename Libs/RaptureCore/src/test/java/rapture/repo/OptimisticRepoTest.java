@@ -0,0 +1,175 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rapture.common.model.DocumentMetadata;
+import rapture.common.model.DocumentWithMeta;
+import rapture.lock.memory.MemoryLockingHandler;
+import rapture.repo.mem.MemKeyStore;
+
+public class OptimisticRepoTest {
+    private NVersionedRepo repo;
+
+    @Before
+    public void setup() {
+        Map<String, String> config = new HashMap<String, String>();
+        KeyStore store = new MemKeyStore();
+        store.setConfig(config);
+        KeyStore meta = new MemKeyStore();
+        meta.setConfig(config);
+        KeyStore version = new MemKeyStore();
+        version.setConfig(config);
+        KeyStore attribute = new MemKeyStore();
+        attribute.setConfig(config);
+        Map<String, String> repoConfig = new HashMap<String, String>();
+        repoConfig.put(RepoLockHandler.LOCK_MODE, "optimistic");
+        repo = new NVersionedRepo(repoConfig, store, version, meta, attribute, new MemoryLockingHandler());
+    }
+
+    @Test
+    public void testSequentialWrites() {
+        assertEquals(1, repo.addDocument("doc", "1", "alan", "v1", false).getMetaData().getVersion().intValue());
+        assertEquals(2, repo.addDocument("doc", "2", "alan", "v2", false).getMetaData().getVersion().intValue());
+        // unchanged content writes nothing
+        assertNull(repo.addDocument("doc", "2", "alan", "again", false));
+        assertEquals("2", repo.getDocument("doc"));
+
+        assertTrue(repo.removeDocument("doc", "alan", "gone"));
+        assertNull(repo.getDocument("doc"));
+        assertFalse(repo.removeDocument("doc", "alan", "gone again"));
+
+        DocumentWithMeta recreated = repo.addDocument("doc", "3", "alan", "back", false);
+        assertEquals(5, recreated.getMetaData().getVersion().intValue());
+        assertEquals("3", repo.getDocument("doc"));
+        assertEquals("1", repo.getMetaHandler().getDocumentWithMeta("doc", 1).getContent());
+    }
+
+    @Test
+    public void testConcurrentWritersClaimDistinctVersions() throws Exception {
+        repo.addDocument("doc", "start", "alan", "v1", false);
+        final int writers = 8;
+        final int writes = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<List<Integer>>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            futures.add(executor.submit(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() {
+                    List<Integer> versions = new ArrayList<>();
+                    for (int i = 0; i < writes; i++) {
+                        versions.add(repo.addDocument("doc", writer + "-" + i, "alan", "", false).getMetaData().getVersion());
+                    }
+                    return versions;
+                }
+            }));
+        }
+        Set<Integer> claimed = new HashSet<>();
+        for (Future<List<Integer>> future : futures) {
+            for (Integer version : future.get()) {
+                assertTrue("Version " + version + " claimed twice", claimed.add(version));
+            }
+        }
+        executor.shutdown();
+
+        int last = 1 + writers * writes;
+        assertEquals(writers * writes, claimed.size());
+        DocumentMetadata latest = repo.getMeta("doc", null);
+        assertEquals(last, latest.getVersion().intValue());
+        // whoever finished last, the document holds the content of the latest version
+        assertEquals(repo.getMetaHandler().getDocumentWithMeta("doc", last).getContent(), repo.getDocument("doc"));
+    }
+
+    @Test
+    public void testExpectedVersionWritesRaceOptimisticWriters() throws Exception {
+        repo.addDocument("doc", "start", "alan", "v1", false);
+        final int writers = 4;
+        final int writes = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(writers * 2);
+        List<Future<Map<Integer, String>>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            futures.add(executor.submit(new Callable<Map<Integer, String>>() {
+                @Override
+                public Map<Integer, String> call() {
+                    Map<Integer, String> written = new HashMap<>();
+                    for (int i = 0; i < writes; i++) {
+                        String content = "free-" + writer + "-" + i;
+                        written.put(repo.addDocument("doc", content, "alan", "", false).getMetaData().getVersion(), content);
+                    }
+                    return written;
+                }
+            }));
+            futures.add(executor.submit(new Callable<Map<Integer, String>>() {
+                @Override
+                public Map<Integer, String> call() {
+                    Map<Integer, String> written = new HashMap<>();
+                    for (int i = 0; i < writes; i++) {
+                        String content = "expected-" + writer + "-" + i;
+                        int expected = repo.getMeta("doc", null).getVersion();
+                        DocumentWithMeta ret = repo.addDocumentWithVersion("doc", content, "alan", "", false, expected);
+                        if (ret != null) {
+                            assertEquals(expected + 1, ret.getMetaData().getVersion().intValue());
+                            written.put(ret.getMetaData().getVersion(), content);
+                        }
+                    }
+                    return written;
+                }
+            }));
+        }
+        Map<Integer, String> claimed = new HashMap<>();
+        for (Future<Map<Integer, String>> future : futures) {
+            for (Map.Entry<Integer, String> e : future.get().entrySet()) {
+                assertNull("Version " + e.getKey() + " written twice", claimed.put(e.getKey(), e.getValue()));
+            }
+        }
+        executor.shutdown();
+
+        DocumentMetadata latest = repo.getMeta("doc", null);
+        assertEquals(1 + claimed.size(), latest.getVersion().intValue());
+        for (Map.Entry<Integer, String> e : claimed.entrySet()) {
+            assertEquals(e.getValue(), repo.getMetaHandler().getDocumentWithMeta("doc", e.getKey()).getContent());
+        }
+        assertEquals(claimed.get(latest.getVersion()), repo.getDocument("doc"));
+    }
+}
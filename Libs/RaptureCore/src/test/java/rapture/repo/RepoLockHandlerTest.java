@@ -0,0 +1,83 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import rapture.common.LockHandle;
+import rapture.lock.memory.MemoryLockingHandler;
+import rapture.repo.RepoLockHandler.LockMode;
+
+public class RepoLockHandlerTest {
+
+    private RepoLockHandler makeHandler(Map<String, String> config) {
+        return new RepoLockHandler(false, new MemoryLockingHandler(), "test", config);
+    }
+
+    @Test
+    public void testModeFromConfig() {
+        assertEquals(LockMode.REPO, makeHandler(null).getLockMode());
+        assertEquals(LockMode.REPO, makeHandler(ImmutableMap.of(RepoLockHandler.LOCK_MODE, "sideways")).getLockMode());
+        assertEquals(LockMode.STRIPED, makeHandler(ImmutableMap.of(RepoLockHandler.LOCK_MODE, "striped")).getLockMode());
+        RepoLockHandler optimistic = makeHandler(ImmutableMap.of(RepoLockHandler.LOCK_MODE, "OPTIMISTIC"));
+        assertEquals(LockMode.OPTIMISTIC, optimistic.getLockMode());
+        assertTrue(optimistic.isOptimistic());
+    }
+
+    @Test
+    public void testDocumentsInDifferentStripesDoNotBlock() {
+        // "a" and "b" hash to different stripes of two
+        RepoLockHandler handler = makeHandler(ImmutableMap.of(RepoLockHandler.LOCK_MODE, "striped", RepoLockHandler.LOCK_STRIPES, "2"));
+        LockHandle a = handler.acquireDocumentLock("one", "a");
+        assertNotNull(a);
+        LockHandle b = handler.acquireDocumentLock("two", "b#element");
+        assertNotNull(b);
+        assertTrue(handler.releaseDocumentLock("one", a, "a"));
+        assertTrue(handler.releaseDocumentLock("two", b, "b"));
+    }
+
+    @Test
+    public void testRepoLockTakesEveryStripe() {
+        RepoLockHandler handler = makeHandler(ImmutableMap.of(RepoLockHandler.LOCK_MODE, "striped", RepoLockHandler.LOCK_STRIPES, "4"));
+        LockHandle repo = handler.acquireLock("one");
+        assertNotNull(repo);
+        assertTrue(handler.releaseLock("one", repo));
+        // a handle can only be released once
+        assertFalse(handler.releaseLock("one", repo));
+
+        LockHandle doc = handler.acquireDocumentLock("two", "a");
+        assertNotNull(doc);
+        assertTrue(handler.releaseDocumentLock("two", doc, "a"));
+        assertNotNull(handler.acquireLock("three", "folder/"));
+    }
+}
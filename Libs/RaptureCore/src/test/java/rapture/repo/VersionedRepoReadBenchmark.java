@@ -0,0 +1,92 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import rapture.lock.dummy.DummyLockHandler;
+import rapture.repo.mem.MemKeyStore;
+
+/**
+ * Reads of documents four folders deep from a versioned repo holding 100k documents, through the commit tree rather than the latest-version
+ * cache. Not run as part of the unit tests, run the main method (or the JMH runner) against the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VersionedRepoReadBenchmark {
+    @Param({ "100000" })
+    public int documents;
+
+    private VersionedRepo repo;
+    private String[] paths;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> config = new HashMap<String, String>();
+        MemKeyStore store = new MemKeyStore();
+        store.setConfig(config);
+        // an empty latest-version cache, so that every read walks the commit
+        MemKeyStore cache = new MemKeyStore();
+        cache.setConfig(config);
+        repo = new VersionedRepo(config, store, cache, new DummyLockHandler());
+
+        paths = new String[documents];
+        for (int i = 0; i < documents; i++) {
+            paths[i] = "region" + (i % 4) + "/desk" + (i % 20) + "/book" + (i % 100) + "/trade" + i;
+            repo.addToStage("load", paths[i], "{\"trade\":" + i + "}", false);
+        }
+        repo.commitStage("load", "benchmark", "load");
+    }
+
+    @Benchmark
+    public String readDeepPath() {
+        return repo.getDocument(paths[ThreadLocalRandom.current().nextInt(paths.length)]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(VersionedRepoReadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
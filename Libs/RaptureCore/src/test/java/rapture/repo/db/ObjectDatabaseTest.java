@@ -0,0 +1,114 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.repo.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rapture.common.impl.jackson.JsonContent;
+import rapture.common.repo.DocumentBagObject;
+import rapture.common.repo.DocumentBagReference;
+import rapture.common.repo.DocumentObject;
+import rapture.common.repo.TreeObject;
+import rapture.repo.mem.MemKeyStore;
+
+public class ObjectDatabaseTest {
+    private ObjectDatabase objDb;
+
+    @Before
+    public void setUp() {
+        MemKeyStore store = new MemKeyStore();
+        store.setConfig(new HashMap<String, String>());
+        objDb = new ObjectDatabase(store, 1024 * 1024);
+    }
+
+    private String writeDocument(String content) {
+        DocumentObject doc = new DocumentObject();
+        doc.setContent(new JsonContent(content));
+        return objDb.writeDocument(doc);
+    }
+
+    private DocumentBagReference writeBag(String... namesAndRefs) {
+        DocumentBagObject bag = new DocumentBagObject();
+        for (int i = 0; i < namesAndRefs.length; i += 2) {
+            bag.getDocRefs().put(namesAndRefs[i], namesAndRefs[i + 1]);
+        }
+        DocumentBagReference ref = new DocumentBagReference();
+        ref.setBagRef(objDb.writeDocumentBag(bag));
+        ref.setSize(bag.getDocRefs().size());
+        return ref;
+    }
+
+    @Test
+    public void testFindDocumentAcrossBags() {
+        String one = writeDocument("{\"one\":1}");
+        String two = writeDocument("{\"two\":2}");
+        String other = writeDocument("{\"other\":3}");
+        TreeObject tree = new TreeObject();
+        tree.setDocuments(Arrays.asList(writeBag("one", one), writeBag("two", two, "one", other)));
+        String treeRef = objDb.writeTree(tree);
+
+        assertEquals(one, objDb.findDocumentRef(treeRef, "one"));
+        assertEquals(two, objDb.findDocumentRef(treeRef, "two"));
+        assertNull(objDb.findDocumentRef(treeRef, "three"));
+        assertNull(objDb.findDocumentRef("missing", "one"));
+        assertEquals("{\"two\":2}", objDb.getSharedDocument(two).getContent().toString());
+    }
+
+    @Test
+    public void testSharedObjectsAreReused() {
+        String treeRef = objDb.writeTree(new TreeObject());
+        TreeObject shared = objDb.getSharedTree(treeRef);
+        assertSame(shared, objDb.getSharedTree(treeRef));
+        // the plain getters still decode a private copy for callers that change it
+        assertNotSame(shared, objDb.getTree(treeRef));
+    }
+
+    @Test
+    public void testRewriteAndDeleteInvalidate() {
+        String doc = writeDocument("{\"a\":1}");
+        TreeObject tree = new TreeObject();
+        tree.setDocuments(Arrays.asList(writeBag("a", doc)));
+        String treeRef = objDb.writeTree(tree);
+        assertEquals(doc, objDb.findDocumentRef(treeRef, "a"));
+
+        tree.setDocuments(Arrays.asList(writeBag("b", doc)));
+        objDb.writeTree(tree, treeRef);
+        assertNull(objDb.findDocumentRef(treeRef, "a"));
+        assertEquals(doc, objDb.findDocumentRef(treeRef, "b"));
+
+        objDb.delete(Arrays.asList(treeRef, doc));
+        assertNull(objDb.getSharedTree(treeRef));
+        assertNull(objDb.findDocumentRef(treeRef, "b"));
+        assertNull(objDb.getSharedDocument(doc));
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.script.reflex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.antlr.runtime.RecognitionException;
+import org.junit.Test;
+
+import rapture.common.CallingContext;
+import rapture.kernel.ContextFactory;
+import rapture.script.reflex.ReflexParseCache.ParsedReflexScript;
+
+public class ReflexParseCacheTest {
+    private static final String URI = "script://parseCache/test";
+    private static final String SCRIPT = "def add(a, b)\n return a + b;\nend\nprintln(add(1, 2));\n";
+
+    private final CallingContext ctx = ContextFactory.getKernelUser();
+
+    @Test
+    public void testRepeatedParseIsCached() throws RecognitionException {
+        ReflexParseCache cache = new ReflexParseCache(10);
+        ParsedReflexScript first = cache.getParsed(ctx, URI, SCRIPT);
+        ParsedReflexScript second = cache.getParsed(ctx, URI, SCRIPT);
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+
+        // Each run must get its own registry so function recursion counts are not shared
+        assertNotSame(first.newLanguageRegistry(), first.newLanguageRegistry());
+    }
+
+    @Test
+    public void testChangedContentIsReparsed() throws RecognitionException {
+        ReflexParseCache cache = new ReflexParseCache(10);
+        ParsedReflexScript first = cache.getParsed(ctx, URI, SCRIPT);
+        ParsedReflexScript second = cache.getParsed(ctx, URI, SCRIPT + "println('again');\n");
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testInvalidateEvictsAllVersions() throws RecognitionException {
+        ReflexParseCache cache = new ReflexParseCache(10);
+        cache.getParsed(ctx, URI, SCRIPT);
+        cache.getParsed(ctx, URI, SCRIPT + "println('again');\n");
+        cache.getParsed(ctx, URI + "2", SCRIPT);
+        assertEquals(3, cache.size());
+        cache.invalidate(URI);
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.series;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import rapture.common.api.ScriptSeriesApi;
+
+public class CSVSeriesLoaderTest {
+    private File file;
+    private final Map<String, List<Object>> points = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("CSVSeriesLoaderTest", ".csv");
+        // records the points sent by the list calls
+        CSVSeriesLoader.setApi((ScriptSeriesApi) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ScriptSeriesApi.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        calls.incrementAndGet();
+                        String uri = (String) args[0];
+                        List<?> keys = (List<?>) args[1];
+                        List<?> values = (List<?>) args[2];
+                        assertEquals(keys.size(), values.size());
+                        synchronized (points) {
+                            if (!points.containsKey(uri)) {
+                                points.put(uri, new ArrayList<Object>());
+                            }
+                            points.get(uri).addAll(values);
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    @After
+    public void tearDown() {
+        CSVSeriesLoader.setApi(null);
+        file.delete();
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testQuotedValues() throws IOException {
+        write("date,\"price, close\",name\n2016-01-01,1.5,\"Smith, John\"\n\n2016-01-02,\"2.5\",\"say \"\"hi\"\"\"\n");
+        CSVSeriesLoader loader = CSVSeriesLoader.newBuilder().setAuthority("test").bindDecimalColumn(1, "price").bindStringColumn(2, "name").build();
+        assertEquals(4, loader.load(file));
+        assertEquals(2, points.get("series://test/price").size());
+        assertEquals(2.5, (Double) points.get("series://test/price").get(1), 0.001);
+        assertEquals("Smith, John", points.get("series://test/name").get(0));
+        assertEquals("say \"hi\"", points.get("series://test/name").get(1));
+    }
+
+    @Test
+    public void testAllAsDecimals() throws IOException {
+        write("date,a b,c\n1,1,x\n2,2,3\n");
+        CSVSeriesLoader loader = CSVSeriesLoader.newBuilder().setAuthority("test").bindAllAsDecimals("prefix/").build();
+        assertEquals(4, loader.load(file));
+        assertEquals(2, points.get("series://test/prefix/a_b").size());
+        assertTrue(((Double) points.get("series://test/prefix/c").get(0)).isNaN());
+    }
+
+    @Test
+    public void testBatches() throws IOException {
+        StringBuilder text = new StringBuilder("key,value\n");
+        for (int i = 0; i < 1005; i++) {
+            text.append(i).append(',').append(i).append('\n');
+        }
+        write(text.toString());
+        CSVSeriesLoader loader = CSVSeriesLoader.newBuilder().setAuthority("test").setBatchSize(100).setConcurrency(3).bindLongColumn(1, "values")
+                .build();
+        assertEquals(1005, loader.load(file));
+        assertEquals(11, calls.get());
+        assertEquals(1005, points.get("series://test/values").size());
+    }
+}
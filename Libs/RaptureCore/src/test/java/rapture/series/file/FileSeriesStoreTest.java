@@ -0,0 +1,134 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.series.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import rapture.common.SeriesValue;
+import rapture.kernel.file.FileRepoUtils;
+
+public class FileSeriesStoreTest {
+    private FileSeriesStore store;
+    private String prefix;
+
+    @Before
+    public void setUp() {
+        prefix = "/tmp/FileSeriesStoreTest" + System.currentTimeMillis();
+        store = new FileSeriesStore();
+        // Never compact in the background so the tests control when it happens
+        Map<String, String> config = ImmutableMap.of(FileRepoUtils.PREFIX, prefix, FileSeriesStore.COMPACT_THRESHOLD, String.valueOf(Long.MAX_VALUE));
+        store.setConfig(config);
+    }
+
+    @After
+    public void tearDown() {
+        store.drop();
+    }
+
+    @Test
+    public void testAppendsAreReadInColumnOrder() {
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 1000; i < 2000; i++) {
+            columns.add(i);
+        }
+        Collections.shuffle(columns);
+        for (int i = 0; i < 500; i++) {
+            store.addDoubleToSeries("order", columns.get(i).toString(), columns.get(i));
+        }
+        store.compact("order");
+        for (int i = 500; i < 1000; i++) {
+            store.addDoubleToSeries("order", columns.get(i).toString(), columns.get(i));
+        }
+
+        List<SeriesValue> points = store.getPoints("order");
+        assertEquals(1000, points.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(String.valueOf(1000 + i), points.get(i).getColumn());
+        }
+
+        // start column need not exist, the end column is inclusive
+        points = store.getPointsAfter("order", "1500x", "1503", 10);
+        assertEquals(3, points.size());
+        assertEquals("1501", points.get(0).getColumn());
+
+        points = store.getPointsAfterReverse("order", "1501", 3);
+        assertEquals(3, points.size());
+        assertEquals("1501", points.get(0).getColumn());
+        assertEquals("1499", points.get(2).getColumn());
+
+        assertEquals("1999", store.getLastPoint("order").getColumn());
+    }
+
+    @Test
+    public void testLaterWritesAndDeletesWin() {
+        store.addDoublesToSeries("overwrite", Arrays.asList("a", "b", "c"), Arrays.asList(1.0, 2.0, 3.0));
+        store.compact("overwrite");
+        store.addDoubleToSeries("overwrite", "b", 20.0);
+        store.deletePointsFromSeriesByPointKey("overwrite", Arrays.asList("c"));
+
+        List<SeriesValue> points = store.getPoints("overwrite");
+        assertEquals(2, points.size());
+        assertEquals(20.0, points.get(1).asDouble(), 0.0);
+        assertEquals("b", store.getLastPoint("overwrite").getColumn());
+
+        store.compact("overwrite");
+        points = store.getPoints("overwrite");
+        assertEquals(2, points.size());
+        assertEquals("a", points.get(0).getColumn());
+        assertEquals(20.0, points.get(1).asDouble(), 0.0);
+    }
+
+    @Test
+    public void testLegacyFileIsMigrated() throws Exception {
+        File legacy = FileRepoUtils.makeGenericFile(FileRepoUtils.ensureDirectory(prefix + "_series"), "legacy:");
+        Files.write(legacy.toPath(), Arrays.asList(" 02 d2.0", " 01 d1.0"), StandardCharsets.UTF_8);
+        assertTrue(new SeriesSegmentFile(legacy).isLegacy());
+
+        List<SeriesValue> points = store.getPoints("legacy");
+        assertEquals(2, points.size());
+        assertEquals("01", points.get(0).getColumn());
+        assertEquals(2.0, points.get(1).asDouble(), 0.0);
+        assertFalse(new SeriesSegmentFile(legacy).isLegacy());
+
+        store.addDoubleToSeries("legacy", "03", 3.0);
+        assertEquals(3, store.getPoints("legacy").size());
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.stat.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rapture.stat.CounterStat;
+import rapture.stat.StringStat;
+import rapture.stat.ValueOperation;
+import rapture.stat.ValueStat;
+
+public class MemoryStatStoreTest {
+
+    @Test
+    public void testHistoryKeepsMostRecent() {
+        StatHistory<Integer> history = new StatHistory<Integer>(5);
+        assertNull(history.getLast());
+        for (int i = 0; i < 12; i++) {
+            history.add(i);
+        }
+        assertEquals(5, history.size());
+        assertEquals(Integer.valueOf(11), history.getLast());
+        List<Integer> last = history.getLast(3);
+        assertEquals(3, last.size());
+        assertEquals(Integer.valueOf(9), last.get(0));
+        assertEquals(Integer.valueOf(11), last.get(2));
+        assertEquals(5, history.getLast(100).size());
+        assertEquals(Integer.valueOf(7), history.getLast(100).get(0));
+    }
+
+    @Test
+    public void testValueWindowsRollOver() {
+        TestClock clock = new TestClock();
+        ValueMemoryType sum = new ValueMemoryType("sum", ValueOperation.SUM, 1, clock);
+        ValueMemoryType average = new ValueMemoryType("average", ValueOperation.AVERAGE, 1, clock);
+        for (int i = 1; i <= 4; i++) {
+            sum.addValue(value(i));
+            average.addValue(value(i));
+        }
+        assertFalse(sum.calculate());
+        clock.advance(1001);
+        assertTrue(sum.calculate());
+        assertTrue(average.calculate());
+        assertEquals(10.0, ((ValueStat) sum.getCurrentStats()).getValue(), 0.0);
+        assertEquals(2.5, ((ValueStat) average.getCurrentStats()).getValue(), 0.0);
+
+        // the next window starts empty
+        clock.advance(1001);
+        assertTrue(sum.calculate());
+        assertEquals(0.0, ((ValueStat) sum.getCurrentStats()).getValue(), 0.0);
+        assertEquals(2, sum.getHistory(100).size());
+    }
+
+    @Test
+    public void testValueWindowWaitsForItsEnd() {
+        ValueMemoryType sum = new ValueMemoryType("sum", ValueOperation.SUM, 60);
+        sum.addValue(value(1));
+        assertFalse(sum.calculate());
+        assertNull(sum.getCurrentStats());
+    }
+
+    @Test
+    public void testConcurrentCounts() throws InterruptedException {
+        final CounterMemoryType counter = new CounterMemoryType("count");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        CounterStat c = new CounterStat();
+                        c.setValue(1L);
+                        counter.addValue(c);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(80000L, ((CounterStat) counter.getCurrentStats()).getValue().longValue());
+    }
+
+    @Test
+    public void testStringMessagesAreBounded() {
+        StringMemoryType messages = new StringMemoryType(3);
+        for (int i = 0; i < 10; i++) {
+            StringStat s = new StringStat();
+            s.setMessage("message" + i);
+            messages.addMessage(s);
+        }
+        assertEquals(3, messages.getHistory(10).size());
+        assertEquals("message9", ((StringStat) messages.getCurrentStats()).getMessage());
+    }
+
+    private static class TestClock extends Clock {
+        private long millis = 1000000L;
+
+        void advance(long by) {
+            millis += by;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    private static ValueStat value(double d) {
+        ValueStat v = new ValueStat();
+        v.setValue(d);
+        return v;
+    }
+}
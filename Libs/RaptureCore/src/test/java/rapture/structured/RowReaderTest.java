@@ -0,0 +1,82 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rapture.structured;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Test;
+
+import rapture.common.exception.RaptureException;
+
+public class RowReaderTest {
+
+    @Test
+    public void testCsv() {
+        String csv = "id, name ,notes\r\n1,plain,\n\n2,\"quoted, with \"\"quotes\"\"\",\"\"\n3,\"two\nlines\"\n";
+        RowReader rows = RowReader.create("CSV", new StringReader(csv));
+
+        Map<String, Object> row = rows.next();
+        assertEquals("1", row.get("id"));
+        assertEquals("plain", row.get("name"));
+        // an empty unquoted value is null
+        assertNull(row.get("notes"));
+        assertEquals(3, row.size());
+
+        row = rows.next();
+        assertEquals("quoted, with \"quotes\"", row.get("name"));
+        assertEquals("", row.get("notes"));
+
+        row = rows.next();
+        assertEquals("two\nlines", row.get("name"));
+        // missing values at the end of a line are null too
+        assertNull(row.get("notes"));
+        assertEquals(3, row.size());
+        assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void testJsonLines() {
+        RowReader rows = RowReader.create(RowReader.JSONL, new StringReader("{\"id\":1,\"name\":\"a\"}\n\n{\"id\":2,\"name\":null}\n"));
+        assertEquals(1, rows.next().get("id"));
+        Map<String, Object> row = rows.next();
+        assertEquals(2, row.get("id"));
+        assertNull(row.get("name"));
+        assertFalse(rows.hasNext());
+    }
+
+    @Test(expected = RaptureException.class)
+    public void testTooManyValues() {
+        RowReader.create(RowReader.CSV, new StringReader("a,b\n1,2,3\n")).next();
+    }
+
+    @Test(expected = RaptureException.class)
+    public void testUnknownFormat() {
+        RowReader.create("xml", new StringReader(""));
+    }
+}
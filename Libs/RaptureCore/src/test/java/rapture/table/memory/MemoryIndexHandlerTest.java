@@ -27,7 +27,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
@@ -325,4 +327,50 @@ public class MemoryIndexHandlerTest {
             assertTrue(String.format("Error is %s", ExceptionToString.format(e)), e.getCause() instanceof InvalidQueryException);
         }
     }
+
+    private static Map<String, Object> row(String name, Object size, String colour) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("name", name);
+        row.put("size", size);
+        row.put("colour", colour);
+        return row;
+    }
+
+    @Test
+    public void testIndexFollowsUpdates() {
+        MemoryIndexHandler handler = new MemoryIndexHandler();
+        for (int i = 0; i < 100; i++) {
+            handler.updateRow("r" + i, row("n" + i, i, (i % 2 == 0) ? "red" : "blue"));
+        }
+        String query = "SELECT name WHERE colour = \"red\" AND size > 89";
+        assertEquals(5, handler.query(query).getRows().size());
+
+        // the colour index now exists and must see these changes
+        handler.updateRow("r91", row("n91", 91, "red"));
+        handler.removeAll("r92");
+        assertEquals(5, handler.query(query).getRows().size());
+        // numbers match numeric strings
+        handler.updateRow("r93", row("n93", "93", "red"));
+        assertEquals(6, handler.query(query).getRows().size());
+    }
+
+    @Test
+    public void testDistinctOrderLimitSkip() {
+        MemoryIndexHandler handler = new MemoryIndexHandler();
+        for (int i = 0; i < 50; i++) {
+            handler.updateRow("r" + i, row("n" + (i % 10), i % 10, "red"));
+        }
+        List<List<Object>> rows = handler.query("SELECT DISTINCT name, size WHERE colour = \"red\"").getRows();
+        assertEquals(10, rows.size());
+
+        rows = handler.query("SELECT DISTINCT name, size WHERE colour = \"red\" ORDER BY size DESC LIMIT 3").getRows();
+        assertEquals(3, rows.size());
+        assertEquals(9, rows.get(0).get(1));
+        assertEquals(7, rows.get(2).get(1));
+
+        rows = handler.query("SELECT name, size WHERE colour = \"red\" ORDER BY size LIMIT 4 SKIP 5").getRows();
+        assertEquals(4, rows.size());
+        assertEquals(1, rows.get(0).get(1));
+        assertEquals(1, rows.get(3).get(1));
+    }
 }
@@ -26,15 +26,18 @@ package rapture.server.web.servlet;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
 import rapture.common.BlobContainer;
@@ -57,6 +60,8 @@ public class BlobContentServlet extends BaseServlet {
 
     private static final long serialVersionUID = 1L;
     private static final String BLOB_URI_PREFIX = "blob://";
+    private static final String BYTES_UNIT = "bytes";
+    private static final long[] UNSATISFIABLE = new long[] { -1L, -1L };
     private static Logger log = Logger.getLogger(BlobContentServlet.class);
     private String blobRepo;
     private boolean checkCredentials = false;
@@ -147,7 +152,7 @@ public class BlobContentServlet extends BaseServlet {
             if (blobPath.startsWith("/t/app/")) {
                 streamTemplatedBlob(resp, blobPath.substring(2), callingContext);
             } else {
-                streamBlob(resp, blobPath, callingContext, true);
+                serveBlob(req, resp, blobPath, callingContext);
             }
         } catch (Exception e) {
             response = handleUnexpectedException(e);
@@ -155,6 +160,100 @@ public class BlobContentServlet extends BaseServlet {
         }
     }
 
+    /**
+     * Serve a top level blob. Unless it needs templating the content is streamed straight from the blob store rather than loaded into memory, and a
+     * single byte range may be requested with a Range header, so large files can be fetched in pieces or resumed.
+     */
+    private void serveBlob(HttpServletRequest req, HttpServletResponse resp, String blobPath, CallingContext callingContext) throws IOException {
+        BlobApiImplWrapper blob = Kernel.getBlob();
+        String uri = BLOB_URI_PREFIX + blobRepo + blobPath;
+        Map<String, String> metaData = blob.getBlobMetaData(callingContext, uri);
+        String contentType = metaData.get(ContentEnvelope.CONTENT_TYPE_HEADER);
+        if (contentType != null && templateMimeTypes.contains(contentType)) {
+            streamBlob(resp, blobPath, callingContext, true);
+            return;
+        }
+
+        long total = blob.getBlobSize(callingContext, uri);
+        if (total < 0) {
+            log.error("No blob at " + uri);
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long start = 0;
+        long length = total;
+        long[] range = parseRange(req.getHeader("Range"), total);
+        if (range == UNSATISFIABLE) {
+            resp.setHeader("Content-Range", BYTES_UNIT + " */" + total);
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        if (range != null) {
+            start = range[0];
+            length = range[1] - range[0] + 1;
+        }
+        try (InputStream in = blob.getTrusted().getBlobPartStream(callingContext, uri, start, length)) {
+            if (in == null) {
+                log.error("No blob at " + uri);
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            resp.setHeader("Accept-Ranges", BYTES_UNIT);
+            if (contentType != null) {
+                resp.setContentType(contentType);
+            }
+            if (range != null) {
+                resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                resp.setHeader("Content-Range", BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + total);
+            } else {
+                resp.setStatus(HttpServletResponse.SC_OK);
+            }
+            resp.setHeader("Content-Length", Long.toString(length));
+            IOUtils.copyLarge(in, resp.getOutputStream());
+        }
+    }
+
+    /**
+     * Parse a Range header against a blob of the given size. Only a single range is supported; anything else (including a missing header) returns
+     * null, meaning the whole blob should be sent, as RFC 7233 allows. Returns UNSATISFIABLE if the range lies entirely outside the blob, otherwise
+     * the first and last byte positions, inclusive.
+     */
+    static long[] parseRange(String header, long total) {
+        if (header == null || !header.startsWith(BYTES_UNIT + "=")) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length() + 1).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // suffix range - the final n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || total == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[] { Math.max(0, total - suffix), total - 1 };
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? total - 1 : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= total) {
+                return UNSATISFIABLE;
+            }
+            return new long[] { start, Math.min(end, total - 1) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private void streamBlob(HttpServletResponse resp, String blobPath, CallingContext callingContext, boolean outer) throws IOException {
         BlobApiImplWrapper blob = Kernel.getBlob();
         String uri = BLOB_URI_PREFIX + blobRepo + blobPath;
@@ -27,6 +27,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.io.BufferedReader;
@@ -235,6 +236,19 @@ public class BlobContentServletTest {
         assertEquals("application/text", resp.getContentType());
     }
 
+    @Test
+    public void testParseRange() {
+        assertNull(BlobContentServlet.parseRange(null, 100));
+        assertNull(BlobContentServlet.parseRange("bytes=0-1,5-6", 100));
+        assertNull(BlobContentServlet.parseRange("lines=0-1", 100));
+        assertArrayEquals(new long[] { 10, 19 }, BlobContentServlet.parseRange("bytes=10-19", 100));
+        assertArrayEquals(new long[] { 90, 99 }, BlobContentServlet.parseRange("bytes=90-", 100));
+        assertArrayEquals(new long[] { 90, 99 }, BlobContentServlet.parseRange("bytes=90-500", 100));
+        assertArrayEquals(new long[] { 75, 99 }, BlobContentServlet.parseRange("bytes=-25", 100));
+        assertArrayEquals(new long[] { -1, -1 }, BlobContentServlet.parseRange("bytes=100-", 100));
+        assertArrayEquals(new long[] { -1, -1 }, BlobContentServlet.parseRange("bytes=-0", 100));
+    }
+
 
     static Map<String, String> map = new HashMap<>();
     String requestUri = "/"+blobName;
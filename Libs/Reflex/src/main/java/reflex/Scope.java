@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -44,7 +45,7 @@ public class Scope {
     private Scope constantScope;
     private String pendingComment = null;
 
-    private Map<String, ReflexValue> variables;
+    private SlotMap variables;
 
     public Scope() {
     }
@@ -59,7 +60,7 @@ public class Scope {
         Scope me = new Scope(null, true);
         me.constantScope = constantScope;
         me.globalScope = globalScope;
-        me.variables = myScope.variables == null ? new HashMap<String, ReflexValue>() : myScope.variables;
+        me.variables = myScope.variables == null ? new SlotMap(shapeOf(globalScope)) : myScope.variables;
         return me;
     }
 
@@ -97,16 +98,23 @@ public class Scope {
     private Scope(Scope parent, boolean assignOnce) {
         this.parent = parent;
         this.assignOnce = assignOnce;
-        variables = new HashMap<String, ReflexValue>();
+        variables = new SlotMap(shapeOf(parent));
     }
 
     protected Scope(Scope p) {
         parent = p;
-        variables = new HashMap<String, ReflexValue>();
+        variables = new SlotMap(shapeOf(p));
         globalScope = p.globalScope;
         constantScope = p.constantScope;
     }
 
+    /**
+     * The scopes of one script share a counter that goes up whenever any of them gains a variable
+     */
+    private static AtomicInteger shapeOf(Scope s) {
+        return (s == null || s.variables == null) ? new AtomicInteger() : s.variables.shape();
+    }
+
     public void assign(String var, ReflexValue value) {
         assign(var, value, "");
     }
@@ -185,7 +193,8 @@ public class Scope {
     }
 
     public void clearScope() {
-        variables = new HashMap<String, ReflexValue>();
+        // cleared in place so that slot references to these variables see that they have gone
+        variables.clear();
     }
 
     public Scope copy() {
@@ -199,7 +208,7 @@ public class Scope {
     public static Scope createShallowCopy(Scope s) {
         Scope ret = new Scope(s);
         ret.parent = null;
-        ret.variables = new HashMap<String, ReflexValue>(s.variables);
+        ret.variables = new SlotMap(shapeOf(s), s.variables);
         return ret;
     }
 
@@ -258,6 +267,39 @@ public class Scope {
         }
     }
 
+    /**
+     * Look a variable up as {@link #resolve(String, String)} does, and return where it was found so that a node can go straight to it next time.
+     *
+     * @return null if the variable is not set, or is somewhere a reference cannot follow (dotted names, or scopes outside this script's chain)
+     */
+    public SlotReference bind(String var, String namespacePrefix) {
+        Scope constants = constantScope;
+        if (assignOnce || variables == null || constants == null || constants.parent != null || constants.variables == null || var.indexOf('.') != -1) {
+            return null;
+        }
+        AtomicInteger shape = variables.shape();
+        // taken before looking, so a variable added while we look makes the reference stale straight away
+        int version = shape.get();
+        if (constants.variables.shape() != shape) {
+            return null;
+        }
+        // constants are found first from every scope, but can never be assigned to
+        int slot = constants.variables.slotOf(namespacePrefix + var);
+        if (slot != -1 && constants.variables.valueAt(slot) != null) {
+            return new SlotReference(this, shape, version, constants.variables, slot, false);
+        }
+        for (Scope s = this; s != null && s != constants; s = s.parent) {
+            if (s.assignOnce || s.variables == null || s.constantScope != constants || s.variables.shape() != shape) {
+                return null;
+            }
+            slot = s.variables.slotOf(var);
+            if (slot != -1 && s.variables.valueAt(slot) != null) {
+                return new SlotReference(this, shape, version, s.variables, slot, true);
+            }
+        }
+        return null;
+    }
+
     public String getAndUsePendingComment() {
         if (pendingComment != null) {
             String ret = pendingComment;
@@ -0,0 +1,205 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package reflex;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reflex.value.ReflexValue;
+
+/**
+ * The variables of a {@link Scope}. Each name is given a slot the first time it is set and keeps it, so a {@link SlotReference} can read and write
+ * the value by index. Removing a variable empties its slot.
+ * <p>
+ * Every time a name gains a value the shape counter, which is shared by all the scopes of one script, is bumped. That tells slot references that a
+ * nearer variable may now hide the one they point at.
+ */
+class SlotMap extends AbstractMap<String, ReflexValue> {
+    private static final int INITIAL_SLOTS = 8;
+
+    private final AtomicInteger shape;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] names = new String[INITIAL_SLOTS];
+    private ReflexValue[] values = new ReflexValue[INITIAL_SLOTS];
+    private int used = 0;
+    private int size = 0;
+
+    SlotMap(AtomicInteger shape) {
+        this.shape = shape;
+    }
+
+    SlotMap(AtomicInteger shape, Map<String, ReflexValue> copy) {
+        this(shape);
+        putAll(copy);
+    }
+
+    AtomicInteger shape() {
+        return shape;
+    }
+
+    /**
+     * @return the slot for the name, or -1 if it has never been set
+     */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return (slot == null) ? -1 : slot;
+    }
+
+    ReflexValue valueAt(int slot) {
+        ReflexValue[] current = values;
+        return (slot < current.length) ? current[slot] : null;
+    }
+
+    void setAt(int slot, ReflexValue value) {
+        values[slot] = value;
+    }
+
+    @Override
+    public ReflexValue get(Object key) {
+        Integer slot = slots.get(key);
+        return (slot == null) ? null : values[slot];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public ReflexValue put(String key, ReflexValue value) {
+        if (value == null) {
+            return remove(key);
+        }
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            if (used == values.length) {
+                names = Arrays.copyOf(names, used * 2);
+                values = Arrays.copyOf(values, used * 2);
+            }
+            slot = used++;
+            names[slot] = key;
+            slots.put(key, slot);
+        }
+        ReflexValue old = values[slot];
+        values[slot] = value;
+        if (old == null) {
+            size++;
+            shape.incrementAndGet();
+        }
+        return old;
+    }
+
+    @Override
+    public ReflexValue remove(Object key) {
+        Integer slot = slots.get(key);
+        return (slot == null) ? null : clearSlot(slot);
+    }
+
+    private ReflexValue clearSlot(int slot) {
+        ReflexValue old = values[slot];
+        if (old != null) {
+            values[slot] = null;
+            size--;
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, ReflexValue>> entrySet() {
+        return new AbstractSet<Entry<String, ReflexValue>>() {
+            @Override
+            public Iterator<Entry<String, ReflexValue>> iterator() {
+                return new SlotIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class SlotIterator implements Iterator<Entry<String, ReflexValue>> {
+        private int next = advance(0);
+        private int last = -1;
+
+        private int advance(int from) {
+            while (from < used && values[from] == null) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < used;
+        }
+
+        @Override
+        public Entry<String, ReflexValue> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = advance(next + 1);
+            final int slot = last;
+            return new SimpleEntry<String, ReflexValue>(names[slot], values[slot]) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public ReflexValue setValue(ReflexValue value) {
+                    super.setValue(value);
+                    return put(names[slot], value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last == -1) {
+                throw new IllegalStateException();
+            }
+            clearSlot(last);
+            last = -1;
+        }
+    }
+}
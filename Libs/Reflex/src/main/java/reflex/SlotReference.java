@@ -0,0 +1,77 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package reflex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reflex.value.ReflexValue;
+
+/**
+ * Where a variable was found when a node last looked it up from a given scope. The node can then read or reassign the slot directly, until a
+ * variable is added anywhere in the scope's chain, which might hide this one.
+ */
+public final class SlotReference {
+    private final Scope scope;
+    private final AtomicInteger shape;
+    private final int version;
+    private final SlotMap owner;
+    private final int slot;
+    private final boolean assignable;
+
+    SlotReference(Scope scope, AtomicInteger shape, int version, SlotMap owner, int slot, boolean assignable) {
+        this.scope = scope;
+        this.shape = shape;
+        this.version = version;
+        this.owner = owner;
+        this.slot = slot;
+        this.assignable = assignable;
+    }
+
+    /**
+     * @return true if looking the variable up from this scope would still find this slot
+     */
+    public boolean isValidFor(Scope s) {
+        return s == scope && shape.get() == version;
+    }
+
+    /**
+     * @return the value, or null if the variable has since been removed
+     */
+    public ReflexValue get() {
+        return owner.valueAt(slot);
+    }
+
+    /**
+     * Reassign the variable, as {@link Scope#assign(String, ReflexValue, String)} would
+     *
+     * @return false if the variable is a constant or has been removed, in which case the scope has to do the assignment
+     */
+    public boolean set(ReflexValue value) {
+        if (!assignable || owner.valueAt(slot) == null) {
+            return false;
+        }
+        owner.setAt(slot, value);
+        return true;
+    }
+}
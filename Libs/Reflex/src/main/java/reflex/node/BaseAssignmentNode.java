@@ -33,6 +33,7 @@ import reflex.DebugLevel;
 import reflex.IReflexHandler;
 import reflex.ReflexException;
 import reflex.Scope;
+import reflex.SlotReference;
 import reflex.debug.IReflexDebugger;
 import reflex.value.ReflexValue;
 import reflex.value.internal.ReflexVoidValue;
@@ -42,6 +43,8 @@ public abstract class BaseAssignmentNode extends BaseNode {
     protected String identifier;
     protected List<List<ReflexNode>> indexNodes;
     protected ReflexNode rhs;
+    // where a simple assignment went last time, so loops can reassign without searching the scopes
+    private volatile SlotReference slot;
 
     public BaseAssignmentNode(int lineNumber, IReflexHandler handler, Scope s, String i, List<List<ReflexNode>> e, ReflexNode n) {
         super(lineNumber, handler, s);
@@ -62,7 +65,11 @@ public abstract class BaseAssignmentNode extends BaseNode {
 
         if (indexNodes.isEmpty()) { // a simple assignment
             handler.getDebugHandler().statementReached(lineNumber, DebugLevel.SPAM, "assign var into " + identifier);
-            scopeToAssignIn.assign(identifier, value, namespacePrefix);
+            SlotReference ref = slot;
+            if (ref == null || !ref.isValidFor(scopeToAssignIn) || !ref.set(value)) {
+                scopeToAssignIn.assign(identifier, value, namespacePrefix);
+                slot = scopeToAssignIn.bind(identifier, namespacePrefix);
+            }
         } else { // a possible list-lookup and reassignment
 
             ReflexValue var = scope.resolve(identifier, namespacePrefix);
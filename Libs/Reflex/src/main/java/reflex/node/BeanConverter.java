@@ -0,0 +1,250 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package reflex.node;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import rapture.common.impl.jackson.JacksonUtil;
+
+/**
+ * Converts between api beans and the maps Reflex holds them as without going through JSON text.
+ * <p>
+ * The bean is written to (or read from) a Jackson TokenBuffer with a writer or reader cached for its class, so the same serializers and annotations
+ * are used as before. Numbers are normalised the way a JSON round trip would leave them: whole numbers become the smallest of Integer, Long and
+ * BigInteger, and decimals become the BigDecimal of their text form. Anything that has no plain JSON equivalent (raw JSON content, floats, NaN or
+ * objects that are not maps, lists or scalars) goes through the old text path, so the results are always the same as
+ * {@link JacksonUtil#getMapFromJson(String)} and {@link JacksonUtil#objectFromJson(String, Class)}.
+ */
+final class BeanConverter {
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private static final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private BeanConverter() {
+    }
+
+    /**
+     * @return the bean as a map, the same as getMapFromJson(jsonFromObject(bean))
+     */
+    static Map<String, Object> toMap(Object bean) {
+        try {
+            TokenBuffer buffer = new TokenBuffer(JacksonUtil.DEFAULT_MAPPER, false);
+            writerFor(bean.getClass()).writeValue(buffer, bean);
+            JsonParser parser = buffer.asParser();
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                return readObject(parser);
+            }
+        } catch (IOException | NotPlainException e) {
+            // fall through to the text path, which reports any errors
+        }
+        return JacksonUtil.getMapFromJson(JacksonUtil.jsonFromObject(bean));
+    }
+
+    /**
+     * @return the map as a bean, the same as objectFromJson(jsonFromObject(map), type)
+     */
+    static <T> T fromMap(Map<String, Object> map, Class<T> type) {
+        try {
+            TokenBuffer buffer = new TokenBuffer(JacksonUtil.DEFAULT_MAPPER, false);
+            writeValue(buffer, map);
+            return readerFor(type).readValue(buffer.asParser());
+        } catch (IOException | RuntimeException e) {
+            // fall through to the text path, which reports any errors
+        }
+        return JacksonUtil.objectFromJson(JacksonUtil.jsonFromObject(map), type);
+    }
+
+    private static ObjectWriter writerFor(Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        if (writer == null) {
+            writer = JacksonUtil.DEFAULT_MAPPER.writerFor(type);
+            writers.putIfAbsent(type, writer);
+        }
+        return writer;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ObjectReader readerFor(Class<?> type) {
+        ObjectReader reader = readers.get(type);
+        if (reader == null) {
+            reader = JacksonUtil.DEFAULT_MAPPER.reader(type);
+            readers.putIfAbsent(type, reader);
+        }
+        return reader;
+    }
+
+    private static Map<String, Object> readObject(JsonParser parser) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            map.put(name, readValue(parser, parser.nextToken()));
+        }
+        return map;
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+        case START_OBJECT:
+            return readObject(parser);
+        case START_ARRAY:
+            List<Object> list = new ArrayList<>();
+            JsonToken next;
+            while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                list.add(readValue(parser, next));
+            }
+            return list;
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            return wholeNumber(parser.getNumberValue());
+        case VALUE_NUMBER_FLOAT:
+            return decimal(parser.getNumberValue());
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NULL:
+            return null;
+        case VALUE_EMBEDDED_OBJECT:
+            Object embedded = parser.getEmbeddedObject();
+            if (embedded instanceof byte[]) {
+                // in text this would have been written as base64
+                return Base64Variants.getDefaultVariant().encode((byte[]) embedded);
+            }
+            throw new NotPlainException();
+        default:
+            throw new NotPlainException();
+        }
+    }
+
+    private static Number wholeNumber(Number n) {
+        if (n instanceof BigInteger) {
+            BigInteger big = (BigInteger) n;
+            if (big.compareTo(MIN_LONG) < 0 || big.compareTo(MAX_LONG) > 0) {
+                return big;
+            }
+        }
+        long value = n.longValue();
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+
+    /**
+     * @return the number a decimal reads back as, which is a whole number if it has no fraction digits
+     */
+    private static Number decimal(Number n) {
+        if (n instanceof BigDecimal) {
+            // written with WRITE_BIGDECIMAL_AS_PLAIN, so there is no exponent and "1000" reads back as an int
+            BigDecimal d = (BigDecimal) n;
+            if (d.scale() <= 0) {
+                return wholeNumber(d.toBigIntegerExact());
+            }
+            return new BigDecimal(d.toPlainString());
+        } else if (n instanceof Double) {
+            double d = n.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                // written as a string in text
+                throw new NotPlainException();
+            }
+            return new BigDecimal(Double.toString(d));
+        }
+        throw new NotPlainException();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(TokenBuffer buffer, Object value) throws IOException {
+        if (value == null) {
+            buffer.writeNull();
+        } else if (value instanceof String) {
+            buffer.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            buffer.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof BigInteger) {
+            writeNumber(buffer, wholeNumber((Number) value));
+        } else if (value instanceof Double || value instanceof BigDecimal) {
+            writeNumber(buffer, decimal((Number) value));
+        } else if (value instanceof Map) {
+            buffer.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!(entry.getKey() instanceof String)) {
+                    throw new NotPlainException();
+                }
+                buffer.writeFieldName((String) entry.getKey());
+                writeValue(buffer, entry.getValue());
+            }
+            buffer.writeEndObject();
+        } else if (value instanceof List) {
+            buffer.writeStartArray();
+            for (Object item : (List<Object>) value) {
+                writeValue(buffer, item);
+            }
+            buffer.writeEndArray();
+        } else {
+            throw new NotPlainException();
+        }
+    }
+
+    private static void writeNumber(TokenBuffer buffer, Number n) throws IOException {
+        if (n instanceof Integer) {
+            buffer.writeNumber((Integer) n);
+        } else if (n instanceof Long) {
+            buffer.writeNumber((Long) n);
+        } else if (n instanceof BigInteger) {
+            buffer.writeNumber((BigInteger) n);
+        } else {
+            buffer.writeNumber((BigDecimal) n);
+        }
+    }
+
+    /**
+     * Thrown when a value has no direct equivalent and the text path has to be used
+     */
+    private static class NotPlainException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotPlainException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -26,6 +26,7 @@ package reflex.node;
 import reflex.IReflexHandler;
 import reflex.ReflexException;
 import reflex.Scope;
+import reflex.SlotReference;
 import reflex.debug.IReflexDebugger;
 import reflex.value.ReflexValue;
 import reflex.value.internal.ReflexNullValue;
@@ -35,6 +36,8 @@ public class IdentifierNode extends BaseNode {
 
     private String identifier;
     private String namespacePrefix;
+    // where the variable was found last time, so loops do not have to search the scopes on every pass
+    private volatile SlotReference slot;
 
     public IdentifierNode(int lineNumber, IReflexHandler handler, Scope scope, String id, String namespacePrefix) {
         super(lineNumber, handler, scope);
@@ -51,7 +54,14 @@ public class IdentifierNode extends BaseNode {
         // a resolution. If we resolve to something and that variable type is a map, use the remaining
         // part to resolve to a value using map lookup semantics.
 
-        ReflexValue value = scope.resolve(identifier, namespacePrefix);
+        SlotReference ref = slot;
+        ReflexValue value = (ref != null && ref.isValidFor(scope)) ? ref.get() : null;
+        if (value == null) {
+            value = scope.resolve(identifier, namespacePrefix);
+            if (value != null) {
+                slot = scope.bind(identifier, namespacePrefix);
+            }
+        }
         if (value == null) {
             value = resolveMapDotter(scope);
             if (value == null) {
@@ -0,0 +1,203 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package reflex.node;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import reflex.value.ReflexValue;
+
+/**
+ * A kernel call that has already been resolved: the handles for the get[Area] and api methods and the conversion for each parameter. Sites are
+ * shared by every call with the same api class, area, function and number of parameters, so a script calling the same api in a loop only pays for the
+ * reflection once.
+ */
+final class KernelCallSite {
+    private static final Logger log = Logger.getLogger(KernelCallSite.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType TARGET_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+    private static final ConcurrentMap<Key, KernelCallSite> sites = new ConcurrentHashMap<>();
+
+    private final MethodHandle getter;
+    private final Class<?> apiClass;
+    private final MethodHandle target;
+    private final Coercer[] coercers;
+
+    private KernelCallSite(MethodHandle getter, Class<?> apiClass, MethodHandle target, Coercer[] coercers) {
+        this.getter = getter;
+        this.apiClass = apiClass;
+        this.target = target;
+        this.coercers = coercers;
+    }
+
+    /**
+     * @return the site for this call, or null if it has not been resolved yet
+     */
+    static KernelCallSite get(Object outerApi, String areaName, String fnName, int numParams) {
+        return sites.get(new Key(outerApi.getClass(), areaName, fnName, numParams));
+    }
+
+    /**
+     * Remember a call that was resolved by reflection. Methods that cannot be turned into handles are left to the reflective path.
+     */
+    static void put(Object outerApi, String areaName, String fnName, Method getterMethod, Object api, Method method) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            Type[] types = method.getGenericParameterTypes();
+            Coercer[] coercers = new Coercer[types.length];
+            for (int i = 0; i < types.length; i++) {
+                coercers[i] = coercerFor(types[i]);
+            }
+            MethodHandle getter = lookup.unreflect(getterMethod).asType(GETTER_TYPE);
+            MethodHandle target = lookup.unreflect(method).asSpreader(Object[].class, types.length).asType(TARGET_TYPE);
+            sites.putIfAbsent(new Key(outerApi.getClass(), areaName, fnName, types.length), new KernelCallSite(getter, api.getClass(), target, coercers));
+        } catch (IllegalAccessException | RuntimeException e) {
+            log.debug(String.format("Cannot cache call to %s.%s: %s", areaName, fnName, e.getMessage()));
+        }
+    }
+
+    static void clear() {
+        sites.clear();
+    }
+
+    static int size() {
+        return sites.size();
+    }
+
+    /**
+     * @return the api for the area, from the get[Area] method
+     */
+    Object getApi(Object outerApi) throws Throwable {
+        return (Object) getter.invokeExact(outerApi);
+    }
+
+    /**
+     * @return true if the api is the class this site was resolved against, as get[Area] may hand back different implementations
+     */
+    boolean accepts(Object api) {
+        return api != null && api.getClass() == apiClass;
+    }
+
+    /**
+     * Convert the Reflex arguments to the parameter types of the method, throwing ReflexException as convertValueToType does
+     */
+    Object[] coerce(List<ReflexValue> params) {
+        Object[] callParams = new Object[coercers.length];
+        for (int i = 0; i < coercers.length; i++) {
+            callParams[i] = coercers[i].coerce(params.get(i));
+        }
+        return callParams;
+    }
+
+    Object invoke(Object api, Object[] callParams) throws Throwable {
+        return (Object) target.invokeExact(api, callParams);
+    }
+
+    private interface Coercer {
+        Object coerce(ReflexValue v);
+    }
+
+    /**
+     * The common parameter types are picked out once here rather than on every call; the rest go through convertValueToType.
+     */
+    private static Coercer coercerFor(final Type type) {
+        if (type.equals(Double.class) || type.equals(double.class)) {
+            return new Coercer() {
+                @Override
+                public Object coerce(ReflexValue v) {
+                    return v.asDouble();
+                }
+            };
+        } else if (type.equals(Integer.class) || type.equals(int.class)) {
+            return new Coercer() {
+                @Override
+                public Object coerce(ReflexValue v) {
+                    return v.asInt();
+                }
+            };
+        } else if (type.equals(Long.class) || type.equals(long.class)) {
+            return new Coercer() {
+                @Override
+                public Object coerce(ReflexValue v) {
+                    return v.asLong();
+                }
+            };
+        } else if (type.equals(Boolean.class) || type.equals(boolean.class)) {
+            return new Coercer() {
+                @Override
+                public Object coerce(ReflexValue v) {
+                    return v.asBoolean();
+                }
+            };
+        }
+        return new Coercer() {
+            @Override
+            public Object coerce(ReflexValue v) {
+                return KernelExecutor.convertValueToType(v, type);
+            }
+        };
+    }
+
+    private static final class Key {
+        private final Class<?> apiClass;
+        private final String areaName;
+        private final String fnName;
+        private final int numParams;
+
+        Key(Class<?> apiClass, String areaName, String fnName, int numParams) {
+            this.apiClass = apiClass;
+            this.areaName = areaName;
+            this.fnName = fnName;
+            this.numParams = numParams;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return apiClass == other.apiClass && numParams == other.numParams && fnName.equals(other.fnName) && areaName.equals(other.areaName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = apiClass.hashCode();
+            result = 31 * result + areaName.hashCode();
+            result = 31 * result + fnName.hashCode();
+            return 31 * result + numParams;
+        }
+    }
+}
@@ -66,7 +66,29 @@ public final class KernelExecutor {
         }
         int numPassedParams = params.size();
         try {
-            // Find the method get[AreaName], which will return the area
+            KernelCallSite site = KernelCallSite.get(outerApi, apiName, fnName, numPassedParams);
+            if (site != null) {
+                Object api;
+                try {
+                    api = site.getApi(outerApi);
+                } catch (Throwable t) {
+                    throw new InvocationTargetException(t);
+                }
+                if (site.accepts(api)) {
+                    // coerce outside the try so that a bad argument is reported as it is on the reflective path below
+                    Object[] callParams = site.coerce(params);
+                    Object ret;
+                    try {
+                        ret = site.invoke(api, callParams);
+                    } catch (Throwable t) {
+                        throw new ReflexException(lineNumber, String.format("Error in Reflex script at line %d. Call to %s.%s failed: %s", lineNumber,
+                                apiName, fnName, t.getMessage()), new InvocationTargetException(t));
+                    }
+                    return (ret == null) ? new ReflexNullValue(lineNumber) : new ReflexValue(convertObject(ret));
+                }
+            }
+
+            // Not seen this call before, so find the method get[AreaName], which will return the area
             Method[] methods = outerApi.getClass().getMethods();
             String getApiMethodName = "get" + apiName;
 
@@ -90,6 +112,8 @@ public final class KernelExecutor {
                                     callParams.add(x);
                                 }
 
+                                KernelCallSite.put(outerApi, apiName, fnName, m, api, im);
+
                                 // Now invoke
                                 Object ret;
                                 try {
@@ -285,8 +309,7 @@ public final class KernelExecutor {
             if (theMap.containsKey("CLASS")) {
                 String typeName = theMap.get("CLASS").toString();
                 theMap.remove("CLASS");
-                String json = JacksonUtil.jsonFromObject(theMap);
-                Object realObject = JacksonUtil.objectFromJson(json, Class.forName(typeName));
+                Object realObject = BeanConverter.fromMap(theMap, Class.forName(typeName));
                 return new ReflexValue(realObject);
             } else {
                 return new ReflexValue(theMap);
@@ -397,13 +420,9 @@ public final class KernelExecutor {
             return ret2;
         } else if (ret instanceof RaptureTransferObject) {
             // RaptureTransferObject is a hint to convert this object from an
-            // object
-            // to a json doc to a map
-            String json = JacksonUtil.jsonFromObject(ret);
-            Object retMap = JacksonUtil.getMapFromJson(json);
-            @SuppressWarnings("unchecked")
-            Map<String, Object> mapAsRet = (Map<String, Object>) retMap;
-            mapAsRet.put("CLASS", ret.getClass().getName());
+            // object to a map, the same map a json doc would give
+            Map<String, Object> retMap = BeanConverter.toMap(ret);
+            retMap.put("CLASS", ret.getClass().getName());
             return retMap;
         }
         return ret;
@@ -418,8 +437,7 @@ public final class KernelExecutor {
         if (convertedMap.containsKey("CLASS")) {
             convertedMap.remove("CLASS");
         }
-        String json = JacksonUtil.jsonFromObject(convertedMap);
-        Object x = JacksonUtil.objectFromJson(json, (Class<?>) type);
+        Object x = BeanConverter.fromMap(convertedMap, (Class<?>) type);
         return x;
     }
 }
@@ -23,9 +23,8 @@
  */
 package reflex.node;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 import reflex.IReflexHandler;
 import reflex.IReflexLineCallback;
@@ -34,7 +33,7 @@ import reflex.Scope;
 import reflex.ThreadSafeScope;
 import reflex.debug.IReflexDebugger;
 import reflex.node.parallel.BlockEvaluator;
-import reflex.node.parallel.CountingThreadPoolExecutor;
+import reflex.node.parallel.ReflexParallel;
 import reflex.value.ReflexValue;
 import reflex.value.internal.ReflexNullValue;
 import reflex.value.internal.ReflexVoidValue;
@@ -65,8 +64,7 @@ public class PForInStatementNode extends BaseNode {
         ReflexValue list = listExpr.evaluate(debugger, scope);
 
         if (list.isList()) {
-            CountingThreadPoolExecutor parallel = new CountingThreadPoolExecutor(10, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(100));
-            int submitted = 0;
+            List<BlockEvaluator> evaluators = new ArrayList<BlockEvaluator>();
             List<?> vals = list.asList();
             for (Object v : vals) {
                 ThreadSafeScope newScope = new ThreadSafeScope(scope);
@@ -77,13 +75,9 @@ public class PForInStatementNode extends BaseNode {
                     newScope.assign(identifier, v == null ? new ReflexNullValue(lineNumber) : new ReflexValue(v));
                 }
 
-                BlockEvaluator be = new BlockEvaluator(block, newScope);
-                submitted++;
-                parallel.execute(be);
+                evaluators.add(new BlockEvaluator(block, newScope));
             }
-            // Now wait for it to finish
-            parallel.waitForExecCount(submitted);
-            parallel.shutdown();
+            ReflexParallel.runAll(scope, evaluators);
         } else if (list.isFile()) {
             // Pretend a list here
             ReflexValue retVal = handler.getIOHandler().forEachLine(list.asFile(), new IReflexLineCallback() {
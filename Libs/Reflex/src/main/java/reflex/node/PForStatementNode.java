@@ -23,15 +23,15 @@
  */
 package reflex.node;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
 
 import reflex.IReflexHandler;
 import reflex.Scope;
 import reflex.ThreadSafeScope;
 import reflex.debug.IReflexDebugger;
 import reflex.node.parallel.BlockEvaluator;
-import reflex.node.parallel.CountingThreadPoolExecutor;
+import reflex.node.parallel.ReflexParallel;
 import reflex.value.ReflexValue;
 import reflex.value.internal.ReflexVoidValue;
 
@@ -57,21 +57,16 @@ public class PForStatementNode extends BaseNode {
         debugger.stepStart(this, scope);
         int start = startExpr.evaluate(debugger, scope).asDouble().intValue();
         int stop = stopExpr.evaluate(debugger, scope).asDouble().intValue();
-        CountingThreadPoolExecutor parallel = new CountingThreadPoolExecutor(10, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(100));
-        int submitted = 0;
+        List<BlockEvaluator> evaluators = new ArrayList<BlockEvaluator>();
         for (int i = start; i <= stop; i++) {
             // Need to clone Block so that it can be run in parallel, or make
             // the
             // scope thread local ?
             ThreadSafeScope newScope = new ThreadSafeScope(scope);
             newScope.assign(identifier, new ReflexValue(i));
-            BlockEvaluator be = new BlockEvaluator(block, newScope);
-            submitted++;
-            parallel.execute(be);
+            evaluators.add(new BlockEvaluator(block, newScope));
         }
-        // Now wait for it to finish
-        parallel.waitForExecCount(submitted);
-        parallel.shutdown();
+        ReflexParallel.runAll(scope, evaluators);
         debugger.stepEnd(this, new ReflexVoidValue(lineNumber), scope);
         return new ReflexVoidValue();
     }
@@ -26,6 +26,7 @@ package reflex.node;
 import reflex.IReflexHandler;
 import reflex.ReflexException;
 import reflex.Scope;
+import reflex.SlotReference;
 import reflex.debug.IReflexDebugger;
 import reflex.value.ImmutableReflexValue;
 import reflex.value.ReflexValue;
@@ -34,6 +35,8 @@ import reflex.value.internal.ReflexVoidValue;
 public class PlusAssignmentNode extends BaseNode {
     private String identifier;
     private ReflexNode rhs;
+    // where the variable was found last time, see IdentifierNode
+    private volatile SlotReference slot;
 
     public PlusAssignmentNode(int lineNumber, IReflexHandler handler, Scope s, String i, ReflexNode n) {
         super(lineNumber, handler, s);
@@ -53,7 +56,14 @@ public class PlusAssignmentNode extends BaseNode {
     	// depending on what type of value it is.
 
         debugger.stepStart(this, scope);
-        ReflexValue var = scope.resolve(identifier);
+        SlotReference ref = slot;
+        ReflexValue var = (ref != null && ref.isValidFor(scope)) ? ref.get() : null;
+        if (var == null) {
+            var = scope.resolve(identifier);
+            if (var != null) {
+                slot = scope.bind(identifier, "");
+            }
+        }
 
         if (var.isList() && rhs instanceof UnaryMinusNode) {
             // LIST -= VALUE is a special case
@@ -0,0 +1,184 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package reflex.node.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import rapture.common.exception.ExceptionToString;
+import rapture.config.ConfigLoader;
+import reflex.Scope;
+
+/**
+ * Runs the iterations of Reflex pfor loops on one work-stealing pool shared by the whole process, rather than a new set of threads for every loop.
+ * <p>
+ * Each script may only have ReflexParallelismPerScript iterations running at once. The thread that runs a loop always works through the iterations
+ * itself and only borrows pool threads while the script is under its limit, so a pfor inside a pfor never waits for a thread that is waiting for it.
+ */
+public final class ReflexParallel {
+    private static final Logger log = Logger.getLogger(ReflexParallel.class);
+
+    private static final ForkJoinPool pool = createPool();
+
+    // permits for the pool threads each script is borrowing, keyed by the script's global scope
+    private static final LoadingCache<Scope, Semaphore> permits = CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<Scope, Semaphore>() {
+        @Override
+        public Semaphore load(Scope key) {
+            return new Semaphore(Math.max(0, ConfigLoader.getConf().ReflexParallelismPerScript - 1));
+        }
+    });
+
+    private ReflexParallel() {
+    }
+
+    private static ForkJoinPool createPool() {
+        int parallelism = ConfigLoader.getConf().ReflexParallelism;
+        if (parallelism <= 0) {
+            // pfor bodies mostly wait on Rapture calls, so size for a full script's worth of iterations rather than for the processors
+            parallelism = Math.max(Runtime.getRuntime().availableProcessors(), ConfigLoader.getConf().ReflexParallelismPerScript);
+        }
+        return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool p) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("ReflexParallel-" + count.incrementAndGet());
+                return thread;
+            }
+        }, null, false);
+    }
+
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Run every task and return once they have all finished. A task that fails is logged and does not stop the others, as with the thread pool each
+     * pfor used to have.
+     *
+     * @param scope
+     *            the scope of the loop, whose global scope identifies the script
+     */
+    public static void runAll(Scope scope, List<? extends Runnable> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        Scope script = (scope.getGlobalScope() == null) ? scope : scope.getGlobalScope();
+        Semaphore limit = permits.getUnchecked(script);
+        Iterations iterations = new Iterations(tasks);
+
+        boolean inPool = (Thread.currentThread() instanceof ForkJoinWorkerThread) && ((ForkJoinWorkerThread) Thread.currentThread()).getPool() == pool;
+        List<Helper> helpers = new ArrayList<>();
+        while (helpers.size() < tasks.size() - 1 && limit.tryAcquire()) {
+            Helper helper = new Helper(iterations, limit);
+            if (inPool) {
+                helper.fork();
+            } else {
+                pool.execute(helper);
+            }
+            helpers.add(helper);
+        }
+        iterations.run();
+        // every iteration has been taken by now, so a helper that has not started has nothing to do; take it back rather than wait for a pool
+        // thread to get round to it. Latest first, as only the task on top of this thread's queue can be unforked.
+        for (int i = helpers.size() - 1; i >= 0; i--) {
+            Helper helper = helpers.get(i);
+            if (inPool ? helper.tryUnfork() : helper.claim()) {
+                helper.cancel(false);
+                limit.release();
+            } else {
+                helper.join();
+            }
+        }
+    }
+
+    /**
+     * The iterations of one loop, taken in turn by whichever threads are working on it
+     */
+    private static class Iterations {
+        private final List<? extends Runnable> tasks;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Iterations(List<? extends Runnable> tasks) {
+            this.tasks = tasks;
+        }
+
+        void run() {
+            int i;
+            while ((i = next.getAndIncrement()) < tasks.size()) {
+                try {
+                    tasks.get(i).run();
+                } catch (RuntimeException e) {
+                    log.error("Parallel iteration failed: " + ExceptionToString.format(e));
+                }
+            }
+        }
+    }
+
+    private static class Helper extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Iterations iterations;
+        private final transient Semaphore limit;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        Helper(Iterations iterations, Semaphore limit) {
+            this.iterations = iterations;
+            this.limit = limit;
+        }
+
+        /**
+         * Stop this helper from starting, for the thread that ran the loop, which then releases the permit itself
+         *
+         * @return false if the helper has already started
+         */
+        boolean claim() {
+            return started.compareAndSet(false, true);
+        }
+
+        @Override
+        protected void compute() {
+            if (!claim()) {
+                return;
+            }
+            try {
+                iterations.run();
+            } finally {
+                limit.release();
+            }
+        }
+    }
+}
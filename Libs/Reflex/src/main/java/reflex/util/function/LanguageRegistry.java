@@ -98,6 +98,20 @@ public class LanguageRegistry {
         return functionMap.containsKey(key.toString());
     }
 
+    /**
+     * Return a registry holding the same definitions that can be used independently of this one. Functions carry a recursion counter so each is
+     * copied; structures are shared as they are not changed after parsing.
+     */
+    public LanguageRegistry copy() {
+        LanguageRegistry copy = new LanguageRegistry();
+        for (Map.Entry<String, Function> entry : functionMap.entrySet()) {
+            copy.functionMap.put(entry.getKey(), new Function(entry.getValue()));
+        }
+        copy.structureMap.putAll(structureMap);
+        copy.nsStack = new NamespaceStack(nsStack);
+        return copy;
+    }
+
     /**
      * Merge into this registry the functions of the savedRegistry
      * 
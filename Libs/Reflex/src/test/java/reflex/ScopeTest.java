@@ -23,12 +23,71 @@
  */
 package reflex;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Map;
+
 import org.antlr.runtime.RecognitionException;
 import org.junit.Test;
 
+import reflex.value.ReflexValue;
+
 public class ScopeTest extends ResourceBasedTest {
     @Test
     public void runScopeTest() throws RecognitionException {
         runTestFor("/scopeTest.rfx");
     }
+
+    @Test
+    public void runScopeSlotsTest() throws RecognitionException {
+        runTestFor("/scopeSlots.rfx");
+    }
+
+    @Test
+    public void testSlotReferences() {
+        Scope global = Scope.getInitialScope();
+        global.assign("x", new ReflexValue(1));
+        Scope inner = Scope.getNextScopeDown(global);
+
+        SlotReference ref = inner.bind("x", "");
+        assertTrue(ref.isValidFor(inner));
+        assertFalse(ref.isValidFor(global));
+        assertEquals(1, ref.get().asInt().intValue());
+        assertTrue(ref.set(new ReflexValue(2)));
+        assertEquals(2, global.resolve("x").asInt().intValue());
+
+        // any new variable in the chain might hide x, so the reference has to be looked up again
+        inner.assign("y", new ReflexValue(3));
+        assertFalse(ref.isValidFor(inner));
+
+        // constants can be read through a reference but not assigned
+        global.getConstantScope().assign("c", new ReflexValue(4));
+        SlotReference constant = inner.bind("c", "");
+        assertEquals(4, constant.get().asInt().intValue());
+        assertFalse(constant.set(new ReflexValue(5)));
+
+        assertNull(inner.bind("missing", ""));
+        assertNull(inner.bind("x.y", ""));
+    }
+
+    @Test
+    public void testRemovedVariable() {
+        Scope global = Scope.getInitialScope();
+        global.assign("a", new ReflexValue(1));
+        global.assign("b", new ReflexValue(2));
+        SlotReference ref = global.bind("a", "");
+
+        Iterator<Map.Entry<String, ReflexValue>> entries = global.retrieveVariables().entrySet().iterator();
+        assertEquals("a", entries.next().getKey());
+        entries.remove();
+        assertEquals(1, global.retrieveVariables().size());
+        assertNull(ref.get());
+        assertFalse(ref.set(new ReflexValue(3)));
+        assertNull(global.resolve("a"));
+        assertEquals(2, global.resolve("b").asInt().intValue());
+    }
 }
@@ -0,0 +1,155 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package reflex.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.reflect.ClassPath;
+
+import rapture.common.RaptureTransferObject;
+import rapture.common.impl.jackson.JacksonUtil;
+
+/**
+ * Checks that the direct conversion gives the same answers as the JSON round trip it replaced, for every api bean we can build
+ */
+public class BeanConverterTest {
+
+    @Test
+    public void testNumbersMatchJson() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("small", 5L);
+        map.put("large", 5000000000L);
+        map.put("decimal", 1.1);
+        map.put("exponent", 1.0e20);
+        map.put("plain", new BigDecimal("1E+3"));
+        map.put("list", Arrays.<Object> asList(1L, 2.5, "x", null, true));
+        assertEquals(viaJson(map), BeanConverter.toMap(map));
+
+        // not a number in JSON, so this goes the long way round
+        map.put("nan", Double.NaN);
+        assertEquals(viaJson(map), BeanConverter.toMap(map));
+    }
+
+    @Test
+    public void testBeansMatchJson() throws Exception {
+        int checked = 0;
+        for (ClassPath.ClassInfo info : ClassPath.from(getClass().getClassLoader()).getTopLevelClassesRecursive("rapture.common")) {
+            Object bean = createBean(info);
+            if (bean == null) {
+                continue;
+            }
+            Map<String, Object> expected = viaJson(bean);
+            assertEquals(info.getName(), expected, BeanConverter.toMap(bean));
+
+            Object expectedBean = JacksonUtil.objectFromJson(JacksonUtil.jsonFromObject(expected), bean.getClass());
+            assertEquals(info.getName(), JacksonUtil.jsonFromObject(expectedBean),
+                    JacksonUtil.jsonFromObject(BeanConverter.fromMap(expected, bean.getClass())));
+            checked++;
+        }
+        assertTrue("Only checked " + checked + " beans", checked > 20);
+    }
+
+    private static Map<String, Object> viaJson(Object o) {
+        return JacksonUtil.getMapFromJson(JacksonUtil.jsonFromObject(o));
+    }
+
+    /**
+     * @return a bean with every simple property set, or null if the class is not a bean we can build
+     */
+    private static Object createBean(ClassPath.ClassInfo info) {
+        try {
+            Class<?> type = info.load();
+            if (!RaptureTransferObject.class.isAssignableFrom(type) || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+                    || !Modifier.isPublic(type.getModifiers())) {
+                return null;
+            }
+            Object bean = type.newInstance();
+            for (Method m : type.getMethods()) {
+                if (m.getName().startsWith("set") && m.getParameterTypes().length == 1) {
+                    Object value = sampleValue(m.getName(), m.getGenericParameterTypes()[0]);
+                    if (value != null) {
+                        try {
+                            m.invoke(bean, value);
+                        } catch (Exception e) {
+                            // leave that property alone
+                        }
+                    }
+                }
+            }
+            // only beans that the JSON path itself can handle are worth comparing
+            viaJson(bean);
+            return bean;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static Object sampleValue(String name, Type type) {
+        if (type.equals(String.class)) {
+            return name + " \"value\"";
+        } else if (type.equals(int.class) || type.equals(Integer.class)) {
+            return 42;
+        } else if (type.equals(long.class) || type.equals(Long.class)) {
+            return 5000000000L;
+        } else if (type.equals(double.class) || type.equals(Double.class)) {
+            return 1.25e-3;
+        } else if (type.equals(boolean.class) || type.equals(Boolean.class)) {
+            return true;
+        } else if (type.equals(BigDecimal.class)) {
+            return new BigDecimal("12.50");
+        } else if (type.equals(byte[].class)) {
+            return new byte[] { 1, 2, 3, -4 };
+        } else if (type.equals(Date.class)) {
+            return new Date(1234567890000L);
+        } else if (type instanceof Class && ((Class<?>) type).isEnum()) {
+            return ((Class<?>) type).getEnumConstants()[0];
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType pType = (ParameterizedType) type;
+            Type[] args = pType.getActualTypeArguments();
+            if (pType.getRawType().equals(List.class) && args[0].equals(String.class)) {
+                return new ArrayList<>(Arrays.asList("a", "b"));
+            } else if (pType.getRawType().equals(Map.class) && args[0].equals(String.class) && args[1].equals(String.class)) {
+                Map<String, String> map = new LinkedHashMap<>();
+                map.put("k", "v");
+                return map;
+            }
+        }
+        return null;
+    }
+}
@@ -1,9 +1,11 @@
 package reflex.node;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
@@ -18,6 +20,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import reflex.ReflexException;
 import reflex.value.ReflexValue;
 
 public class KernelExecutorTest {
@@ -32,6 +35,7 @@ public class KernelExecutorTest {
 
     @Before
     public void setUp() throws Exception {
+        KernelCallSite.clear();
     }
 
     @After
@@ -103,6 +107,94 @@ public class KernelExecutorTest {
         assertEquals("{id=[A, B], name=[C, D]}", o.toString());
     }
 
+    @Test
+    public void testExecuteFunctionCachesCallSite() {
+        OuterApi outer = new OuterApi();
+        for (int i = 0; i < 3; i++) {
+            List<ReflexValue> params = new ArrayList<>();
+            params.add(new ReflexValue("key" + i));
+            params.add(new ReflexValue(i));
+            ReflexValue ret = KernelExecutor.executeFunction(1, outer, "doc", "putDoc", params);
+            assertEquals("key" + i + "=" + i, ret.asString());
+        }
+        assertEquals(1, KernelCallSite.size());
+        assertEquals(3, outer.doc.calls);
+
+        // a different number of parameters is a different call site
+        List<ReflexValue> none = new ArrayList<>();
+        assertTrue(KernelExecutor.executeFunction(1, outer, "doc", "clear", none).isNull());
+        assertEquals(2, KernelCallSite.size());
+    }
+
+    @Test
+    public void testExecuteFunctionFailure() {
+        OuterApi outer = new OuterApi();
+        for (int i = 0; i < 2; i++) {
+            try {
+                KernelExecutor.executeFunction(7, outer, "doc", "fail", new ArrayList<ReflexValue>());
+                fail("Expected the call to fail");
+            } catch (ReflexException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Call to Doc.fail failed: broken"));
+            }
+        }
+    }
+
+    @Test
+    public void testBadArgumentReportedAlikeWhenCached() {
+        OuterApi outer = new OuterApi();
+        // nothing is cached yet, so this goes the reflective way
+        String reflective = putDocFailure(outer);
+        assertEquals(0, KernelCallSite.size());
+
+        List<ReflexValue> params = new ArrayList<>();
+        params.add(new ReflexValue("key"));
+        params.add(new ReflexValue(1));
+        KernelExecutor.executeFunction(3, outer, "doc", "putDoc", params);
+        assertEquals(1, KernelCallSite.size());
+
+        String cached = putDocFailure(outer);
+        assertEquals(reflective, cached);
+        assertFalse(cached, cached.contains("Call to Doc.putDoc failed"));
+        assertEquals(1, outer.doc.calls);
+    }
+
+    private static String putDocFailure(OuterApi outer) {
+        List<ReflexValue> params = new ArrayList<>();
+        params.add(new ReflexValue("key"));
+        params.add(new ReflexValue("not a number"));
+        try {
+            KernelExecutor.executeFunction(3, outer, "doc", "putDoc", params);
+            fail("Expected the argument to be rejected");
+        } catch (ReflexException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    public static class OuterApi {
+        private final DocApi doc = new DocApi();
+
+        public DocApi getDoc() {
+            return doc;
+        }
+    }
+
+    public static class DocApi {
+        private int calls = 0;
+
+        public String putDoc(String key, Long value) {
+            calls++;
+            return key + "=" + value;
+        }
+
+        public void clear() {
+        }
+
+        public String fail() {
+            throw new IllegalStateException("broken");
+        }
+    }
+
     public void ListMap(List<Map<String, Object>> arg) {
     }
 
@@ -0,0 +1,155 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2016 Incapture Technologies LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package reflex.node.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import rapture.config.ConfigLoader;
+import reflex.Scope;
+
+public class ReflexParallelTest {
+    private static final int SCRIPTS = 4;
+    private static final int OUTER = 12;
+    private static final int INNER = 12;
+
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger iterations = new AtomicInteger();
+
+    /**
+     * The work of one script: a pfor over OUTER items, each of which runs a pfor over INNER items
+     */
+    private class Script implements Runnable {
+        private final Scope scope = Scope.getInitialScope();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger mostRunning = new AtomicInteger();
+
+        @Override
+        public void run() {
+            List<Runnable> outer = new ArrayList<Runnable>();
+            for (int i = 0; i < OUTER; i++) {
+                outer.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<Runnable> inner = new ArrayList<Runnable>();
+                        for (int j = 0; j < INNER; j++) {
+                            inner.add(new Runnable() {
+                                @Override
+                                public void run() {
+                                    work();
+                                }
+                            });
+                        }
+                        ReflexParallel.runAll(scope, inner);
+                    }
+                });
+            }
+            ReflexParallel.runAll(scope, outer);
+        }
+
+        private void work() {
+            int now = running.incrementAndGet();
+            int most;
+            while (now > (most = mostRunning.get()) && !mostRunning.compareAndSet(most, now)) {
+                // another iteration raised it first, try again
+            }
+            threads.add(Thread.currentThread());
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            iterations.incrementAndGet();
+            running.decrementAndGet();
+        }
+    }
+
+    @Test
+    public void testNestedAndConcurrentLoops() throws InterruptedException {
+        List<Script> scripts = new ArrayList<Script>();
+        final CountDownLatch done = new CountDownLatch(SCRIPTS);
+        for (int i = 0; i < SCRIPTS; i++) {
+            final Script script = new Script();
+            scripts.add(script);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        script.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "Script-" + i);
+            thread.start();
+        }
+        assertTrue("Nested pfor loops did not finish", done.await(60, TimeUnit.SECONDS));
+        assertEquals(SCRIPTS * OUTER * INNER, iterations.get());
+
+        int perScript = ConfigLoader.getConf().ReflexParallelismPerScript;
+        for (Script script : scripts) {
+            assertTrue("Script ran " + script.mostRunning.get() + " iterations at once", script.mostRunning.get() <= perScript);
+        }
+
+        int poolThreads = 0;
+        for (Thread thread : threads) {
+            if (thread.getName().startsWith("ReflexParallel-")) {
+                poolThreads++;
+            }
+        }
+        // a worker blocked joining a nested loop may be replaced by a spare, but the pool must not grow with the number of loops
+        assertTrue("Pool used " + poolThreads + " threads", poolThreads <= 2 * ReflexParallel.getPool().getParallelism());
+        assertTrue(poolThreads < SCRIPTS * OUTER);
+    }
+
+    @Test
+    public void testFailureDoesNotStopLoop() {
+        final AtomicInteger count = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < 20; i++) {
+            final int n = i;
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    if (n % 5 == 0) {
+                        throw new IllegalStateException("Iteration " + n);
+                    }
+                    count.incrementAndGet();
+                }
+            });
+        }
+        ReflexParallel.runAll(Scope.getInitialScope(), tasks);
+        assertEquals(16, count.get());
+    }
+}